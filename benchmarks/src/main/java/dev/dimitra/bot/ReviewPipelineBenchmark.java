@@ -0,0 +1,72 @@
+package dev.dimitra.bot;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.bench.SyntheticPr;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.model.ChangedFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-prompt rendering, reading the model's answer (fence stripping and
+ * {@code List<LlmFinding>} parsing) and rendering the Markdown report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ReviewPipelineBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int files;
+
+    private final ObjectMapper mapper = Transport.shared().mapper();
+    private List<ChangedFile> pr;
+    private List<LlmFinding> findings;
+    private String response;
+
+    @Setup
+    public void setUp() throws IOException {
+        pr = SyntheticPr.files(files, 42);
+        findings = SyntheticPr.findings(pr, 2, 7);
+        response = "```json\n" + mapper.writerWithDefaultPrettyPrinter().writeValueAsString(findings) + "\n```";
+    }
+
+    @Benchmark
+    public String renderDiffForModel() {
+        return ReviewPipeline.renderDiffForModel("acme/shop", 4711, pr);
+    }
+
+    @Benchmark
+    public String stripBackticks() {
+        return ReviewPipeline.stripBackticksIfAny(response);
+    }
+
+    /** What the single-prompt path does with every response. */
+    @Benchmark
+    public List<LlmFinding> parseFindings() throws IOException {
+        return mapper.readValue(ReviewPipeline.stripBackticksIfAny(response), new TypeReference<List<LlmFinding>>() {});
+    }
+
+    @Benchmark
+    public String renderMarkdown() {
+        return ReviewPipeline.renderMarkdown(findings);
+    }
+}
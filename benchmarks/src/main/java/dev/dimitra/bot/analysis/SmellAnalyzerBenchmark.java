@@ -0,0 +1,74 @@
+package dev.dimitra.bot.analysis;
+
+import dev.dimitra.bot.bench.SyntheticPr;
+import dev.dimitra.bot.diff.PatchCompactor;
+import dev.dimitra.bot.diff.PatchSlice;
+import dev.dimitra.bot.llm.LlmClient;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.model.ChangedFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Compacting and packing a PR into chunks, rendering the chunk prompts, and de-duplicating findings. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class SmellAnalyzerBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int files;
+
+    private SmellAnalyzer analyzer;
+    private PatchCompactor compactor;
+    private List<ChangedFile> pr;
+    private List<List<PatchSlice>> chunks;
+    private List<LlmFinding> findings;
+
+    @Setup
+    public void setUp() {
+        LlmClient offline = (system, messages, options) -> {
+            throw new UnsupportedOperationException("benchmarks never call the LLM");
+        };
+        analyzer = new SmellAnalyzer(offline, 5, 6000, TokenEstimator.DEFAULT, 1, null, null, null, null, null);
+        compactor = new PatchCompactor(2, false, true);
+        pr = SyntheticPr.files(files, 42);
+        chunks = analyzer.chunkFiles(pr);
+        findings = SyntheticPr.findings(pr, 2, 7);
+    }
+
+    @Benchmark
+    public void compactPatches(Blackhole bh) {
+        for (ChangedFile f : pr) bh.consume(compactor.compact(f.patch()));
+    }
+
+    @Benchmark
+    public List<List<PatchSlice>> chunkFiles() {
+        return analyzer.chunkFiles(pr);
+    }
+
+    @Benchmark
+    public void renderChunk(Blackhole bh) {
+        for (List<PatchSlice> c : chunks) bh.consume(analyzer.renderChunk("acme/shop", 4711, c));
+    }
+
+    @Benchmark
+    public List<LlmFinding> mergeDuplicates() {
+        return analyzer.mergeDuplicates(findings);
+    }
+}
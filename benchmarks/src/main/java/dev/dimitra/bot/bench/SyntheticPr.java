@@ -0,0 +1,136 @@
+package dev.dimitra.bot.bench;
+
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.model.ChangedFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of pull requests that look like GitHub's /pulls/{n}/files output.
+ *
+ * The mix roughly follows real Java PRs. Most files are modified Java sources with a few
+ * hunks of added and removed lines inside context. Some are new files, some are
+ * non-Java files. About one file in a hundred is a large generated-looking file, so the
+ * packer's split path runs too. The same seed always yields the same PR.
+ */
+public final class SyntheticPr {
+
+    private static final String[] MODULES = {"billing", "orders", "auth", "catalog", "search", "shipping", "report"};
+    private static final String[] NOUNS = {"Order", "Invoice", "Customer", "Cart", "Token", "Price", "Stock", "Route"};
+    private static final String[] SUFFIXES = {"Service", "Repository", "Controller", "Mapper", "Validator", "Client", ""};
+    private static final String[] STATEMENTS = {
+            "if (%s == null) throw new IllegalArgumentException(\"%s must not be null\");",
+            "List<%s> result = new ArrayList<>();",
+            "for (var item : %s) result.add(mapper.map(item));",
+            "return repository.findById(%s).orElseThrow();",
+            "log.debug(\"processing {} for {}\", %s, tenant);",
+            "int total = %s.stream().mapToInt(Line::amount).sum();",
+            "%s.setUpdatedAt(Instant.now());",
+            "try (var tx = session.beginTransaction()) {",
+            "} catch (IOException e) {",
+            "throw new UncheckedIOException(\"failed to load \" + %s, e);",
+            "double tax = total * 0.19;",
+            "Map<String, %s> byId = new HashMap<>();",
+            "}",
+            "",
+            "// TODO: handle the %s case",
+    };
+    private static final String[] DECLARATIONS = {
+            "public %s find%s(long id) {",
+            "private void validate%s(%s value) {",
+            "public List<%s> list%ss(int page, int size) {",
+            "@Override",
+            "public String toString() {",
+    };
+    private static final String[] OTHER_FILES = {"pom.xml", "README.md", ".github/workflows/ci.yml", "src/main/resources/application.yml"};
+    private static final String[] RULES = {"Long Method", "Magic Number", "Empty Catch Block", "God Class", "Feature Envy", "Dead Code"};
+    private static final String[] SEVERITIES = {"Blocker", "Major", "Minor"};
+
+    private SyntheticPr() {}
+
+    public static List<ChangedFile> files(int count, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        List<ChangedFile> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double kind = rnd.nextDouble();
+            if (kind < 0.08) {
+                String name = OTHER_FILES[rnd.nextInt(OTHER_FILES.length)];
+                files.add(modified(rnd, i + "/" + name, 1 + rnd.nextInt(3)));
+            } else if (kind < 0.09) {
+                files.add(added(rnd, javaPath(rnd, i), 2_000 + rnd.nextInt(2_000)));
+            } else if (kind < 0.27) {
+                files.add(added(rnd, javaPath(rnd, i), 20 + (int) Math.min(600, Math.exp(3 + rnd.nextDouble() * 2.5))));
+            } else if (kind < 0.30) {
+                files.add(new ChangedFile(javaPath(rnd, i), "removed", 0, 40, 40, null)); // GitHub omits large/removed patches
+            } else {
+                files.add(modified(rnd, javaPath(rnd, i), 1 + (int) (-Math.log(1 - rnd.nextDouble()) * 2)));
+            }
+        }
+        return files;
+    }
+
+    /** Findings as a model would report them for {@code files}, with about one in five repeated. */
+    public static List<LlmFinding> findings(List<ChangedFile> files, int perFile, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        List<LlmFinding> out = new ArrayList<>();
+        for (ChangedFile f : files) {
+            if (!f.filename().endsWith(".java")) continue;
+            for (int k = 0; k < perFile; k++) {
+                LlmFinding finding = new LlmFinding(f.filename(), 1 + rnd.nextInt(200),
+                        RULES[rnd.nextInt(RULES.length)], SEVERITIES[rnd.nextInt(SEVERITIES.length)],
+                        "The method mixes validation, mapping and persistence; split it so each part can change on its own.",
+                        rnd.nextInt(3) == 0 ? "```suggestion\nprivate static final double TAX_RATE = 0.19;\n```" : "");
+                out.add(finding);
+                if (rnd.nextInt(5) == 0) out.add(finding);
+            }
+        }
+        return out;
+    }
+
+    private static String javaPath(SplittableRandom rnd, int i) {
+        return "src/main/java/com/acme/" + MODULES[rnd.nextInt(MODULES.length)] + "/"
+                + NOUNS[rnd.nextInt(NOUNS.length)] + SUFFIXES[rnd.nextInt(SUFFIXES.length)] + i + ".java";
+    }
+
+    private static ChangedFile added(SplittableRandom rnd, String path, int lines) {
+        StringBuilder sb = new StringBuilder(lines * 48);
+        sb.append("@@ -0,0 +1,").append(lines).append(" @@\n");
+        for (int l = 0; l < lines; l++) sb.append('+').append(line(rnd)).append('\n');
+        return new ChangedFile(path, "added", lines, 0, lines, sb.toString());
+    }
+
+    private static ChangedFile modified(SplittableRandom rnd, String path, int hunks) {
+        StringBuilder sb = new StringBuilder(hunks * 600);
+        int oldLine = 1 + rnd.nextInt(20), newLine = oldLine, adds = 0, dels = 0;
+        for (int h = 0; h < hunks; h++) {
+            StringBuilder body = new StringBuilder();
+            int oldLen = 0, newLen = 0;
+            int runs = 1 + rnd.nextInt(3);
+            for (int r = 0; r < runs; r++) {
+                for (int c = 0; c < 3; c++, oldLen++, newLen++) body.append(' ').append(line(rnd)).append('\n');
+                int removed = rnd.nextInt(4), addedLines = rnd.nextInt(12);
+                for (int d = 0; d < removed; d++, oldLen++, dels++) body.append('-').append(line(rnd)).append('\n');
+                for (int a = 0; a < addedLines; a++, newLen++, adds++) body.append('+').append(line(rnd)).append('\n');
+            }
+            for (int c = 0; c < 3; c++, oldLen++, newLen++) body.append(' ').append(line(rnd)).append('\n');
+            sb.append("@@ -").append(oldLine).append(',').append(oldLen)
+              .append(" +").append(newLine).append(',').append(newLen).append(" @@")
+              .append(rnd.nextBoolean() ? " public class " + NOUNS[rnd.nextInt(NOUNS.length)] + " {" : "")
+              .append('\n').append(body);
+            oldLine += oldLen + 5 + rnd.nextInt(80);
+            newLine += newLen + 5 + rnd.nextInt(80);
+        }
+        return new ChangedFile(path, "modified", adds, dels, adds + dels, sb.toString());
+    }
+
+    private static String line(SplittableRandom rnd) {
+        String noun = NOUNS[rnd.nextInt(NOUNS.length)];
+        if (rnd.nextInt(8) == 0) {
+            return "    " + String.format(DECLARATIONS[rnd.nextInt(DECLARATIONS.length)], noun, noun);
+        }
+        String indent = "        ".substring(0, 4 * (1 + rnd.nextInt(2)));
+        return indent + String.format(STATEMENTS[rnd.nextInt(STATEMENTS.length)], noun.toLowerCase(), noun.toLowerCase());
+    }
+}
@@ -0,0 +1,378 @@
+package dev.dimitra.bot.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.dimitra.bot.bench.SyntheticPr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loopback stand-in for GitHub, Gemini and OpenAI with realistic sizes and injected trouble,
+ * for load tests. {@link dev.dimitra.bot.startup.StubApi} answers instantly with one tiny PR.
+ * This one serves any number of {@link SyntheticPr} PRs, paginated like GitHub. It delays every
+ * answer by a log-normal latency with the configured p50/p99, and fails a configured share of
+ * requests with 500s or 429s (with Retry-After), per backend.
+ *
+ * <ul>
+ *   <li>GitHub ({@code GITHUB_API_URL=url()}): open PR listing, {@code /pulls/{n}/files},
+ *       issue comments and PR reviews, all paginated with {@code Link} headers.</li>
+ *   <li>Gemini ({@code GEMINI_BASE_URL=url()+"/gemini/v1beta/models"}): generateContent,
+ *       streamGenerateContent and cachedContents.</li>
+ *   <li>OpenAI ({@code OPENAI_BASE_URL=url()+"/openai/v1"}): chat/completions, streamed or not.</li>
+ * </ul>
+ *
+ * LLM answers report findingsPerFile findings for every file named in the prompt, on the
+ * first added line of its first hunk, so the bot's parsing and merging do real work.
+ */
+public final class FakeApi implements AutoCloseable {
+
+    public static final String OWNER = "octo";
+    public static final String REPO = "load";
+
+    /**
+     * How one backend behaves.
+     *
+     * @param p50Ms            median latency to the first response byte
+     * @param p99Ms            99th percentile; equal to p50Ms for a fixed delay
+     * @param errorRate        share of requests answered 500
+     * @param rateLimitRate    share of requests answered 429 with Retry-After
+     * @param retryAfterSeconds the Retry-After sent with a 429
+     */
+    public record Behavior(double p50Ms, double p99Ms, double errorRate, double rateLimitRate, int retryAfterSeconds) {
+
+        public static final Behavior INSTANT = new Behavior(0, 0, 0, 0, 1);
+
+        public static Behavior latency(double p50Ms, double p99Ms) {
+            return new Behavior(p50Ms, p99Ms, 0, 0, 1);
+        }
+
+        public Behavior failing(double errorRate, double rateLimitRate) {
+            return new Behavior(p50Ms, p99Ms, errorRate, rateLimitRate, retryAfterSeconds);
+        }
+
+        /** Log-normal through (p50, p99): sigma = ln(p99/p50) / z(0.99). */
+        long sampleNanos() {
+            if (p50Ms <= 0) return 0;
+            double sigma = p99Ms > p50Ms ? Math.log(p99Ms / p50Ms) / 2.3263 : 0;
+            double ms = p50Ms * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+            return (long) (ms * 1_000_000);
+        }
+    }
+
+    /**
+     * @param pullRequests    open PRs 1..n
+     * @param filesPerPr      files in each PR (GitHub sends 100 per page)
+     * @param findingsPerFile findings per prompted file in every LLM answer (response size)
+     */
+    public record Config(int pullRequests, int filesPerPr, int findingsPerFile,
+                         Behavior github, Behavior gemini, Behavior openai) {}
+
+    private static final Pattern FILES = Pattern.compile(".*/repos/[^/]+/[^/]+/pulls/(\\d+)/files");
+    private static final Pattern COMMENTS = Pattern.compile(".*/repos/[^/]+/[^/]+/issues/(\\d+)/comments");
+    private static final Pattern REVIEWS = Pattern.compile(".*/repos/[^/]+/[^/]+/pulls/(\\d+)/reviews");
+    private static final Pattern PROMPT_FILE = Pattern.compile("=== FILE: (\\S+) \\(");
+    private static final Pattern HUNK = Pattern.compile("@@ -\\d+(?:,\\d+)? \\+(\\d+)");
+    private static final Map<String, Object> BOT = Map.of("login", "github-actions[bot]", "type", "Bot");
+    private static final String[] RULES = {"Long Method", "Magic Number", "Empty Catch Block", "Feature Envy"};
+
+    private final HttpServer server;
+    private final Config config;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<Integer, Map<Long, String>> comments = new ConcurrentHashMap<>();
+    private final Map<Integer, List<Map<String, Object>>> reviews = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong(1000);
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    private FakeApi(HttpServer server, Config config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    /** Starts on a free loopback port; every request is served on its own virtual thread. */
+    public static FakeApi start(Config config) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        FakeApi api = new FakeApi(server, config);
+        server.createContext("/", api::handle);
+        server.start();
+        return api;
+    }
+
+    public String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    /** Requests, injected 500s and 429s per backend ("github.requests", "gemini.429", ...). */
+    public Map<String, Long> counters() {
+        Map<String, Long> out = new TreeMap<>();
+        counters.forEach((k, v) -> out.put(k, v.sum()));
+        return out;
+    }
+
+    /** Forgets comments, reviews and counters, e.g. between runs. */
+    public void reset() {
+        comments.clear();
+        reviews.clear();
+        counters.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            byte[] body;
+            try (InputStream in = ex.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            String path = ex.getRequestURI().getPath();
+            String backend = path.startsWith("/gemini/") ? "gemini" : path.startsWith("/openai/") ? "openai" : "github";
+            Behavior behavior = switch (backend) {
+                case "gemini" -> config.gemini();
+                case "openai" -> config.openai();
+                default -> config.github();
+            };
+            count(backend + ".requests");
+            TimeUnit.NANOSECONDS.sleep(behavior.sampleNanos());
+
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < behavior.rateLimitRate()) {
+                count(backend + ".429");
+                ex.getResponseHeaders().set("Retry-After", String.valueOf(behavior.retryAfterSeconds()));
+                json(ex, 429, "{\"error\":{\"code\":429,\"message\":\"Resource has been exhausted (injected)\"}}");
+                return;
+            }
+            if (roll < behavior.rateLimitRate() + behavior.errorRate()) {
+                count(backend + ".500");
+                json(ex, 500, "{\"error\":{\"code\":500,\"message\":\"Internal error (injected)\"}}");
+                return;
+            }
+
+            switch (backend) {
+                case "gemini" -> gemini(ex, path, new String(body, StandardCharsets.UTF_8));
+                case "openai" -> openai(ex, new String(body, StandardCharsets.UTF_8));
+                default -> github(ex, path, body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---- GitHub ----
+
+    private void github(HttpExchange ex, String path, byte[] body) throws IOException {
+        String method = ex.getRequestMethod();
+        Map<String, String> query = query(ex.getRequestURI());
+        Matcher m;
+        if ((m = FILES.matcher(path)).matches() && pr(m) != null) {
+            page(ex, SyntheticPr.files(config.filesPerPr(), pr(m)), query);
+        } else if (path.endsWith("/repos/" + OWNER + "/" + REPO + "/pulls")) {
+            List<Map<String, Object>> prs = new ArrayList<>();
+            if (!"closed".equals(query.get("state"))) {
+                for (int n = config.pullRequests(); n >= 1; n--) {
+                    prs.add(Map.of("number", n, "state", "open", "title", "Change " + n,
+                            "head", Map.of("sha", String.format("%040x", n)),
+                            "updated_at", "2024-01-01T00:00:00Z"));
+                }
+            }
+            page(ex, prs, query);
+        } else if ((m = COMMENTS.matcher(path)).matches() && pr(m) != null) {
+            Map<Long, String> onPr = comments.computeIfAbsent(pr(m), n -> new ConcurrentSkipListMap<>());
+            if (method.equals("POST")) {
+                long id = ids.incrementAndGet();
+                onPr.put(id, mapper.readTree(body).path("body").asText(""));
+                json(ex, 201, mapper.writeValueAsString(Map.of("id", id)));
+            } else {
+                List<Map<String, Object>> out = new ArrayList<>();
+                onPr.forEach((id, text) -> out.add(Map.of("id", id, "body", text, "user", BOT)));
+                page(ex, out, query);
+            }
+        } else if (path.contains("/issues/comments/") && method.equals("PATCH")) {
+            long id = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+            String text = mapper.readTree(body).path("body").asText("");
+            boolean found = comments.values().stream().anyMatch(c -> c.replace(id, text) != null);
+            json(ex, found ? 200 : 404, found ? mapper.writeValueAsString(Map.of("id", id)) : "{\"message\":\"Not Found\"}");
+        } else if ((m = REVIEWS.matcher(path)).matches() && pr(m) != null) {
+            List<Map<String, Object>> onPr = reviews.computeIfAbsent(pr(m), n -> new ArrayList<>());
+            synchronized (onPr) {
+                if (method.equals("POST")) {
+                    long id = ids.incrementAndGet();
+                    onPr.add(Map.of("id", id, "body", mapper.readTree(body).path("body").asText(""), "user", BOT));
+                    json(ex, 200, mapper.writeValueAsString(Map.of("id", id)));
+                } else {
+                    page(ex, new ArrayList<>(onPr), query);
+                }
+            }
+        } else {
+            json(ex, 404, "{\"message\":\"Not Found\"}");
+        }
+    }
+
+    private Integer pr(Matcher m) {
+        int n = Integer.parseInt(m.group(1));
+        return n >= 1 && n <= config.pullRequests() ? n : null;
+    }
+
+    /** One page of items as GitHub serves it: per_page (max 100), page, and a rel="next" link. */
+    private void page(HttpExchange ex, List<?> items, Map<String, String> query) throws IOException {
+        int perPage = Math.max(1, Math.min(100, intOr(query.get("per_page"), 30)));
+        int page = Math.max(1, intOr(query.get("page"), 1));
+        int from = Math.min(items.size(), (page - 1) * perPage);
+        int to = Math.min(items.size(), from + perPage);
+        if (to < items.size()) {
+            String q = ex.getRequestURI().getRawQuery() == null ? "" : ex.getRequestURI().getRawQuery();
+            String next = url() + ex.getRequestURI().getPath() + "?" + q.replaceAll("(^|&)page=\\d+", "")
+                    + (q.isEmpty() ? "" : "&") + "page=" + (page + 1);
+            ex.getResponseHeaders().set("Link", "<" + next.replace("?&", "?") + ">; rel=\"next\"");
+        }
+        json(ex, 200, mapper.writeValueAsString(items.subList(from, to)));
+    }
+
+    // ---- LLMs ----
+
+    private void gemini(HttpExchange ex, String path, String body) throws IOException {
+        if (path.endsWith("/cachedContents") && ex.getRequestMethod().equals("POST")) {
+            json(ex, 200, mapper.writeValueAsString(Map.of("name", "cachedContents/load-" + ids.incrementAndGet(),
+                    "expireTime", Instant.now().plusSeconds(600).toString())));
+        } else if (path.contains("/cachedContents/")) {
+            json(ex, 200, mapper.writeValueAsString(Map.of("name", path.substring(path.indexOf("cachedContents/")),
+                    "expireTime", Instant.now().plusSeconds(600).toString())));
+        } else if (path.endsWith(":streamGenerateContent")) {
+            String findings = findings(body);
+            int half = findings.length() / 2;
+            sse(ex, List.of(geminiChunk(findings.substring(0, half), body, false),
+                    geminiChunk(findings.substring(half), body, true)));
+        } else if (path.endsWith(":generateContent")) {
+            json(ex, 200, geminiChunk(findings(body), body, true));
+        } else {
+            json(ex, 404, "{\"error\":{\"code\":404,\"message\":\"Not Found\"}}");
+        }
+    }
+
+    private String geminiChunk(String text, String prompt, boolean last) throws IOException {
+        Map<String, Object> out = new LinkedHashMap<>();
+        Map<String, Object> candidate = new LinkedHashMap<>();
+        candidate.put("content", Map.of("role", "model", "parts", List.of(Map.of("text", text))));
+        if (last) candidate.put("finishReason", "STOP");
+        out.put("candidates", List.of(candidate));
+        if (last) out.put("usageMetadata", Map.of("promptTokenCount", prompt.length() / 4,
+                "candidatesTokenCount", text.length() / 4 + 1));
+        return mapper.writeValueAsString(out);
+    }
+
+    private void openai(HttpExchange ex, String body) throws IOException {
+        if (!ex.getRequestURI().getPath().endsWith("/chat/completions")) {
+            json(ex, 404, "{\"error\":{\"message\":\"Not Found\"}}");
+            return;
+        }
+        String findings = findings(body);
+        Map<String, Object> usage = Map.of("prompt_tokens", body.length() / 4, "completion_tokens", findings.length() / 4 + 1);
+        if (mapper.readTree(body).path("stream").asBoolean(false)) {
+            int half = findings.length() / 2;
+            sse(ex, List.of(
+                    openAiDelta(findings.substring(0, half), null),
+                    openAiDelta(findings.substring(half), "stop"),
+                    mapper.writeValueAsString(Map.of("choices", List.of(), "usage", usage)),
+                    "[DONE]"));
+        } else {
+            json(ex, 200, mapper.writeValueAsString(Map.of(
+                    "choices", List.of(Map.of("message", Map.of("role", "assistant", "content", findings),
+                            "finish_reason", "stop")),
+                    "usage", usage)));
+        }
+    }
+
+    private String openAiDelta(String text, String finish) throws IOException {
+        Map<String, Object> choice = new LinkedHashMap<>();
+        choice.put("delta", Map.of("content", text));
+        if (finish != null) choice.put("finish_reason", finish);
+        return mapper.writeValueAsString(Map.of("choices", List.of(choice)));
+    }
+
+    /** The JSON array a model would answer: findings on each prompted file's first new line. */
+    private String findings(String requestBody) throws IOException {
+        List<Map<String, Object>> out = new ArrayList<>();
+        Matcher file = PROMPT_FILE.matcher(requestBody);
+        while (file.find()) {
+            Matcher hunk = HUNK.matcher(requestBody);
+            int line = hunk.find(file.end()) ? Integer.parseInt(hunk.group(1)) : 1;
+            for (int k = 0; k < config.findingsPerFile(); k++) {
+                out.add(Map.of("file", file.group(1), "line", line + k,
+                        "rule", RULES[((file.group(1).hashCode() & 0x7fffffff) + k) % RULES.length],
+                        "severity", k == 0 ? "Major" : "Minor",
+                        "why", "Injected by the load-test server to exercise parsing and merging.",
+                        "suggestionPatch", ""));
+            }
+        }
+        return mapper.writeValueAsString(out);
+    }
+
+    // ---- plumbing ----
+
+    private void count(String counter) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).increment();
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> out = new LinkedHashMap<>();
+        if (uri.getQuery() == null) return out;
+        for (String pair : uri.getQuery().split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) out.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return out;
+    }
+
+    private static int intOr(String v, int def) {
+        try { return v == null ? def : Integer.parseInt(v); }
+        catch (NumberFormatException e) { return def; }
+    }
+
+    private static void sse(HttpExchange ex, List<String> events) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream out = ex.getResponseBody()) {
+            for (String e : events) {
+                out.write(("data: " + e + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+    }
+
+    private static void json(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
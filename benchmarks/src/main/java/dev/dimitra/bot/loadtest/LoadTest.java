@@ -0,0 +1,296 @@
+package dev.dimitra.bot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.loadtest.FakeApi.Behavior;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test: the real CLI, launched as its own process, against a {@link FakeApi}.
+ * The bot is pointed at the fake through the same overrides a GHES or proxy setup would use
+ * (GITHUB_API_URL, GEMINI_BASE_URL, OPENAI_BASE_URL), so nothing is mocked inside it.
+ *
+ * <ul>
+ *   <li>{@code pr-100-files}: one 100-file PR, chunked review, Gemini at p50 800 ms / p99 4 s.</li>
+ *   <li>{@code flaky-provider}: the same PR with LLM_PROVIDERS=gemini,openai while Gemini fails
+ *       15% of calls with 500s and 15% with 429s; retries, the breaker and failover take it.</li>
+ *   <li>{@code backfill-1000}: {@code backfill} over 1,000 open PRs of 10 files each.</li>
+ * </ul>
+ *
+ * Each scenario is run {@code --runs} times (backfill once) in a fresh working directory and
+ * environment. It reports throughput, p50/p99 latency, peak memory and what the fake server
+ * saw. For a single PR, latency is the whole review. For a backfill, it is each PR's review, taken
+ * from the bot's own out/backfill/metrics.json. Peak memory is the process's peak RSS (VmHWM,
+ * Linux only) and the heap peak the bot records in its metrics. The table goes to stdout, the
+ * details to {@code --out} as JSON. The process exits with 1 when a run failed.
+ *
+ * The fake's behavior can be overridden for every scenario: {@code --github-p50-ms},
+ * {@code --github-p99-ms}, {@code --github-error-rate}, {@code --github-429-rate}, the same with
+ * {@code --llm-} for the primary LLM, {@code --files}, {@code --prs} and
+ * {@code --findings-per-file}. {@code --jar} runs a built bot jar instead of this classpath,
+ * and {@code --java-opts} passes JVM flags (e.g. -Xmx256m) to it.
+ */
+public class LoadTest {
+
+    private record Scenario(String name, FakeApi.Config api, boolean backfill, int runs, Map<String, String> env) {}
+
+    private record Sample(long wallNanos, long peakRssBytes, long heapPeakBytes, List<Double> prLatenciesMs,
+                          int prs, Map<String, Long> server) {}
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parse(args);
+        int runs = Integer.parseInt(opts.getOrDefault("runs", "3"));
+        List<String> names = List.of(opts.getOrDefault("scenarios", "all").split(","));
+        List<Scenario> scenarios = scenarios(opts, runs).stream()
+                .filter(s -> names.contains("all") || names.contains(s.name()))
+                .toList();
+        if (scenarios.isEmpty()) throw new IllegalArgumentException("no scenario matches " + names);
+
+        List<String> java = new ArrayList<>();
+        java.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (opts.containsKey("java-opts")) java.addAll(List.of(opts.get("java-opts").trim().split("\\s+")));
+        if (opts.containsKey("jar")) {
+            java.addAll(List.of("-jar", Paths.get(opts.get("jar")).toAbsolutePath().toString()));
+        } else {
+            java.addAll(List.of("-cp", System.getProperty("java.class.path"), "dev.dimitra.bot.Main"));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        int failures = 0;
+        System.out.printf("%-15s %5s %10s %10s %10s %10s %12s %9s %9s%n",
+                "scenario", "runs", "wall p50", "lat p50", "lat p99", "lat max", "throughput", "peak RSS", "heap");
+        for (Scenario s : scenarios) {
+            List<Sample> samples = new ArrayList<>();
+            List<String> errors = new ArrayList<>();
+            try (FakeApi api = FakeApi.start(s.api())) {
+                for (int i = 0; i < s.runs(); i++) {
+                    api.reset();
+                    try {
+                        samples.add(launch(java, s, api));
+                    } catch (IllegalStateException e) {
+                        errors.add(e.getMessage());
+                        System.err.println("[WARN] " + s.name() + " run " + (i + 1) + " failed: " + e.getMessage());
+                    }
+                }
+            }
+            failures += errors.size();
+            report.put(s.name(), summarize(s, samples, errors));
+        }
+
+        Path out = Paths.get(opts.getOrDefault("out", "target/load-test.json"));
+        if (out.toAbsolutePath().getParent() != null) Files.createDirectories(out.toAbsolutePath().getParent());
+        Files.writeString(out, MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+        System.out.println("[INFO] Wrote " + out);
+        if (failures > 0) {
+            System.err.println("[ERROR] " + failures + " run(s) failed");
+            System.exit(1);
+        }
+    }
+
+    private static List<Scenario> scenarios(Map<String, String> opts, int runs) {
+        Behavior github = override(opts, "github", Behavior.latency(40, 250));
+        Behavior openai = Behavior.latency(900, 3_000);
+        int findings = Integer.parseInt(opts.getOrDefault("findings-per-file", "2"));
+        int files = Integer.parseInt(opts.getOrDefault("files", "100"));
+        int prs = Integer.parseInt(opts.getOrDefault("prs", "1000"));
+
+        Map<String, String> singlePr = Map.of("LLM_PROVIDER", "gemini", "POST_COMMENT", "true");
+        return List.of(
+                new Scenario("pr-100-files",
+                        new FakeApi.Config(1, files, findings, github,
+                                override(opts, "llm", Behavior.latency(800, 4_000)), openai),
+                        false, runs, singlePr),
+                new Scenario("flaky-provider",
+                        new FakeApi.Config(1, files, findings, github,
+                                override(opts, "llm", new Behavior(800, 4_000, 0.15, 0.15, 1)), openai),
+                        false, runs, Map.of(
+                                "LLM_PROVIDERS", "gemini,openai",
+                                "LLM_HEDGE_INITIAL_DELAY_MS", "5000",
+                                "POST_COMMENT", "true")),
+                new Scenario("backfill-1000",
+                        new FakeApi.Config(prs, Integer.parseInt(opts.getOrDefault("files", "10")), findings, github,
+                                override(opts, "llm", Behavior.latency(150, 1_000)), openai),
+                        true, 1, Map.of(
+                                "LLM_PROVIDER", "gemini",
+                                "BACKFILL_FETCH_WORKERS", "8",
+                                "BACKFILL_LLM_WORKERS", "32",
+                                "BACKFILL_OPEN_PRS", "64")));
+    }
+
+    private static Behavior override(Map<String, String> opts, String prefix, Behavior def) {
+        return new Behavior(
+                Double.parseDouble(opts.getOrDefault(prefix + "-p50-ms", String.valueOf(def.p50Ms()))),
+                Double.parseDouble(opts.getOrDefault(prefix + "-p99-ms", String.valueOf(def.p99Ms()))),
+                Double.parseDouble(opts.getOrDefault(prefix + "-error-rate", String.valueOf(def.errorRate()))),
+                Double.parseDouble(opts.getOrDefault(prefix + "-429-rate", String.valueOf(def.rateLimitRate()))),
+                def.retryAfterSeconds());
+    }
+
+    private static Sample launch(List<String> java, Scenario s, FakeApi api) throws Exception {
+        Path work = Files.createTempDirectory("code-smell-bot-load");
+        List<String> command = new ArrayList<>(java);
+        if (s.backfill()) command.add("backfill");
+        ProcessBuilder pb = new ProcessBuilder(command)
+                .directory(work.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(work.resolve("bot.log").toFile());
+
+        // a clean environment, so nothing from the caller's shell (keys, caches, tuning) leaks in
+        Map<String, String> env = pb.environment();
+        Map<String, String> keep = new LinkedHashMap<>();
+        for (String k : List.of("PATH", "HOME", "TMPDIR", "LANG")) if (env.containsKey(k)) keep.put(k, env.get(k));
+        env.clear();
+        env.putAll(keep);
+        env.put("GITHUB_TOKEN", "load-test");
+        env.put("GITHUB_API_URL", api.url());
+        env.put("REPOSITORY", FakeApi.OWNER + "/" + FakeApi.REPO);
+        env.put("PR_NUMBER", "1");
+        env.put("MAX_FILES", String.valueOf(api.config().filesPerPr()));
+        env.put("GEMINI_API_KEY", "load-test");
+        env.put("GEMINI_BASE_URL", api.url() + "/gemini/v1beta/models");
+        env.put("OPENAI_API_KEY", "load-test");
+        env.put("OPENAI_BASE_URL", api.url() + "/openai/v1");
+        env.putAll(s.env());
+
+        long start = System.nanoTime();
+        Process p = pb.start();
+        AtomicLong peakRss = new AtomicLong();
+        Thread sampler = Thread.ofVirtual().start(() -> {
+            Path status = Paths.get("/proc", String.valueOf(p.pid()), "status");
+            while (p.isAlive()) {
+                peakRss.accumulateAndGet(vmHwm(status), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        if (!p.waitFor(30, TimeUnit.MINUTES)) {
+            p.destroyForcibly();
+            throw new IllegalStateException(s.name() + " did not finish in 30 minutes; log in " + work.resolve("bot.log"));
+        }
+        long wall = System.nanoTime() - start;
+        sampler.interrupt();
+        if (p.exitValue() != 0) {
+            throw new IllegalStateException("exit " + p.exitValue() + ", log in " + work.resolve("bot.log") + ":\n"
+                    + tail(work.resolve("bot.log"), 15));
+        }
+
+        Path metrics = work.resolve(s.backfill() ? "out/backfill/metrics.json" : "out/metrics.json");
+        JsonNode m = Files.isRegularFile(metrics) ? MAPPER.readTree(metrics.toFile()) : MAPPER.createObjectNode();
+        List<Double> latencies = new ArrayList<>();
+        if (s.backfill()) {
+            for (JsonNode pr : m.path("chunks")) {
+                if (pr.has("durationMs")) latencies.add(pr.path("durationMs").asDouble());
+            }
+        } else {
+            latencies.add(wall / 1e6);
+        }
+        int prs = s.backfill() ? latencies.size() : 1;
+        return new Sample(wall, peakRss.get(), m.path("heapPeakBytes").asLong(0), latencies, prs, api.counters());
+    }
+
+    private static Map<String, Object> summarize(Scenario s, List<Sample> samples, List<String> errors) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("runs", samples.size());
+        out.put("failures", errors);
+        out.put("fake", Map.of("pullRequests", s.api().pullRequests(), "filesPerPr", s.api().filesPerPr(),
+                "findingsPerFile", s.api().findingsPerFile(),
+                "github", s.api().github(), "gemini", s.api().gemini(), "openai", s.api().openai()));
+        if (samples.isEmpty()) {
+            System.out.printf("%-15s %5s %10s%n", s.name(), "0/" + s.runs(), "failed");
+            return out;
+        }
+
+        long[] wall = samples.stream().mapToLong(Sample::wallNanos).sorted().toArray();
+        double[] lat = samples.stream().flatMap(x -> x.prLatenciesMs().stream()).mapToDouble(Double::doubleValue).sorted().toArray();
+        long peakRss = samples.stream().mapToLong(Sample::peakRssBytes).max().orElse(0);
+        long heap = samples.stream().mapToLong(Sample::heapPeakBytes).max().orElse(0);
+        int prs = samples.stream().mapToInt(Sample::prs).sum();
+        double seconds = Arrays.stream(wall).sum() / 1e9;
+        double prsPerSecond = prs / seconds;
+        double filesPerSecond = prsPerSecond * s.api().filesPerPr();
+
+        out.put("wallMs", Map.of("p50", ms(percentile(wall, 50)), "p99", ms(percentile(wall, 99)), "max", ms(wall[wall.length - 1])));
+        out.put("latencyMs", lat.length == 0 ? Map.of() : Map.of(
+                "samples", lat.length, "p50", round1(percentile(lat, 50)), "p99", round1(percentile(lat, 99)),
+                "max", round1(lat[lat.length - 1])));
+        out.put("throughput", Map.of("prsPerSecond", round1(prsPerSecond), "filesPerSecond", round1(filesPerSecond)));
+        out.put("peakRssMb", peakRss == 0 ? null : mb(peakRss));
+        out.put("heapPeakMb", heap == 0 ? null : mb(heap));
+        out.put("server", samples.get(samples.size() - 1).server()); // last run's traffic
+        System.out.printf("%-15s %5s %8.0fms %8.0fms %8.0fms %8.0fms %8.1f f/s %7sMB %7sMB%n",
+                s.name(), samples.size() + "/" + s.runs(), ms(percentile(wall, 50)),
+                lat.length == 0 ? 0 : percentile(lat, 50), lat.length == 0 ? 0 : percentile(lat, 99),
+                lat.length == 0 ? 0 : lat[lat.length - 1], filesPerSecond,
+                peakRss == 0 ? "-" : String.valueOf(Math.round(mb(peakRss))), heap == 0 ? "-" : String.valueOf(Math.round(mb(heap))));
+        return out;
+    }
+
+    /** Peak resident set size of a live process, or 0 where /proc is not available. */
+    private static long vmHwm(Path status) {
+        try (Stream<String> lines = Files.lines(status)) {
+            return lines.filter(l -> l.startsWith("VmHWM:"))
+                    .mapToLong(l -> Long.parseLong(l.replaceAll("\\D", "")) * 1024)
+                    .findFirst().orElse(0);
+        } catch (IOException | RuntimeException e) {
+            return 0; // exited meanwhile, or not Linux
+        }
+    }
+
+    private static String tail(Path log, int lines) {
+        try {
+            List<String> all = Files.readAllLines(log);
+            return String.join("\n", all.subList(Math.max(0, all.size() - lines), all.size()));
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    private static double ms(long nanos) {
+        return Math.round(nanos / 100_000.0) / 10.0;
+    }
+
+    private static double mb(long bytes) {
+        return Math.round(bytes / 104_857.6) / 10.0;
+    }
+
+    private static double round1(double v) {
+        return Math.round(v * 10) / 10.0;
+    }
+
+    /** {@code --key value} pairs. */
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> opts = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("expected --option, got " + args[i]);
+            opts.put(args[i].substring(2), args[i + 1]);
+        }
+        return opts;
+    }
+}
@@ -0,0 +1,555 @@
+package dev.dimitra.bot;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import dev.dimitra.bot.analysis.FindingsExchange;
+import dev.dimitra.bot.analysis.SmellAnalyzer;
+import dev.dimitra.bot.analysis.SmellPrompt;
+import dev.dimitra.bot.analysis.TokenEstimator;
+import dev.dimitra.bot.diff.DiffSource;
+import dev.dimitra.bot.diff.GitDiffSource;
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.diff.PatchCompactor;
+import dev.dimitra.bot.diff.PatchSlice;
+import dev.dimitra.bot.diff.PatchStore;
+import dev.dimitra.bot.github.IncrementalReview;
+import dev.dimitra.bot.github.PullRequestFilesFetcher;
+import dev.dimitra.bot.github.ReviewPublisher;
+import dev.dimitra.bot.github.ReviewState;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.llm.LlmClient;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.metrics.RunMetrics;
+import dev.dimitra.bot.model.ChangedFile;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * One review of one PR: fetch the changed files, analyze the Java patches, then render and
+ * publish the report (see {@link ReviewPublisher}).
+ *
+ * Holds nothing per PR, so a single instance can serve many runs. The CLI ({@link Main})
+ * uses it once; the webhook server keeps it warm together with its HTTP client, LLM limiter
+ * and findings cache. A run that is interrupted stops its in-flight LLM calls and posts nothing.
+ *
+ * Each patch is kept once, in the run's {@link PatchStore} (on disk for huge PRs); the file
+ * listing keeps only the metadata, and prompts reference the stored text instead of copying it.
+ */
+public class ReviewPipeline {
+
+    /**
+     * What to review and how; everything the CLI reads from the environment.
+     *
+     * @param inlineReview  publish as one PR review with inline comments instead of updating the
+     *                      bot's issue comment
+     * @param baseSha       the PR's base commit; with headSha, lets the diff come from the checkout
+     * @param checkout      local clone to compute the diff in (see {@link GitDiffSource}), or null
+     *                      to always use the GitHub files endpoint
+     * @param fetchContents also write the head version of every changed Java file to outDir/files
+     * @param botLogin      account the token posts as; only its earlier output is read back
+     */
+    public record Config(String token, String apiUrl, String owner, String repo, int prNumber, String headSha,
+                         int maxFiles, boolean postComment, boolean inlineReview, boolean chunked,
+                         boolean incremental, boolean debugSmells, Path outDir,
+                         String baseSha, Path checkout, boolean fetchContents, String botLogin) {
+
+        /** Diff from the GitHub API only, no file contents. */
+        public Config(String token, String apiUrl, String owner, String repo, int prNumber, String headSha,
+                      int maxFiles, boolean postComment, boolean inlineReview, boolean chunked,
+                      boolean incremental, boolean debugSmells, Path outDir) {
+            this(token, apiUrl, owner, repo, prNumber, headSha, maxFiles, postComment, inlineReview, chunked,
+                    incremental, debugSmells, outDir, null, null, false, ReviewPublisher.ACTIONS_LOGIN);
+        }
+
+        public String repository() {
+            return owner + "/" + repo;
+        }
+
+        /**
+         * Same settings for another PR (as the webhook server does for every event). The base is
+         * unknown, so that PR's diff comes from the API.
+         */
+        public Config forPullRequest(String owner, String repo, int prNumber, String headSha) {
+            return new Config(token, apiUrl, owner, repo, prNumber, headSha, maxFiles, postComment, inlineReview,
+                    chunked, incremental, debugSmells, outDir, null, checkout, fetchContents, botLogin);
+        }
+    }
+
+    private final Transport transport;
+    private final ObjectMapper mapper;
+    private final LlmClient llm;
+    private final SmellAnalyzer analyzer; // null: single-prompt mode only
+    private final PatchCompactor compactor; // single-prompt mode; the analyzer has its own
+
+    public ReviewPipeline(Transport transport, LlmClient llm, SmellAnalyzer analyzer) {
+        this(transport, llm, analyzer, PatchCompactor.fromEnv());
+    }
+
+    /** @param compactor trims patches for the single-prompt path, or null to send them verbatim */
+    public ReviewPipeline(Transport transport, LlmClient llm, SmellAnalyzer analyzer, PatchCompactor compactor) {
+        this.transport = transport;
+        this.mapper = transport.mapper();
+        this.llm = llm;
+        this.analyzer = analyzer;
+        this.compactor = compactor;
+    }
+
+    public List<LlmFinding> run(Config cfg) throws IOException, InterruptedException {
+        RunMetrics metrics = RunMetrics.startRun(cfg.repository() + "#" + cfg.prNumber());
+        try {
+            return review(cfg, metrics);
+        } finally {
+            metrics.finish();
+            if (cfg.outDir() != null) writeMetrics(cfg.outDir(), metrics);
+        }
+    }
+
+    private List<LlmFinding> review(Config cfg, RunMetrics metrics) throws IOException, InterruptedException {
+        String repository = cfg.repository();
+        String owner = cfg.owner(), repo = cfg.repo(), token = cfg.token(), apiUrl = cfg.apiUrl();
+        int prNumber = cfg.prNumber();
+        String headSha = cfg.headSha();
+        boolean debugSmells = cfg.debugSmells();
+
+        // 0) Incremental mode: find what the bot last reviewed and what was pushed since;
+        //    the publisher remembers the lookup and updates that same comment at the end
+        ReviewPublisher publisher = new ReviewPublisher(transport, apiUrl, token, owner, repo, prNumber, cfg.inlineReview(),
+                cfg.botLogin());
+        ReviewState previous = null;
+        Map<String, String> pushed = null; // null => analyze the whole PR
+        if (cfg.incremental() && headSha != null && !headSha.isBlank()) {
+            long t0 = System.nanoTime();
+            ReviewPublisher.Previous found = publisher.findPrevious();
+            previous = found == null ? null : found.state();
+            if (previous != null) {
+                pushed = new IncrementalReview(transport, apiUrl, token, owner, repo, prNumber)
+                        .changedSince(previous.headSha(), headSha);
+            }
+            metrics.time("github_previous_review", System.nanoTime() - t0);
+        }
+        Map<String, String> pushedOnly = pushed;
+
+        // 1) Stream changed files page by page; in chunked mode each full chunk
+        //    goes to the LLM while later pages are still downloading
+        PatchStore store = PatchStore.fromEnv();
+        SmellAnalyzer.Session session = cfg.chunked() && analyzer != null
+                ? analyzer.open(repository, prNumber, debugSmells
+                        ? f -> System.out.println("[DEBUG] Finding: " + f.file() + ":" + f.line() + " " + f.rule())
+                        : null, null, store)
+                : null;
+
+        List<ChangedFile> files = new ArrayList<>(); // metadata only: patches live in the store
+        List<PatchSlice> toAnalyze = new ArrayList<>();
+        Map<String, ParsedPatch> parsed = new HashMap<>(); // each Java patch is parsed exactly once
+        int[] javaWithPatch = {0};
+        List<LlmFinding> findings;
+        try {
+            long fetchStart = System.nanoTime();
+            long[] inSink = {0}; // time spent on files while the listing streams in, not waiting on GitHub
+            DiffSource source = diffSource(cfg);
+            source.fetch(owner, repo, prNumber, cfg.maxFiles(), f -> {
+                long s0 = System.nanoTime();
+                files.add(f.patch() == null ? f
+                        : new ChangedFile(f.filename(), f.status(), f.additions(), f.deletions(), f.changes(), null));
+                if (f.filename() != null && f.filename().endsWith(".java")) {
+                    if (f.patch() != null && !f.patch().isBlank()) javaWithPatch[0]++;
+                    ParsedPatch patch = store.parse(f.patch());
+                    metrics.time("diff_parse", System.nanoTime() - s0);
+                    parsed.put(f.filename(), patch);
+                    ChangedFile target = pushedOnly == null ? f : IncrementalReview.restrict(f, patch, pushedOnly);
+                    if (target != null) {
+                        ParsedPatch targetPatch = target == f ? patch : store.parse(target.patch());
+                        toAnalyze.add(PatchSlice.whole(target.filename(), target.status(), targetPatch));
+                        if (session != null) session.accept(target, targetPatch);
+                    }
+                }
+                inSink[0] += System.nanoTime() - s0;
+            });
+            metrics.time("github_fetch", System.nanoTime() - fetchStart - inSink[0]);
+            metrics.count("files", files.size());
+            if (store.spilledChars() > 0) {
+                metrics.count("patch_chars_spilled", store.spilledChars());
+                System.out.println("[INFO] Large PR: " + store.spilledChars() + " patch characters kept in a memory-mapped file");
+            }
+
+            // 2) Simple metrics
+            int totalFiles = files.size();
+            int totalAdditions = files.stream().mapToInt(f -> safeInt(f.additions())).sum();
+            int totalDeletions = files.stream().mapToInt(f -> safeInt(f.deletions())).sum();
+
+            List<ChangedFile> javaFiles = files.stream()
+                    .filter(f -> f.filename() != null && f.filename().endsWith(".java"))
+                    .collect(Collectors.toList());
+            int javaFilesCount = javaFiles.size();
+
+            // 3) Build tiny report (artifact)
+            Report report = new Report();
+            report.repository = repository;
+            report.prNumber = prNumber;
+            report.totalFiles = totalFiles;
+            report.totalAdditions = totalAdditions;
+            report.totalDeletions = totalDeletions;
+            report.javaFiles = javaFilesCount;
+            report.javaFilesWithPatch = javaWithPatch[0];
+            report.javaChangedFiles = javaFiles.stream()
+                    .map(f -> new JavaChanged(
+                            nvl(f.filename(), "?"), nvl(f.status(), "?"),
+                            safeInt(f.additions()), safeInt(f.deletions()),
+                            safeInt(f.changes()),
+                            preview(parsed.get(f.filename()))
+                    ))
+                    .toList();
+
+            // 4) Write artifacts before logs (skipped when there is no output directory, e.g. in the server)
+            if (cfg.outDir() != null) {
+                Path outDir = cfg.outDir();
+                Files.createDirectories(outDir);
+                Path outJson = outDir.resolve("pr_diff.json");
+                ObjectWriter pretty = mapper.writerWithDefaultPrettyPrinter();
+                Files.writeString(outJson, pretty.writeValueAsString(report));
+                Files.createDirectories(outDir.resolve("files"));
+                if (cfg.fetchContents()) writeContents(source, javaFiles, outDir.resolve("files"), metrics);
+
+                // 5) Log the JSON report
+                System.out.println(pretty.writeValueAsString(report));
+            }
+
+            // 6) ----- LLM ANALYSIS -----
+            findings = session != null
+                    ? session.finish()
+                    : analyzeSinglePrompt(llm, mapper, compactor, repository, prNumber, toAnalyze, debugSmells);
+        } finally {
+            if (session != null) session.close(); // stops in-flight chunks if the run was cut short
+            store.close();
+        }
+
+        List<LlmFinding> carried = List.of(); // already published by an earlier run
+        if (pushed != null) {
+            List<String> order = files.stream().map(ChangedFile::filename).toList();
+            Map<String, ParsedPatch> reanalyzed = new HashMap<>();
+            for (PatchSlice s : toAnalyze) reanalyzed.put(s.filename(), s.patch());
+            carried = IncrementalReview.carryOver(previous.findings(), pushed, Set.copyOf(order), reanalyzed);
+            System.out.println("[INFO] Incremental run since " + previous.headSha() + ": "
+                    + toAnalyze.size() + " file(s) re-analyzed, " + carried.size() + " finding(s) carried over");
+            findings = IncrementalReview.merge(carried, findings, order);
+        }
+
+        metrics.count("findings", findings.size());
+        long r0 = System.nanoTime();
+        String md = renderMarkdown(findings);
+        metrics.time("report_render", System.nanoTime() - r0);
+
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedException("review of " + repository + "#" + prNumber + " cancelled");
+        if (cfg.postComment()) {
+            // hidden marker lets the next run find this output and pick up where it left off
+            ReviewState state = (headSha == null || headSha.isBlank()) ? null : new ReviewState(headSha, findings);
+            long p0 = System.nanoTime();
+            if (cfg.inlineReview()) submitReview(publisher, mapper, findings, carried, parsed, headSha, state);
+            else publisher.upsertComment(ReviewState.attach(md, state, mapper));
+            metrics.time("comment_post", System.nanoTime() - p0);
+        } else {
+            System.out.println(md);
+        }
+        return findings;
+    }
+
+    // ---- Helpers ----
+
+    /** The local checkout when it is configured and holds both commits, else the GitHub API. */
+    private DiffSource diffSource(Config cfg) throws InterruptedException {
+        if (cfg.checkout() != null) {
+            GitDiffSource local = GitDiffSource.open(cfg.checkout(), cfg.baseSha(), cfg.headSha());
+            if (local != null) {
+                System.out.println("[INFO] Diff computed from the checkout in " + cfg.checkout().toAbsolutePath());
+                return local;
+            }
+        }
+        return new PullRequestFilesFetcher(transport, cfg.apiUrl(), cfg.token());
+    }
+
+    /**
+     * FETCH_CONTENTS: copies the head version of each changed Java file to dir, under its repo
+     * path. Mapped files go to disk channel to channel, without passing through the heap.
+     */
+    private static void writeContents(DiffSource source, List<ChangedFile> javaFiles, Path dir, RunMetrics metrics)
+            throws IOException, InterruptedException {
+        long t0 = System.nanoTime();
+        int written = 0;
+        for (ChangedFile f : javaFiles) {
+            if ("removed".equals(f.status())) continue;
+            Path target = dir.resolve(f.filename()).normalize();
+            if (!target.startsWith(dir.normalize())) continue; // "../" in a path must not escape the output directory
+            ByteBuffer contents = source.contents(f.filename());
+            if (contents == null) continue;
+            Files.createDirectories(target.getParent());
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (contents.hasRemaining()) out.write(contents);
+            }
+            written++;
+        }
+        metrics.time("contents_write", System.nanoTime() - t0);
+        if (written > 0) System.out.println("[INFO] Wrote " + written + " changed file(s) to " + dir);
+        else if (!javaFiles.isEmpty()) {
+            System.err.println("[WARN] FETCH_CONTENTS is set but no file contents are available"
+                    + " (only the local diff source can read them; set DIFF_SOURCE=git)");
+        }
+    }
+
+    /** Legacy path (LLM_CHUNKED=false): the whole diff goes to the model in one request. */
+    private static List<LlmFinding> analyzeSinglePrompt(LlmClient llm, ObjectMapper mapper, PatchCompactor compactor,
+                                                        String repository, int prNumber, List<PatchSlice> javaFiles,
+                                                        boolean debugSmells) throws IOException, InterruptedException {
+        String systemPrompt = SmellPrompt.system(compactor != null);
+
+        RunMetrics metrics = RunMetrics.current();
+        if (compactor != null) javaFiles = compact(compactor, javaFiles, metrics);
+        long t0 = System.nanoTime();
+        CharSequence diffText = renderPrompt(repository, prNumber, javaFiles);
+        metrics.time("prompt_render", System.nanoTime() - t0);
+
+        if (debugSmells) {
+            System.out.println("===== LLM PROMPT =====");
+            System.out.println(diffText);
+            System.out.println("===== END LLM PROMPT =====");
+        }
+
+        // tolerant: keeps every complete finding of a cut-off or prose-wrapped answer
+        FindingsExchange exchange = new FindingsExchange(mapper.readerFor(LlmFinding.class), null);
+        LlmClient.Result llmResult = exchange.run(diffText, (messages, parser) -> {
+            LlmClient.Result r = llm.chat(systemPrompt, messages, Map.of("temperature", 0.2, "max_tokens", 1400));
+            if (debugSmells) {
+                System.out.println("===== LLM RAW RESPONSE =====");
+                System.out.println(r.text().trim());
+                System.out.println("===== END LLM RAW RESPONSE =====");
+            }
+            long p0 = System.nanoTime();
+            parser.feed(r.text());
+            metrics.time("parse", System.nanoTime() - p0);
+            return r;
+        });
+        List<LlmFinding> findings = exchange.findings();
+        if (!exchange.sawArray() && exchange.continuations() == 0) {
+            String json = stripBackticksIfAny(llmResult.text());
+            long p0 = System.nanoTime();
+            try {
+                findings = mapper.readValue(json, new TypeReference<List<LlmFinding>>() {});
+            } catch (Exception parseEx) {
+                metrics.count("parse_failures"); // model returned junk; continue gracefully
+                if (debugSmells) {
+                    System.out.println("===== PARSE ERROR =====");
+                    System.out.println("Failed to parse LLM JSON: " + parseEx.getMessage());
+                    System.out.println("Original JSON string:");
+                    System.out.println(json);
+                    System.out.println("===== END PARSE ERROR =====");
+                }
+            } finally {
+                metrics.time("parse", System.nanoTime() - p0);
+            }
+        }
+
+         if (debugSmells) {
+            try {
+                String findingsJson = mapper
+                        .writerWithDefaultPrettyPrinter()
+                        .writeValueAsString(findings);
+                System.out.println("===== PARSED SMELLS (OBJECT) =====");
+                System.out.println(findingsJson);
+                System.out.println("===== END PARSED SMELLS =====");
+            } catch (Exception e) {
+                System.out.println("[DEBUG] Failed to serialize findings: " + e.getMessage());
+            }
+        }
+        return findings;
+    }
+
+    private static List<PatchSlice> compact(PatchCompactor compactor, List<PatchSlice> files, RunMetrics metrics) {
+        long t0 = System.nanoTime();
+        long raw = 0, sent = 0;
+        List<PatchSlice> out = new ArrayList<>(files.size());
+        for (PatchSlice f : files) {
+            PatchSlice c = compactor.compact(f);
+            if (c.patch().isEmpty()) c = f; // nothing significant left: keep it as is
+            raw += TokenEstimator.DEFAULT.estimate(f.body());
+            sent += TokenEstimator.DEFAULT.estimate(c.body());
+            out.add(c);
+        }
+        metrics.time("compaction", System.nanoTime() - t0);
+        metrics.count("patch_tokens_raw", raw);
+        metrics.count("patch_tokens_sent", sent);
+        if (raw > 0) System.out.println("[INFO] " + PatchCompactor.report(raw, sent));
+        return out;
+    }
+
+    // package-private: the renderers and the fence stripper are benchmarked directly (benchmarks/)
+    static String renderDiffForModel(String repository, int prNumber, List<ChangedFile> files) {
+        List<PatchSlice> slices = files.stream()
+                .map(f -> PatchSlice.whole(f.filename(), f.status(), ParsedPatch.parse(f.patch())))
+                .toList();
+        return renderPrompt(repository, prNumber, slices).toString();
+    }
+
+    /** The single prompt for the whole diff: the same user message a chunk gets (see {@link SmellPrompt}). */
+    static CharSequence renderPrompt(String repository, int prNumber, List<PatchSlice> files) {
+        return SmellPrompt.patches(repository, prNumber, files);
+    }
+
+    /** First 400 characters of a patch for the report artifact; null when GitHub sent none. */
+    private static String preview(ParsedPatch p) {
+        return p == null || p.isEmpty() ? null : p.preview(400);
+    }
+
+    static String renderMarkdown(List<LlmFinding> findings) {
+        StringBuilder md = new StringBuilder();
+        md.append("## 🤖 Code Smell Report (LLM)\n");
+        if (findings == null || findings.isEmpty()) {
+            md.append("No diff-scoped smells found in the analyzed Java files. ✅\n");
+            return md.toString();
+        }
+        appendTable(md, findings);
+        return md.toString();
+    }
+
+    private static String renderReviewBody(int inline, int carried, List<LlmFinding> inBody) {
+        StringBuilder md = new StringBuilder();
+        md.append("## 🤖 Code Smell Report (LLM)\n");
+        if (inline + carried + inBody.size() == 0) {
+            md.append("No diff-scoped smells found in the analyzed Java files. ✅\n");
+            return md.toString();
+        }
+        md.append(inline).append(" new finding(s) commented inline");
+        if (carried > 0) md.append(", ").append(carried).append(" still open from earlier reviews");
+        md.append(".\n");
+        if (!inBody.isEmpty()) {
+            md.append("\nNot anchored to a diff line:\n\n");
+            appendTable(md, inBody);
+        }
+        return md.toString();
+    }
+
+    private static String renderInline(LlmFinding f) {
+        StringBuilder md = new StringBuilder();
+        md.append("**").append(nvl(f.rule(), "Code smell")).append("** (").append(nvl(f.severity(), "?")).append("): ")
+          .append(nvl(f.why(), "")).append('\n');
+        if (f.suggestionPatch() != null && !f.suggestionPatch().isBlank()) {
+            md.append("\n```suggestion\n").append(f.suggestionPatch().trim()).append("\n```\n");
+        }
+        return md.toString();
+    }
+
+    private static void appendTable(StringBuilder md, List<LlmFinding> findings) {
+        md.append("| File | Line | Rule | Severity | Why |\n");
+        md.append("|---|---:|---|---|---|\n");
+        for (var f : findings) {
+            md.append("| ").append(nvl(f.file(), "?")).append(" | ")
+              .append(f.line()).append(" | ")
+              .append(escapeMd(nvl(f.rule(), ""))).append(" | ")
+              .append(escapeMd(nvl(f.severity(), ""))).append(" | ")
+              .append(escapeMd(nvl(f.why(), ""))).append(" |\n");
+            if (f.suggestionPatch() != null && !f.suggestionPatch().isBlank()) {
+                md.append("\n<details><summary>Suggested fix</summary>\n\n")
+                  .append("```suggestion\n")
+                  .append(f.suggestionPatch().trim())
+                  .append("\n```\n</details>\n\n");
+            }
+        }
+    }
+
+    /**
+     * Findings on lines the diff shows go inline; the rest (line 0, or outside the diff) are
+     * listed in the review body. Findings carried over from an earlier review were already
+     * commented on, so they only count towards the summary.
+     */
+    private static void submitReview(ReviewPublisher publisher, ObjectMapper mapper, List<LlmFinding> findings,
+                                     List<LlmFinding> carried, Map<String, ParsedPatch> parsed, String headSha,
+                                     ReviewState state)
+            throws IOException, InterruptedException {
+        Set<LlmFinding> published = new HashSet<>(carried);
+        List<ReviewPublisher.InlineComment> inline = new ArrayList<>();
+        List<LlmFinding> inBody = new ArrayList<>();
+        for (var f : findings) {
+            if (published.contains(f)) continue;
+            ParsedPatch patch = parsed.get(f.file());
+            int position = f.line() > 0 && patch != null ? patch.position(f.line()) : -1;
+            if (position > 0) inline.add(new ReviewPublisher.InlineComment(f.file(), position, renderInline(f)));
+            else inBody.add(f);
+        }
+        String body = renderReviewBody(inline.size(), findings.size() - inline.size() - inBody.size(), inBody);
+        if (!publisher.submitReview(ReviewState.attach(body, state, mapper), headSha, inline)) {
+            // positions no longer match the head (e.g. a push landed meanwhile): fall back to the table
+            publisher.submitReview(ReviewState.attach(renderMarkdown(findings), state, mapper), headSha, List.of());
+        }
+    }
+
+    private void writeMetrics(Path outDir, RunMetrics metrics) {
+        Map<String, Object> m = metrics.toMap();
+        try {
+            Files.createDirectories(outDir);
+            Files.writeString(outDir.resolve("metrics.json"), mapper.writerWithDefaultPrettyPrinter().writeValueAsString(m));
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not write metrics.json: " + e.getMessage());
+            return;
+        }
+        System.out.println("[INFO] Run took " + m.get("durationMs") + " ms, LLM usage " + m.getOrDefault("tokens", Map.of())
+                + "; details in " + outDir.resolve("metrics.json"));
+    }
+
+    static String stripBackticksIfAny(String s) {
+        String t = s.trim();
+        if (t.startsWith("```")) {
+            t = t.replaceFirst("^```(?:json)?\\s*", "");
+            if (t.endsWith("```")) t = t.substring(0, t.length() - 3).trim();
+        }
+        return t.trim();
+    }
+
+    private static int safeInt(Integer i) { return i == null ? 0 : i; }
+    private static String nvl(String s, String d) { return (s == null || s.isBlank()) ? d : s; }
+    private static String escapeMd(String s) { return s == null ? "" : s.replace("|", "\\|"); }
+
+    // ---- Minimal DTOs (report artifact) ----
+    static class JavaChanged {
+        public String filename;
+        public String status;
+        public int additions;
+        public int deletions;
+        public int changes;
+        public String patchPreview;
+        public JavaChanged(String filename, String status, int additions, int deletions, int changes, String patchPreview) {
+            this.filename = filename;
+            this.status = status;
+            this.additions = additions;
+            this.deletions = deletions;
+            this.changes = changes;
+            this.patchPreview = patchPreview;
+        }
+    }
+
+    static class Report {
+        public String repository;
+        public int prNumber;
+        public int totalFiles;
+        public int totalAdditions;
+        public int totalDeletions;
+        public int javaFiles;
+        public int javaFilesWithPatch;
+        public List<JavaChanged> javaChangedFiles;
+    }
+}
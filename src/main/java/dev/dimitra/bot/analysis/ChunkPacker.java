@@ -0,0 +1,162 @@
+package dev.dimitra.bot.analysis;
+
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.diff.PatchSlice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs file patches into LLM requests by estimated input tokens.
+ *
+ * Patches that would not fit a request on their own are split at {@code @@} hunk
+ * boundaries (and a single huge hunk at line boundaries, with a recomputed header),
+ * each piece keeping its file name. Pieces are then placed first-fit into a few open
+ * bins; a bin is handed back once it is nearly full, so chunks can be dispatched
+ * while files are still arriving. Not thread-safe.
+ */
+public class ChunkPacker {
+
+    private static final double FULL_RATIO = 0.9;
+    private static final int MAX_OPEN_BINS = 3;
+
+    private int maxFilesPerChunk;
+    private int tokenBudget;
+    private final TokenEstimator estimator;
+    private final List<Bin> open = new ArrayList<>();
+
+    private static final class Bin {
+        final List<PatchSlice> files = new ArrayList<>();
+        int tokens;
+    }
+
+    /**
+     * @param tokenBudget input tokens available for patches in one request
+     *                    (i.e. excluding the system prompt and fixed instructions)
+     */
+    public ChunkPacker(int maxFilesPerChunk, int tokenBudget, TokenEstimator estimator) {
+        this.maxFilesPerChunk = Math.max(1, maxFilesPerChunk);
+        this.tokenBudget = Math.max(1, tokenBudget);
+        this.estimator = estimator;
+    }
+
+    /**
+     * Changes the limits for everything added from now on (e.g. after a chunk overran). An open
+     * bin already over the new limits is handed back with the next {@link #add}.
+     */
+    public void resize(int maxFilesPerChunk, int tokenBudget) {
+        this.maxFilesPerChunk = Math.max(1, maxFilesPerChunk);
+        this.tokenBudget = Math.max(1, tokenBudget);
+    }
+
+    /** Splits a file into pieces that each fit the budget (a single piece if it already does). */
+    public List<PatchSlice> split(PatchSlice file) {
+        if (cost(file) <= tokenBudget) return List.of(file);
+
+        ParsedPatch p = file.patch();
+        List<PatchSlice> pieces = new ArrayList<>();
+        int from = -1, to = -1; // pending run of whole hunks
+        for (ParsedPatch.Hunk h : p.hunks()) {
+            if (h.headerLine() < file.fromLine() || h.endLine() > file.toLine()) continue;
+            PatchSlice hunk = slice(file, h.headerLine(), h.endLine(), null);
+            if (cost(hunk) > tokenBudget) {
+                if (from >= 0) pieces.add(slice(file, from, to, null));
+                from = -1;
+                pieces.addAll(splitLines(file, h));
+                continue;
+            }
+            if (from >= 0 && cost(slice(file, from, h.endLine(), null)) > tokenBudget) {
+                pieces.add(slice(file, from, to, null));
+                from = -1;
+            }
+            if (from < 0) from = h.headerLine();
+            to = h.endLine();
+        }
+        if (from >= 0) pieces.add(slice(file, from, to, null));
+        return pieces.isEmpty() ? List.of(file) : pieces;
+    }
+
+    /** Places one piece; returns the chunks that became full (usually none or one). */
+    public List<List<PatchSlice>> add(PatchSlice piece) {
+        int cost = cost(piece);
+        Bin target = null;
+        for (Bin b : open) {
+            if (b.files.size() < maxFilesPerChunk && b.tokens + cost <= tokenBudget) {
+                target = b;
+                break;
+            }
+        }
+        if (target == null) {
+            target = new Bin();
+            open.add(target);
+        }
+        target.files.add(piece);
+        target.tokens += cost;
+
+        List<List<PatchSlice>> full = new ArrayList<>();
+        if (target.tokens >= tokenBudget * FULL_RATIO || target.files.size() >= maxFilesPerChunk) {
+            open.remove(target);
+            full.add(target.files);
+        }
+        for (var it = open.iterator(); it.hasNext(); ) { // only after a resize
+            Bin b = it.next();
+            if (b.tokens >= tokenBudget * FULL_RATIO || b.files.size() >= maxFilesPerChunk) {
+                it.remove();
+                full.add(b.files);
+            }
+        }
+        while (open.size() > MAX_OPEN_BINS) full.add(open.remove(0).files);
+        return full;
+    }
+
+    /** Hands back every partially filled chunk, oldest first. */
+    public List<List<PatchSlice>> flush() {
+        List<List<PatchSlice>> rest = new ArrayList<>();
+        for (Bin b : open) rest.add(b.files);
+        open.clear();
+        return rest;
+    }
+
+    private int cost(PatchSlice s) {
+        // "=== FILE: <name> (<status>) ===" header plus the patch itself
+        return 8 + estimator.estimate(s.filename())
+                + (s.header() == null ? 0 : estimator.estimate(s.header()))
+                + estimator.estimate(s.body());
+    }
+
+    private static PatchSlice slice(PatchSlice file, int from, int to, String header) {
+        return new PatchSlice(file.filename(), file.status(), file.patch(), from, to, header);
+    }
+
+    /** Cuts one oversized hunk at line boundaries; each part gets its own valid @@ header. */
+    private List<PatchSlice> splitLines(PatchSlice file, ParsedPatch.Hunk h) {
+        ParsedPatch p = file.patch();
+        int headerCost = cost(slice(file, h.headerLine(), h.firstLine(), null));
+        List<PatchSlice> parts = new ArrayList<>();
+        int start = h.firstLine();
+        for (int i = h.firstLine(); i < h.endLine(); i++) {
+            if (i > start && headerCost + estimator.estimate(p.slice(start, i + 1)) > tokenBudget) {
+                parts.add(slice(file, start, i, header(p, h, start, i)));
+                start = i;
+            }
+        }
+        if (start < h.endLine()) parts.add(slice(file, start, h.endLine(), header(p, h, start, h.endLine())));
+        return parts;
+    }
+
+    private static String header(ParsedPatch p, ParsedPatch.Hunk h, int from, int to) {
+        int oldStart = 0, newStart = 0, oldCount = 0, newCount = 0;
+        for (int i = from; i < to; i++) {
+            char k = p.kind(i);
+            if (k == ParsedPatch.CONTEXT || k == ParsedPatch.REMOVED) {
+                if (oldCount++ == 0) oldStart = p.oldLine(i);
+            }
+            if (k == ParsedPatch.CONTEXT || k == ParsedPatch.ADDED) {
+                if (newCount++ == 0) newStart = p.newLine(i);
+            }
+        }
+        StringBuilder sb = new StringBuilder(32);
+        p.appendHeader(sb, h, from, oldStart, oldCount, newStart, newCount, "");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,238 @@
+package dev.dimitra.bot.analysis;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.dimitra.bot.http.Transport;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static dev.dimitra.bot.config.Env.intEnv;
+
+/**
+ * Picks the chunk size (request token budget and files per chunk) per model from what
+ * earlier chunks cost, instead of relying on fixed LLM_INPUT_TOKEN_BUDGET guesses.
+ *
+ * Bigger chunks repeat the system prompt less often and make fewer calls, so findings per
+ * second (and per quota token) grow with the chunk size, until answers start hitting the
+ * output limit or the chunk timeout. The tuner therefore looks for the largest budget that
+ * stays clear of both:
+ *
+ * <ul>
+ *   <li>Every chunk reports its estimated input tokens, latency, output tokens, findings and
+ *       whether it was cut off or timed out. These are kept per model as exponentially decayed
+ *       sums, so old runs fade out.</li>
+ *   <li>At the start of a session, once at least 5 chunks ran at the current budget, it grows by
+ *       15% if fewer than 5% of those were cut off, and shrinks by 25% if more than 15% were (or
+ *       more than 5% timed out). Only chunks since the last move count, so a shrink isn't
+ *       repeated for overruns the previous shrink already answered.</li>
+ *   <li>It is then capped by the input size at which the usual output rate reaches 80% of
+ *       max_tokens, and by the size at which the fitted latency (base + per-token cost) reaches
+ *       half the chunk timeout.</li>
+ *   <li>Within a session, a chunk that overran narrows the rest of that session at once (see
+ *       {@link #narrow}).</li>
+ * </ul>
+ *
+ * Statistics are kept in a small JSON file (CHUNK_TUNING_PATH) meant to be restored between
+ * CI runs together with the findings cache. Thread-safe.
+ */
+public final class ChunkTuner {
+
+    /** Chunk size for one session. */
+    public record Plan(int inputTokenBudget, int maxFilesPerChunk) {}
+
+    /**
+     * What one chunk cost.
+     *
+     * @param truncated the answer hit max_tokens (whether or not a continuation recovered it)
+     * @param timedOut  the chunk ran into its timeout
+     */
+    public record Observation(int inputTokens, long nanos, int findings, int outputTokens, boolean truncated,
+                              boolean timedOut) {}
+
+    private static final double DECAY = 0.98;      // weight of the past per new chunk (half-life ~35 chunks)
+    private static final int MIN_CHUNKS = 5;       // chunks at the current budget before it moves again
+    private static final double GROW = 1.15, SHRINK = 0.75, NARROW = 0.7;
+
+    private final Path file; // null: in memory only
+    private final int minBudget;
+    private final int maxBudget;
+    private final ObjectMapper mapper = Transport.shared().mapper();
+    private final Map<String, Stats> models = new TreeMap<>();
+
+    /** Decayed sums for one model; the latency sums are for a least-squares fit of ms on input tokens. */
+    private static final class Stats {
+        double w, sx, sy, sxx, sxy;
+        double truncated, timedOut, findings, inputTokens, outputTokens, seconds;
+        int budget, files;
+        long chunks;
+        int recent, recentTruncated, recentTimedOut; // since the budget last moved, not decayed
+
+        void add(Observation o) {
+            w = w * DECAY + 1;
+            double x = o.inputTokens(), y = o.nanos() / 1e6;
+            sx = sx * DECAY + x;
+            sy = sy * DECAY + y;
+            sxx = sxx * DECAY + x * x;
+            sxy = sxy * DECAY + x * y;
+            truncated = truncated * DECAY + (o.truncated() ? 1 : 0);
+            timedOut = timedOut * DECAY + (o.timedOut() ? 1 : 0);
+            findings = findings * DECAY + o.findings();
+            inputTokens = inputTokens * DECAY + o.inputTokens();
+            outputTokens = outputTokens * DECAY + o.outputTokens();
+            seconds = seconds * DECAY + o.nanos() / 1e9;
+            chunks++;
+            recent++;
+            if (o.truncated()) recentTruncated++;
+            if (o.timedOut()) recentTimedOut++;
+        }
+    }
+
+    public ChunkTuner(Path file, int minBudget, int maxBudget) {
+        this.file = file;
+        this.minBudget = Math.max(500, minBudget);
+        this.maxBudget = Math.max(this.minBudget, maxBudget);
+        if (file != null) load();
+    }
+
+    /**
+     * Reads CHUNK_TUNING_PATH and the budget bounds CHUNK_TUNING_MIN_TOKENS (1500) and
+     * CHUNK_TUNING_MAX_TOKENS (24000). Tuning is off unless the path is set: the history is only
+     * worth keeping where something restores it, such as the workflow's cache step.
+     *
+     * @return null when tuning is off, so the configured chunk size always applies
+     */
+    public static ChunkTuner fromEnv() {
+        String path = System.getenv("CHUNK_TUNING_PATH");
+        if (path == null || path.isBlank()) return null;
+        return new ChunkTuner(Paths.get(path.trim()), intEnv("CHUNK_TUNING_MIN_TOKENS", 1500),
+                intEnv("CHUNK_TUNING_MAX_TOKENS", 24000));
+    }
+
+    /**
+     * Chunk size for a new session. Starts from the configured size for a model without enough
+     * history; the files-per-chunk limit scales with the budget.
+     *
+     * @param maxOutputTokens the max_tokens sent with each chunk
+     * @param chunkTimeout    the per-chunk timeout
+     */
+    public synchronized Plan plan(String model, int configuredBudget, int configuredFiles, int maxOutputTokens,
+                                  Duration chunkTimeout) {
+        Stats s = models.computeIfAbsent(model, k -> new Stats());
+        int budget = s.budget > 0 ? s.budget : configuredBudget;
+        if (s.recent >= MIN_CHUNKS) {
+            double truncRate = (double) s.recentTruncated / s.recent, timeoutRate = (double) s.recentTimedOut / s.recent;
+            s.recent = s.recentTruncated = s.recentTimedOut = 0;
+            double next = budget;
+            if (truncRate > 0.15 || timeoutRate > 0.05) next *= SHRINK;
+            else if (truncRate < 0.05 && timeoutRate < 0.01) next *= GROW;
+
+            if (s.outputTokens > 0 && s.inputTokens > 0) {
+                next = Math.min(next, 0.8 * maxOutputTokens * s.inputTokens / s.outputTokens);
+            }
+            double det = s.w * s.sxx - s.sx * s.sx;
+            if (det > 0) {
+                double perToken = (s.w * s.sxy - s.sx * s.sy) / det;
+                double base = (s.sy - perToken * s.sx) / s.w;
+                if (perToken > 0) next = Math.min(next, (chunkTimeout.toMillis() * 0.5 - base) / perToken);
+            }
+            int moved = Math.max(minBudget, Math.min(maxBudget, (int) next));
+            System.out.println("[INFO] Chunk tuner (" + model + "): " + budget + " -> " + moved + " tokens per chunk ("
+                    + Math.round(100 * truncRate) + "% cut off, " + Math.round(100 * timeoutRate) + "% timed out at "
+                    + budget + "; " + String.format(Locale.ROOT, "%.2f", s.seconds > 0 ? s.findings / s.seconds : 0)
+                    + " findings/s per chunk over " + s.chunks + " chunks)");
+            budget = moved;
+        }
+        budget = Math.max(minBudget, Math.min(maxBudget, budget));
+        int files = Math.max(1, (int) Math.round((double) configuredFiles * budget / Math.max(1, configuredBudget)));
+        s.budget = budget;
+        s.files = files;
+        return new Plan(budget, files);
+    }
+
+    public synchronized void observe(String model, Observation o) {
+        models.computeIfAbsent(model, k -> new Stats()).add(o);
+    }
+
+    /**
+     * A smaller plan for the rest of a session after one of its chunks overran. The stored
+     * budget shrinks too, so the next session starts from there.
+     */
+    public synchronized Plan narrow(String model, Plan current) {
+        int budget = Math.max(minBudget, (int) (current.inputTokenBudget() * NARROW));
+        int files = Math.max(1, (int) Math.round(current.maxFilesPerChunk() * NARROW));
+        Stats s = models.computeIfAbsent(model, k -> new Stats());
+        s.budget = Math.min(s.budget > 0 ? s.budget : budget, budget);
+        s.files = files;
+        s.recent = s.recentTruncated = s.recentTimedOut = 0;
+        return new Plan(budget, files);
+    }
+
+    /** Writes the statistics (atomically, via a temp file); failures only cost the history. */
+    public synchronized void save() {
+        if (file == null) return;
+        ObjectNode root = mapper.createObjectNode();
+        models.forEach((model, s) -> {
+            ObjectNode n = root.putObject(model);
+            n.put("budget", s.budget).put("files", s.files).put("chunks", s.chunks).put("recent", s.recent)
+                    .put("recentTruncated", s.recentTruncated).put("recentTimedOut", s.recentTimedOut).put("w", s.w)
+                    .put("sx", s.sx).put("sy", s.sy).put("sxx", s.sxx).put("sxy", s.sxy)
+                    .put("truncated", s.truncated).put("timedOut", s.timedOut).put("findings", s.findings)
+                    .put("inputTokens", s.inputTokens).put("outputTokens", s.outputTokens).put("seconds", s.seconds);
+        });
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                mapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), root);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not save chunk tuning to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        try {
+            JsonNode root = mapper.readTree(file.toFile());
+            for (Iterator<Map.Entry<String, JsonNode>> it = root.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> e = it.next();
+                JsonNode n = e.getValue();
+                Stats s = new Stats();
+                s.budget = n.path("budget").asInt();
+                s.files = n.path("files").asInt();
+                s.chunks = n.path("chunks").asLong();
+                s.recent = n.path("recent").asInt();
+                s.recentTruncated = n.path("recentTruncated").asInt();
+                s.recentTimedOut = n.path("recentTimedOut").asInt();
+                s.w = n.path("w").asDouble();
+                s.sx = n.path("sx").asDouble();
+                s.sy = n.path("sy").asDouble();
+                s.sxx = n.path("sxx").asDouble();
+                s.sxy = n.path("sxy").asDouble();
+                s.truncated = n.path("truncated").asDouble();
+                s.timedOut = n.path("timedOut").asDouble();
+                s.findings = n.path("findings").asDouble();
+                s.inputTokens = n.path("inputTokens").asDouble();
+                s.outputTokens = n.path("outputTokens").asDouble();
+                s.seconds = n.path("seconds").asDouble();
+                models.put(e.getKey(), s);
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Ignoring unreadable chunk tuning file " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package dev.dimitra.bot.analysis;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import dev.dimitra.bot.llm.FindingsStreamParser;
+import dev.dimitra.bot.llm.LlmClient;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.metrics.RunMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * One request for findings, followed up while the answer is cut off at max_tokens: instead
+ * of losing the rest (or re-running the whole prompt), up to {@link #MAX_CONTINUATIONS}
+ * follow-ups ask for the findings not yet listed (see {@link FindingsStreamParser#continuation}).
+ * Used by the chunked {@link SmellAnalyzer} and the pipeline's single-prompt path; how a round
+ * is sent (streamed, with a deadline, ...) is up to the caller.
+ */
+public final class FindingsExchange {
+
+    public static final int MAX_CONTINUATIONS = 2;
+
+    /** Sends one round and feeds the answer's text to parser, as it streams in or all at once. */
+    @FunctionalInterface
+    public interface Round<X extends Exception> {
+        LlmClient.Result send(List<LlmClient.Message> messages, FindingsStreamParser parser) throws X, InterruptedException;
+    }
+
+    private final ObjectReader finding;
+    private final Consumer<LlmFinding> onFinding; // optional
+    private final List<LlmFinding> findings = new ArrayList<>(); // rounds that finished
+    private final List<LlmClient.Result> results = new ArrayList<>();
+    private FindingsStreamParser parser; // the latest round's
+    private boolean open; // parser belongs to a round that has not returned (yet, or ever)
+    private int continuations;
+
+    /** @param onFinding called with each finding the moment it is parsed, or null */
+    public FindingsExchange(ObjectReader finding, Consumer<LlmFinding> onFinding) {
+        this.finding = finding;
+        this.onFinding = onFinding;
+    }
+
+    /**
+     * Sends prompt, then a follow-up for every cut-off answer while continuations are left.
+     * If a round throws, what it parsed up to then is still in {@link #findings()}.
+     *
+     * @return the last round's result
+     */
+    public <X extends Exception> LlmClient.Result run(CharSequence prompt, Round<X> round) throws X, InterruptedException {
+        RunMetrics metrics = RunMetrics.current();
+        List<LlmClient.Message> messages = List.of(new LlmClient.Message("user", prompt));
+        for (;;) {
+            parser = new FindingsStreamParser(finding, onFinding);
+            open = true;
+            LlmClient.Result res = round.send(messages, parser);
+            open = false;
+            results.add(res);
+            metrics.count("parse_failures", parser.unreadable());
+            findings.addAll(parser.findings());
+            if (!res.truncated() || parser.isComplete() || continuations >= MAX_CONTINUATIONS) return res;
+            continuations++;
+            metrics.count("continuations");
+            messages = FindingsStreamParser.continuation(messages, res.text());
+        }
+    }
+
+    /** Every complete finding received so far, those of a round that failed midway included. */
+    public List<LlmFinding> findings() {
+        if (!open) return List.copyOf(findings);
+        List<LlmFinding> all = new ArrayList<>(findings);
+        all.addAll(parser.findings());
+        return all;
+    }
+
+    /** The last answer closed its array. */
+    public boolean isComplete() {
+        return parser != null && parser.isComplete();
+    }
+
+    /** The last answer opened an array, so it is not worth a second, strict parse. */
+    public boolean sawArray() {
+        return parser != null && parser.sawArray();
+    }
+
+    /** Follow-ups sent so far. */
+    public int continuations() {
+        return continuations;
+    }
+
+    /** Some answer was cut off at the output limit. */
+    public boolean truncated() {
+        return results.stream().anyMatch(LlmClient.Result::truncated);
+    }
+
+    /** Output tokens of every answer, as reported by the provider or else estimated. */
+    public int outputTokens(TokenEstimator estimator) {
+        int n = 0;
+        for (LlmClient.Result r : results) {
+            n += r.usage() != null && r.usage().outputTokens() > 0 ? r.usage().outputTokens() : estimator.estimate(r.text());
+        }
+        return n;
+    }
+}
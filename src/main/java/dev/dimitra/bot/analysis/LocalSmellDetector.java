@@ -0,0 +1,367 @@
+package dev.dimitra.bot.analysis;
+
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.diff.PatchSlice;
+import dev.dimitra.bot.llm.LlmFinding;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cheap rule-based pre-pass over the added lines of a Java patch.
+ *
+ * Reports the mechanical smells itself (long lines, magic numbers, empty catch blocks,
+ * duplicate/unused imports, long added methods) and decides which hunks are still worth
+ * an LLM call: generated files, pure deletions and hunks that only touch imports or
+ * whitespace are dropped. Works directly on the patch offsets; the only strings it
+ * creates are import names and the findings themselves.
+ */
+public class LocalSmellDetector {
+
+    public static final int LONG_LINE = 120;
+    public static final int LONG_METHOD_LINES = 60;
+
+    private static final String[] NOT_A_METHOD = {
+            "if", "for", "while", "switch", "catch", "synchronized", "try", "else", "do",
+            "return", "new", "class", "interface", "enum", "record", "throw"
+    };
+    private static final String[] GENERATED_MARKERS = {"@Generated", "DO NOT EDIT", "Generated by", "@generated"};
+
+    /** Local findings, plus the parts of the file that still need the model (empty = no LLM call). */
+    public record Outcome(List<LlmFinding> findings, List<PatchSlice> forLlm) {
+        public boolean needsLlm() {
+            return !forLlm.isEmpty();
+        }
+    }
+
+    public Outcome scan(PatchSlice file) {
+        String name = file.filename();
+        ParsedPatch p = file.patch();
+        if (p.isEmpty() || name.contains("/generated/") || name.contains("/generated-sources/") || isGenerated(p, file)) {
+            return new Outcome(List.of(), List.of());
+        }
+
+        CharSequence text = p.text();
+        List<LlmFinding> findings = new ArrayList<>();
+        List<PatchSlice> forLlm = new ArrayList<>();
+        Map<String, Integer> imports = new HashMap<>(); // import statement -> new line (0 = context)
+        int keepFrom = -1, keepTo = -1;
+
+        for (ParsedPatch.Hunk h : p.hunks()) {
+            if (h.headerLine() < file.fromLine() || h.endLine() > file.toLine()) continue;
+            boolean meaningful = false;
+            int methodLine = 0, methodDepth = 0, methodLen = 0;
+
+            for (int i = h.firstLine(); i < h.endLine(); i++) {
+                char kind = p.kind(i);
+                int start = p.offset(i) + 1, end = lineEnd(p, i);
+                int first = skipSpaces(text, start, end);
+
+                if (kind == ParsedPatch.CONTEXT && startsWithWord(text, first, end, "import")) {
+                    imports.putIfAbsent(importKey(text, first, end), 0);
+                }
+                if (kind != ParsedPatch.ADDED) {
+                    if (kind == ParsedPatch.REMOVED && !isNoise(text, first, end)) meaningful = true;
+                    if (methodLine > 0) methodLine = reportLongMethod(findings, name, methodLine, methodLen);
+                    continue;
+                }
+                int newLine = p.newLine(i);
+                boolean isImport = startsWithWord(text, first, end, "import");
+                if (!isNoise(text, first, end)) meaningful = true;
+
+                if (end - start > LONG_LINE) {
+                    findings.add(finding(name, newLine, "Long Line", "Minor",
+                            "Line is " + (end - start) + " characters long (limit " + LONG_LINE + ")."));
+                }
+                if (isImport) {
+                    String key = importKey(text, first, end);
+                    if (imports.putIfAbsent(key, newLine) != null) {
+                        findings.add(finding(name, newLine, "Duplicate Import", "Minor", "`" + key + "` is already imported."));
+                    }
+                    continue;
+                }
+                if (first >= end || startsWith(text, first, end, "//") || startsWith(text, first, end, "*")
+                        || startsWith(text, first, end, "/*") || startsWith(text, first, end, "@")) {
+                    continue;
+                }
+                if (hasMagicNumber(text, first, end)) {
+                    findings.add(finding(name, newLine, "Magic Number", "Minor",
+                            "Numeric literal without a named constant; extract it to a well-named `static final` field."));
+                }
+                if (isEmptyCatch(p, text, i, first, end)) {
+                    findings.add(finding(name, newLine, "Empty Catch Block", "Major",
+                            "Exception is swallowed silently; log it, rethrow it, or explain why it is safe to ignore."));
+                }
+
+                // long added method: follow brace depth from a signature line through consecutive added lines
+                if (methodLine == 0 && looksLikeMethodStart(text, first, end)) {
+                    methodLine = newLine;
+                    methodDepth = 0;
+                    methodLen = 0;
+                }
+                if (methodLine > 0) {
+                    methodLen++;
+                    methodDepth += braceDelta(text, first, end);
+                    if (methodDepth <= 0 && methodLen > 1) {
+                        methodLine = reportLongMethod(findings, name, methodLine, methodLen);
+                    }
+                }
+            }
+            if (methodLine > 0) reportLongMethod(findings, name, methodLine, methodLen);
+
+            if (meaningful) {
+                if (keepFrom >= 0 && keepTo != h.headerLine()) {
+                    forLlm.add(slice(file, keepFrom, keepTo));
+                    keepFrom = -1;
+                }
+                if (keepFrom < 0) keepFrom = h.headerLine();
+                keepTo = h.endLine();
+            }
+        }
+        if (keepFrom >= 0) forLlm.add(slice(file, keepFrom, keepTo));
+
+        // the whole file is visible only for new files, so only then can an import be proven unused
+        if ("added".equals(file.status())) findUnusedImports(findings, name, text, imports);
+        return new Outcome(findings, forLlm);
+    }
+
+    private static PatchSlice slice(PatchSlice file, int from, int to) {
+        return new PatchSlice(file.filename(), file.status(), file.patch(), from, to, null);
+    }
+
+    private static LlmFinding finding(String file, int line, String rule, String severity, String why) {
+        return new LlmFinding(file, line, rule, severity, why, "");
+    }
+
+    private static int reportLongMethod(List<LlmFinding> findings, String file, int line, int len) {
+        if (len > LONG_METHOD_LINES) {
+            findings.add(finding(file, line, "Long Method", "Major",
+                    "Added method spans " + len + " lines; split it into smaller, named steps."));
+        }
+        return 0;
+    }
+
+    /**
+     * True if the new file opens with a header comment naming a generator. Only a hunk that
+     * starts at line 1 shows that header; anywhere else the markers are ordinary text.
+     */
+    private static boolean isGenerated(ParsedPatch p, PatchSlice file) {
+        ParsedPatch.Hunk first = null;
+        for (ParsedPatch.Hunk h : p.hunks()) {
+            if (h.headerLine() >= file.fromLine() && h.endLine() <= file.toLine()) {
+                first = h;
+                break;
+            }
+        }
+        if (first == null || first.newStart() > 1) return false;
+
+        CharSequence text = p.text();
+        boolean inBlock = false;
+        for (int i = first.firstLine(); i < first.endLine(); i++) {
+            if (p.kind(i) != ParsedPatch.CONTEXT && p.kind(i) != ParsedPatch.ADDED) continue; // not in the new file
+            int end = lineEnd(p, i);
+            int at = skipSpaces(text, p.offset(i) + 1, end);
+            if (!inBlock) {
+                if (at >= end) continue;
+                if (startsWith(text, at, end, "//")) {
+                    if (hasGeneratedMarker(text, at, end)) return true;
+                    continue;
+                }
+                if (!startsWith(text, at, end, "/*")) return false; // code: the header comment is over
+                inBlock = true;
+                at += 2;
+            }
+            int close = indexOf(text, at, end, "*/");
+            if (hasGeneratedMarker(text, at, close < 0 ? end : close)) return true;
+            if (close >= 0) inBlock = false;
+        }
+        return false;
+    }
+
+    private static boolean hasGeneratedMarker(CharSequence text, int from, int end) {
+        for (String marker : GENERATED_MARKERS) {
+            if (indexOf(text, from, end, marker) >= 0) return true;
+        }
+        return false;
+    }
+
+    /** Blank, import, package and lone-brace lines carry nothing for the model to review. */
+    private static boolean isNoise(CharSequence text, int first, int end) {
+        if (first >= end) return true;
+        if (startsWithWord(text, first, end, "import") || startsWithWord(text, first, end, "package")) return true;
+        return end - first == 1 && (text.charAt(first) == '}' || text.charAt(first) == '{');
+    }
+
+    private static boolean hasMagicNumber(CharSequence text, int first, int end) {
+        if (indexOf(text, first, end, "final ") >= 0 && indexOf(text, first, end, "static") >= 0) return false;
+        if (startsWithWord(text, first, end, "case")) return false;
+        boolean inString = false, inChar = false;
+        for (int i = first; i < end; i++) {
+            char c = text.charAt(i);
+            if (inString) {
+                if (c == '\\') i++;
+                else if (c == '"') inString = false;
+                continue;
+            }
+            if (inChar) {
+                if (c == '\\') i++;
+                else if (c == '\'') inChar = false;
+                continue;
+            }
+            if (c == '"') { inString = true; continue; }
+            if (c == '\'') { inChar = true; continue; }
+            if (c == '/' && i + 1 < end && text.charAt(i + 1) == '/') return false;
+            if (c >= '0' && c <= '9' && (i == first || !isIdentPart(text.charAt(i - 1)))) {
+                int j = i;
+                while (j < end && (Character.isLetterOrDigit(text.charAt(j)) || text.charAt(j) == '_' || text.charAt(j) == '.')) j++;
+                if (!isTrivialNumber(text, i, j)) return true;
+                i = j - 1;
+            }
+        }
+        return false;
+    }
+
+    /** 0, 1 and 2 (with optional L/f/d suffix or .0) are not worth a constant. */
+    private static boolean isTrivialNumber(CharSequence text, int from, int to) {
+        char d = text.charAt(from);
+        if (d > '2') return false;
+        int i = from + 1;
+        if (i < to && text.charAt(i) == '.') {
+            i++;
+            while (i < to && text.charAt(i) == '0') i++;
+        }
+        if (i < to && "lLfFdD".indexOf(text.charAt(i)) >= 0) i++;
+        return i == to;
+    }
+
+    private static boolean isEmptyCatch(ParsedPatch p, CharSequence text, int line, int first, int end) {
+        int c = catchClause(text, first, end);
+        if (c < 0) return false;
+        int brace = indexOf(text, c, end, "{");
+        if (brace < 0) return false;
+        int after = skipSpaces(text, brace + 1, end);
+        if (after < end) return text.charAt(after) == '}';
+        // "catch (...) {" with the closing brace alone on the next added line
+        int next = line + 1;
+        if (next >= p.lineCount() || p.kind(next) != ParsedPatch.ADDED) return false;
+        int nFirst = skipSpaces(text, p.offset(next) + 1, lineEnd(p, next));
+        return lineEnd(p, next) - nFirst >= 1 && text.charAt(nFirst) == '}';
+    }
+
+    /** Offset of the "(" of a {@code catch (} clause on the line, or -1; "catchUp()" is not one. */
+    private static int catchClause(CharSequence text, int first, int end) {
+        for (int c = indexOf(text, first, end, "catch"); c >= 0; c = indexOf(text, c + 1, end, "catch")) {
+            if (c > first && isIdentPart(text.charAt(c - 1))) continue;
+            int paren = skipSpaces(text, c + "catch".length(), end);
+            if (paren < end && text.charAt(paren) == '(') return paren;
+        }
+        return -1;
+    }
+
+    private static boolean looksLikeMethodStart(CharSequence text, int first, int end) {
+        int last = end - 1;
+        while (last > first && Character.isWhitespace(text.charAt(last))) last--;
+        if (last <= first || text.charAt(last) != '{') return false;
+        int paren = indexOf(text, first, last, "(");
+        if (paren < 0 || indexOf(text, first, last, ")") < paren) return false;
+        if (indexOf(text, first, paren, "=") >= 0 || indexOf(text, first, last, ";") >= 0) return false;
+        if (!Character.isJavaIdentifierStart(text.charAt(first))) return false;
+        for (String kw : NOT_A_METHOD) {
+            if (startsWithWord(text, first, end, kw)) return false;
+        }
+        return true;
+    }
+
+    private static int braceDelta(CharSequence text, int first, int end) {
+        int d = 0;
+        boolean inString = false;
+        for (int i = first; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && inString) { i++; continue; }
+            if (c == '"') inString = !inString;
+            else if (!inString && c == '{') d++;
+            else if (!inString && c == '}') d--;
+            else if (!inString && c == '/' && i + 1 < end && text.charAt(i + 1) == '/') break;
+        }
+        return d;
+    }
+
+    private static void findUnusedImports(List<LlmFinding> findings, String file, CharSequence text, Map<String, Integer> imports) {
+        for (var e : imports.entrySet()) {
+            String imp = e.getKey();
+            int line = e.getValue();
+            if (line == 0 || imp.startsWith("static ") || imp.endsWith("*")) continue;
+            String simple = imp.substring(imp.lastIndexOf('.') + 1);
+            if (!usedOutsideImports(text, simple)) {
+                findings.add(finding(file, line, "Unused Import", "Minor", "`" + imp + "` is never used in this file."));
+            }
+        }
+    }
+
+    private static boolean usedOutsideImports(CharSequence text, String word) {
+        for (int i = indexOf(text, 0, text.length(), word); i >= 0; i = indexOf(text, i + 1, text.length(), word)) {
+            int end = i + word.length();
+            boolean bounded = (i == 0 || !isIdentPart(text.charAt(i - 1))) && (end >= text.length() || !isIdentPart(text.charAt(end)));
+            if (!bounded) continue;
+            int lineStart = i;
+            while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') lineStart--;
+            int first = skipSpaces(text, Math.min(lineStart + 1, text.length()), i);
+            if (!startsWithWord(text, first, i, "import")) return true;
+        }
+        return false;
+    }
+
+    /** "import a.b.C;" -> "a.b.C", "import static a.B.c;" -> "static a.B.c" */
+    private static String importKey(CharSequence text, int first, int end) {
+        int from = skipSpaces(text, first + "import".length(), end);
+        int to = end;
+        while (to > from && (text.charAt(to - 1) == ';' || Character.isWhitespace(text.charAt(to - 1)))) to--;
+        return text.subSequence(from, to).toString().replaceAll("\\s+", " ");
+    }
+
+    // ---- offset helpers (no substrings) ----
+
+    private static int lineEnd(ParsedPatch p, int line) {
+        int end = p.offset(line + 1);
+        CharSequence text = p.text();
+        if (end > p.offset(line) && text.charAt(end - 1) == '\n') end--;
+        if (end > p.offset(line) && text.charAt(end - 1) == '\r') end--;
+        return end;
+    }
+
+    private static int skipSpaces(CharSequence text, int i, int end) {
+        while (i < end && Character.isWhitespace(text.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean startsWith(CharSequence text, int i, int end, String s) {
+        return end - i >= s.length() && regionMatches(text, i, s);
+    }
+
+    private static boolean startsWithWord(CharSequence text, int i, int end, String word) {
+        if (!startsWith(text, i, end, word)) return false;
+        int after = i + word.length();
+        return after >= end || !isIdentPart(text.charAt(after));
+    }
+
+    private static int indexOf(CharSequence text, int from, int end, String s) {
+        for (int i = from; i + s.length() <= end; i++) {
+            if (regionMatches(text, i, s)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence text, int at, String s) {
+        if (text instanceof String str) return str.startsWith(s, at);
+        for (int k = 0; k < s.length(); k++) {
+            if (text.charAt(at + k) != s.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isIdentPart(char c) {
+        return Character.isJavaIdentifierPart(c);
+    }
+}
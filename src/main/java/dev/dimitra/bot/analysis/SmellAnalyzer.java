@@ -1,66 +1,535 @@
 package dev.dimitra.bot.analysis;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import dev.dimitra.bot.cache.FindingsCache;
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.diff.PatchCompactor;
+import dev.dimitra.bot.diff.PatchSlice;
+import dev.dimitra.bot.diff.PatchStore;
+import dev.dimitra.bot.http.Transport;
 import dev.dimitra.bot.llm.*;
+import dev.dimitra.bot.metrics.RunMetrics;
 import dev.dimitra.bot.model.ChangedFile;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static dev.dimitra.bot.config.Env.boolEnv;
+import static dev.dimitra.bot.config.Env.intEnv;
 
 public class SmellAnalyzer {
     private final LlmClient llm;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectReader FINDING = Transport.shared().readerFor(LlmFinding.class);
+    private static final ObjectReader FINDINGS = Transport.shared().mapper().readerFor(new TypeReference<List<LlmFinding>>() {});
     private final int maxFilesPerChunk;
-    private final int maxPatchChars;
+    private final int inputTokenBudget;
+    private final TokenEstimator estimator;
+    private final int maxConcurrency;
+    private final Duration chunkTimeout;
+    private final FindingsCache cache; // optional
+    private final LocalSmellDetector localPrepass; // optional
+    private final PatchCompactor compactor; // optional
+    private final ChunkTuner tuner; // optional
+    private final String systemPrompt; // identical for every chunk (see SmellPrompt)
+
+    private static final int MAX_OUTPUT_TOKENS = 1200;
+    private static final Map<String, Object> CHAT_OPTIONS = Map.of("temperature", 0.2, "max_tokens", MAX_OUTPUT_TOKENS);
+    // CHAT_OPTIONS plus the cacheable-prefix hint, which doesn't change the answer and so stays out of cache keys
+    private static final Map<String, Object> REQUEST_OPTIONS = Map.of("temperature", 0.2, "max_tokens", MAX_OUTPUT_TOKENS,
+            LlmClient.CACHE_PREFIX, true);
 
-    public SmellAnalyzer(LlmClient llm, int maxFilesPerChunk, int maxPatchChars) {
+    /**
+     * Usually built by {@link #fromEnv}. Every optional argument may be null, and a non-positive
+     * number or null duration falls back to the default.
+     *
+     * @param maxFilesPerChunk most files packed into one request (default 5)
+     * @param inputTokenBudget target size of one request, system prompt and instructions included (default 6000)
+     * @param estimator      token estimator used for packing; null for {@link TokenEstimator#DEFAULT}
+     * @param maxConcurrency how many chunks may be in flight against the LLM at once (default 4)
+     * @param chunkTimeout   upper bound for a single chunk's LLM call; a chunk that exceeds it is dropped (default 180 s)
+     * @param cache          per-file findings cache, or null to always ask the LLM
+     * @param localPrepass   rule-based detector run before the LLM, or null to send every hunk
+     * @param compactor      trims patches before they are packed, or null to send them as GitHub returned them
+     * @param tuner          adjusts the chunk size per model from earlier chunks, or null to always use the
+     *                       configured maxFilesPerChunk and inputTokenBudget
+     */
+    public SmellAnalyzer(LlmClient llm, int maxFilesPerChunk, int inputTokenBudget, TokenEstimator estimator,
+                         int maxConcurrency, Duration chunkTimeout, FindingsCache cache,
+                         LocalSmellDetector localPrepass, PatchCompactor compactor, ChunkTuner tuner) {
         this.llm = llm;
         this.maxFilesPerChunk = maxFilesPerChunk <= 0 ? 5 : maxFilesPerChunk;
-        this.maxPatchChars = maxPatchChars <= 0 ? 12000 : maxPatchChars;
+        this.estimator = estimator == null ? TokenEstimator.DEFAULT : estimator;
+        this.inputTokenBudget = inputTokenBudget <= 0 ? 6000 : inputTokenBudget;
+        this.maxConcurrency = maxConcurrency <= 0 ? 4 : maxConcurrency;
+        this.chunkTimeout = (chunkTimeout == null || chunkTimeout.isZero() || chunkTimeout.isNegative())
+                ? Duration.ofSeconds(180)
+                : chunkTimeout;
+        this.cache = cache;
+        this.localPrepass = localPrepass;
+        this.compactor = compactor;
+        this.tuner = tuner;
+        this.systemPrompt = SmellPrompt.system(compactor != null);
+    }
+
+    /**
+     * Builds an analyzer from LLM_MAX_FILES_PER_CHUNK, LLM_INPUT_TOKEN_BUDGET (or the older
+     * LLM_MAX_PATCH_CHARS), LLM_MAX_CONCURRENCY, LLM_CHUNK_TIMEOUT_SECONDS, LOCAL_PREPASS and
+     * the PROMPT_* compaction and CHUNK_TUNING* settings (see {@link PatchCompactor#fromEnv} and
+     * {@link ChunkTuner#fromEnv}).
+     */
+    public static SmellAnalyzer fromEnv(LlmClient llm, FindingsCache cache) {
+        int patchChars = intEnv("LLM_MAX_PATCH_CHARS", -1);
+        int budget = intEnv("LLM_INPUT_TOKEN_BUDGET", patchChars > 0 ? budgetForPatchChars(patchChars) : 6000);
+        return new SmellAnalyzer(
+                llm,
+                intEnv("LLM_MAX_FILES_PER_CHUNK", 5),
+                budget,
+                TokenEstimator.DEFAULT,
+                intEnv("LLM_MAX_CONCURRENCY", 4),
+                Duration.ofSeconds(intEnv("LLM_CHUNK_TIMEOUT_SECONDS", 180)),
+                cache,
+                boolEnv("LOCAL_PREPASS", true) ? new LocalSmellDetector() : null,
+                PatchCompactor.fromEnv(),
+                ChunkTuner.fromEnv()
+        );
+    }
+
+    /** Legacy character limit on patches -> request token budget including the fixed prompt. */
+    private static int budgetForPatchChars(int maxPatchChars) {
+        return TokenEstimator.DEFAULT.estimate(SmellPrompt.SYSTEM_PROMPT) + TokenEstimator.DEFAULT.estimate("x".repeat(maxPatchChars)) + 200;
     }
 
     public List<LlmFinding> analyze(String repository, int prNumber, List<ChangedFile> files) throws IOException, InterruptedException {
-        List<LlmFinding> all = new ArrayList<>();
-        List<List<ChangedFile>> chunks = chunkFiles(files);
-
-        String system = """
-            You are a precise static-analysis assistant for Java (and general code). 
-            Task: review only the diff hunks and report code smells that are *visible in the diff*. 
-            For each finding, return strict JSON (UTF-8) in the schema:
-            [{"file":"<path>","line":<int>,"rule":"<name>","severity":"Blocker|Major|Minor","why":"<1-3 sentences>","suggestionPatch":"<optional GitHub suggestion or patch>"}]
-            - "line": prefer an added/modified line number from the patch; if unknown, use 0.
-            - Only include issues justified by the shown diff; avoid speculative project-wide claims.
-            - If fix is clear and small, include a GitHub *suggestion* block.
-            - Keep explanations concise and actionable.
-            Respond with JSON only—no prose.
-        """;
-
-        for (int i = 0; i < chunks.size(); i++) {
-            var c = chunks.get(i);
-            String diffText = renderChunk(repository, prNumber, c);
-            var messages = List.of(
-                    new LlmClient.Message("user", diffText)
-            );
-            var res = llm.chat(system, messages, Map.of("temperature", 0.2, "max_tokens", 1200));
-
-            // try strict JSON parse; if model wrapped in backticks, strip them
-            String t = res.text().trim();
-            if (t.startsWith("```")) t = t.replaceAll("^```(json)?", "").replaceAll("```$", "").trim();
-            List<LlmFinding> findings;
+        Session session = open(repository, prNumber);
+        files.forEach(session::accept);
+        return session.finish();
+    }
+
+    /**
+     * Starts an incremental analysis: files are fed one at a time (e.g. while the
+     * PR listing is still downloading) and each chunk is dispatched as soon as it is full.
+     */
+    public Session open(String repository, int prNumber) {
+        return open(repository, prNumber, null);
+    }
+
+    /**
+     * @param onFinding called (from worker threads) with every finding as soon as it is known,
+     *                  before the merged list is available from {@link Session#finish}; may be null
+     */
+    public Session open(String repository, int prNumber, Consumer<LlmFinding> onFinding) {
+        return open(repository, prNumber, onFinding, null, null);
+    }
+
+    /**
+     * @param llmStage runs this session's chunks instead of its own workers, so many sessions can
+     *                 share one bounded LLM stage (see the backfill mode); LLM_MAX_CONCURRENCY
+     *                 then no longer applies per session
+     */
+    public Session open(String repository, int prNumber, Consumer<LlmFinding> onFinding, Executor llmStage) {
+        return open(repository, prNumber, onFinding, llmStage, null);
+    }
+
+    /**
+     * @param store where compacted patches are kept until their chunk is sent, normally the
+     *              store the PR's own patches are in; null keeps them on the heap
+     */
+    public Session open(String repository, int prNumber, Consumer<LlmFinding> onFinding, Executor llmStage,
+                        PatchStore store) {
+        return new Session(repository, prNumber, onFinding, llmStage, store);
+    }
+
+    /** Not thread-safe: {@link #accept} is meant to be called from the single thread producing files. */
+    public final class Session implements AutoCloseable {
+        private final String repository;
+        private final int prNumber;
+        private final Consumer<LlmFinding> onFinding;
+        private final Executor llmStage; // null = this session's own workers, limited by permits
+        private final PatchStore store; // compacted patches waiting for their chunk; null = heap
+        private final ChunkPacker packer;
+        private volatile ChunkTuner.Plan plan; // narrowed by chunks that overran
+        private ChunkTuner.Plan packedFor;
+        private final List<Future<List<LlmFinding>>> pending = new ArrayList<>();
+        private final List<LlmFinding> cached = new ArrayList<>(); // cache hits and local findings
+        private final Map<String, Integer> fileOrder = new HashMap<>();
+        private final Map<String, ParsedPatch> originals = new ConcurrentHashMap<>(); // findings are checked against these
+        private final Map<String, FileProgress> progress = new ConcurrentHashMap<>(); // cache bookkeeping
+        private final Semaphore permits = new Semaphore(maxConcurrency);
+        private final ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+        private final RunMetrics metrics = RunMetrics.current(); // the run that opened the session
+        private int localOnlyFiles, localFindings, failedChunks;
+        private long rawTokens, sentTokens; // estimated patch tokens before and after compaction
+        private boolean collected; // finish() got every chunk's outcome; until then close() cancels
+        private volatile boolean cancelled; // a chunk that gets its permit after close() must not start
+
+        private Session(String repository, int prNumber, Consumer<LlmFinding> onFinding, Executor llmStage,
+                        PatchStore store) {
+            this.repository = repository;
+            this.prNumber = prNumber;
+            this.onFinding = onFinding == null ? f -> {} : onFinding;
+            this.llmStage = llmStage;
+            this.store = store;
+            this.plan = tuner == null
+                    ? new ChunkTuner.Plan(inputTokenBudget, maxFilesPerChunk)
+                    : tuner.plan(llm.model(), inputTokenBudget, maxFilesPerChunk, MAX_OUTPUT_TOKENS, chunkTimeout);
+            this.packedFor = plan;
+            this.packer = newPacker(plan);
+        }
+
+        public void accept(ChangedFile f) {
+            accept(f, null);
+        }
+
+        /**
+         * @param parsed the file's patch if the caller already parsed it (or keeps it in a
+         *               {@link PatchStore}; {@code f.patch()} is then not read), else null
+         */
+        public void accept(ChangedFile f, ParsedPatch parsed) {
+            if (f.filename() == null || !f.filename().endsWith(".java")) return;
+            fileOrder.putIfAbsent(f.filename(), fileOrder.size());
+            if (parsed == null) parsed = ParsedPatch.parse(f.patch());
+            List<PatchSlice> forLlm = List.of(PatchSlice.whole(f.filename(), f.status(), parsed));
+            if (localPrepass != null) {
+                long t0 = System.nanoTime();
+                LocalSmellDetector.Outcome outcome = localPrepass.scan(forLlm.get(0));
+                metrics.time("local_prepass", System.nanoTime() - t0);
+                cached.addAll(outcome.findings());
+                outcome.findings().forEach(onFinding);
+                localFindings += outcome.findings().size();
+                forLlm = outcome.forLlm();
+                if (forLlm.isEmpty()) {
+                    localOnlyFiles++;
+                    return;
+                }
+            }
+            String key = cache == null ? null : cacheKey(f.filename(), parsed);
+            if (cache != null) {
+                List<LlmFinding> hit = cache.get(key);
+                if (hit != null) {
+                    metrics.count("cache_hits");
+                    cached.addAll(hit);
+                    hit.forEach(onFinding);
+                    return;
+                }
+            }
+            originals.put(f.filename(), parsed);
+            if (compactor != null) forLlm = compact(forLlm);
+            long t0 = System.nanoTime();
+            ChunkTuner.Plan current = plan;
+            if (current != packedFor) {
+                packedFor = current;
+                packer.resize(current.maxFilesPerChunk(), packerBudget(current.inputTokenBudget()));
+            }
+            List<PatchSlice> pieces = new ArrayList<>();
+            for (PatchSlice s : forLlm) pieces.addAll(packer.split(s));
+            if (cache != null) progress.put(f.filename(), new FileProgress(key, pieces.size()));
+            List<List<PatchSlice>> full = new ArrayList<>();
+            for (PatchSlice piece : pieces) full.addAll(packer.add(piece));
+            metrics.time("chunking", System.nanoTime() - t0);
+            full.forEach(this::dispatch);
+        }
+
+        private List<PatchSlice> compact(List<PatchSlice> slices) {
+            long t0 = System.nanoTime();
+            List<PatchSlice> out = new ArrayList<>(slices.size());
+            long raw = 0, sent = 0;
+            for (PatchSlice s : slices) {
+                PatchSlice c = compactor.compact(s, store);
+                raw += (s.header() == null ? 0 : estimator.estimate(s.header())) + estimator.estimate(s.body());
+                sent += estimator.estimate(c.body());
+                if (!c.patch().isEmpty()) out.add(c);
+            }
+            metrics.time("compaction", System.nanoTime() - t0);
+            rawTokens += raw;
+            // nothing significant left (e.g. a pure re-indent): send the file as is rather than drop it silently
+            sentTokens += out.isEmpty() ? raw : sent;
+            return out.isEmpty() ? slices : out;
+        }
+
+        /** Dispatches the partially filled chunks without waiting for them; no more files may follow. */
+        public void flush() {
+            packer.flush().forEach(this::dispatch);
+        }
+
+        /** Chunks whose findings are missing from {@link #finish}'s result (valid once it returned). */
+        public int failedChunks() {
+            return failedChunks;
+        }
+
+        /** Flushes the partial chunks, waits for every chunk and returns the merged findings. */
+        public List<LlmFinding> finish() throws InterruptedException {
+            flush();
+            if (localPrepass != null && llmStage == null) {
+                System.out.println("[INFO] Local pre-pass: " + localFindings + " finding(s), "
+                        + localOnlyFiles + " file(s) needed no LLM call");
+            }
+            if (compactor != null) {
+                metrics.count("patch_tokens_raw", rawTokens);
+                metrics.count("patch_tokens_sent", sentTokens);
+                if (llmStage == null && rawTokens > 0) System.out.println("[INFO] " + PatchCompactor.report(rawTokens, sentTokens));
+            }
+
+            // collect in chunk order (not completion order) so the merged report is stable between runs
+            List<LlmFinding> all = new ArrayList<>(cached);
             try {
-                findings = mapper.readValue(t, new TypeReference<List<LlmFinding>>() {});
-            } catch (Exception e) {
-                // fallback: return empty for this chunk
-                findings = List.of();
+                for (int i = 0; i < pending.size(); i++) {
+                    try {
+                        all.addAll(pending.get(i).get());
+                    } catch (ExecutionException e) {
+                        // one bad chunk must not sink the others
+                        failedChunks++;
+                        metrics.count("failed_chunks");
+                        System.err.println("[WARN] LLM chunk " + (i + 1) + "/" + pending.size() + " failed: " + e.getCause());
+                    }
+                }
+                collected = true;
+            } finally {
+                close();
+            }
+            if (tuner != null) tuner.save();
+            // cache hits skip chunking, so order by the file's position in the PR to keep output identical
+            all.sort(Comparator.comparingInt(f -> fileOrder.getOrDefault(f.file(), Integer.MAX_VALUE)));
+            return mergeDuplicates(all);
+        }
+
+        /**
+         * Ends the session. Unless {@link #finish} collected every chunk, the run was cut short
+         * (interrupted by a newer push, or failed before finishing): queued chunks are cancelled
+         * and running LLM calls interrupted, so nothing keeps spending quota on a dead run.
+         */
+        @Override
+        public void close() {
+            if (!collected) {
+                cancelled = true;
+                pending.forEach(f -> f.cancel(true)); // includes chunks handed to a shared llmStage
+                exec.shutdownNow();
+            }
+            exec.close();
+        }
+
+        private void dispatch(List<PatchSlice> chunk) {
+            RunMetrics chunkMetrics = metrics.child("chunk-" + (pending.size() + 1));
+            chunkMetrics.set("files", chunk.size());
+            chunkMetrics.set("patchChars", chunk.stream().mapToInt(PatchSlice::length).sum());
+            ChunkTuner.Plan packedUnder = packedFor;
+            Callable<List<LlmFinding>> task = () -> chunkMetrics.callBound(() -> {
+                long t0 = System.nanoTime();
+                ChunkResult r;
+                try {
+                    r = analyzeChunk(repository, prNumber, chunk, originals, exec, onFinding);
+                } catch (TimeoutException e) {
+                    observe(packedUnder, new ChunkTuner.Observation(fixedPromptTokens() + patchTokens(chunk),
+                            System.nanoTime() - t0, 0, 0, false, true));
+                    throw e;
+                }
+                chunkMetrics.time("llm_chunk", System.nanoTime() - t0);
+                observe(packedUnder, new ChunkTuner.Observation(r.inputTokens(), System.nanoTime() - t0, r.findings().size(),
+                        r.outputTokens(), r.truncated(), r.timedOut()));
+                chunkMetrics.set("findings", r.findings().size());
+                chunkMetrics.set("complete", r.complete());
+                if (cache != null) record(chunk, r.findings(), r.complete());
+                return r.findings();
+            });
+            if (llmStage != null) {
+                FutureTask<List<LlmFinding>> f = new FutureTask<>(task);
+                pending.add(f);
+                llmStage.execute(f); // blocks while the stage is full
+                return;
+            }
+            pending.add(exec.submit(() -> {
+                permits.acquire();
+                try {
+                    if (cancelled) throw new CancellationException(); // freed by a chunk that was just stopped
+                    return task.call();
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+
+        /**
+         * Feeds the tuner. A chunk that overran shrinks the chunks this session packs from now on,
+         * once per size: chunks already in flight at the old size don't narrow it again.
+         */
+        private void observe(ChunkTuner.Plan packedUnder, ChunkTuner.Observation o) {
+            if (tuner == null) return;
+            tuner.observe(llm.model(), o);
+            if (!o.truncated() && !o.timedOut()) return;
+            synchronized (this) {
+                if (plan == packedUnder) plan = tuner.narrow(llm.model(), plan);
+            }
+        }
+
+        private int patchTokens(List<PatchSlice> chunk) {
+            int tokens = 0;
+            for (PatchSlice s : chunk) {
+                tokens += (s.header() == null ? 0 : estimator.estimate(s.header())) + estimator.estimate(s.body());
             }
-            all.addAll(findings);
+            return tokens;
+        }
+
+        /**
+         * Attributes a chunk's findings to its files and caches each file once all of its pieces
+         * have answered. A chunk whose findings can't all be attributed, or whose response was
+         * cut short, poisons its files.
+         */
+        private void record(List<PatchSlice> chunk, List<LlmFinding> findings, boolean complete) {
+            Set<String> names = new HashSet<>();
+            for (var piece : chunk) names.add(piece.filename());
+            boolean attributable = complete && findings.stream().allMatch(f -> names.contains(f.file()));
+            for (String name : names) {
+                FileProgress p = progress.get(name);
+                if (p == null) continue;
+                synchronized (p) {
+                    p.poisoned |= !attributable;
+                    for (var f : findings) if (name.equals(f.file())) p.findings.add(f);
+                    p.remaining -= (int) chunk.stream().filter(c -> name.equals(c.filename())).count();
+                    if (p.remaining == 0 && !p.poisoned) cache.put(p.key, p.findings);
+                }
+            }
+        }
+    }
+
+    private static final class FileProgress {
+        final String key;
+        final List<LlmFinding> findings = new ArrayList<>();
+        int remaining;
+        boolean poisoned;
+
+        FileProgress(String key, int pieces) {
+            this.key = key;
+            this.remaining = pieces;
         }
-        return mergeDuplicates(all);
     }
 
-    private List<LlmFinding> mergeDuplicates(List<LlmFinding> list) {
+    private ChunkPacker newPacker(ChunkTuner.Plan plan) {
+        return new ChunkPacker(plan.maxFilesPerChunk(), packerBudget(plan.inputTokenBudget()), estimator);
+    }
+
+    /** Request token budget -> what is left for patches once the fixed prompt is counted. */
+    private int packerBudget(int inputTokenBudget) {
+        return Math.max(256, inputTokenBudget - fixedPromptTokens());
+    }
+
+    private int fixedPromptTokens() {
+        return estimator.estimate(systemPrompt) + estimator.estimate(renderChunk("", 0, List.of()));
+    }
+
+    /**
+     * A chunk's findings; {@code complete} is false when they were salvaged from a cut-off response.
+     * The rest is what the chunk cost, for the {@link ChunkTuner}.
+     */
+    private record ChunkResult(List<LlmFinding> findings, boolean complete, int inputTokens, int outputTokens,
+                               boolean truncated, boolean timedOut) {}
+
+    /** @param patches each file's full, uncompacted patch: what the reported lines are checked against */
+    private ChunkResult analyzeChunk(String repository, int prNumber, List<PatchSlice> c, Map<String, ParsedPatch> patches,
+                                     ExecutorService exec, Consumer<LlmFinding> onFinding) throws Exception {
+        RunMetrics metrics = RunMetrics.current();
+        long t0 = System.nanoTime();
+        CharSequence diffText = renderChunk(repository, prNumber, c);
+        metrics.time("prompt_render", System.nanoTime() - t0);
+        int inputTokens = estimator.estimate(systemPrompt) + estimator.estimate(diffText);
+        long deadline = System.nanoTime() + chunkTimeout.toNanos(); // shared by the continuations
+
+        // findings are parsed (and reported) as the response streams in
+        FindingsExchange exchange = new FindingsExchange(FINDING, f -> onFinding.accept(validateLine(patches, f)));
+        LlmClient.Result res;
+        try {
+            res = exchange.run(diffText, (messages, parser) -> {
+                Consumer<String> feed = text -> {
+                    long p0 = System.nanoTime();
+                    parser.feed(text);
+                    metrics.time("parse", System.nanoTime() - p0);
+                };
+                // run the call on its own thread so it can be abandoned once the chunk timeout elapses
+                Future<LlmClient.Result> call = exec.submit(() ->
+                        llm.chatStream(systemPrompt, messages, REQUEST_OPTIONS, feed));
+                try {
+                    return call.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    call.cancel(true);
+                    throw e;
+                }
+            });
+        } catch (TimeoutException e) {
+            if (!exchange.findings().isEmpty()) {
+                return salvage(patches, exchange, "timed out after " + chunkTimeout.toSeconds() + "s", inputTokens, true);
+            }
+            throw new TimeoutException("no LLM response within " + chunkTimeout.toSeconds() + "s");
+        } catch (ExecutionException e) {
+            if (!exchange.findings().isEmpty()) {
+                return salvage(patches, exchange, "failed mid-stream: " + e.getCause(), inputTokens, false);
+            }
+            throw (e.getCause() instanceof Exception ex) ? ex : e;
+        }
+
+        int outputTokens = exchange.outputTokens(estimator);
+        if (exchange.isComplete()) {
+            return new ChunkResult(validateLines(patches, exchange.findings()), true, inputTokens, outputTokens,
+                    exchange.truncated(), false);
+        }
+        if (exchange.sawArray() || exchange.continuations() > 0) {
+            return salvage(patches, exchange, res.truncated()
+                    ? "still cut off after " + exchange.continuations() + " continuation(s)"
+                    : "response ended before the closing bracket", inputTokens, false);
+        }
+
+        // not an array at all: try strict JSON parse; if model wrapped in backticks, strip them
+        String t = res.text().trim();
+        if (t.startsWith("```")) t = t.replaceAll("^```(json)?", "").replaceAll("```$", "").trim();
+        List<LlmFinding> findings;
+        long p0 = System.nanoTime();
+        try {
+            findings = FINDINGS.readValue(t);
+        } catch (Exception e) {
+            metrics.count("parse_failures");
+            throw new IOException("unparseable LLM response: " + e.getMessage());
+        } finally {
+            metrics.time("parse", System.nanoTime() - p0);
+        }
+        return new ChunkResult(validateLines(patches, findings), true, inputTokens, outputTokens, exchange.truncated(), false);
+    }
+
+    private ChunkResult salvage(Map<String, ParsedPatch> patches, FindingsExchange exchange, String why,
+                                int inputTokens, boolean timedOut) {
+        List<LlmFinding> partial = exchange.findings();
+        RunMetrics.current().count("truncated_responses");
+        System.err.println("[WARN] LLM chunk " + why + "; keeping the " + partial.size() + " finding(s) received");
+        return new ChunkResult(validateLines(patches, partial), false, inputTokens, exchange.outputTokens(estimator),
+                exchange.truncated(), timedOut);
+    }
+
+    /** Lines the diff doesn't show can't be commented on; report those findings as line 0 ("unknown"). */
+    private static List<LlmFinding> validateLines(Map<String, ParsedPatch> patches, List<LlmFinding> findings) {
+        List<LlmFinding> out = new ArrayList<>(findings.size());
+        for (var f : findings) out.add(validateLine(patches, f));
+        return out;
+    }
+
+    private static LlmFinding validateLine(Map<String, ParsedPatch> patches, LlmFinding f) {
+        ParsedPatch p = patches.get(f.file());
+        if (f.line() > 0 && p != null && !p.isEmpty() && !p.showsNewLine(f.line())) {
+            return new LlmFinding(f.file(), 0, f.rule(), f.severity(), f.why(), f.suggestionPatch());
+        }
+        return f;
+    }
+
+    private String cacheKey(String filename, ParsedPatch patch) {
+        Map<String, Object> options = CHAT_OPTIONS;
+        if (compactor != null) {
+            options = new TreeMap<>(CHAT_OPTIONS);
+            options.put("compaction", compactor.describe());
+        }
+        return FindingsCache.key(filename, patch.text(), systemPrompt, llm.model(), options);
+    }
+
+    // package-private from here on: exercised directly by the JMH benchmarks (benchmarks/)
+    List<LlmFinding> mergeDuplicates(List<LlmFinding> list) {
         // de-dup simple (file,line,rule)
         Map<String, LlmFinding> map = new LinkedHashMap<>();
         for (var f : list) {
@@ -70,47 +539,21 @@ public class SmellAnalyzer {
         return new ArrayList<>(map.values());
     }
 
-    private List<List<ChangedFile>> chunkFiles(List<ChangedFile> files) {
-        List<ChangedFile> javaOnly = files.stream()
-                .filter(f -> f.filename().endsWith(".java"))
-                .collect(Collectors.toList());
-        List<List<ChangedFile>> chunks = new ArrayList<>();
-        List<ChangedFile> current = new ArrayList<>();
-        int size = 0;
-        for (ChangedFile f : javaOnly) {
-            int patchLen = (f.patch() == null) ? 0 : f.patch().length();
-            if (!current.isEmpty() && (current.size() >= maxFilesPerChunk || size + patchLen > maxPatchChars)) {
-                chunks.add(current);
-                current = new ArrayList<>();
-                size = 0;
-            }
-            current.add(f);
-            size += patchLen;
+    List<List<PatchSlice>> chunkFiles(List<ChangedFile> files) {
+        List<List<PatchSlice>> chunks = new ArrayList<>();
+        ChunkPacker packer = newPacker(new ChunkTuner.Plan(inputTokenBudget, maxFilesPerChunk));
+        for (ChangedFile f : files) {
+            if (!f.filename().endsWith(".java")) continue;
+            PatchSlice whole = PatchSlice.whole(f.filename(), f.status(), ParsedPatch.parse(f.patch()));
+            if (compactor != null) whole = compactor.compact(whole);
+            for (PatchSlice piece : packer.split(whole)) chunks.addAll(packer.add(piece));
         }
-        if (!current.isEmpty()) chunks.add(current);
+        chunks.addAll(packer.flush());
         return chunks;
     }
 
-    private String renderChunk(String repository, int prNumber, List<ChangedFile> c) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Repository: ").append(repository).append("\n");
-        sb.append("PR: ").append(prNumber).append("\n");
-        sb.append("Analyze ONLY these patches:\n\n");
-        for (var f : c) {
-            sb.append("=== FILE: ").append(f.filename()).append(" (").append(f.status()).append(") ===\n");
-            if (f.patch() != null && !f.patch().isBlank()) {
-                sb.append(f.patch()).append("\n\n");
-            } else {
-                sb.append("(no patch available)\n\n");
-            }
-        }
-        sb.append("""
-        Output JSON array only. Example:
-        [
-          {"file":"src/Foo.java","line":42,"rule":"Long Method","severity":"Major","why":"Method exceeds 50 lines","suggestionPatch":"(optional)"},
-          {"file":"src/Bar.java","line":0,"rule":"Dead Code","severity":"Minor","why":"Unused import in diff","suggestionPatch":""}
-        ]
-        """);
-        return sb.toString();
+    /** The chunk's user message (see {@link SmellPrompt#patches}). */
+    CharSequence renderChunk(String repository, int prNumber, List<PatchSlice> c) {
+        return SmellPrompt.patches(repository, prNumber, c);
     }
 }
@@ -0,0 +1,121 @@
+package dev.dimitra.bot.analysis;
+
+import dev.dimitra.bot.diff.PatchSlice;
+import dev.dimitra.bot.llm.LlmClient;
+import dev.dimitra.bot.llm.PromptText;
+
+import java.util.List;
+
+/**
+ * The prompt text both analysis paths send: the chunked {@link SmellAnalyzer} and the
+ * single-prompt fallback in the pipeline. The system prompt carries the instructions, the smell
+ * catalogue and the output example; the user message only the patches. The catalogue also keeps
+ * the system prompt above the size providers start caching prompt prefixes at (see
+ * {@link LlmClient#MIN_CACHED_PREFIX_CHARS}).
+ */
+public final class SmellPrompt {
+
+    static final String SYSTEM_PROMPT = """
+            You are a precise static-analysis assistant for Java (and general code).
+            Task: review only the diff hunks and report code smells that are *visible in the diff*.
+            For each finding, return strict JSON (UTF-8) in the schema:
+            [{"file":"<path>","line":<int>,"rule":"<name>","severity":"Blocker|Major|Minor","why":"<1-3 sentences>","suggestionPatch":"<optional GitHub suggestion or patch>"}]
+            - "line": prefer an added/modified line number from the patch; if unknown, use 0.
+            - Only include issues justified by the shown diff; avoid speculative project-wide claims.
+            - If fix is clear and small, include a GitHub *suggestion* block.
+            - Keep explanations concise and actionable.
+            Smells to look for; use these rule names, or another well-known name when none fits:
+            - Long Method: a method added or grown past ~50 lines, or one doing several unrelated steps.
+            - Large Class: a class gaining fields or methods for a responsibility it did not have.
+            - Long Parameter List: more than ~5 parameters, or several of the same type in a row.
+            - Duplicate Code: the same logic added twice in the diff, or copied from visible context lines.
+            - Feature Envy: a method that mostly works on another object's data through its getters.
+            - Data Clumps: the same group of values passed or stored together in several places.
+            - Primitive Obsession: strings or numbers standing in for ids, money, units or states.
+            - Switch Statements: type switches or instanceof chains that every new case has to extend.
+            - Message Chains: calls reaching through several objects, e.g. a.getB().getC().getD().
+            - Middle Man: a class whose added methods only delegate to another one.
+            - Inappropriate Intimacy: reaching into another class's internals (its fields, reflection).
+            - Refused Bequest: a subclass overriding inherited methods to throw or do nothing.
+            - Speculative Generality: unused parameters, hooks, or an abstraction with a single implementation.
+            - Dead Code: unused imports, variables, private methods, or unreachable branches.
+            - Magic Number: unexplained literals in logic (other than 0, 1 and obvious sizes).
+            - Deep Nesting: more than three levels of if/for/while/try in one method.
+            - Complex Conditional: boolean expressions mixing several && and ||, or stacked negations.
+            - Shared Mutable State: static or shared mutable fields and collections used without synchronization.
+            - Swallowed Exception: an empty catch, a catch that only logs a failure the caller needs to see,
+              or catching Exception/Throwable where a narrower type is meant.
+            - Resource Leak: a stream, connection, lock or executor not released on every path.
+            - Null Handling: returning null for a collection, or dereferencing a value the diff shows may be null.
+            - Misleading Name: a name that says something other than what the code does.
+            - Comment Smell: a comment restating the code, or a new TODO/FIXME without an owner or issue.
+            - Flag Argument: a boolean parameter that switches a method between two behaviours.
+            - Temporal Coupling: methods that must be called in a given order with nothing enforcing it.
+            - Exposed Internals: a getter handing out a mutable internal collection or array.
+            - Lazy Class: a new class that does too little to justify itself.
+            - Hardcoded Configuration: URLs, paths, credentials or timeouts that belong in configuration
+              (a credential is a Blocker).
+            Severity:
+            - Blocker: as written it is likely to cause a bug, a leak or lost data.
+            - Major: it makes the changed code markedly harder to understand, change or test.
+            - Minor: readability or style.
+            Do not report:
+            - code that only appears on removed lines;
+            - formatting-only or whitespace-only changes;
+            - generated code, or long test setup that only builds fixtures;
+            - the same smell twice for the same line.
+            Writing findings:
+            - "why" names the concrete element (method, field, literal) and the consequence, not the textbook definition.
+            - "suggestionPatch" replaces only the reported lines, and only when the fix is local; otherwise "".
+            - Prefer a few well-founded findings to many weak ones; an empty array [] is a valid answer.
+            Respond with JSON only—no prose.
+        """;
+    // the output instructions are part of the system prompt, so every chunk request starts with
+    // the same text and the provider can serve that prefix from its prompt cache
+    static final String EXAMPLE = """
+            Output JSON array only. Example:
+            [
+              {"file":"src/Foo.java","line":42,"rule":"Long Method","severity":"Major","why":"Method exceeds 50 lines","suggestionPatch":"(optional)"},
+              {"file":"src/Bar.java","line":0,"rule":"Dead Code","severity":"Minor","why":"Unused import in diff","suggestionPatch":""}
+            ]
+            """;
+    // the schema is already in the system prompt, so one example line is enough
+    static final String COMPACT_EXAMPLE = """
+            Patches are trimmed; @@ headers give real new-file line numbers. Output JSON array only, e.g.
+            [{"file":"src/Foo.java","line":42,"rule":"Long Method","severity":"Major","why":"Method exceeds 50 lines","suggestionPatch":""}]
+            """;
+
+    private SmellPrompt() {}
+
+    /** @param compacted the patches went through the compactor, so the example says so, briefly */
+    public static String system(boolean compacted) {
+        return SYSTEM_PROMPT + (compacted ? COMPACT_EXAMPLE : EXAMPLE);
+    }
+
+    /** The user message for a set of patches; they are referenced, not copied (see {@link PromptText}). */
+    public static CharSequence patches(String repository, int prNumber, List<PatchSlice> files) {
+        PromptText.Builder sb = PromptText.builder();
+        sb.append("Repository: ").append(repository).append("\n");
+        sb.append("PR: ").append(prNumber).append("\n");
+        sb.append("Analyze ONLY these patches:\n\n");
+        for (var f : files) {
+            sb.append("=== FILE: ").append(f.filename()).append(" (").append(f.status() == null ? "?" : f.status()).append(") ===\n");
+            if (!f.isEmpty() && !isBlank(f.patch().text())) {
+                if (f.header() != null) sb.append(f.header());
+                sb.appendView(f.body());
+                if (sb.lastChar() != '\n') sb.append('\n');
+                sb.append('\n');
+            } else {
+                sb.append("(no patch available)\n\n");
+            }
+        }
+        return sb.build();
+    }
+
+    private static boolean isBlank(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isWhitespace(s.charAt(i))) return false;
+        }
+        return true;
+    }
+}
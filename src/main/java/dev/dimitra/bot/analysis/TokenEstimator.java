@@ -0,0 +1,18 @@
+package dev.dimitra.bot.analysis;
+
+/**
+ * Rough input-token count for a piece of prompt text. Used for packing chunks,
+ * so it only has to be close and cheap, not exact.
+ */
+@FunctionalInterface
+public interface TokenEstimator {
+
+    int estimate(CharSequence text);
+
+    /** ~3.5 characters per token is a fair average for source code and diffs on current models. */
+    TokenEstimator DEFAULT = charsPerToken(3.5);
+
+    static TokenEstimator charsPerToken(double chars) {
+        return text -> text == null ? 0 : (int) Math.ceil(text.length() / chars);
+    }
+}
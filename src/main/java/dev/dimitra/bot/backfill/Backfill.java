@@ -0,0 +1,328 @@
+package dev.dimitra.bot.backfill;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.ReviewPipeline;
+import dev.dimitra.bot.analysis.SmellAnalyzer;
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.diff.PatchStore;
+import dev.dimitra.bot.github.GitHubQuota;
+import dev.dimitra.bot.github.PullRequestFilesFetcher;
+import dev.dimitra.bot.github.PullRequestLister;
+import dev.dimitra.bot.github.PullRequestLister.PullRequest;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.metrics.RunMetrics;
+import dev.dimitra.bot.model.ChangedFile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.dimitra.bot.config.Env.intEnv;
+
+/**
+ * Reviews a repository's whole PR backlog (open PRs, recently merged ones, or both) without
+ * posting anything, for trend data.
+ *
+ * <pre>
+ * list ─▶ fetch files ─▶ chunk ─▶ LLM ─▶ aggregate ─▶ out/backfill/findings.jsonl
+ * </pre>
+ *
+ * Every arrow is a bounded {@link Stage} with its own workers, so at most a few PRs are held
+ * in memory at once. Chunking runs ahead of the LLM and keeps its queue full; the LLM stage
+ * is the bottleneck by design. Quotas are enforced where the calls are made:
+ * {@link GitHubQuota} paces GitHub requests, and the LLM client's own rate limiter
+ * (LLM_RPM / LLM_TPM) paces the LLM. More LLM workers than the quota allows just queue there.
+ * Findings are parsed as each chunk streams in, and the aggregate stage merges a PR's chunks.
+ *
+ * findings.jsonl gets one JSON line per PR, flushed as soon as the PR is done, and it is also
+ * the checkpoint. A restarted backfill skips PRs that already have a successful line for the
+ * same head SHA, and drops a torn last line. Failed PRs get an {@code "error"} line and are
+ * retried on the next run. The last line for a PR wins.
+ */
+public class Backfill {
+
+    /**
+     * @param states       "open", "merged" or "all"
+     * @param limit        most PRs to take per state, 0 for no limit
+     * @param mergedDays   how far back merged PRs are listed
+     * @param fetchWorkers parallel GitHub file listings
+     * @param chunkWorkers threads running the local pre-pass, cache lookups and packing
+     * @param llmWorkers   chunks in flight against the LLM, across all PRs
+     * @param openPrs      PRs that may be waiting for their chunks at once
+     */
+    public record Options(String states, int limit, int mergedDays, Path outDir,
+                          int fetchWorkers, int chunkWorkers, int llmWorkers, int openPrs) {}
+
+    /** @param files metadata only; {@code patches} holds each Java file's patch (null for other files) */
+    private record FetchedPr(PullRequest pr, List<ChangedFile> files, List<ParsedPatch> patches, PatchStore store) {}
+
+    private record OpenPr(FetchedPr fetched, SmellAnalyzer.Session session, RunMetrics metrics) {}
+
+    private final SmellAnalyzer analyzer;
+    private final PullRequestLister lister;
+    private final PullRequestFilesFetcher fetcher;
+    private final ReviewPipeline.Config target;
+    private final Options options;
+    private final ObjectMapper mapper = Transport.shared().mapper();
+    private final AtomicInteger reviewed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private RunMetrics metrics;
+    private BufferedWriter out;
+    private int total;
+    private Stage<PullRequest> fetch;
+    private Stage<FetchedPr> chunk;
+    private Stage<Runnable> llm;
+    private Stage<OpenPr> aggregate;
+
+    /** @param target repository, credentials and MAX_FILES; the PR fields are ignored */
+    public Backfill(Transport transport, SmellAnalyzer analyzer, GitHubQuota quota, ReviewPipeline.Config target,
+                    Options options) {
+        this.analyzer = analyzer;
+        this.lister = new PullRequestLister(transport, target.apiUrl(), target.token(), quota);
+        this.fetcher = new PullRequestFilesFetcher(transport, target.apiUrl(), target.token(), quota);
+        this.target = target;
+        this.options = options;
+    }
+
+    /**
+     * BACKFILL_STATE (open|merged|all), BACKFILL_LIMIT, BACKFILL_MERGED_DAYS, BACKFILL_OUT and the
+     * per-stage BACKFILL_FETCH_WORKERS, BACKFILL_CHUNK_WORKERS, BACKFILL_LLM_WORKERS (defaults to
+     * LLM_MAX_CONCURRENCY) and BACKFILL_OPEN_PRS; GitHub pacing from {@link GitHubQuota#fromEnv}.
+     */
+    public static Backfill fromEnv(SmellAnalyzer analyzer, ReviewPipeline.Config target) {
+        Options options = new Options(
+                System.getenv().getOrDefault("BACKFILL_STATE", "open").trim().toLowerCase(),
+                intEnv("BACKFILL_LIMIT", 0),
+                intEnv("BACKFILL_MERGED_DAYS", 30),
+                Paths.get(System.getenv().getOrDefault("BACKFILL_OUT", "out/backfill")),
+                intEnv("BACKFILL_FETCH_WORKERS", 4),
+                intEnv("BACKFILL_CHUNK_WORKERS", 2),
+                intEnv("BACKFILL_LLM_WORKERS", intEnv("LLM_MAX_CONCURRENCY", 4)),
+                intEnv("BACKFILL_OPEN_PRS", 16));
+        return new Backfill(Transport.shared(), analyzer, GitHubQuota.fromEnv(), target, options);
+    }
+
+    public void run() throws IOException, InterruptedException {
+        String repository = target.repository();
+        Files.createDirectories(options.outDir());
+        Path file = options.outDir().resolve("findings.jsonl");
+        Set<String> done = resume(file);
+
+        List<PullRequest> todo = new ArrayList<>();
+        int skipped = 0;
+        for (PullRequest pr : list()) {
+            if (done.contains(pr.number() + "@" + pr.headSha())) skipped++;
+            else todo.add(pr);
+        }
+        total = todo.size();
+        System.out.println("[INFO] Backfill of " + repository + ": " + (total + skipped) + " PR(s) listed, "
+                + skipped + " already in " + file + ", " + total + " to review");
+
+        metrics = RunMetrics.startRun("backfill " + repository);
+        long t0 = System.nanoTime();
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out = w;
+            // built back to front so each stage knows where its output goes; the workers inherit `metrics`
+            aggregate = new Stage<>("aggregate", options.openPrs(), options.openPrs(), this::aggregate);
+            llm = new Stage<>("llm", options.llmWorkers(), options.llmWorkers(), Runnable::run);
+            Executor llmStage = Stage.executor(llm);
+            chunk = new Stage<>("chunk", options.chunkWorkers(), 2 * options.chunkWorkers(), f -> chunk(f, llmStage));
+            fetch = new Stage<>("fetch", options.fetchWorkers(), 2 * options.fetchWorkers(), this::fetch);
+            try {
+                for (PullRequest pr : todo) fetch.put(pr);
+            } finally {
+                // upstream first: each stage drains completely before the next one is told to stop
+                fetch.close();
+                chunk.close();
+                llm.close();
+                aggregate.close();
+            }
+        } finally {
+            metrics.finish();
+            writeMetrics();
+        }
+        // Stage.close() stops early when interrupted and leaves the flag for us
+        if (Thread.interrupted()) throw new InterruptedException("backfill of " + repository + " cancelled");
+        System.out.printf("[INFO] Backfill finished in %d s: %d reviewed, %d failed (retried on the next run)%n",
+                Duration.ofNanos(System.nanoTime() - t0).toSeconds(), reviewed.get(), failed.get());
+    }
+
+    private List<PullRequest> list() throws IOException, InterruptedException {
+        List<PullRequest> prs = new ArrayList<>();
+        String owner = target.owner(), repo = target.repo();
+        String states = options.states();
+        if (!states.equals("open") && !states.equals("merged") && !states.equals("all")) {
+            throw new IOException("BACKFILL_STATE must be open, merged or all, not '" + states + "'");
+        }
+        if (!states.equals("merged")) lister.listOpen(owner, repo, options.limit(), prs::add);
+        if (!states.equals("open")) {
+            Instant since = Instant.now().minus(Duration.ofDays(Math.max(1, options.mergedDays())));
+            lister.listMerged(owner, repo, since, options.limit(), prs::add);
+        }
+        return prs;
+    }
+
+    // ---- stages ----
+
+    private void fetch(PullRequest pr) throws InterruptedException {
+        List<ChangedFile> files = new ArrayList<>();
+        List<ParsedPatch> patches = new ArrayList<>();
+        PatchStore store = PatchStore.fromEnv(); // queued PRs would otherwise hold every patch on the heap
+        long t0 = System.nanoTime();
+        try {
+            fetcher.fetch(target.owner(), target.repo(), pr.number(), target.maxFiles(), f -> {
+                boolean java = f.filename() != null && f.filename().endsWith(".java");
+                patches.add(java ? store.parse(f.patch()) : null);
+                files.add(new ChangedFile(f.filename(), f.status(), f.additions(), f.deletions(), f.changes(), null));
+            });
+        } catch (IOException e) {
+            store.close();
+            fail(pr, "fetch failed: " + e.getMessage());
+            return;
+        }
+        metrics.time("github_fetch", System.nanoTime() - t0);
+        chunk.put(new FetchedPr(pr, files, patches, store));
+    }
+
+    private void chunk(FetchedPr f, Executor llmStage) throws InterruptedException {
+        RunMetrics prMetrics = metrics.child("#" + f.pr().number());
+        SmellAnalyzer.Session session;
+        try {
+            session = prMetrics.callBound(() -> {
+                SmellAnalyzer.Session s = analyzer.open(target.repository(), f.pr().number(), null, llmStage, f.store());
+                try {
+                    for (int i = 0; i < f.files().size(); i++) {
+                        if (f.patches().get(i) != null) s.accept(f.files().get(i), f.patches().get(i));
+                    }
+                    s.flush(); // blocks while the LLM stage is full
+                } catch (RuntimeException e) {
+                    s.close(); // stops the chunks it already handed out
+                    throw e;
+                }
+                return s;
+            });
+        } catch (RuntimeException e) {
+            // e.g. the spill file could not be read, or the LLM stage refused work while shutting down
+            f.store().close();
+            fail(f.pr(), "chunking failed: " + e);
+            return;
+        }
+        aggregate.put(new OpenPr(f, session, prMetrics));
+    }
+
+    private void aggregate(OpenPr p) throws InterruptedException, IOException {
+        PullRequest pr = p.fetched().pr();
+        List<LlmFinding> findings;
+        try {
+            findings = p.session().finish();
+        } finally {
+            p.fetched().store().close();
+        }
+        p.metrics().finish();
+
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("pr", pr.number());
+        line.put("headSha", pr.headSha());
+        line.put("state", pr.state());
+        if (pr.mergedAt() != null) line.put("mergedAt", pr.mergedAt());
+        line.put("title", pr.title());
+        line.put("files", p.fetched().files().size());
+        line.put("javaFiles", p.fetched().files().stream().filter(f -> f.filename() != null && f.filename().endsWith(".java")).count());
+        if (p.session().failedChunks() > 0) line.put("failedChunks", p.session().failedChunks());
+        line.put("findings", findings);
+        write(line);
+
+        if (p.session().failedChunks() > 0) failed.incrementAndGet();
+        else reviewed.incrementAndGet();
+        int n = reviewed.get() + failed.get();
+        System.out.println("[INFO] #" + pr.number() + ": " + findings.size() + " finding(s) from "
+                + p.fetched().files().size() + " file(s) [" + n + "/" + total + "; queued: fetch " + fetch.depth()
+                + ", chunk " + chunk.depth() + ", llm " + llm.depth() + ", open " + aggregate.depth() + "]");
+    }
+
+    private void fail(PullRequest pr, String error) {
+        failed.incrementAndGet();
+        System.err.println("[WARN] #" + pr.number() + ": " + error);
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("pr", pr.number());
+        line.put("headSha", pr.headSha());
+        line.put("error", error);
+        try {
+            write(line);
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not record the failure of #" + pr.number() + ": " + e.getMessage());
+        }
+    }
+
+    private void write(Map<String, Object> line) throws IOException {
+        String json = mapper.writeValueAsString(line);
+        synchronized (out) {
+            out.write(json);
+            out.newLine();
+            out.flush(); // a crash loses at most the line being written
+        }
+    }
+
+    // ---- checkpoint ----
+
+    /**
+     * Reads back a previous run's output: PRs with a complete line are done. A last line
+     * without its newline was cut off by a crash and is truncated away.
+     *
+     * @return "number@headSha" of every PR that needs no new review
+     */
+    private Set<String> resume(Path file) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(file)) return done;
+        byte[] bytes = Files.readAllBytes(file);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') end--;
+        if (end < bytes.length) {
+            System.err.println("[WARN] Dropping a torn last line (" + (bytes.length - end) + " bytes) from " + file);
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(end);
+            }
+        }
+        for (String s : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            if (s.isBlank()) continue;
+            JsonNode line;
+            try {
+                line = mapper.readTree(s);
+            } catch (IOException e) {
+                System.err.println("[WARN] Skipping unreadable line in " + file + ": " + e.getMessage());
+                continue;
+            }
+            if (line.has("error") || line.path("failedChunks").asInt(0) > 0) continue;
+            done.add(line.path("pr").asInt() + "@" + line.path("headSha").asText(null));
+        }
+        return done;
+    }
+
+    private void writeMetrics() {
+        Path file = options.outDir().resolve("metrics.json");
+        try {
+            Files.writeString(file, mapper.writerWithDefaultPrettyPrinter().writeValueAsString(metrics.toMap()));
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not write " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package dev.dimitra.bot.backfill;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One step of the backfill pipeline: a bounded queue drained by a fixed number of workers.
+ *
+ * {@link #put} blocks while the queue is full, so a slow stage holds back the stages that
+ * feed it and memory stays bounded by the queue capacities. A worker that throws only loses
+ * that item; handling per-item failures is up to the stage's {@link Worker}. That includes an
+ * interrupt aimed at one item (e.g. a cancelled LLM task): the worker clears it and carries on,
+ * so a stage only loses its workers when it is closed.
+ */
+final class Stage<T> implements AutoCloseable {
+
+    interface Worker<T> {
+        void process(T item) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean stopping; // END is queued: each worker that takes it puts it back and exits
+    private volatile boolean aborted; // close() was interrupted: workers drop what is left
+
+    Stage(String name, int workers, int capacity, Worker<T> worker) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            this.workers.add(Thread.ofVirtual().name(name + "-" + i).start(() -> drain(worker)));
+        }
+    }
+
+    /** Wraps a stage of runnables as an {@link Executor} whose {@code execute} blocks while it is full. */
+    static Executor executor(Stage<Runnable> stage) {
+        return task -> {
+            try {
+                stage.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        };
+    }
+
+    void put(T item) throws InterruptedException {
+        queue.put(item);
+    }
+
+    int depth() {
+        return Math.max(0, queue.size() - (stopping ? 1 : 0));
+    }
+
+    /**
+     * Lets the workers finish everything queued so far, then stops them. No more items may be put.
+     * If the caller is interrupted meanwhile, the workers are interrupted too and drop the rest;
+     * the caller's interrupt flag stays set.
+     */
+    @Override
+    public void close() {
+        try {
+            stopping = true;
+            // a worker could only be gone if it died of an Error; then nobody would make room for END
+            while (!queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                if (workers.stream().noneMatch(Thread::isAlive)) return;
+            }
+            for (Thread t : workers) t.join();
+        } catch (InterruptedException e) {
+            aborted = true;
+            workers.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain(Worker<T> worker) {
+        while (!aborted) {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                continue; // not a reason to stop: only END or an aborted close() is
+            }
+            if (item == END) {
+                queue.offer(END); // room is guaranteed: END was just taken out
+                return;
+            }
+            try {
+                worker.process((T) item);
+            } catch (InterruptedException e) {
+                System.err.println("[WARN] Backfill " + name + " stage: interrupted");
+            } catch (Exception e) {
+                System.err.println("[WARN] Backfill " + name + " stage: " + e);
+            }
+            Thread.interrupted(); // an interrupt meant for that item must not end the next one
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package dev.dimitra.bot.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.llm.LlmFinding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static dev.dimitra.bot.config.Env.longEnv;
+
+/**
+ * Persistent, content-addressed cache of LLM findings per file patch.
+ *
+ * On disk it is a single append-only log of records
+ * {@code [32-byte SHA-256 key][int length][findings JSON]}; the latest record for a key wins.
+ * An in-memory index (key -> offset) is rebuilt on open and kept in LRU order.
+ * Once live data exceeds maxBytes the least recently used keys are dropped from the
+ * index. The log is compacted on open when it holds mostly dead records, and by
+ * {@link #put} once it grows past twice maxBytes.
+ * A single file is meant to be restored between CI runs (e.g. with actions/cache).
+ */
+public class FindingsCache implements AutoCloseable {
+
+    private static final int KEY_BYTES = 32;
+    private static final int HEADER_BYTES = KEY_BYTES + Integer.BYTES;
+    private static final TypeReference<List<LlmFinding>> FINDINGS = new TypeReference<>() {};
+
+    private record Entry(long offset, int length) {}
+
+    private final Path file;
+    private final long maxBytes;
+    private final ObjectMapper mapper = Transport.shared().mapper(); // a second mapper costs startup time for nothing
+    private final FileChannel ch;
+    private final FileLock lock;
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long liveBytes;
+    private int hits, misses;
+
+    private FindingsCache(Path file, long maxBytes) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        this.ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lock = ch.tryLock();
+        if (lock == null) {
+            ch.close();
+            throw new IOException("findings cache " + file + " is in use by another process");
+        }
+        load();
+        if (liveBytes * 2 < ch.size()) compact();
+    }
+
+    public static FindingsCache open(Path file, long maxBytes) throws IOException {
+        return new FindingsCache(file, maxBytes <= 0 ? 64L << 20 : maxBytes);
+    }
+
+    /**
+     * Opens the cache at FINDINGS_CACHE_PATH (bounded by FINDINGS_CACHE_MAX_MB),
+     * or returns null when caching is disabled or the file cannot be used.
+     */
+    public static FindingsCache fromEnv() {
+        String path = System.getenv("FINDINGS_CACHE_PATH");
+        if (path == null || path.isBlank()) return null;
+        long maxMb = longEnv("FINDINGS_CACHE_MAX_MB", 64);
+        try {
+            return open(Paths.get(path), maxMb << 20);
+        } catch (IOException e) {
+            System.err.println("[WARN] Findings cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Content address of one file's analysis: everything that can change the model's answer.
+     * Line endings and trailing whitespace are normalized out of the patch.
+     */
+    public static String key(String filename, CharSequence patch, String systemPrompt, String model, Map<String, Object> options) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{
+                    filename, normalize(patch), systemPrompt, model,
+                    options == null ? "" : new TreeMap<>(options).toString()}) {
+                if (part != null) md.update(part.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String normalize(CharSequence patch) {
+        if (patch == null) return "";
+        return patch.toString().replace("\r\n", "\n").replaceAll("[ \\t]+\n", "\n").stripTrailing();
+    }
+
+    /** @return cached findings, or null on a miss */
+    public synchronized List<LlmFinding> get(String key) {
+        Entry e = index.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(e.length());
+            readFully(buf, e.offset() + HEADER_BYTES);
+            hits++;
+            return mapper.readValue(buf.array(), FINDINGS);
+        } catch (IOException ex) {
+            index.remove(key);
+            liveBytes -= HEADER_BYTES + e.length();
+            misses++;
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, List<LlmFinding> findings) {
+        try {
+            byte[] payload = mapper.writeValueAsBytes(findings);
+            ByteBuffer rec = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+            rec.put(HexFormat.of().parseHex(key)).putInt(payload.length).put(payload).flip();
+            long offset = ch.size();
+            while (rec.hasRemaining()) ch.write(rec, offset + rec.position());
+
+            Entry old = index.put(key, new Entry(offset, payload.length));
+            if (old != null) liveBytes -= HEADER_BYTES + old.length();
+            liveBytes += HEADER_BYTES + payload.length;
+            evict();
+            // a long-running process (server, backfill) never reopens the file, so compact here too
+            if (ch.size() > 2 * maxBytes) compact();
+        } catch (IOException e) {
+            System.err.println("[WARN] Findings cache write failed: " + e.getMessage());
+        }
+    }
+
+    public synchronized int hits() { return hits; }
+    public synchronized int misses() { return misses; }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (ch.isOpen()) {
+            lock.release();
+            ch.close();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (liveBytes > maxBytes && it.hasNext()) {
+            liveBytes -= HEADER_BYTES + it.next().getValue().length();
+            it.remove();
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) throw new IOException("unexpected end of " + file);
+        }
+    }
+
+    /** Rebuilds the index from the log; a torn record at the tail (crash mid-append) is cut off. */
+    private void load() throws IOException {
+        long pos = 0, size = ch.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        byte[] keyBytes = new byte[KEY_BYTES];
+        while (pos + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, pos);
+            header.flip().get(keyBytes);
+            int len = header.getInt();
+            if (len < 0 || pos + HEADER_BYTES + len > size) break;
+
+            String key = HexFormat.of().formatHex(keyBytes);
+            Entry old = index.put(key, new Entry(pos, len));
+            if (old != null) liveBytes -= HEADER_BYTES + old.length();
+            liveBytes += HEADER_BYTES + len;
+            pos += HEADER_BYTES + len;
+        }
+        if (pos < size) ch.truncate(pos);
+        evict();
+    }
+
+    /** Rewrites the log in place (under the lock) with only the live records, oldest access first. */
+    private void compact() throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".compact");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            for (Entry e : index.values()) {
+                long pos = e.offset(), end = pos + HEADER_BYTES + e.length();
+                while (pos < end) pos += ch.transferTo(pos, end - pos, out);
+            }
+            long n = out.size();
+            out.position(0);
+            ch.truncate(0);
+            for (long pos = 0; pos < n; ) pos += ch.transferFrom(out, pos, n - pos);
+        }
+        index.clear();
+        liveBytes = 0;
+        load();
+    }
+}
@@ -0,0 +1,43 @@
+package dev.dimitra.bot.config;
+
+/**
+ * Lenient reads of optional settings: a variable that is missing, blank or not a valid
+ * value of its type falls back to the default instead of failing the run.
+ */
+public final class Env {
+
+    private Env() {}
+
+    /** true, 1 or yes (any case) are true; anything else set is false. */
+    public static boolean boolEnv(String key, boolean def) {
+        String v = System.getenv(key);
+        if (v == null || v.isBlank()) return def;
+        v = v.trim();
+        return v.equalsIgnoreCase("true") || v.equals("1") || v.equalsIgnoreCase("yes");
+    }
+
+    public static int intEnv(String key, int def) {
+        String v = System.getenv(key);
+        if (v == null || v.isBlank()) return def;
+        try { return Integer.parseInt(v.trim()); }
+        catch (NumberFormatException e) { return def; }
+    }
+
+    public static long longEnv(String key, long def) {
+        String v = System.getenv(key);
+        if (v == null || v.isBlank()) return def;
+        try { return Long.parseLong(v.trim()); }
+        catch (NumberFormatException e) { return def; }
+    }
+
+    public static double doubleEnv(String key, double def) {
+        String v = System.getenv(key);
+        if (v == null || v.isBlank()) return def;
+        try {
+            double d = Double.parseDouble(v.trim());
+            return Double.isFinite(d) ? d : def;
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
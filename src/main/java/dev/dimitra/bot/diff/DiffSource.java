@@ -0,0 +1,34 @@
+package dev.dimitra.bot.diff;
+
+import dev.dimitra.bot.model.ChangedFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Where a PR's changed files come from: the GitHub files endpoint
+ * ({@link dev.dimitra.bot.github.PullRequestFilesFetcher}) or the local checkout
+ * ({@link GitDiffSource}). Either way the files arrive as GitHub-shaped {@link ChangedFile}s,
+ * patches starting at the first {@code @@} header.
+ */
+public interface DiffSource {
+
+    /**
+     * Emits the PR's files in order, stopping once maxFiles have been emitted.
+     *
+     * @return number of files handed to the sink
+     */
+    int fetch(String owner, String repo, int prNumber, int maxFiles, Consumer<ChangedFile> sink)
+            throws IOException, InterruptedException;
+
+    /**
+     * The full head version of a file, for callers that need more than the patch shows.
+     *
+     * @return the file's bytes, or null if the file doesn't exist at the head or this source
+     *         can't read whole files
+     */
+    default ByteBuffer contents(String path) throws IOException, InterruptedException {
+        return null;
+    }
+}
@@ -0,0 +1,237 @@
+package dev.dimitra.bot.diff;
+
+import dev.dimitra.bot.model.ChangedFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static dev.dimitra.bot.config.Env.intEnv;
+
+/**
+ * Computes a PR's diff from the local checkout with {@code git diff base...head}, the same
+ * merge-base range GitHub's files endpoint shows, without any API calls. Unlike the API it
+ * never truncates large patches.
+ *
+ * The file list comes from one {@code --name-status} and one {@code --numstat} call. Then each
+ * file's patch is produced by its own {@code git diff}, several at once (GIT_DIFF_WORKERS),
+ * and emitted in listing order. The {@code diff --git}, {@code index} and {@code ---}/{@code +++}
+ * lines are stripped and the context is fixed at GitHub's three lines, so patches look exactly
+ * like the API's. Binary files and pure renames carry no patch, as on GitHub.
+ *
+ * Whole files ({@link #contents}) are memory-mapped from the working tree when it is checked out
+ * at the head, and read with {@code git show} otherwise. Symlinks are never followed.
+ */
+public final class GitDiffSource implements DiffSource {
+
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private final Path dir;
+    private final String base;
+    private final String head;
+    private final int workers;
+    private Boolean worktreeAtHead; // resolved on first contents() call
+
+    private GitDiffSource(Path dir, String base, String head, int workers) {
+        this.dir = dir;
+        this.base = base;
+        this.head = head;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Reads GIT_DIFF_WORKERS (default: available processors).
+     *
+     * @return null, after a warning, when {@code dir} is not a git checkout holding both
+     *         commits (e.g. a shallow clone); callers then fall back to the GitHub API
+     */
+    public static GitDiffSource open(Path dir, String baseSha, String headSha) throws InterruptedException {
+        if (baseSha == null || baseSha.isBlank() || headSha == null || headSha.isBlank()) return null;
+        GitDiffSource source = new GitDiffSource(dir, baseSha.trim(), headSha.trim(),
+                intEnv("GIT_DIFF_WORKERS", Runtime.getRuntime().availableProcessors()));
+        try {
+            source.git("cat-file", "-e", source.base + "^{commit}");
+            source.git("cat-file", "-e", source.head + "^{commit}");
+            source.git("merge-base", source.base, source.head);
+            return source;
+        } catch (IOException e) {
+            System.err.println("[WARN] Local diff unavailable in " + dir.toAbsolutePath() + " (" + e.getMessage().lines().findFirst().orElse("")
+                    + "); using the GitHub API. The checkout needs both commits and their merge base (fetch-depth: 0).");
+            return null;
+        }
+    }
+
+    private record Entry(String status, String path, String previousPath) {}
+
+    @Override
+    public int fetch(String owner, String repo, int prNumber, int maxFiles, Consumer<ChangedFile> sink)
+            throws IOException, InterruptedException {
+        String range = base + "..." + head;
+        List<Entry> entries = listing(range);
+        if (entries.size() > maxFiles) entries = entries.subList(0, Math.max(0, maxFiles));
+        Map<String, int[]> stats = numstat(range);
+
+        Semaphore permits = new Semaphore(workers);
+        List<Future<String>> patches = new ArrayList<>(entries.size());
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Entry e : entries) {
+                patches.add(exec.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return patch(range, e);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                String patch;
+                try {
+                    patch = patches.get(i).get();
+                } catch (ExecutionException ex) {
+                    patches.forEach(f -> f.cancel(true));
+                    throw ex.getCause() instanceof IOException io ? io : new IOException(ex.getCause());
+                }
+                int[] s = stats.getOrDefault(e.path(), new int[2]);
+                sink.accept(new ChangedFile(e.path(), e.status(), s[0], s[1], s[0] + s[1], patch));
+            }
+        }
+        return entries.size();
+    }
+
+    @Override
+    public ByteBuffer contents(String path) throws IOException, InterruptedException {
+        if (worktreeAtHead == null) {
+            worktreeAtHead = git("rev-parse", "HEAD").trim().equals(git("rev-parse", head + "^{commit}").trim())
+                    && git("status", "--porcelain", "--untracked-files=no").isBlank();
+        }
+        if (worktreeAtHead) {
+            Path root = dir.toRealPath();
+            Path file = root.resolve(path).normalize();
+            if (!file.startsWith(root)) return null;
+            // a symlink, or a file under a symlinked directory, could point anywhere on the runner;
+            // those come from the commit below, which holds the link text just as GitHub shows it
+            if (Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) && file.toRealPath().equals(file)) {
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+                    return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()); // stays valid after the channel closes
+                }
+            }
+        }
+        try {
+            return ByteBuffer.wrap(gitBytes("show", head + ":" + path));
+        } catch (IOException e) {
+            return null; // not in the head commit (deleted file)
+        }
+    }
+
+    /** {@code --name-status -z}: "M\0path\0", "R100\0old\0new\0", ... */
+    private List<Entry> listing(String range) throws IOException, InterruptedException {
+        String[] f = git("diff", "--no-color", "--no-ext-diff", "-M", "--name-status", "-z", range).split("\0");
+        List<Entry> out = new ArrayList<>();
+        for (int i = 0; i + 1 < f.length; ) {
+            String code = f[i++];
+            if (code.isEmpty()) continue;
+            switch (code.charAt(0)) {
+                case 'R', 'C' -> {
+                    String previous = f[i++];
+                    out.add(new Entry(code.charAt(0) == 'R' ? "renamed" : "copied", f[i++], previous));
+                }
+                case 'A' -> out.add(new Entry("added", f[i++], null));
+                case 'D' -> out.add(new Entry("removed", f[i++], null));
+                case 'T' -> out.add(new Entry("changed", f[i++], null));
+                default -> out.add(new Entry("modified", f[i++], null));
+            }
+        }
+        return out;
+    }
+
+    /** {@code --numstat -z}: "add\tdel\tpath\0", or "add\tdel\t\0old\0new\0" for renames; "-" for binary. */
+    private Map<String, int[]> numstat(String range) throws IOException, InterruptedException {
+        String[] f = git("diff", "--no-color", "--no-ext-diff", "-M", "--numstat", "-z", range).split("\0");
+        Map<String, int[]> out = new HashMap<>();
+        for (int i = 0; i < f.length; i++) {
+            String[] cols = f[i].split("\t", 3);
+            if (cols.length < 3) continue;
+            String path = cols[2];
+            if (path.isEmpty() && i + 2 < f.length) {
+                i += 2;
+                path = f[i];
+            }
+            out.put(path, new int[]{count(cols[0]), count(cols[1])});
+        }
+        return out;
+    }
+
+    private String patch(String range, Entry e) throws IOException, InterruptedException {
+        String diff = e.previousPath() == null
+                ? git("diff", "--no-color", "--no-ext-diff", "-M", "-U3", range, "--", e.path())
+                : git("diff", "--no-color", "--no-ext-diff", "-M", "-U3", range, "--", e.previousPath(), e.path());
+        int hunks = diff.startsWith("@@") ? 0 : diff.indexOf("\n@@");
+        if (hunks < 0) return null; // binary, mode-only change or pure rename
+        String patch = diff.substring(hunks == 0 ? 0 : hunks + 1);
+        return patch.endsWith("\n") ? patch.substring(0, patch.length() - 1) : patch; // GitHub omits the last line break
+    }
+
+    private static int count(String s) {
+        try { return Integer.parseInt(s); }
+        catch (NumberFormatException e) { return 0; } // "-" for binary files
+    }
+
+    private String git(String... args) throws IOException, InterruptedException {
+        return new String(gitBytes(args), StandardCharsets.UTF_8);
+    }
+
+    private byte[] gitBytes(String... args) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>(args.length + 3);
+        cmd.add("git");
+        cmd.add("-C");
+        cmd.add(dir.toString());
+        cmd.addAll(List.of(args));
+        Process p = new ProcessBuilder(cmd).start();
+        try {
+            // drain both pipes off this thread so neither can fill up and stall git, and the timeout holds
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            Thread outReader = Thread.ofVirtual().start(() -> drain(p.getInputStream(), out));
+            Thread errReader = Thread.ofVirtual().start(() -> drain(p.getErrorStream(), err));
+            if (!p.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException("git " + args[0] + " timed out after " + TIMEOUT_SECONDS + "s");
+            }
+            outReader.join();
+            errReader.join();
+            if (p.exitValue() != 0) {
+                throw new IOException("git " + String.join(" ", args) + " failed: " + err.toString(StandardCharsets.UTF_8).strip());
+            }
+            return out.toByteArray();
+        } finally {
+            p.destroyForcibly();
+        }
+    }
+
+    private static void drain(InputStream in, ByteArrayOutputStream to) {
+        try (in) {
+            in.transferTo(to);
+        } catch (IOException ignored) {
+            // the process was killed; the exit code tells what matters
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package dev.dimitra.bot.diff;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A unified-diff patch (as returned by GitHub for one file) parsed once into hunks
+ * and per-line metadata.
+ *
+ * Nothing is copied out of the patch text: lines are kept as offsets into the original
+ * text, plus their kind and old/new line numbers, so a parsed PR costs a few int
+ * arrays on top of the text already held. Use {@link #slice} or
+ * {@link #appendTo} to get at the text without creating substrings.
+ *
+ * The text is usually the String GitHub returned, but can be any {@link CharSequence}, e.g. a
+ * view into a {@link PatchStore} file for PRs too large to keep on the heap.
+ */
+public final class ParsedPatch {
+
+    public static final char HEADER = '@';
+    public static final char CONTEXT = ' ';
+    public static final char ADDED = '+';
+    public static final char REMOVED = '-';
+    public static final char NO_NEWLINE = '\\';
+
+    public static final ParsedPatch EMPTY = new ParsedPatch("", new int[]{0}, new char[0], new int[0], new int[0], List.of());
+
+    /** One {@code @@ -a,b +c,d @@} block: its header line and the (exclusive) line where it ends. */
+    public record Hunk(int headerLine, int endLine, int oldStart, int oldCount, int newStart, int newCount) {
+        public int firstLine() { return headerLine + 1; }
+
+        /** Inclusive last new-file line covered (newStart - 1 for a pure deletion). */
+        public int newEnd() { return newStart + newCount - 1; }
+
+        public boolean coversNew(int line) { return line >= newStart && line <= newEnd(); }
+    }
+
+    private final CharSequence text;
+    private final int[] lineStarts; // lineCount + 1 entries, the last one is text.length()
+    private final char[] kinds;
+    private final int[] oldLines;   // 0 where the line has no old-side number
+    private final int[] newLines;   // 0 where the line has no new-side number
+    private final List<Hunk> hunks;
+
+    private ParsedPatch(CharSequence text, int[] lineStarts, char[] kinds, int[] oldLines, int[] newLines, List<Hunk> hunks) {
+        this.text = text;
+        this.lineStarts = lineStarts;
+        this.kinds = kinds;
+        this.oldLines = oldLines;
+        this.newLines = newLines;
+        this.hunks = hunks;
+    }
+
+    public static ParsedPatch parse(CharSequence patch) {
+        if (patch == null || patch.isEmpty()) return EMPTY;
+
+        int n = 1;
+        for (int i = indexOfNewline(patch, 0); i >= 0 && i < patch.length() - 1; i = indexOfNewline(patch, i + 1)) n++;
+
+        int[] starts = new int[n + 1];
+        char[] kinds = new char[n];
+        int[] olds = new int[n];
+        int[] news = new int[n];
+        List<Hunk> hunks = new ArrayList<>();
+
+        int pos = 0, oldLine = 0, newLine = 0;
+        int hunkHeader = -1, oldStart = 0, oldCount = 0, newStart = 0, newCount = 0;
+        for (int line = 0; line < n; line++) {
+            starts[line] = pos;
+            char c = pos < patch.length() ? patch.charAt(pos) : CONTEXT;
+            if (c == '@' && startsWith(patch, "@@ -", pos)) {
+                if (hunkHeader >= 0) hunks.add(new Hunk(hunkHeader, line, oldStart, oldCount, newStart, newCount));
+                int[] nums = parseHeader(patch, pos);
+                oldStart = nums[0];
+                oldCount = nums[1];
+                newStart = nums[2];
+                newCount = nums[3];
+                oldLine = oldStart;
+                newLine = newStart;
+                hunkHeader = line;
+                kinds[line] = HEADER;
+            } else if (c == ADDED) {
+                kinds[line] = ADDED;
+                news[line] = newLine++;
+            } else if (c == REMOVED) {
+                kinds[line] = REMOVED;
+                olds[line] = oldLine++;
+            } else if (c == NO_NEWLINE) {
+                kinds[line] = NO_NEWLINE;
+            } else {
+                kinds[line] = CONTEXT;
+                olds[line] = oldLine++;
+                news[line] = newLine++;
+            }
+            int nl = indexOfNewline(patch, pos);
+            pos = nl < 0 ? patch.length() : nl + 1;
+        }
+        starts[n] = patch.length();
+        if (hunkHeader >= 0) hunks.add(new Hunk(hunkHeader, n, oldStart, oldCount, newStart, newCount));
+        return new ParsedPatch(patch, starts, kinds, olds, news, Collections.unmodifiableList(hunks));
+    }
+
+    /** Parses "@@ -a[,b] +c[,d] @@" without regex or substrings; missing counts default to 1. */
+    private static int[] parseHeader(CharSequence s, int pos) {
+        int[] out = {0, 1, 0, 1};
+        int field = 0;
+        int i = pos + 4; // past "@@ -"
+        while (i < s.length() && field < 4) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                int v = 0;
+                while (i < s.length() && (c = s.charAt(i)) >= '0' && c <= '9') {
+                    v = v * 10 + (c - '0');
+                    i++;
+                }
+                out[field] = v;
+                if (c == ',') {
+                    field++;
+                } else {
+                    field = field < 2 ? 2 : 4; // no count given: keep the default of 1
+                }
+            } else if (c == '@' || c == '\n') {
+                break;
+            }
+            i++;
+        }
+        return out;
+    }
+
+    public CharSequence text() { return text; }
+    public boolean isEmpty() { return text.isEmpty(); }
+    public int length() { return text.length(); }
+    public int lineCount() { return kinds.length; }
+    public List<Hunk> hunks() { return hunks; }
+
+    public char kind(int line) { return kinds[line]; }
+    public int oldLine(int line) { return oldLines[line]; }
+    public int newLine(int line) { return newLines[line]; }
+
+    /** Offset of the first character of a line; {@code offset(lineCount())} is the end of the text. */
+    public int offset(int line) { return lineStarts[line]; }
+
+    /** Zero-copy view of lines [fromLine, toLine), including their line breaks. */
+    public CharSequence slice(int fromLine, int toLine) {
+        return CharBuffer.wrap(text, lineStarts[fromLine], lineStarts[toLine]);
+    }
+
+    public void appendTo(StringBuilder sb, int fromLine, int toLine) {
+        sb.append(text, lineStarts[fromLine], lineStarts[toLine]);
+    }
+
+    /**
+     * Appends the {@code @@ -a,b +c,d @@} header of a run of lines cut out of hunk {@code h},
+     * starting at patch line {@code from}. A side with no lines names the line before the run,
+     * as unified diffs do; its start is then ignored.
+     *
+     * @param section text after the closing {@code @@} (GitHub's enclosing-method heading), or ""
+     */
+    public void appendHeader(StringBuilder out, Hunk h, int from, int oldStart, int oldCount,
+                             int newStart, int newCount, String section) {
+        if (oldCount == 0) oldStart = lineBefore(h, from, true);
+        if (newCount == 0) newStart = lineBefore(h, from, false);
+        out.append("@@ -").append(oldStart).append(',').append(oldCount)
+                .append(" +").append(newStart).append(',').append(newCount).append(" @@").append(section).append('\n');
+    }
+
+    /** Last old- (or new-) side line number shown before patch line {@code line} within hunk {@code h}. */
+    public int lineBefore(Hunk h, int line, boolean old) {
+        for (int i = line - 1; i >= h.firstLine(); i--) {
+            int n = old ? oldLines[i] : newLines[i];
+            if (n > 0) return n;
+        }
+        int start = old ? h.oldStart() : h.newStart();
+        int count = old ? h.oldCount() : h.newCount();
+        return count == 0 ? start : start - 1;
+    }
+
+    /** Patch line index showing a given new-file line (context or added), or -1 if the diff doesn't show it. */
+    public int lineOfNew(int newLine) {
+        for (Hunk h : hunks) {
+            if (!h.coversNew(newLine)) continue;
+            for (int i = h.firstLine(); i < h.endLine(); i++) {
+                if (newLines[i] == newLine && (kinds[i] == ADDED || kinds[i] == CONTEXT)) return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean showsNewLine(int newLine) { return lineOfNew(newLine) >= 0; }
+
+    public boolean isAddedLine(int newLine) {
+        int i = lineOfNew(newLine);
+        return i >= 0 && kinds[i] == ADDED;
+    }
+
+    /**
+     * GitHub "diff position" of a new-file line: lines counted from the first hunk header,
+     * which is position 0. Returns -1 when the line is not part of the diff.
+     */
+    public int position(int newLine) {
+        int i = lineOfNew(newLine);
+        return (i < 0 || hunks.isEmpty()) ? -1 : i - hunks.get(0).headerLine();
+    }
+
+    /**
+     * Maps a line of the old side through this patch to the new side.
+     * Returns -1 when the line itself was removed or rewritten by the patch.
+     */
+    public int mapOldToNew(int oldLine) {
+        int delta = 0;
+        for (Hunk h : hunks) {
+            // a pure insertion (oldCount 0) goes after oldStart, so that line is still before it
+            boolean before = h.oldCount() == 0 ? oldLine <= h.oldStart() : oldLine < h.oldStart();
+            if (before) return oldLine + delta;
+            if (oldLine < h.oldStart() + h.oldCount()) {
+                for (int i = h.firstLine(); i < h.endLine(); i++) {
+                    if (kinds[i] == CONTEXT && oldLines[i] == oldLine) return newLines[i];
+                }
+                return -1;
+            }
+            // an empty range names the line before it, so it ends one line later than start + count
+            delta = (h.newStart() + Math.max(h.newCount(), 1)) - (h.oldStart() + Math.max(h.oldCount(), 1));
+        }
+        return oldLine + delta;
+    }
+
+    /** Patch text cut at a line boundary so it is at most maxChars long (plus a marker). */
+    public String preview(int maxChars) {
+        if (text.length() <= maxChars) return text.toString();
+        int end = maxChars;
+        for (int i = lineStarts.length - 1; i > 0; i--) {
+            if (lineStarts[i] <= maxChars) {
+                end = lineStarts[i];
+                break;
+            }
+        }
+        return text.subSequence(0, end) + (end > 0 && text.charAt(end - 1) == '\n' ? "" : "\n") + "... (truncated)";
+    }
+
+    private static int indexOfNewline(CharSequence s, int from) {
+        if (s instanceof String str) return str.indexOf('\n', from);
+        for (int i = from; i < s.length(); i++) {
+            if (s.charAt(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence s, String prefix, int at) {
+        if (at + prefix.length() > s.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(at + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,193 @@
+package dev.dimitra.bot.diff;
+
+import static dev.dimitra.bot.config.Env.boolEnv;
+import static dev.dimitra.bot.config.Env.intEnv;
+
+/**
+ * Shrinks a patch before it goes into a prompt, keeping only what the model needs to judge
+ * the change.
+ *
+ * <ul>
+ *   <li>Context is trimmed to {@code contextLines} around each change (GitHub sends 3).</li>
+ *   <li>A change block whose removed and added lines differ only in whitespace (re-indentation,
+ *       trailing spaces, added blank lines) is shown as plain context.</li>
+ *   <li>Removed lines can be left out entirely; smells are reported on the new side anyway.</li>
+ *   <li>"\ No newline at end of file" markers are dropped.</li>
+ * </ul>
+ *
+ * What is left is re-emitted as smaller hunks with regenerated {@code @@} headers. New-side
+ * line numbers are never renumbered: a line the model reports refers to the same line of the
+ * new file as in the original patch. Hunks with nothing significant left disappear.
+ */
+public final class PatchCompactor {
+
+    private final int contextLines;
+    private final boolean dropRemoved;
+    private final boolean collapseWhitespace;
+
+    public PatchCompactor(int contextLines, boolean dropRemoved, boolean collapseWhitespace) {
+        this.contextLines = Math.max(0, contextLines);
+        this.dropRemoved = dropRemoved;
+        this.collapseWhitespace = collapseWhitespace;
+    }
+
+    /**
+     * Reads PROMPT_COMPACT (default true), PROMPT_CONTEXT_LINES (2), PROMPT_DROP_REMOVED (false)
+     * and PROMPT_COLLAPSE_WHITESPACE (true).
+     *
+     * @return null when compaction is switched off, so patches are sent as GitHub returned them
+     */
+    public static PatchCompactor fromEnv() {
+        if (!boolEnv("PROMPT_COMPACT", true)) return null;
+        return new PatchCompactor(intEnv("PROMPT_CONTEXT_LINES", 2), boolEnv("PROMPT_DROP_REMOVED", false),
+                boolEnv("PROMPT_COLLAPSE_WHITESPACE", true));
+    }
+
+    /** The settings, for cache keys: findings for a differently compacted patch are not reused. */
+    public String describe() {
+        return "context=" + contextLines + ",dropRemoved=" + dropRemoved + ",collapseWhitespace=" + collapseWhitespace;
+    }
+
+    /** One log line for a run, e.g. "Prompt compaction: 5200 -> 3100 estimated patch tokens (-40%)". */
+    public static String report(long rawTokens, long sentTokens) {
+        long saved = rawTokens <= 0 ? 0 : Math.round(100.0 * (rawTokens - sentTokens) / rawTokens);
+        return "Prompt compaction: " + rawTokens + " -> " + sentTokens + " estimated patch tokens (-" + saved + "%)";
+    }
+
+    public String compact(String patch) {
+        ParsedPatch p = ParsedPatch.parse(patch);
+        return compact(p, 0, p.lineCount());
+    }
+
+    /** Compacts a slice into a whole-file slice over its own, shorter patch text. */
+    public PatchSlice compact(PatchSlice slice) {
+        return compact(slice, null);
+    }
+
+    /**
+     * @param store keeps the compacted text (off the heap once the PR is large), or null to
+     *              keep it as a String
+     */
+    public PatchSlice compact(PatchSlice slice, PatchStore store) {
+        ParsedPatch p = slice.patch();
+        int from = slice.fromLine(), to = slice.toLine();
+        if (slice.header() != null) { // a cut-out piece of a hunk: compact it as the standalone patch it stands for
+            p = ParsedPatch.parse(slice.text());
+            from = 0;
+            to = p.lineCount();
+        }
+        String text = compact(p, from, to);
+        return PatchSlice.whole(slice.filename(), slice.status(), store == null ? ParsedPatch.parse(text) : store.parse(text));
+    }
+
+    private String compact(ParsedPatch p, int from, int to) {
+        StringBuilder out = new StringBuilder(p.offset(to) - p.offset(from));
+        for (ParsedPatch.Hunk h : p.hunks()) {
+            if (h.headerLine() >= from && h.endLine() <= to) compactHunk(p, h, out);
+        }
+        return out.toString();
+    }
+
+    private void compactHunk(ParsedPatch p, ParsedPatch.Hunk h, StringBuilder out) {
+        int base = h.firstLine(), n = h.endLine() - base;
+        boolean[] change = new boolean[n];    // a change worth showing
+        boolean[] asContext = new boolean[n]; // added line of a whitespace-only block
+        boolean[] hidden = new boolean[n];    // never shown
+
+        for (int i = base; i < h.endLine(); ) {
+            if (p.kind(i) == ParsedPatch.CONTEXT) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < h.endLine() && p.kind(i) != ParsedPatch.CONTEXT) i++;
+            boolean whitespaceOnly = collapseWhitespace && sameIgnoringWhitespace(p, start, i);
+            for (int j = start; j < i; j++) {
+                char k = p.kind(j);
+                int x = j - base;
+                if (k == ParsedPatch.NO_NEWLINE) hidden[x] = true;
+                else if (whitespaceOnly) {
+                    if (k == ParsedPatch.ADDED) asContext[x] = true;
+                    else hidden[x] = true;
+                } else if (k == ParsedPatch.REMOVED && dropRemoved) hidden[x] = true;
+                else change[x] = true;
+            }
+        }
+
+        // keep every shown line within contextLines (counted over shown lines) of a change
+        boolean[] keep = new boolean[n];
+        for (int x = 0, since = Integer.MAX_VALUE / 2; x < n; x++) {
+            if (hidden[x]) continue;
+            since = change[x] ? 0 : since + 1;
+            keep[x] = since <= contextLines;
+        }
+        for (int x = n - 1, until = Integer.MAX_VALUE / 2; x >= 0; x--) {
+            if (hidden[x]) continue;
+            until = change[x] ? 0 : until + 1;
+            keep[x] |= until <= contextLines;
+        }
+
+        String section = section(p, h);
+        for (int x = 0; x < n; ) {
+            if (!keep[x]) {
+                x++;
+                continue;
+            }
+            // hidden lines carry no new-side number, so skipping them keeps the new side contiguous
+            int end = x;
+            while (end < n && (keep[end] || hidden[end])) end++;
+            appendHeader(p, h, x, end, hidden, asContext, section, out);
+            section = "";
+            for (int i = x; i < end; i++) {
+                if (hidden[i]) continue;
+                if (asContext[i]) {
+                    out.append(ParsedPatch.CONTEXT).append(p.text(), p.offset(base + i) + 1, p.offset(base + i + 1));
+                } else {
+                    p.appendTo(out, base + i, base + i + 1);
+                }
+                if (out.charAt(out.length() - 1) != '\n') out.append('\n');
+            }
+            x = end;
+        }
+    }
+
+    /** Header for the shown lines among [from, to) of the hunk (indices relative to its first line). */
+    private static void appendHeader(ParsedPatch p, ParsedPatch.Hunk h, int from, int to, boolean[] hidden,
+                                     boolean[] asContext, String section, StringBuilder out) {
+        int base = h.firstLine();
+        int oldStart = 0, newStart = 0, oldCount = 0, newCount = 0;
+        for (int x = from; x < to; x++) {
+            if (hidden[x]) continue;
+            char k = asContext[x] ? ParsedPatch.CONTEXT : p.kind(base + x);
+            if (k == ParsedPatch.CONTEXT || k == ParsedPatch.REMOVED) {
+                if (oldCount++ == 0) oldStart = p.oldLine(base + x) > 0 ? p.oldLine(base + x) : p.lineBefore(h, base + x, true) + 1;
+            }
+            if (k == ParsedPatch.CONTEXT || k == ParsedPatch.ADDED) {
+                if (newCount++ == 0) newStart = p.newLine(base + x);
+            }
+        }
+        p.appendHeader(out, h, base + from, oldStart, oldCount, newStart, newCount, section);
+    }
+
+    /** The enclosing-method heading GitHub puts after the second {@code @@}, e.g. " public void run() {". */
+    private static String section(ParsedPatch p, ParsedPatch.Hunk h) {
+        String s = p.slice(h.headerLine(), h.firstLine()).toString().stripTrailing();
+        int close = s.indexOf("@@", 2);
+        return close < 0 ? "" : s.substring(close + 2);
+    }
+
+    /** True if the removed and added lines of a change block are the same text once whitespace is ignored. */
+    private static boolean sameIgnoringWhitespace(ParsedPatch p, int from, int to) {
+        StringBuilder removed = new StringBuilder(), added = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            char k = p.kind(i);
+            if (k != ParsedPatch.REMOVED && k != ParsedPatch.ADDED) continue;
+            StringBuilder side = k == ParsedPatch.REMOVED ? removed : added;
+            CharSequence line = p.slice(i, i + 1);
+            for (int c = 1; c < line.length(); c++) {
+                if (!Character.isWhitespace(line.charAt(c))) side.append(line.charAt(c));
+            }
+        }
+        return removed.compareTo(added) == 0;
+    }
+}
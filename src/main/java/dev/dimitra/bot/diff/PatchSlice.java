@@ -0,0 +1,38 @@
+package dev.dimitra.bot.diff;
+
+/**
+ * A run of lines [fromLine, toLine) from one file's parsed patch, i.e. what goes into a
+ * prompt for that file. Whole files and hunk ranges are plain views into the patch text;
+ * only a piece cut out of the middle of a hunk carries its own recomputed {@code header}.
+ */
+public record PatchSlice(String filename, String status, ParsedPatch patch, int fromLine, int toLine, String header) {
+
+    public static PatchSlice whole(String filename, String status, ParsedPatch patch) {
+        return new PatchSlice(filename, status, patch, 0, patch.lineCount(), null);
+    }
+
+    public boolean isEmpty() {
+        return fromLine >= toLine && header == null;
+    }
+
+    /** Zero-copy view of the slice body (without a synthetic header). */
+    public CharSequence body() {
+        return patch.slice(fromLine, toLine);
+    }
+
+    public int length() {
+        return (header == null ? 0 : header.length()) + patch.offset(toLine) - patch.offset(fromLine);
+    }
+
+    public void appendTo(StringBuilder sb) {
+        if (header != null) sb.append(header);
+        patch.appendTo(sb, fromLine, toLine);
+    }
+
+    /** Copies the slice into a standalone patch string; only for callers that truly need one. */
+    public String text() {
+        StringBuilder sb = new StringBuilder(length());
+        appendTo(sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package dev.dimitra.bot.diff;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static dev.dimitra.bot.config.Env.intEnv;
+
+/**
+ * Keeps one PR's patch texts, off the heap once they get large.
+ *
+ * Patches stay the Strings GitHub returned until together they pass a threshold
+ * (PATCH_SPILL_AFTER_MB). From then on each patch is copied into a memory-mapped temp file
+ * and handed back as a read-only {@link CharBuffer} view, so the heap holds only the
+ * buffer's offsets and the page cache decides what stays resident. {@link ParsedPatch},
+ * the chunk packer and the prompt renderers all work on such views without copying them.
+ *
+ * The file is mapped in large segments and deleted when the store is closed (at once on
+ * Linux, where open mappings keep the pages alive until they are collected). Not
+ * thread-safe: patches are added by the one thread reading the PR's files.
+ */
+public final class PatchStore implements AutoCloseable {
+
+    static final int SEGMENT_CHARS = 16 << 20; // 32 MB per mapping
+
+    private final long spillAfterChars;
+    private final Path dir;
+    private long inHeap;
+    private long spilled;
+    private FileChannel file;
+    private long fileBytes;
+    private CharBuffer segment; // the mapped region being filled
+
+    /**
+     * @param spillAfterChars patch characters kept on the heap before spilling; 0 to spill
+     *                        everything, negative to never spill
+     * @param dir             where the temp file goes, or null for java.io.tmpdir
+     */
+    public PatchStore(long spillAfterChars, Path dir) {
+        this.spillAfterChars = spillAfterChars;
+        this.dir = dir;
+    }
+
+    /**
+     * Reads PATCH_SPILL_AFTER_MB (default 64; 0 spills every patch, -1 never spills) and
+     * PATCH_SPILL_DIR (default java.io.tmpdir).
+     */
+    public static PatchStore fromEnv() {
+        long mb = intEnv("PATCH_SPILL_AFTER_MB", 64);
+        String dir = System.getenv("PATCH_SPILL_DIR");
+        return new PatchStore(mb < 0 ? -1 : mb * 1024 * 1024 / 2, dir == null || dir.isBlank() ? null : Path.of(dir));
+    }
+
+    /**
+     * @return the patch itself while under the threshold, else a view of its spilled copy; the
+     *         view is valid as long as it is referenced, even after {@link #close}
+     */
+    public CharSequence put(String patch) {
+        if (patch == null || patch.isEmpty()) return patch;
+        if (spillAfterChars < 0 || inHeap + patch.length() <= spillAfterChars && spilled == 0) {
+            inHeap += patch.length();
+            return patch;
+        }
+        try {
+            if (segment == null || segment.remaining() < patch.length()) map(Math.max(SEGMENT_CHARS, patch.length()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not spill patches to disk", e);
+        }
+        int start = segment.position();
+        segment.put(patch);
+        spilled += patch.length();
+        return segment.slice(start, patch.length()).asReadOnlyBuffer();
+    }
+
+    /** Same as {@link #put(String)}, then parsed. */
+    public ParsedPatch parse(String patch) {
+        return ParsedPatch.parse(put(patch));
+    }
+
+    /** Characters moved off the heap so far. */
+    public long spilledChars() {
+        return spilled;
+    }
+
+    private void map(int chars) throws IOException {
+        if (file == null) {
+            Path tmp = dir == null
+                    ? Files.createTempFile("code-smell-bot-patches-", ".bin")
+                    : Files.createTempFile(Files.createDirectories(dir), "code-smell-bot-patches-", ".bin");
+            file = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            try {
+                Files.deleteIfExists(tmp); // nothing left behind even if the process dies; fails harmlessly on Windows
+            } catch (IOException ignored) {
+                // DELETE_ON_CLOSE still applies
+            }
+        }
+        long bytes = 2L * chars;
+        segment = file.map(FileChannel.MapMode.READ_WRITE, fileBytes, bytes).asCharBuffer();
+        fileBytes += bytes;
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        if (file == null) return;
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not close the patch spill file: " + e.getMessage());
+        }
+        file = null;
+    }
+}
@@ -0,0 +1,87 @@
+package dev.dimitra.bot.github;
+
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.dimitra.bot.config.Env.intEnv;
+
+/**
+ * Keeps long batch runs inside GitHub's REST quota.
+ *
+ * <ul>
+ *   <li>Optional pacing: with GITHUB_REQUESTS_PER_HOUR set, requests are spaced evenly so a
+ *       backfill spends its hourly allowance over the hour instead of in the first minutes.</li>
+ *   <li>X-RateLimit-Remaining / X-RateLimit-Reset are read from every response. Once the
+ *       remaining count drops to GITHUB_RATE_FLOOR (default 50), callers wait for the reset.
+ *       The floor leaves headroom for other jobs that use the same token.</li>
+ *   <li>A 403/429 with Retry-After (GitHub's secondary limits) pauses every caller.</li>
+ * </ul>
+ *
+ * One instance is meant to be shared by every thread talking to GitHub.
+ */
+public final class GitHubQuota {
+
+    private final long intervalNanos; // 0 = no pacing
+    private final long floor;
+    private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+    private final AtomicLong pausedUntil = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param requestsPerHour 0 or less to rely on the rate-limit headers alone
+     * @param floor           remaining requests at which callers start waiting for the reset
+     */
+    public GitHubQuota(int requestsPerHour, int floor) {
+        this.intervalNanos = requestsPerHour > 0 ? TimeUnit.HOURS.toNanos(1) / requestsPerHour : 0;
+        this.floor = Math.max(0, floor);
+    }
+
+    public static GitHubQuota fromEnv() {
+        return new GitHubQuota(intEnv("GITHUB_REQUESTS_PER_HOUR", 0), intEnv("GITHUB_RATE_FLOOR", 50));
+    }
+
+    /** Waits until the next request may be sent. */
+    public void acquire() throws InterruptedException {
+        long now = System.nanoTime();
+        long slot = intervalNanos == 0 ? now : nextSlot.getAndAccumulate(now, (next, n) -> Math.max(next, n) + intervalNanos);
+        long wait = Math.max(slot - now, pausedUntil.get() - now);
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * Reads GitHub's rate-limit headers off a response.
+     *
+     * @return true if the response was a rate-limit rejection worth retrying after {@link #acquire}
+     */
+    public boolean observe(HttpResponse<?> res) {
+        var headers = res.headers();
+        Optional<String> retryAfter = headers.firstValue("Retry-After");
+        boolean limited = (res.statusCode() == 403 || res.statusCode() == 429)
+                && (retryAfter.isPresent() || headers.firstValue("X-RateLimit-Remaining").filter("0"::equals).isPresent());
+        if (limited && retryAfter.isPresent()) {
+            try {
+                pause(Duration.ofSeconds(Long.parseLong(retryAfter.get().trim())), "secondary rate limit");
+                return true;
+            } catch (NumberFormatException ignored) {
+                // fall through to the reset header
+            }
+        }
+        long remaining = headers.firstValueAsLong("X-RateLimit-Remaining").orElse(Long.MAX_VALUE);
+        long reset = headers.firstValueAsLong("X-RateLimit-Reset").orElse(0);
+        if (remaining <= floor && reset > 0) {
+            long seconds = reset - System.currentTimeMillis() / 1000 + 1;
+            if (seconds > 0) pause(Duration.ofSeconds(seconds), remaining + " request(s) left");
+        }
+        return limited;
+    }
+
+    private void pause(Duration d, String why) {
+        long until = System.nanoTime() + d.toNanos();
+        long before = pausedUntil.getAndAccumulate(until, Math::max);
+        if (until - before > TimeUnit.SECONDS.toNanos(1)) {
+            System.err.println("[WARN] GitHub quota: " + why + ", pausing requests for " + d.toSeconds() + "s");
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package dev.dimitra.bot.github;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.model.ChangedFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental mode: re-analyze only what was pushed since the head SHA recorded in the
+ * bot's previous comment (see {@link ReviewPublisher#findPrevious}), and carry the
+ * still-valid old findings forward.
+ *
+ * Anything unexpected (no previous comment, force-push, compare failure) makes the
+ * caller fall back to a full analysis by returning null.
+ */
+public class IncrementalReview {
+
+    private final Transport transport;
+    private final ObjectMapper mapper;
+    private final String repoUrl;
+    private final String token;
+    private final int prNumber;
+
+    public IncrementalReview(Transport transport, String apiUrl, String token,
+                             String owner, String repo, int prNumber) {
+        this.transport = transport;
+        this.mapper = transport.mapper();
+        this.repoUrl = String.format("%s/repos/%s/%s", apiUrl.replaceAll("/+$", ""), owner, repo);
+        this.token = token;
+        this.prNumber = prNumber;
+    }
+
+    /**
+     * Files touched between two heads, mapped to the patch of just that push.
+     *
+     * @return filename -> push patch (empty when nothing changed), or null when the old head
+     *         is no longer an ancestor (force-push/rebase) and a full analysis is needed
+     */
+    public Map<String, String> changedSince(String baseSha, String headSha) {
+        if (baseSha == null || baseSha.isBlank()) return null;
+        if (baseSha.equals(headSha)) return Map.of();
+        try {
+            HttpResponse<InputStream> res = get(repoUrl + "/compare/" + baseSha + "..." + headSha);
+            JsonNode root;
+            try (InputStream in = res.body()) {
+                root = mapper.readTree(in);
+            }
+            if (res.statusCode() / 100 != 2) throw new IOException("HTTP " + res.statusCode());
+
+            String status = root.path("status").asText("");
+            if (!status.equals("ahead") && !status.equals("identical")) {
+                System.err.println("[INFO] Head moved non-linearly (" + status + "), running full analysis");
+                return null;
+            }
+            Map<String, String> changed = new HashMap<>();
+            for (JsonNode f : root.path("files")) {
+                // a file without a patch (binary or too large) is treated as wholly changed
+                changed.put(f.path("filename").asText(), f.path("patch").asText(""));
+            }
+            return changed;
+        } catch (IOException e) {
+            System.err.println("[WARN] Compare " + baseSha + "..." + headSha + " failed, running full analysis: " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Narrows a PR file to the hunks that overlap what the push changed.
+     *
+     * @return the narrowed file, or null when the push did not touch it
+     */
+    public static ChangedFile restrict(ChangedFile f, ParsedPatch patch, Map<String, String> pushed) {
+        String pushPatch = pushed.get(f.filename());
+        if (pushPatch == null) return null;
+        if (pushPatch.isEmpty() || f.patch() == null) return f;
+
+        List<ParsedPatch.Hunk> touched = ParsedPatch.parse(pushPatch).hunks();
+        StringBuilder kept = new StringBuilder();
+        for (ParsedPatch.Hunk h : patch.hunks()) {
+            // a pure deletion still touches the line it sits at
+            boolean overlaps = touched.stream().anyMatch(t ->
+                    t.newStart() <= Math.max(h.newEnd(), h.newStart()) && h.newStart() <= Math.max(t.newEnd(), t.newStart()));
+            if (overlaps) patch.appendTo(kept, h.headerLine(), h.endLine());
+        }
+        if (kept.isEmpty()) return null;
+        return new ChangedFile(f.filename(), f.status(), f.additions(), f.deletions(), f.changes(), kept.toString());
+    }
+
+    /**
+     * Old findings that survive the push: files untouched by it keep theirs as-is, touched files
+     * keep findings on lines the push didn't change, with line numbers shifted to the new head.
+     * Findings inside a hunk that was re-analyzed are dropped too: the fresh analysis reports on
+     * those lines again, possibly under another rule name, so merge() could not de-duplicate them.
+     *
+     * @param reanalyzed filename -> the (restricted) patch that was analyzed again
+     */
+    public static List<LlmFinding> carryOver(List<LlmFinding> old, Map<String, String> pushed, Set<String> prFiles,
+                                             Map<String, ParsedPatch> reanalyzed) {
+        Map<String, ParsedPatch> parsedPushes = new HashMap<>();
+        List<LlmFinding> out = new ArrayList<>();
+        for (LlmFinding f : old) {
+            if (!prFiles.contains(f.file())) continue;
+            String pushPatch = pushed.get(f.file());
+            if (pushPatch == null) {
+                out.add(f);
+                continue;
+            }
+            if (pushPatch.isEmpty() || f.line() <= 0) continue;
+            int line = parsedPushes.computeIfAbsent(f.file(), k -> ParsedPatch.parse(pushPatch)).mapOldToNew(f.line());
+            ParsedPatch again = reanalyzed.get(f.file());
+            if (line > 0 && (again == null || again.hunks().stream().noneMatch(h -> h.coversNew(line)))) {
+                out.add(new LlmFinding(f.file(), line, f.rule(), f.severity(), f.why(), f.suggestionPatch()));
+            }
+        }
+        return out;
+    }
+
+    /** Combines carried and fresh findings, de-duplicated and ordered by the file's position in the PR. */
+    public static List<LlmFinding> merge(List<LlmFinding> carried, List<LlmFinding> fresh, List<String> fileOrder) {
+        Map<String, Integer> order = new HashMap<>();
+        for (String name : fileOrder) order.putIfAbsent(name, order.size());
+        Map<String, LlmFinding> map = new LinkedHashMap<>();
+        for (var f : fresh) map.putIfAbsent(f.file() + "#" + f.line() + "#" + f.rule(), f);
+        for (var f : carried) map.putIfAbsent(f.file() + "#" + f.line() + "#" + f.rule(), f);
+        List<LlmFinding> all = new ArrayList<>(map.values());
+        all.sort(Comparator.comparingInt((LlmFinding f) -> order.getOrDefault(f.file(), Integer.MAX_VALUE))
+                .thenComparingInt(LlmFinding::line));
+        return all;
+    }
+
+    private HttpResponse<InputStream> get(String url) throws IOException, InterruptedException {
+        HttpRequest req = transport.request(url, Duration.ofSeconds(40))
+                .header("Accept", "application/vnd.github+json")
+                .header("Authorization", "token " + token)
+                .GET()
+                .build();
+        return transport.sendCached(req);
+    }
+}
@@ -0,0 +1,105 @@
+package dev.dimitra.bot.github;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import dev.dimitra.bot.diff.DiffSource;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.model.ChangedFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streams GitHub /pulls/{number}/files across all pages.
+ *
+ * Each page is parsed token by token straight from the response stream, and every
+ * file is handed to the sink as soon as its JSON object is read, so callers can
+ * start working on the first files while later pages are still in flight.
+ */
+public class PullRequestFilesFetcher implements DiffSource {
+
+    private static final int MAX_RATE_LIMITED = 3;
+    private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"next\"");
+
+    private final Transport transport;
+    private final ObjectReader files;
+    private final String apiUrl;
+    private final String token;
+    private final GitHubQuota quota; // optional
+
+    public PullRequestFilesFetcher(Transport transport, String apiUrl, String token) {
+        this(transport, apiUrl, token, null);
+    }
+
+    /** @param quota paces every page request and waits out rate limits; null to send right away */
+    public PullRequestFilesFetcher(Transport transport, String apiUrl, String token, GitHubQuota quota) {
+        this.transport = transport;
+        this.quota = quota;
+        this.files = transport.readerFor(ChangedFile.class);
+        this.apiUrl = (apiUrl == null || apiUrl.isBlank()) ? "https://api.github.com" : apiUrl.replaceAll("/+$", "");
+        this.token = token;
+    }
+
+    /**
+     * Follows the Link rel="next" chain and emits files in API order, stopping once
+     * maxFiles have been emitted.
+     *
+     * @return number of files handed to the sink
+     */
+    @Override
+    public int fetch(String owner, String repo, int prNumber, int maxFiles, Consumer<ChangedFile> sink)
+            throws IOException, InterruptedException {
+        int perPage = Math.min(100, Math.max(1, maxFiles));
+        String url = String.format("%s/repos/%s/%s/pulls/%d/files?per_page=%d", apiUrl, owner, repo, prNumber, perPage);
+
+        int emitted = 0, limited = 0;
+        while (url != null && emitted < maxFiles) {
+            if (quota != null) quota.acquire();
+            HttpRequest req = transport.request(url, Duration.ofSeconds(40))
+                    .header("Accept", "application/vnd.github+json")
+                    .header("Authorization", "token " + token)
+                    .GET()
+                    .build();
+
+            HttpResponse<InputStream> res = transport.sendCached(req);
+            if (quota != null && quota.observe(res) && limited++ < MAX_RATE_LIMITED) {
+                res.body().close();
+                continue; // same page again once the quota allows
+            }
+            try (InputStream in = res.body()) {
+                if (res.statusCode() / 100 != 2) {
+                    throw new IOException("GitHub API error: HTTP " + res.statusCode() + " -> "
+                            + new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+                try (JsonParser p = files.getFactory().createParser(in)) {
+                    if (p.nextToken() != JsonToken.START_ARRAY) {
+                        throw new IOException("GitHub API error: expected a JSON array from " + url);
+                    }
+                    while (emitted < maxFiles && p.nextToken() == JsonToken.START_OBJECT) {
+                        sink.accept(files.readValue(p));
+                        emitted++;
+                    }
+                }
+            }
+            url = nextLink(res.headers());
+        }
+        return emitted;
+    }
+
+    static String nextLink(HttpHeaders headers) {
+        for (String link : headers.allValues("Link")) {
+            Matcher m = NEXT_LINK.matcher(link);
+            if (m.find()) return m.group(1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,112 @@
+package dev.dimitra.bot.github;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import dev.dimitra.bot.http.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Streams a repository's pull requests from GitHub /pulls across all pages, newest first.
+ *
+ * Like {@link PullRequestFilesFetcher}, each page is parsed from the response stream, and
+ * every PR goes to the sink as soon as it is read. A backfill can then start fetching the
+ * first PRs' files while the listing is still paging.
+ */
+public class PullRequestLister {
+
+    /** What a backfill needs to know about a PR before fetching its files. */
+    public record PullRequest(int number, String headSha, String state, String mergedAt, String title) {}
+
+    private static final int MAX_RATE_LIMITED = 3;
+
+    private final Transport transport;
+    private final String apiUrl;
+    private final String token;
+    private final GitHubQuota quota; // optional
+
+    public PullRequestLister(Transport transport, String apiUrl, String token, GitHubQuota quota) {
+        this.transport = transport;
+        this.apiUrl = (apiUrl == null || apiUrl.isBlank()) ? "https://api.github.com" : apiUrl.replaceAll("/+$", "");
+        this.token = token;
+        this.quota = quota;
+    }
+
+    /**
+     * Open PRs, most recently created first.
+     *
+     * @return number of PRs handed to the sink
+     */
+    public int listOpen(String owner, String repo, int limit, Consumer<PullRequest> sink)
+            throws IOException, InterruptedException {
+        return list(owner, repo, "open", "created", null, limit, sink);
+    }
+
+    /**
+     * PRs merged after {@code since}, most recently updated first. Closed PRs that were not
+     * merged are skipped.
+     */
+    public int listMerged(String owner, String repo, Instant since, int limit, Consumer<PullRequest> sink)
+            throws IOException, InterruptedException {
+        return list(owner, repo, "closed", "updated", since, limit, sink);
+    }
+
+    private int list(String owner, String repo, String state, String sort, Instant since, int limit,
+                     Consumer<PullRequest> sink) throws IOException, InterruptedException {
+        int max = limit <= 0 ? Integer.MAX_VALUE : limit;
+        String url = String.format("%s/repos/%s/%s/pulls?state=%s&sort=%s&direction=desc&per_page=100",
+                apiUrl, owner, repo, state, sort);
+
+        int emitted = 0, limited = 0;
+        while (url != null && emitted < max) {
+            if (quota != null) quota.acquire();
+            HttpRequest req = transport.request(url, Duration.ofSeconds(40))
+                    .header("Accept", "application/vnd.github+json")
+                    .header("Authorization", "token " + token)
+                    .GET()
+                    .build();
+
+            HttpResponse<InputStream> res = transport.sendCached(req);
+            if (quota != null && quota.observe(res) && limited++ < MAX_RATE_LIMITED) {
+                res.body().close();
+                continue;
+            }
+            boolean older = false; // sorted by update time, so one PR older than `since` ends the listing
+            try (InputStream in = res.body()) {
+                if (res.statusCode() / 100 != 2) {
+                    throw new IOException("GitHub API error: HTTP " + res.statusCode() + " -> "
+                            + new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+                try (JsonParser p = transport.mapper().getFactory().createParser(in)) {
+                    if (p.nextToken() != JsonToken.START_ARRAY) {
+                        throw new IOException("GitHub API error: expected a JSON array from " + url);
+                    }
+                    while (emitted < max && p.nextToken() == JsonToken.START_OBJECT) {
+                        JsonNode pr = transport.mapper().readTree(p);
+                        if (since != null && !pr.path("updated_at").asText("").isEmpty()
+                                && Instant.parse(pr.path("updated_at").asText()).isBefore(since)) {
+                            older = true;
+                            break;
+                        }
+                        String mergedAt = pr.path("merged_at").isTextual() ? pr.path("merged_at").asText() : null;
+                        if (state.equals("closed") && mergedAt == null) continue;
+                        sink.accept(new PullRequest(pr.path("number").asInt(), pr.path("head").path("sha").asText(null),
+                                mergedAt != null ? "merged" : pr.path("state").asText(state), mergedAt,
+                                pr.path("title").asText("")));
+                        emitted++;
+                    }
+                }
+            }
+            url = older ? null : PullRequestFilesFetcher.nextLink(res.headers());
+        }
+        return emitted;
+    }
+}
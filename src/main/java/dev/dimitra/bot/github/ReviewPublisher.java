@@ -0,0 +1,179 @@
+package dev.dimitra.bot.github;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.http.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the bot's output to a PR with as few GitHub writes as possible.
+ *
+ * <ul>
+ *   <li>Comment mode keeps one bot comment per PR. The previous one is found by its hidden
+ *       marker and edited in place (PATCH). A new comment is posted only the first time.</li>
+ *   <li>Review mode submits one PR review per run. Every finding with a diff position becomes
+ *       an inline comment, all in a single {@code POST /pulls/{n}/reviews}.</li>
+ * </ul>
+ *
+ * Either way the body carries the {@link ReviewState} marker. {@link #findPrevious} reads it
+ * back from the same place, so incremental mode and the upsert share one listing. Only output
+ * posted by the bot's own account counts: anyone on the PR can paste a marker into a comment.
+ * Failures are logged, not thrown: a review that can't be posted shouldn't fail the run.
+ */
+public class ReviewPublisher {
+
+    /** One inline review comment, anchored by GitHub diff position. */
+    public record InlineComment(String path, int position, String body) {}
+
+    /** The bot's most recent output on the PR: the comment or review id and the state it carried. */
+    public record Previous(long id, ReviewState state) {}
+
+    /** The account a workflow's GITHUB_TOKEN posts as. */
+    public static final String ACTIONS_LOGIN = "github-actions[bot]";
+
+    private final Transport transport;
+    private final ObjectMapper mapper;
+    private final String repoUrl;
+    private final String token;
+    private final int prNumber;
+    private final boolean inlineReview;
+    private final String botLogin;
+    private Previous previous;
+    private boolean looked;
+
+    public ReviewPublisher(Transport transport, String apiUrl, String token, String owner, String repo,
+                           int prNumber, boolean inlineReview) {
+        this(transport, apiUrl, token, owner, repo, prNumber, inlineReview, ACTIONS_LOGIN);
+    }
+
+    /** @param botLogin the account the token posts as; markers in anyone else's output are ignored */
+    public ReviewPublisher(Transport transport, String apiUrl, String token, String owner, String repo,
+                           int prNumber, boolean inlineReview, String botLogin) {
+        this.transport = transport;
+        this.mapper = transport.mapper();
+        this.repoUrl = String.format("%s/repos/%s/%s", apiUrl.replaceAll("/+$", ""), owner, repo);
+        this.token = token;
+        this.prNumber = prNumber;
+        this.inlineReview = inlineReview;
+        this.botLogin = botLogin == null || botLogin.isBlank() ? ACTIONS_LOGIN : botLogin.trim();
+    }
+
+    /**
+     * Scans the PR's issue comments (or reviews, in review mode) once and remembers the result.
+     *
+     * @return the latest output of the bot's account carrying a marker, or null if there is none
+     *         or it can't be read
+     */
+    public Previous findPrevious() {
+        if (looked) return previous;
+        looked = true;
+        String url = repoUrl + (inlineReview ? "/pulls/" : "/issues/") + prNumber
+                + (inlineReview ? "/reviews" : "/comments") + "?per_page=100";
+        int foreign = 0;
+        try {
+            while (url != null) {
+                HttpResponse<InputStream> res = send(url, "GET", null);
+                JsonNode page;
+                try (InputStream in = res.body()) {
+                    page = mapper.readTree(in);
+                }
+                if (res.statusCode() / 100 != 2) throw new IOException("HTTP " + res.statusCode());
+                for (JsonNode c : page) {
+                    String body = c.path("body").asText(null);
+                    if (!ReviewState.isBotBody(body)) continue;
+                    if (!botLogin.equalsIgnoreCase(c.path("user").path("login").asText(""))) {
+                        foreign++; // a copied or forged marker: its state must not steer this run
+                        continue;
+                    }
+                    previous = new Previous(c.path("id").asLong(), ReviewState.fromComment(body, mapper)); // oldest first
+                }
+                url = PullRequestFilesFetcher.nextLink(res.headers());
+            }
+            if (foreign > 0) {
+                System.err.println("[WARN] Ignored " + foreign + " bot marker(s) posted by accounts other than " + botLogin
+                        + (previous == null ? " (set BOT_LOGIN if the token posts as another account)" : ""));
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not read previous bot " + (inlineReview ? "reviews" : "comments") + ": " + e.getMessage());
+            previous = null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            previous = null;
+        }
+        return previous;
+    }
+
+    /** Comment mode: edits the bot's comment if there is one, else posts it. */
+    public void upsertComment(String body) throws IOException, InterruptedException {
+        String payload = transport.writer().writeValueAsString(Map.of("body", body));
+        Previous existing = findPrevious();
+        if (existing != null) {
+            HttpResponse<InputStream> res = send(repoUrl + "/issues/comments/" + existing.id(), "PATCH", payload);
+            if (res.statusCode() / 100 == 2) {
+                discard(res);
+                return;
+            }
+            // deleted since we listed it (404) or not editable by this token (403): post a fresh one
+            System.err.println("[WARN] Could not update bot comment " + existing.id() + ": " + error(res));
+        }
+        HttpResponse<InputStream> res = send(repoUrl + "/issues/" + prNumber + "/comments", "POST", payload);
+        if (res.statusCode() / 100 != 2) throw new IOException("Failed to post PR comment: " + error(res));
+        discard(res);
+    }
+
+    /**
+     * Review mode: one review holding the summary and every inline comment.
+     *
+     * @param commitId head the positions refer to, or null for the PR's current head
+     * @return false if GitHub rejected the inline comments (422, e.g. the head moved meanwhile),
+     *         so the caller can resubmit without them
+     * @throws IOException if the review could not be posted for any other reason
+     */
+    public boolean submitReview(String body, String commitId, List<InlineComment> comments)
+            throws IOException, InterruptedException {
+        Map<String, Object> review = new LinkedHashMap<>();
+        if (commitId != null && !commitId.isBlank()) review.put("commit_id", commitId);
+        review.put("event", "COMMENT");
+        review.put("body", body);
+        if (!comments.isEmpty()) review.put("comments", comments);
+        HttpResponse<InputStream> res = send(repoUrl + "/pulls/" + prNumber + "/reviews", "POST",
+                transport.writer().writeValueAsString(review));
+        if (res.statusCode() / 100 == 2) {
+            discard(res);
+            return true;
+        }
+        String error = error(res);
+        if (res.statusCode() != 422 || comments.isEmpty()) throw new IOException("Failed to submit PR review: " + error);
+        System.err.println("[WARN] GitHub rejected " + comments.size() + " inline comment(s): " + error);
+        return false;
+    }
+
+    private HttpResponse<InputStream> send(String url, String method, String payload)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder req = transport.request(url, Duration.ofSeconds(30))
+                .header("Accept", "application/vnd.github+json")
+                .header("Authorization", "token " + token);
+        if (payload == null) req.GET();
+        else req.method(method, HttpRequest.BodyPublishers.ofString(payload));
+        return transport.sendCached(req.build()); // only GETs are cached
+    }
+
+    private static String error(HttpResponse<InputStream> res) throws IOException {
+        try (InputStream in = res.body()) {
+            return "HTTP " + res.statusCode() + " -> " + new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void discard(HttpResponse<InputStream> res) throws IOException {
+        res.body().close();
+    }
+}
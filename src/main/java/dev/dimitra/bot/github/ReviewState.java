@@ -0,0 +1,77 @@
+package dev.dimitra.bot.github;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.llm.LlmFinding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * What the bot reviewed last time: the PR head SHA and the findings it reported.
+ * Travels inside the bot's own comment as a hidden HTML marker
+ * ({@code <!-- code-smell-bot:state <base64 gzip json> -->}). Output without a head SHA
+ * has no state to carry and is tagged with {@link #COMMENT_MARKER} instead.
+ */
+public record ReviewState(String headSha, List<LlmFinding> findings) {
+
+    public static final String MARKER_PREFIX = "<!-- code-smell-bot:state ";
+    public static final String COMMENT_MARKER = "<!-- code-smell-bot -->";
+    private static final String MARKER_SUFFIX = " -->";
+    /** GitHub rejects comment and review bodies longer than this. */
+    public static final int MAX_BODY_CHARS = 65_536;
+    private static final String TRUNCATED = "\n\n_Report truncated to fit GitHub's comment size limit._\n";
+
+    /** True for a comment or review body the bot wrote. */
+    public static boolean isBotBody(String body) {
+        return body != null && (body.contains(MARKER_PREFIX) || body.contains(COMMENT_MARKER));
+    }
+
+    public String toMarker(ObjectMapper mapper) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(buf)) {
+            mapper.writeValue(gz, this);
+        }
+        return MARKER_PREFIX + Base64.getEncoder().encodeToString(buf.toByteArray()) + MARKER_SUFFIX;
+    }
+
+    /**
+     * body followed by the marker of state (or {@link #COMMENT_MARKER} when state is null), kept
+     * within {@link #MAX_BODY_CHARS}. A state that doesn't fit is left out, so the next run finds
+     * none and analyzes in full; a body that doesn't fit even then is cut at a line break.
+     */
+    public static String attach(String body, ReviewState state, ObjectMapper mapper) throws IOException {
+        int room = MAX_BODY_CHARS - COMMENT_MARKER.length() - 1;
+        if (body.length() > room) {
+            int cut = body.lastIndexOf('\n', room - TRUNCATED.length());
+            body = body.substring(0, Math.max(cut, 0)) + TRUNCATED;
+        }
+        if (state != null) {
+            String marker = state.toMarker(mapper);
+            if (body.length() + 1 + marker.length() <= MAX_BODY_CHARS) return body + "\n" + marker;
+            System.err.println("[WARN] Review state of " + state.findings().size()
+                    + " finding(s) is too large to embed, the next run will analyze the PR in full");
+        }
+        return body + "\n" + COMMENT_MARKER;
+    }
+
+    /** @return the state embedded in a comment body, or null if there is none (or it is unreadable) */
+    public static ReviewState fromComment(String body, ObjectMapper mapper) {
+        if (body == null) return null;
+        int start = body.lastIndexOf(MARKER_PREFIX);
+        if (start < 0) return null;
+        start += MARKER_PREFIX.length();
+        int end = body.indexOf(MARKER_SUFFIX, start);
+        if (end < 0) return null;
+        try (GZIPInputStream gz = new GZIPInputStream(
+                new ByteArrayInputStream(Base64.getDecoder().decode(body.substring(start, end).trim())))) {
+            return mapper.readValue(gz, ReviewState.class);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
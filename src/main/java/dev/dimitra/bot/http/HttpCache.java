@@ -0,0 +1,496 @@
+package dev.dimitra.bot.http;
+
+import dev.dimitra.bot.metrics.RunMetrics;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static dev.dimitra.bot.config.Env.longEnv;
+
+/**
+ * On-disk cache for GitHub GETs, revalidated on every use.
+ *
+ * A cached response is never served blind. Its {@code ETag} / {@code Last-Modified} go out as
+ * {@code If-None-Match} / {@code If-Modified-Since}, and only a {@code 304 Not Modified} answer
+ * is served from disk. GitHub doesn't count 304s against the primary rate limit, so re-runs of
+ * the same PR list files and comments almost for free, and never see stale data. The caller
+ * gets a normal 200 carrying the live response's rate-limit headers and the stored
+ * {@code Link}, so pagination and {@code GitHubQuota} work as before.
+ *
+ * Each entry is one file named by the hash of URL and Accept: a short HTTP-style header block,
+ * a blank line, then the decoded body. The token is not part of the key, since Actions mints a
+ * new one for every job; a body is only ever served once GitHub has confirmed, for the current
+ * token, that it is still what that token would get.
+ * Bodies are recorded while the caller streams them, into a temp file that is atomically
+ * renamed into place once complete. Several threads, server jobs or processes can share a
+ * directory: readers keep the file they opened even if it is replaced or evicted meanwhile.
+ * Once the directory passes maxBytes, the least recently used entries (by modification time,
+ * refreshed on every hit) are deleted down to three quarters of it.
+ */
+public final class HttpCache {
+
+    private static final String MAGIC = "code-smell-bot-http-cache 1";
+    private static final List<String> STORED_HEADERS = List.of("ETag", "Last-Modified", "Link", "Content-Type");
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final ReentrantLock evicting = new ReentrantLock(); // blocking IO inside: no monitor, no pinned carrier
+
+    private HttpCache(Path dir, long maxBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(1, maxBytes / 4);
+        try (Stream<Path> files = Files.list(this.dir)) {
+            bytes.set(files.filter(HttpCache::isEntry).mapToLong(HttpCache::sizeOf).sum());
+        }
+        if (bytes.get() > maxBytes) evict(); // e.g. restored by CI with a larger budget
+    }
+
+    public static HttpCache open(Path dir, long maxBytes) throws IOException {
+        return new HttpCache(dir, maxBytes <= 0 ? 64L << 20 : maxBytes);
+    }
+
+    /**
+     * Opens the cache at GITHUB_HTTP_CACHE_DIR (bounded by GITHUB_HTTP_CACHE_MAX_MB, default 64),
+     * or returns null when it is not configured or the directory cannot be used.
+     */
+    public static HttpCache fromEnv() {
+        String path = System.getenv("GITHUB_HTTP_CACHE_DIR");
+        if (path == null || path.isBlank()) return null;
+        long maxMb = longEnv("GITHUB_HTTP_CACHE_MAX_MB", 64);
+        try {
+            return open(Path.of(path), maxMb << 20);
+        } catch (IOException e) {
+            System.err.println("[WARN] GitHub HTTP cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Bytes the entries in the directory take, as far as this process knows. */
+    public long size() {
+        return bytes.get();
+    }
+
+    /**
+     * Sends a GET conditionally if there is an entry for it, serving the entry on 304 and
+     * recording cacheable 200s. Other methods go straight through.
+     */
+    HttpResponse<InputStream> send(Transport transport, HttpRequest req) throws IOException, InterruptedException {
+        if (!req.method().equals("GET")) return transport.send(req, Transport.ofInputStream());
+        String key = key(req);
+        Path file = dir.resolve(key);
+        Stored stored = Stored.open(file);
+
+        HttpRequest sent = req;
+        if (stored != null) {
+            HttpRequest.Builder conditional = HttpRequest.newBuilder(req, (name, value) -> true);
+            stored.header("ETag").ifPresent(v -> conditional.header("If-None-Match", v));
+            stored.header("Last-Modified").ifPresent(v -> conditional.header("If-Modified-Since", v));
+            sent = conditional.build();
+        }
+        HttpResponse<InputStream> res;
+        try {
+            res = transport.send(sent, Transport.ofInputStream());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (stored != null) stored.close();
+            throw e;
+        }
+
+        if (res.statusCode() == 304 && stored != null) {
+            res.body().close();
+            touch(file);
+            RunMetrics.current().count("github_cache_hits");
+            return new CachedResponse(res, stored);
+        }
+        if (stored != null) stored.close();
+        if (res.statusCode() == 200 && (res.headers().firstValue("ETag").isPresent()
+                || res.headers().firstValue("Last-Modified").isPresent())) {
+            RunMetrics.current().count("github_cache_misses");
+            return new RecordedResponse(res, new Recording(res.body(), file, res.headers()));
+        }
+        return res;
+    }
+
+    private static String key(HttpRequest req) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{
+                    req.uri().toString(),
+                    req.headers().firstValue("Accept").orElse("")}) {
+                md.update(part.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---- entries on disk ----
+
+    /** An open entry: its stored headers, and a channel positioned at the body. */
+    private static final class Stored implements AutoCloseable {
+        final FileChannel ch;
+        final Map<String, String> headers;
+
+        private Stored(FileChannel ch, Map<String, String> headers) {
+            this.ch = ch;
+            this.headers = headers;
+        }
+
+        /** @return null when there is no entry, or it is unreadable (it is then deleted) */
+        static Stored open(Path file) {
+            FileChannel ch;
+            try {
+                ch = FileChannel.open(file);
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                System.err.println("[WARN] GitHub HTTP cache: cannot read " + file.getFileName() + ": " + e.getMessage());
+                return null;
+            }
+            try {
+                ByteBuffer head = ByteBuffer.allocate((int) Math.min(MAX_HEADER_BYTES, ch.size()));
+                while (head.hasRemaining() && ch.read(head) >= 0) {
+                    // fill
+                }
+                String text = new String(head.array(), 0, head.position(), StandardCharsets.ISO_8859_1);
+                int end = text.indexOf("\n\n");
+                if (end < 0 || !text.startsWith(MAGIC + "\n")) throw new IOException("corrupt entry");
+                Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (String line : text.substring(MAGIC.length() + 1, end).split("\n")) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) headers.put(line.substring(0, colon), line.substring(colon + 1).trim());
+                }
+                ch.position(end + 2);
+                return new Stored(ch, headers);
+            } catch (IOException e) {
+                closeQuietly(ch);
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    // another process may be replacing it
+                }
+                return null;
+            }
+        }
+
+        Optional<String> header(String name) {
+            return Optional.ofNullable(headers.get(name));
+        }
+
+        InputStream body() {
+            return Channels.newInputStream(ch); // closing the stream closes the channel
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(ch);
+        }
+    }
+
+    /** Copies the body to a temp file as the caller reads it; publishes the entry once complete. */
+    private final class Recording extends InputStream {
+        private final InputStream in;
+        private final Path target;
+        private Path tmp;
+        private OutputStream out; // null once recording was given up
+        private long written;
+        private boolean eof;
+
+        Recording(InputStream in, Path target, HttpHeaders headers) {
+            this.in = in;
+            this.target = target;
+            try {
+                tmp = Files.createTempFile(dir, target.getFileName().toString().substring(0, 16) + "-", ".tmp");
+                out = Files.newOutputStream(tmp);
+                StringBuilder head = new StringBuilder(MAGIC).append('\n');
+                for (String name : STORED_HEADERS) {
+                    for (String v : headers.allValues(name)) head.append(name).append(": ").append(v).append('\n');
+                }
+                byte[] bytes = head.append('\n').toString().getBytes(StandardCharsets.ISO_8859_1);
+                if (bytes.length > MAX_HEADER_BYTES) throw new IOException("headers too large to cache");
+                out.write(bytes);
+                written = bytes.length;
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n < 0) eof = true;
+            else record(b, off, n);
+            return n;
+        }
+
+        private void record(byte[] b, int off, int n) {
+            if (out == null || n == 0) return;
+            try {
+                if ((written += n) > maxEntryBytes) {
+                    abandon(null);
+                    return;
+                }
+                out.write(b, off, n);
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (out != null && !eof) { // the caller stopped early (e.g. at maxFiles): keep the page anyway
+                    byte[] buf = new byte[8192];
+                    while (out != null && read(buf, 0, buf.length) >= 0) {
+                        // recorded by read
+                    }
+                }
+            } catch (IOException e) {
+                abandon(e);
+            } finally {
+                in.close();
+                if (out != null) publish();
+            }
+        }
+
+        private void publish() {
+            try {
+                out.close();
+                long previous = Files.exists(target) ? sizeOf(target) : 0;
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                out = null;
+                if (bytes.addAndGet(written - previous) > maxBytes) evict();
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        private void abandon(IOException cause) {
+            if (cause != null) System.err.println("[WARN] GitHub HTTP cache: not storing a response: " + cause.getMessage());
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // deleted below
+                }
+                out = null;
+            }
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // swept by the next eviction
+                }
+            }
+        }
+    }
+
+    /** Deletes least recently used entries (and abandoned temp files) until 3/4 of the budget. */
+    private void evict() {
+        if (!evicting.tryLock()) return; // someone else is already at it
+        try {
+            record Item(Path path, long size, long touched) {}
+            List<Item> items = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) {
+                    try {
+                        long touched = Files.getLastModifiedTime(p).toMillis();
+                        if (isEntry(p)) items.add(new Item(p, Files.size(p), touched));
+                        else if (p.getFileName().toString().endsWith(".tmp") && now - touched > STALE_TEMP_MILLIS) {
+                            Files.deleteIfExists(p);
+                        }
+                    } catch (IOException ignored) {
+                        // gone meanwhile
+                    }
+                }
+            }
+            items.sort(Comparator.comparingLong(Item::touched));
+            long total = items.stream().mapToLong(Item::size).sum();
+            int removed = 0;
+            for (Item item : items) {
+                if (total <= maxBytes * 3 / 4) break;
+                try {
+                    Files.deleteIfExists(item.path());
+                    total -= item.size();
+                    removed++;
+                } catch (IOException ignored) {
+                    // try the next one
+                }
+            }
+            bytes.set(total);
+            if (removed > 0) RunMetrics.current().count("github_cache_evictions", removed);
+        } catch (IOException e) {
+            System.err.println("[WARN] GitHub HTTP cache eviction failed: " + e.getMessage());
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // evicted meanwhile; the open channel still serves this hit
+        }
+    }
+
+    private static boolean isEntry(Path p) {
+        String name = p.getFileName().toString();
+        return name.length() == 64 && name.chars().allMatch(c -> c >= '0' && c <= '9' || c >= 'a' && c <= 'f');
+    }
+
+    private static long sizeOf(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+            // read-only
+        }
+    }
+
+    // ---- responses handed to callers ----
+
+    /** A 304 turned back into the 200 it stands for. */
+    private static final class CachedResponse extends ForwardingResponse {
+        private final HttpHeaders headers;
+        private final InputStream body;
+
+        CachedResponse(HttpResponse<InputStream> live, Stored stored) {
+            super(live);
+            Map<String, List<String>> merged = new LinkedHashMap<>(live.headers().map());
+            for (String name : STORED_HEADERS) {
+                if (live.headers().firstValue(name).isEmpty()) stored.header(name).ifPresent(v -> merged.put(name, List.of(v)));
+            }
+            this.headers = HttpHeaders.of(merged, (a, b) -> true);
+            this.body = stored.body();
+        }
+
+        @Override
+        public int statusCode() {
+            return 200;
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return headers;
+        }
+
+        @Override
+        public InputStream body() {
+            return body;
+        }
+    }
+
+    /** The live 200, with its body being recorded. */
+    private static final class RecordedResponse extends ForwardingResponse {
+        private final InputStream body;
+
+        RecordedResponse(HttpResponse<InputStream> live, InputStream body) {
+            super(live);
+            this.body = body;
+        }
+
+        @Override
+        public InputStream body() {
+            return body;
+        }
+    }
+
+    private abstract static class ForwardingResponse implements HttpResponse<InputStream> {
+        final HttpResponse<InputStream> live;
+
+        ForwardingResponse(HttpResponse<InputStream> live) {
+            this.live = live;
+        }
+
+        @Override
+        public int statusCode() {
+            return live.statusCode();
+        }
+
+        @Override
+        public HttpRequest request() {
+            return live.request();
+        }
+
+        @Override
+        public Optional<HttpResponse<InputStream>> previousResponse() {
+            return live.previousResponse();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return live.headers();
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return live.sslSession();
+        }
+
+        @Override
+        public URI uri() {
+            return live.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return live.version();
+        }
+    }
+}
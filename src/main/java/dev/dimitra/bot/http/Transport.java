@@ -0,0 +1,247 @@
+package dev.dimitra.bot.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import dev.dimitra.bot.metrics.RunMetrics;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static dev.dimitra.bot.config.Env.intEnv;
+
+/**
+ * The one HTTP stack shared by GitHub and LLM traffic.
+ *
+ * <ul>
+ *   <li>A single {@link HttpClient} that prefers HTTP/2, so requests to a host share one
+ *       multiplexed connection and a single TLS handshake. It runs on virtual threads.</li>
+ *   <li>Requests built by {@link #request} ask for gzip. The body handlers here decode it
+ *       transparently.</li>
+ *   <li>A per-host limit on concurrent exchanges (HTTP_MAX_PER_HOST), to stay polite
+ *       with GitHub's secondary rate limits however many chunks are in flight.</li>
+ *   <li>One {@link ObjectMapper}, with reusable readers and writers derived from it.</li>
+ *   <li>Bytes sent and received per host, counted into the current {@link RunMetrics}.</li>
+ *   <li>Optionally, an {@link HttpCache} that revalidates GitHub reads instead of
+ *       downloading them again ({@link #sendCached}).</li>
+ * </ul>
+ */
+public final class Transport {
+
+    private static final String USER_AGENT = "code-smell-bot";
+
+    private final HttpClient client;
+    private final ObjectMapper mapper;
+    private final ObjectWriter writer;
+    private final int maxPerHost;
+    private final HttpCache cache; // null: GitHub reads are always downloaded
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private static final class Holder {
+        static final Transport SHARED = new Transport(intEnv("HTTP_MAX_PER_HOST", 8), HttpCache.fromEnv());
+    }
+
+    public Transport(int maxPerHost) {
+        this(maxPerHost, null);
+    }
+
+    /** @param cache conditional-request cache for {@link #sendCached}, or null */
+    public Transport(int maxPerHost, HttpCache cache) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(20))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.mapper = new ObjectMapper();
+        this.writer = mapper.writer();
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.cache = cache;
+    }
+
+    /** The process-wide instance, created on first use. */
+    public static Transport shared() {
+        return Holder.SHARED;
+    }
+
+    public HttpClient client() {
+        return client;
+    }
+
+    public ObjectMapper mapper() {
+        return mapper;
+    }
+
+    public ObjectWriter writer() {
+        return writer;
+    }
+
+    /** Cached, immutable reader bound to one type. */
+    public ObjectReader readerFor(Class<?> type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+    /** Request builder with the common headers (compression, user agent) and a timeout. */
+    public HttpRequest.Builder request(String url, Duration timeout) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .header("Accept-Encoding", "gzip")
+                .header("User-Agent", USER_AGENT);
+    }
+
+    /**
+     * Sends under the target host's concurrency limit. The permit is held until the
+     * response headers are in (and, for the buffering handlers, until the body is read).
+     */
+    public <T> HttpResponse<T> send(HttpRequest req, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        String host = req.uri().getHost();
+        Semaphore permits = hosts.computeIfAbsent(host, h -> new Semaphore(maxPerHost, true));
+        // bytes on the wire (compressed), charged to the run that sent the request
+        RunMetrics metrics = RunMetrics.current();
+        req.bodyPublisher().ifPresent(b -> metrics.bytes(host, "out", b.contentLength()));
+        permits.acquire();
+        try {
+            return client.send(req, info -> new CountingSubscriber<>(handler.apply(info), n -> metrics.bytes(host, "in", n)));
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * {@link #send} with {@link #ofInputStream()}, through the HTTP cache when there is one: a
+     * GET with a stored ETag is sent conditionally, and a 304 comes back as the stored 200.
+     * For the GitHub read path; the response is closed by reading or closing its body.
+     */
+    public HttpResponse<InputStream> sendCached(HttpRequest req) throws IOException, InterruptedException {
+        return cache == null ? send(req, ofInputStream()) : cache.send(this, req);
+    }
+
+    // ---- body handlers that undo Content-Encoding: gzip ----
+
+    public static HttpResponse.BodyHandler<String> ofString() {
+        return info -> HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), bytes -> {
+            try {
+                byte[] plain = gzipped(info) ? new GZIPInputStream(new ByteArrayInputStream(bytes)).readAllBytes() : bytes;
+                return new String(plain, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public static HttpResponse.BodyHandler<InputStream> ofInputStream() {
+        // the gzip header is read lazily: mapping functions must not block on the body
+        return info -> HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+                in -> gzipped(info) ? new LazyGzipInputStream(in) : in);
+    }
+
+    public static HttpResponse.BodyHandler<Stream<String>> ofLines() {
+        return info -> HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(), in -> {
+            InputStream body = gzipped(info) ? new LazyGzipInputStream(in) : in;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            return reader.lines().onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        });
+    }
+
+    private static final class CountingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final LongConsumer onBytes;
+
+        CountingSubscriber(HttpResponse.BodySubscriber<T> delegate, LongConsumer onBytes) {
+            this.delegate = delegate;
+            this.onBytes = onBytes;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            long n = 0;
+            for (ByteBuffer b : items) n += b.remaining();
+            onBytes.accept(n);
+            delegate.onNext(items);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            delegate.onComplete();
+        }
+    }
+
+    private static boolean gzipped(HttpResponse.ResponseInfo info) {
+        return info.headers().firstValue("Content-Encoding").map(v -> v.trim().equalsIgnoreCase("gzip")).orElse(false);
+    }
+
+    private static final class LazyGzipInputStream extends InputStream {
+        private final InputStream raw;
+        private InputStream gzip;
+
+        LazyGzipInputStream(InputStream raw) {
+            this.raw = raw;
+        }
+
+        private InputStream in() throws IOException {
+            if (gzip == null) gzip = new GZIPInputStream(raw, 16 * 1024);
+            return gzip;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (gzip != null) gzip.close();
+            else raw.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package dev.dimitra.bot.llm;
+
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Incremental parser for the model's JSON array of findings.
+ *
+ * Text is fed in whatever pieces the stream delivers; each top-level object is bound to an
+ * {@link LlmFinding} the moment its closing brace arrives. Anything before the opening
+ * bracket (code fences, stray prose, even prose with "[brackets]" in it) is skipped, and if
+ * the response is cut off mid-array every finding that closed before the cut is kept.
+ * Objects are bound leniently: unknown fields, trailing commas and raw line breaks inside
+ * strings don't cost a finding. Safe to feed from one thread while another reads the results.
+ *
+ * When a response was cut off at the output limit, {@link #continuation} builds the
+ * follow-up that asks for the remaining findings only.
+ */
+public final class FindingsStreamParser {
+
+    private static final int BEFORE_ARRAY = 0, OPENING = 1, IN_ARRAY = 2, DONE = 3;
+
+    private static final String CONTINUE = """
+            Your answer was cut off at the output limit. Reply with a JSON array holding only the findings \
+            you had not finished listing above; do not repeat any finding. Reply with [] if there are none.""";
+
+    private final ObjectReader reader; // bound to LlmFinding
+    private final Consumer<LlmFinding> onFinding; // optional
+    private final List<LlmFinding> findings = new ArrayList<>();
+    private final StringBuilder object = new StringBuilder();
+    private int state = BEFORE_ARRAY;
+    private int depth;
+    private boolean inString, escaped;
+    private int unreadable;
+
+    public FindingsStreamParser(ObjectReader findingReader, Consumer<LlmFinding> onFinding) {
+        this.reader = findingReader
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .withFeatures(JsonReadFeature.ALLOW_TRAILING_COMMA, JsonReadFeature.ALLOW_UNESCAPED_CONTROL_CHARS);
+        this.onFinding = onFinding;
+    }
+
+    public synchronized void feed(CharSequence text) {
+        for (int i = 0; i < text.length() && state != DONE; i++) {
+            char c = text.charAt(i);
+            if (state == BEFORE_ARRAY) {
+                if (c == '[') state = OPENING;
+                continue;
+            }
+            if (state == OPENING) { // only "[{" or "[]" opens the findings array, not "see [1]"
+                if (Character.isWhitespace(c)) continue;
+                if (c == ']') {
+                    state = DONE;
+                    continue;
+                }
+                if (c != '{') {
+                    state = c == '[' ? OPENING : BEFORE_ARRAY;
+                    continue;
+                }
+                state = IN_ARRAY;
+            }
+            if (depth == 0) {
+                if (c == '{') {
+                    object.setLength(0);
+                    object.append(c);
+                    depth = 1;
+                } else if (c == ']') {
+                    state = DONE;
+                }
+                continue; // commas and whitespace between objects
+            }
+            object.append(c);
+            if (inString) {
+                if (escaped) escaped = false;
+                else if (c == '\\') escaped = true;
+                else if (c == '"') inString = false;
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                emit();
+            }
+        }
+    }
+
+    private void emit() {
+        LlmFinding f;
+        try {
+            f = reader.readValue(object.toString());
+        } catch (Exception e) {
+            unreadable++;
+            return;
+        }
+        findings.add(f);
+        if (onFinding != null) onFinding.accept(f);
+    }
+
+    /** True once the opening bracket was seen, i.e. the response is (the start of) a findings array. */
+    public synchronized boolean sawArray() {
+        return state >= IN_ARRAY;
+    }
+
+    /** True once the closing bracket was seen. */
+    public synchronized boolean isComplete() {
+        return state == DONE;
+    }
+
+    public synchronized List<LlmFinding> findings() {
+        return List.copyOf(findings);
+    }
+
+    /** Objects that closed but could not be bound to a finding. */
+    public synchronized int unreadable() {
+        return unreadable;
+    }
+
+    /**
+     * The conversation to send after a response that hit the output limit: the request so far,
+     * the cut-off answer as the model's turn, and a request for the findings it didn't finish.
+     */
+    public static List<LlmClient.Message> continuation(List<LlmClient.Message> sent, String cutOff) {
+        List<LlmClient.Message> next = new ArrayList<>(sent);
+        next.add(new LlmClient.Message("assistant", cutOff));
+        next.add(new LlmClient.Message("user", CONTINUE));
+        return next;
+    }
+}
@@ -5,43 +5,79 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import dev.dimitra.bot.http.Transport;
 import dev.dimitra.bot.llm.LlmClient.Message;
 import dev.dimitra.bot.llm.LlmClient.Result;
 import dev.dimitra.bot.llm.LlmClient.Usage;
 
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.http.*;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
- * LLM client for Google's Gemini API using the generateContent endpoint.
+ * LLM client for Google's Gemini API using the generateContent endpoint
+ * (streamGenerateContent with SSE for {@link #chatStream}).
+ *
+ * With a context-cache TTL, a system prompt marked {@link LlmClient#CACHE_PREFIX} is stored
+ * once as a {@code cachedContents} entry and referenced by name, so parallel chunks don't pay
+ * for prefilling it again. The entry's TTL is extended while it is in use. A request whose
+ * entry has expired or vanished is retried once with the prompt inline.
  *
  * See: https://generativelanguage.googleapis.com/v1beta/models/{model}:generateContent
  */
 public class GeminiClient implements LlmClient {
 
-    private static final String BASE_URL =
+    public static final String DEFAULT_BASE_URL =
             "https://generativelanguage.googleapis.com/v1beta/models";
 
-    private final HttpClient http = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(30))
-            .build();
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final Transport transport;
+    private final ObjectMapper mapper;
 
     private final String apiKey;
     private final String model;
+    private final String baseUrl; // overridable for a local stand-in server
+    private final boolean stream;
+    private final ContextCache contextCache; // null = system prompts always inline
 
     public GeminiClient(String apiKey, String model) {
+        this(Transport.shared(), apiKey, model, null, true);
+    }
+
+    public GeminiClient(Transport transport, String apiKey, String model, String baseUrl, boolean stream) {
+        this(transport, apiKey, model, baseUrl, stream, null);
+    }
+
+    /** @param contextCacheTtl lifetime of cached system prompts; null or zero to never cache them */
+    public GeminiClient(Transport transport, String apiKey, String model, String baseUrl, boolean stream,
+                        Duration contextCacheTtl) {
+        this.transport = transport;
+        this.mapper = transport.mapper();
         this.apiKey = Objects.requireNonNull(apiKey, "GEMINI_API_KEY missing");
         // Good default: fast & cheap text model
         this.model = (model == null || model.isBlank())
                 ? "gemini-2.5-flash-lite"
                 : model;
+        this.baseUrl = (baseUrl == null || baseUrl.isBlank()) ? DEFAULT_BASE_URL : baseUrl.replaceAll("/+$", "");
+        this.stream = stream;
+        this.contextCache = (contextCacheTtl == null || contextCacheTtl.isZero() || contextCacheTtl.isNegative())
+                ? null
+                : new ContextCache(contextCacheTtl);
+    }
+
+    @Override
+    public String model() {
+        return model;
     }
 
     @Override
@@ -49,10 +85,103 @@ public class GeminiClient implements LlmClient {
                        List<Message> messages,
                        Map<String, Object> options) throws IOException, InterruptedException {
 
+        String url = baseUrl + "/" + model + ":generateContent?key=" + apiKey;
+
+        String cached = cachedContent(systemPrompt, options);
+        HttpResponse<String> resp = transport.send(request(url, systemPrompt, messages, options, cached), Transport.ofString());
+        if (cached != null && cacheMissed(resp.statusCode(), cached)) {
+            resp = transport.send(request(url, systemPrompt, messages, options, null), Transport.ofString());
+        }
+        if (resp.statusCode() / 100 != 2) {
+            throw LlmHttpException.of("Gemini", resp.statusCode(), resp.headers(), resp.body());
+        }
+
+        JsonNode root = mapper.readTree(resp.body());
+
+        // Extract text: candidates[0].content.parts[0].text
+        JsonNode candidates = root.path("candidates");
+        String text = "";
+        if (candidates.isArray() && candidates.size() > 0) {
+            JsonNode content = candidates.get(0).path("content");
+            JsonNode parts = content.path("parts");
+            if (parts.isArray() && parts.size() > 0) {
+                text = parts.get(0).path("text").asText("");
+            }
+        }
+
+        String finish = candidates.path(0).path("finishReason").asText(null);
+        return new Result(text, usage(root), finish);
+    }
+
+    @Override
+    public Result chatStream(String systemPrompt,
+                             List<Message> messages,
+                             Map<String, Object> options,
+                             Consumer<String> onText) throws IOException, InterruptedException {
+        if (!stream) return LlmClient.super.chatStream(systemPrompt, messages, options, onText);
+
+        String url = baseUrl + "/" + model + ":streamGenerateContent?alt=sse&key=" + apiKey;
+        String cached = cachedContent(systemPrompt, options);
+        HttpResponse<Stream<String>> resp =
+                transport.send(request(url, systemPrompt, messages, options, cached), Transport.ofLines());
+        if (cached != null && cacheMissed(resp.statusCode(), cached)) {
+            resp.body().close();
+            resp = transport.send(request(url, systemPrompt, messages, options, null), Transport.ofLines());
+        }
+        if (resp.statusCode() / 100 != 2) {
+            String err;
+            try (var lines = resp.body()) {
+                err = String.join("\n", lines.toList());
+            }
+            throw LlmHttpException.of("Gemini", resp.statusCode(), resp.headers(), err);
+        }
+
+        // every event is a partial GenerateContentResponse; usageMetadata is cumulative
+        StringBuilder text = new StringBuilder();
+        Usage[] usage = {new Usage(0, 0)};
+        String[] finish = {null};
+        Sse.read(resp.body(), data -> {
+            JsonNode event;
+            try {
+                event = mapper.readTree(data);
+            } catch (IOException e) {
+                return; // keep-alive or malformed event
+            }
+            JsonNode reason = event.path("candidates").path(0).path("finishReason");
+            if (reason.isTextual()) finish[0] = reason.asText();
+            for (JsonNode part : event.path("candidates").path(0).path("content").path("parts")) {
+                String piece = part.path("text").asText("");
+                if (piece.isEmpty()) continue;
+                text.append(piece);
+                onText.accept(piece);
+            }
+            if (event.has("usageMetadata")) usage[0] = usage(event);
+        });
+        return new Result(text.toString(), usage[0], finish[0]);
+    }
+
+    /** Name of the cachedContents entry to use for this call, or null to send the system prompt inline. */
+    private String cachedContent(String systemPrompt, Map<String, Object> options) throws InterruptedException {
+        if (contextCache == null || options == null || !Boolean.TRUE.equals(options.get(CACHE_PREFIX))) return null;
+        return contextCache.nameFor(systemPrompt);
+    }
+
+    /** The cached entry was rejected (expired, deleted, not ours): forget it so the call can go inline. */
+    private boolean cacheMissed(int status, String cached) {
+        if (status != 400 && status != 403 && status != 404) return false;
+        contextCache.invalidate(cached);
+        return true;
+    }
+
+    private HttpRequest request(String url, String systemPrompt, List<Message> messages, Map<String, Object> options,
+                                String cachedContent) throws IOException {
         ObjectNode body = mapper.createObjectNode();
+        JsonBody json = new JsonBody(); // message texts are streamed, not serialized up front
 
-        // System prompt -> Gemini system_instruction
-        if (systemPrompt != null && !systemPrompt.isBlank()) {
+        if (cachedContent != null) {
+            body.put("cachedContent", cachedContent); // carries the system instruction
+        } else if (systemPrompt != null && !systemPrompt.isBlank()) {
+            // System prompt -> Gemini system_instruction
             ObjectNode sys = mapper.createObjectNode();
             ArrayNode sysParts = mapper.createArrayNode();
             ObjectNode part = mapper.createObjectNode();
@@ -80,7 +209,7 @@ public class GeminiClient implements LlmClient {
 
             ArrayNode parts = mapper.createArrayNode();
             ObjectNode part = mapper.createObjectNode();
-            part.put("text", m.content());
+            part.put("text", json.text(m.content()));
             parts.add(part);
             content.set("parts", parts);
 
@@ -88,38 +217,130 @@ public class GeminiClient implements LlmClient {
         }
         body.set("contents", contents);
 
-        String url = BASE_URL + "/" + model + ":generateContent?key=" + apiKey;
+        // same option names as the OpenAI client; without maxOutputTokens Gemini answers up to the model's limit
+        if (options != null) {
+            ObjectNode config = mapper.createObjectNode();
+            if (options.get("temperature") instanceof Number t) config.put("temperature", t.doubleValue());
+            if (options.get("max_tokens") instanceof Number max) config.put("maxOutputTokens", max.intValue());
+            if (!config.isEmpty()) body.set("generationConfig", config);
+        }
 
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create(url))
+        return transport.request(url, Duration.ofSeconds(120))
                 .header("Content-Type", "application/json")
-                .timeout(Duration.ofSeconds(120))
-                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)))
+                .POST(json.publisher(transport.writer(), body))
                 .build();
+    }
 
-        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
-        if (resp.statusCode() / 100 != 2) {
-            throw new IOException("Gemini error " + resp.statusCode() + ": " + resp.body());
+    private static Usage usage(JsonNode root) {
+        // Usage metadata (if present); cachedContentTokenCount covers explicit and implicit caching
+        JsonNode usageNode = root.path("usageMetadata");
+        int promptTokens = usageNode.path("promptTokenCount").asInt(0);
+        int completionTokens = usageNode.path("candidatesTokenCount").asInt(0);
+        int cachedTokens = usageNode.path("cachedContentTokenCount").asInt(0);
+        return new Usage(promptTokens, completionTokens, cachedTokens);
+    }
+
+    /**
+     * cachedContents entries for system prompts, one per distinct prompt text. Creation is
+     * single-flight: chunks that start together wait for the one request instead of each
+     * creating an entry. Prompts under the API's minimum cache size are never sent, and a
+     * prompt the API refuses to cache is remembered and from then on sent inline.
+     */
+    private final class ContextCache {
+        private record Entry(String name, Instant expires) {}
+
+        private final Duration ttl;
+        private final Map<String, Entry> entries = new HashMap<>();
+        private final Set<String> refused = new HashSet<>();
+        private final ReentrantLock lock = new ReentrantLock(); // not synchronized: it is held across HTTP calls on virtual threads
+
+        ContextCache(Duration ttl) {
+            this.ttl = ttl;
         }
 
-        JsonNode root = mapper.readTree(resp.body());
+        String nameFor(String systemPrompt) throws InterruptedException {
+            if (systemPrompt == null || systemPrompt.length() < MIN_CACHED_PREFIX_CHARS) return null;
+            lock.lockInterruptibly();
+            try {
+                return nameForLocked(systemPrompt);
+            } finally {
+                lock.unlock();
+            }
+        }
 
-        // Extract text: candidates[0].content.parts[0].text
-        JsonNode candidates = root.path("candidates");
-        String text = "";
-        if (candidates.isArray() && candidates.size() > 0) {
-            JsonNode content = candidates.get(0).path("content");
-            JsonNode parts = content.path("parts");
-            if (parts.isArray() && parts.size() > 0) {
-                text = parts.get(0).path("text").asText("");
+        private String nameForLocked(String systemPrompt) throws InterruptedException {
+            if (refused.contains(systemPrompt)) return null;
+            Entry e = entries.get(systemPrompt);
+            Instant now = Instant.now();
+            if (e != null && now.plus(ttl.dividedBy(5)).isBefore(e.expires())) return e.name();
+            try {
+                // close to expiry: extend the entry in use; if that fails, start a new one
+                e = e != null && now.isBefore(e.expires()) ? extend(e) : null;
+                if (e == null) e = create(systemPrompt);
+                entries.put(systemPrompt, e);
+                return e.name();
+            } catch (IOException ex) {
+                entries.remove(systemPrompt);
+                // a refusal (prompt too small for this model, caching unsupported) is final; an outage is not
+                boolean refusal = !(ex instanceof LlmHttpException http) || !http.retryable();
+                if (refusal) refused.add(systemPrompt);
+                System.err.println("[WARN] Gemini context cache unavailable" + (refusal ? "" : " for now")
+                        + ", sending the system prompt inline: " + ex.getMessage());
+                return null;
             }
         }
 
-        // Usage metadata (if present)
-        JsonNode usageNode = root.path("usageMetadata");
-        int promptTokens = usageNode.path("promptTokenCount").asInt(0);
-        int completionTokens = usageNode.path("candidatesTokenCount").asInt(0);
+        void invalidate(String name) {
+            lock.lock();
+            try {
+                entries.values().removeIf(e -> e.name().equals(name));
+            } finally {
+                lock.unlock();
+            }
+        }
 
-        return new Result(text, new Usage(promptTokens, completionTokens));
+        private Entry create(String systemPrompt) throws IOException, InterruptedException {
+            ObjectNode body = mapper.createObjectNode();
+            body.put("model", "models/" + model);
+            body.putObject("systemInstruction").putArray("parts").addObject().put("text", systemPrompt);
+            body.put("ttl", ttl.toSeconds() + "s");
+            return send(cachesUrl() + "?key=" + apiKey, "POST", body);
+        }
+
+        private Entry extend(Entry e) throws InterruptedException {
+            ObjectNode body = mapper.createObjectNode();
+            body.put("ttl", ttl.toSeconds() + "s");
+            try {
+                return send(cachesUrl().replaceAll("/cachedContents$", "") + "/" + e.name() + "?updateMask=ttl&key=" + apiKey,
+                        "PATCH", body);
+            } catch (IOException ex) {
+                return null;
+            }
+        }
+
+        private Entry send(String url, String method, ObjectNode body) throws IOException, InterruptedException {
+            HttpRequest req = transport.request(url, Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofString(transport.writer().writeValueAsString(body)))
+                    .build();
+            HttpResponse<String> resp = transport.send(req, Transport.ofString());
+            if (resp.statusCode() / 100 != 2) throw LlmHttpException.of("Gemini", resp.statusCode(), resp.headers(), resp.body());
+            JsonNode root = mapper.readTree(resp.body());
+            String name = root.path("name").asText("");
+            if (name.isEmpty()) throw new IOException("Gemini cachedContents response without a name");
+            Instant expires;
+            try {
+                expires = Instant.parse(root.path("expireTime").asText(""));
+            } catch (Exception ex) {
+                expires = Instant.now().plus(ttl);
+            }
+            return new Entry(name, expires);
+        }
+
+        /** {@code .../v1beta/models} -> {@code .../v1beta/cachedContents}. */
+        private String cachesUrl() {
+            return (baseUrl.endsWith("/models") ? baseUrl.substring(0, baseUrl.length() - "/models".length()) : baseUrl)
+                    + "/cachedContents";
+        }
     }
 }
@@ -0,0 +1,196 @@
+package dev.dimitra.bot.llm;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Routes each call across several backends to cut tail latency.
+ *
+ * The primary is the backend with the lowest recent median latency. The configured order
+ * is used until there are enough samples. If the primary has not answered within its own
+ * p{@code hedgePercentile} latency, the same request goes to the next backend and the first
+ * answer wins; the others are cancelled, and how long they ran counts as a latency sample.
+ * A failed backend hands over to the next one right away. When streaming, the first backend
+ * to produce text wins, so the caller never sees two interleaved responses.
+ */
+public class HedgingLlmClient implements LlmClient {
+
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 10;
+
+    private final List<Backend> backends;
+    private final double hedgePercentile;
+    private final Duration minDelay;
+    private final Duration initialDelay;
+    private final ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger hedges = new AtomicInteger();
+
+    private record Backend(String name, LlmClient client, LatencyHistogram latency, LatencyHistogram firstText) {}
+
+    private interface Call {
+        Result run(LlmClient client, Consumer<String> onText) throws IOException, InterruptedException;
+    }
+
+    /**
+     * @param backends        name -> client, in order of preference
+     * @param hedgePercentile percentile of the primary's latency after which a hedge is sent (e.g. 95)
+     * @param minDelay        never hedge sooner than this
+     * @param initialDelay    hedge delay used until the primary has enough latency samples
+     */
+    public HedgingLlmClient(Map<String, LlmClient> backends, double hedgePercentile, Duration minDelay, Duration initialDelay) {
+        if (backends.isEmpty()) throw new IllegalArgumentException("no LLM backends configured");
+        this.backends = new ArrayList<>();
+        backends.forEach((name, client) ->
+                this.backends.add(new Backend(name, client, new LatencyHistogram(WINDOW), new LatencyHistogram(WINDOW))));
+        this.hedgePercentile = hedgePercentile <= 0 || hedgePercentile > 100 ? 95 : hedgePercentile;
+        this.minDelay = minDelay == null ? Duration.ofSeconds(2) : minDelay;
+        this.initialDelay = initialDelay == null ? Duration.ofSeconds(20) : initialDelay;
+    }
+
+    /** Models of all backends, so cached findings are keyed on the whole set. */
+    @Override
+    public String model() {
+        StringBuilder sb = new StringBuilder();
+        for (Backend b : backends) sb.append(sb.isEmpty() ? "" : "|").append(b.client().model());
+        return sb.toString();
+    }
+
+    /** Calls that needed a hedged duplicate, out of {@link #calls()}. */
+    public int hedges() {
+        return hedges.get();
+    }
+
+    public int calls() {
+        return calls.get();
+    }
+
+    @Override
+    public Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options) throws IOException, InterruptedException {
+        return route((c, ignored) -> c.chat(systemPrompt, messages, options), null);
+    }
+
+    @Override
+    public Result chatStream(String systemPrompt, List<Message> messages, Map<String, Object> options,
+                             Consumer<String> onText) throws IOException, InterruptedException {
+        return route((c, gate) -> c.chatStream(systemPrompt, messages, options, gate), onText);
+    }
+
+    private Result route(Call call, Consumer<String> onText) throws IOException, InterruptedException {
+        calls.incrementAndGet();
+        List<Backend> order = ranked();
+        boolean streaming = onText != null;
+        AtomicReference<Backend> owner = new AtomicReference<>(); // streaming: backend whose text is forwarded
+        Map<Backend, Future<Result>> started = new ConcurrentHashMap<>();
+        ExecutorCompletionService<Result> done = new ExecutorCompletionService<>(exec);
+        long delay = hedgeDelay(order.get(0), streaming);
+
+        int next = 0, running = 0;
+        IOException failure = null;
+        try {
+            start(order.get(next++), call, onText, owner, started, done);
+            running++;
+            while (running > 0) {
+                boolean canHedge = next < order.size() && owner.get() == null;
+                Future<Result> f = canHedge ? done.poll(delay, TimeUnit.NANOSECONDS) : done.take();
+                if (f == null) {
+                    hedges.incrementAndGet();
+                    start(order.get(next++), call, onText, owner, started, done);
+                    running++;
+                    continue;
+                }
+                running--;
+                try {
+                    return f.get();
+                } catch (CancellationException e) {
+                    // a stream that lost the race
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof CancellationException) continue;
+                    if (cause instanceof InterruptedException ie) throw ie;
+                    IOException io = cause instanceof IOException x ? x : new IOException(cause);
+                    if (failure == null) failure = io;
+                    else failure.addSuppressed(io);
+                    // fail over at once, unless a stream already handed text to the caller
+                    if (next < order.size() && owner.get() == null) {
+                        start(order.get(next++), call, onText, owner, started, done);
+                        running++;
+                    }
+                }
+            }
+            throw failure != null ? failure : new IOException("all LLM backends failed");
+        } finally {
+            for (Future<Result> f : started.values()) f.cancel(true);
+        }
+    }
+
+    private void start(Backend b, Call call, Consumer<String> onText, AtomicReference<Backend> owner,
+                       Map<Backend, Future<Result>> started, ExecutorCompletionService<Result> done) {
+        started.put(b, done.submit(() -> {
+            long t0 = System.nanoTime();
+            Consumer<String> gate = null;
+            if (onText != null) {
+                gate = text -> {
+                    if (owner.compareAndSet(null, b)) {
+                        b.firstText().record(System.nanoTime() - t0);
+                        // the stream is decided; stop everyone else
+                        started.forEach((other, f) -> {
+                            if (other != b) f.cancel(true);
+                        });
+                    }
+                    if (owner.get() != b) throw new CancellationException(b.name() + " lost the race");
+                    onText.accept(text);
+                };
+            }
+            Result r;
+            try {
+                r = call.run(b.client(), gate);
+            } catch (Exception e) {
+                if (e instanceof InterruptedException || e instanceof CancellationException
+                        || Thread.currentThread().isInterrupted()) {
+                    // cancelled or lost the race after this long: a lower bound, but without it a backend
+                    // that turned slow keeps its old fast samples and stays the primary
+                    long elapsed = System.nanoTime() - t0;
+                    b.latency().record(elapsed);
+                    if (onText != null && owner.get() != b) b.firstText().record(elapsed);
+                }
+                throw e;
+            }
+            b.latency().record(System.nanoTime() - t0);
+            if (onText != null && !owner.compareAndSet(null, b) && owner.get() != b) {
+                throw new CancellationException(b.name() + " lost the race");
+            }
+            return r;
+        }));
+    }
+
+    /** Backends by recent median latency; ones without enough samples keep their configured order after them. */
+    private List<Backend> ranked() {
+        List<Backend> order = new ArrayList<>(backends);
+        order.sort(Comparator.comparingLong(b ->
+                b.latency().count() >= MIN_SAMPLES ? b.latency().percentile(50) : Long.MAX_VALUE));
+        if (order.get(0).latency().count() < MIN_SAMPLES) return backends; // nothing known yet: configured order
+        return order;
+    }
+
+    private long hedgeDelay(Backend primary, boolean streaming) {
+        LatencyHistogram h = streaming ? primary.firstText() : primary.latency();
+        long d = h.count() >= MIN_SAMPLES ? h.percentile(hedgePercentile) : initialDelay.toNanos();
+        return Math.max(minDelay.toNanos(), d);
+    }
+}
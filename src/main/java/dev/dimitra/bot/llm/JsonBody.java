@@ -0,0 +1,215 @@
+package dev.dimitra.bot.llm;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A JSON request body whose large string values are streamed instead of serialized up front.
+ *
+ * The request is still built as an {@link ObjectNode}, but big texts (prompts, patches) go in
+ * through {@link #text}, which returns a short placeholder. {@link #publisher} serializes the
+ * small tree, splits it at the placeholders and sends the texts in their place, JSON-escaping
+ * and UTF-8-encoding them a few KB at a time as the HTTP client pulls. The bytes are exactly the
+ * ones Jackson would write for the whole tree. Neither the escaped
+ * payload nor the prompt is ever held as one String or byte array, and the exact length is
+ * still known up front.
+ *
+ * One instance per request; the publisher can be subscribed to again (retries, redirects).
+ */
+final class JsonBody {
+
+    private static final int INLINE_CHARS = 16 * 1024; // smaller Strings are simply put into the tree
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final String nonce = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final List<CharSequence> texts = new ArrayList<>();
+
+    /** Value to put into the tree in place of {@code text}. */
+    String text(CharSequence text) {
+        if (text == null) return null;
+        if (text instanceof String s && s.length() < INLINE_CHARS) return s;
+        texts.add(text);
+        return placeholder(texts.size() - 1);
+    }
+
+    HttpRequest.BodyPublisher publisher(ObjectWriter writer, ObjectNode root) throws IOException {
+        byte[] json = writer.writeValueAsBytes(root);
+        if (texts.isEmpty()) return HttpRequest.BodyPublishers.ofByteArray(json);
+
+        // alternate raw JSON and texts: raw, text, raw, ..., raw
+        List<Object> segments = new ArrayList<>();
+        long length = 0;
+        int from = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            byte[] quoted = writer.writeValueAsBytes(placeholder(i));
+            int at = indexOf(json, quoted, from);
+            if (at < 0) throw new IOException("request body lost a streamed text");
+            byte[] raw = Arrays.copyOfRange(json, from, at);
+            segments.add(raw);
+            segments.add(texts.get(i));
+            length += raw.length + escapedLength(texts.get(i));
+            from = at + quoted.length;
+        }
+        byte[] tail = Arrays.copyOfRange(json, from, json.length);
+        segments.add(tail);
+        length += tail.length;
+        return HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> new Body(segments)), length);
+    }
+
+    private String placeholder(int i) {
+        return "\u0000" + nonce + ":" + i + "\u0000";
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from, last = haystack.length - needle.length; i <= last; i++) {
+            for (int k = 0; k < needle.length; k++) {
+                if (haystack[i + k] != needle[k]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Bytes of {@code text} as a quoted, escaped JSON string in UTF-8, written the way Jackson
+     * writes it: control characters and every surrogate (paired or not) as six-character Unicode
+     * escapes with uppercase hex digits.
+     */
+    static long escapedLength(CharSequence text) {
+        long n = 2;
+        for (CharSequence part : partsOf(text)) {
+            for (int i = 0, len = part.length(); i < len; i++) {
+                char c = part.charAt(i);
+                if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f') n += 2;
+                else if (c < 0x20 || Character.isSurrogate(c)) n += 6;
+                else if (c < 0x80) n += 1;
+                else if (c < 0x800) n += 2;
+                else n += 3;
+            }
+        }
+        return n;
+    }
+
+    private static List<CharSequence> partsOf(CharSequence text) {
+        return text instanceof PromptText p ? p.parts() : List.of(text);
+    }
+
+    /** Pulls raw segments as they are and texts through the escaper, one buffer at a time. */
+    private static final class Body extends InputStream {
+        private final List<Object> segments;
+        private final byte[] buf = new byte[16 * 1024];
+        private int bufPos, bufEnd;
+        private int segment = -1;
+        private byte[] raw; // the raw segment being sent
+        private int rawPos;
+        private List<CharSequence> parts; // of the text segment being sent
+        private int part, index;
+
+        Body(List<Object> segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (raw != null) { // raw JSON needs no encoding: copy it straight through
+                int n = Math.min(len, raw.length - rawPos);
+                System.arraycopy(raw, rawPos, b, off, n);
+                rawPos += n;
+                if (rawPos == raw.length) raw = null;
+                if (n > 0) return n;
+            }
+            while (bufPos == bufEnd) {
+                if (!fill()) return -1;
+                if (raw != null) return read(b, off, len);
+            }
+            int n = Math.min(len, bufEnd - bufPos);
+            System.arraycopy(buf, bufPos, b, off, n);
+            bufPos += n;
+            return n;
+        }
+
+        /** Encodes more of the current text, or moves on to the next segment. */
+        private boolean fill() {
+            bufPos = bufEnd = 0;
+            if (parts != null) {
+                fillText();
+                return true;
+            }
+            if (++segment >= segments.size()) return false;
+            if (segments.get(segment) instanceof byte[] bytes) {
+                raw = bytes;
+                rawPos = 0;
+                return true;
+            }
+            parts = partsOf((CharSequence) segments.get(segment));
+            part = index = 0;
+            buf[bufEnd++] = '"';
+            return true;
+        }
+
+        private void fillText() {
+            while (bufEnd < buf.length - 12) {
+                if (part == parts.size()) {
+                    buf[bufEnd++] = '"';
+                    parts = null;
+                    return;
+                }
+                CharSequence p = parts.get(part);
+                if (index == p.length()) {
+                    part++;
+                    index = 0;
+                    continue;
+                }
+                char c = p.charAt(index++);
+                switch (c) {
+                    case '"' -> escape('"');
+                    case '\\' -> escape('\\');
+                    case '\n' -> escape('n');
+                    case '\r' -> escape('r');
+                    case '\t' -> escape('t');
+                    case '\b' -> escape('b');
+                    case '\f' -> escape('f');
+                    default -> {
+                        if (c < 0x20 || Character.isSurrogate(c)) {
+                            buf[bufEnd++] = '\\';
+                            buf[bufEnd++] = 'u';
+                            for (int shift = 12; shift >= 0; shift -= 4) buf[bufEnd++] = HEX[c >> shift & 0xf];
+                        } else if (c < 0x80) {
+                            buf[bufEnd++] = (byte) c;
+                        } else if (c < 0x800) {
+                            buf[bufEnd++] = (byte) (0xc0 | c >> 6);
+                            buf[bufEnd++] = (byte) (0x80 | c & 0x3f);
+                        } else {
+                            buf[bufEnd++] = (byte) (0xe0 | c >> 12);
+                            buf[bufEnd++] = (byte) (0x80 | c >> 6 & 0x3f);
+                            buf[bufEnd++] = (byte) (0x80 | c & 0x3f);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void escape(char c) {
+            buf[bufEnd++] = '\\';
+            buf[bufEnd++] = (byte) c;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package dev.dimitra.bot.llm;
+
+import java.util.Arrays;
+
+/** Rolling window of the last few hundred latencies of one backend; percentiles are computed on demand. */
+final class LatencyHistogram {
+
+    private final long[] window;
+    private int next;
+    private int count;
+
+    LatencyHistogram(int size) {
+        this.window = new long[Math.max(8, size)];
+    }
+
+    synchronized void record(long nanos) {
+        window[next] = nanos;
+        next = (next + 1) % window.length;
+        if (count < window.length) count++;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    /** @param p percentile in (0, 100]; returns -1 while the window is empty */
+    synchronized long percentile(double p) {
+        if (count == 0) return -1;
+        long[] sorted = Arrays.copyOf(window, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, rank))];
+    }
+}
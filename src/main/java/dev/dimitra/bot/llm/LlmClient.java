@@ -3,11 +3,63 @@ package dev.dimitra.bot.llm;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface LlmClient {
-    record Message(String role, String content) {}
-    record Usage(int inputTokens, int outputTokens) {}
-    record Result(String text, Usage usage) {}
+    /**
+     * @param content usually a String; prompts over large diffs are a {@link PromptText} of
+     *                patch views, which the clients stream into the request without copying
+     */
+    record Message(String role, CharSequence content) {}
+
+    /** @param cachedInputTokens the part of {@code inputTokens} served from the provider's prompt cache */
+    record Usage(int inputTokens, int outputTokens, int cachedInputTokens) {
+        public Usage(int inputTokens, int outputTokens) {
+            this(inputTokens, outputTokens, 0);
+        }
+    }
+
+    /** @param finishReason why the model stopped, as the provider reports it; null if unknown */
+    record Result(String text, Usage usage, String finishReason) {
+        public Result(String text, Usage usage) {
+            this(text, usage, null);
+        }
+
+        /** True when the answer was cut off at the output-token limit (Gemini MAX_TOKENS, OpenAI length). */
+        public boolean truncated() {
+            return "MAX_TOKENS".equals(finishReason) || "length".equals(finishReason);
+        }
+    }
+
+    /**
+     * Option marking the system prompt as a cacheable prefix ({@code Boolean.TRUE}): it is
+     * sent unchanged with many requests, so the client may have the provider cache it instead of
+     * processing it again every time. Clients without prompt caching ignore it.
+     */
+    String CACHE_PREFIX = "cache_prefix";
+
+    /**
+     * About 1024 tokens, the smallest prefix Gemini's cachedContents and OpenAI's automatic
+     * prompt caching accept; a shorter system prompt gains nothing from {@link #CACHE_PREFIX}.
+     */
+    int MIN_CACHED_PREFIX_CHARS = 4096;
 
     Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options) throws IOException, InterruptedException;
+
+    /**
+     * Like {@link #chat}, but hands the response text to {@code onText} piece by piece as it
+     * arrives. The returned result still carries the full text and usage. Clients without a
+     * streaming endpoint deliver the whole text in one piece.
+     */
+    default Result chatStream(String systemPrompt, List<Message> messages, Map<String, Object> options,
+                              Consumer<String> onText) throws IOException, InterruptedException {
+        Result r = chat(systemPrompt, messages, options);
+        onText.accept(r.text());
+        return r;
+    }
+
+    /** Model identifier the client talks to; part of the findings cache key. */
+    default String model() {
+        return getClass().getSimpleName();
+    }
 }
@@ -0,0 +1,67 @@
+package dev.dimitra.bot.llm;
+
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** A non-2xx answer from an LLM provider, with what is needed to decide whether and when to retry. */
+public class LlmHttpException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    // Gemini puts its hint in the body: "retryDelay": "13s"
+    private static final Pattern RETRY_DELAY = Pattern.compile("\"retryDelay\"\\s*:\\s*\"(\\d+(?:\\.\\d+)?)s\"");
+
+    private final int status;
+    private final Duration retryAfter; // null when the server gave no hint
+
+    public LlmHttpException(String provider, int status, Duration retryAfter, String body) {
+        super(provider + " error " + status + ": " + body);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    public static LlmHttpException of(String provider, int status, HttpHeaders headers, String body) {
+        return new LlmHttpException(provider, status, retryAfter(headers, body), body);
+    }
+
+    public int status() {
+        return status;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+
+    /** Rate limiting, timeouts and server-side failures are worth another attempt; 4xx otherwise are not. */
+    public boolean retryable() {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    /** Retry-After as delta-seconds or HTTP-date, falling back to a retryDelay in the body. */
+    static Duration retryAfter(HttpHeaders headers, String body) {
+        String v = headers == null ? null : headers.firstValue("Retry-After").orElse(null);
+        if (v != null && !v.isBlank()) {
+            try {
+                return Duration.ofSeconds(Math.max(0, Long.parseLong(v.trim())));
+            } catch (NumberFormatException ignored) {
+                // not a number, so it should be a date
+            }
+            try {
+                Duration d = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(v.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return d.isNegative() ? Duration.ZERO : d;
+            } catch (Exception ignored) {
+                // unparseable header, try the body
+            }
+        }
+        if (body != null) {
+            Matcher m = RETRY_DELAY.matcher(body);
+            if (m.find()) return Duration.ofMillis((long) (Double.parseDouble(m.group(1)) * 1000));
+        }
+        return null;
+    }
+}
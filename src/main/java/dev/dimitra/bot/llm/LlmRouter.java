@@ -1,33 +1,73 @@
 package dev.dimitra.bot.llm;
 
+import dev.dimitra.bot.http.Transport;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static dev.dimitra.bot.config.Env.boolEnv;
+import static dev.dimitra.bot.config.Env.doubleEnv;
+import static dev.dimitra.bot.config.Env.longEnv;
+
 public class LlmRouter {
 
+    /**
+     * The configured provider, wrapped in the shared rate limiter / retry layer and metered
+     * per provider (see {@link MeteredLlmClient}).
+     *
+     * With several providers in LLM_PROVIDERS (e.g. "gemini,openai") each one gets its own
+     * limiter and they are combined into a {@link HedgingLlmClient}; LLM_PROVIDER alone
+     * selects a single backend as before.
+     */
     public static LlmClient fromEnv() {
-        // Default to gemini for now
-        String provider = env("LLM_PROVIDER", "gemini").trim().toLowerCase();
-
-        switch (provider) {
-            case "gemini":
-            default: {
-                // Allow overriding the model with GEMINI_MODEL, otherwise use a good default
-                String model = env("GEMINI_MODEL", "gemini-2.5-flash-lite");
-                return new GeminiClient(
-                        env("GEMINI_API_KEY", null),  // required
-                        model
-                );
-            }
+        String list = env("LLM_PROVIDERS", env("LLM_PROVIDER", "gemini"));
+        Map<String, LlmClient> backends = new LinkedHashMap<>();
+        for (String name : list.split(",")) {
+            String provider = name.trim().toLowerCase();
+            if (provider.isEmpty() || backends.containsKey(provider)) continue;
+            backends.put(provider, new MeteredLlmClient(RateLimitedLlmClient.fromEnv(provider(provider), provider), provider));
+        }
+        if (backends.size() == 1) return backends.values().iterator().next();
+        return new HedgingLlmClient(
+                backends,
+                doubleEnv("LLM_HEDGE_PERCENTILE", 95),
+                Duration.ofMillis(longEnv("LLM_HEDGE_MIN_DELAY_MS", 2000)),
+                Duration.ofMillis(longEnv("LLM_HEDGE_INITIAL_DELAY_MS", 20000))
+        );
+    }
 
-            /*
+    private static LlmClient provider(String provider) {
+        boolean stream = boolEnv("LLM_STREAM", true);
 
+        switch (provider) {
             case "openai": {
                 String model = env("OPENAI_MODEL", "gpt-4o-mini");
                 return new OpenAIClient(
+                        Transport.shared(),
                         env("OPENAI_API_KEY", null),              // required
                         model,
-                        env("OPENAI_BASE_URL", "https://api.openai.com/v1")
+                        env("OPENAI_BASE_URL", OpenAIClient.DEFAULT_BASE_URL),
+                        stream
+                );
+            }
+
+            case "gemini": {
+                // Allow overriding the model with GEMINI_MODEL, otherwise use a good default
+                String model = env("GEMINI_MODEL", "gemini-2.5-flash-lite");
+                return new GeminiClient(
+                        Transport.shared(),
+                        env("GEMINI_API_KEY", null),  // required
+                        model,
+                        env("GEMINI_BASE_URL", GeminiClient.DEFAULT_BASE_URL),
+                        stream,
+                        // explicit context caching of long system prompts; 0 turns it off
+                        Duration.ofSeconds(longEnv("GEMINI_CACHE_TTL_SECONDS", 600))
                 );
             }
-            */
+
+            default:
+                throw new IllegalArgumentException("Unknown LLM provider: " + provider + " (expected gemini or openai)");
         }
     }
 
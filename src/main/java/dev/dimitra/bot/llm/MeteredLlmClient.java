@@ -0,0 +1,67 @@
+package dev.dimitra.bot.llm;
+
+import dev.dimitra.bot.metrics.RunMetrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * Records every call (latency, outcome, token usage and estimated cost) against the
+ * provider name and model in the current {@link RunMetrics}. Wraps each provider outside its
+ * rate limiter, so the latency is what the caller waited, queueing and retries included.
+ */
+public class MeteredLlmClient implements LlmClient {
+
+    private final LlmClient delegate;
+    private final String provider;
+
+    public MeteredLlmClient(LlmClient delegate, String provider) {
+        this.delegate = delegate;
+        this.provider = provider;
+    }
+
+    @Override
+    public String model() {
+        return delegate.model();
+    }
+
+    @Override
+    public Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options) throws IOException, InterruptedException {
+        long t0 = System.nanoTime();
+        String outcome = "error";
+        Usage usage = null;
+        try {
+            Result r = delegate.chat(systemPrompt, messages, options);
+            outcome = "ok";
+            usage = r.usage();
+            return r;
+        } catch (InterruptedException | CancellationException e) {
+            outcome = "cancelled";
+            throw e;
+        } finally {
+            RunMetrics.current().llmCall(provider, delegate.model(), System.nanoTime() - t0, usage, outcome);
+        }
+    }
+
+    @Override
+    public Result chatStream(String systemPrompt, List<Message> messages, Map<String, Object> options,
+                             Consumer<String> onText) throws IOException, InterruptedException {
+        long t0 = System.nanoTime();
+        String outcome = "error";
+        Usage usage = null;
+        try {
+            Result r = delegate.chatStream(systemPrompt, messages, options, onText);
+            outcome = "ok";
+            usage = r.usage();
+            return r;
+        } catch (InterruptedException | CancellationException e) {
+            outcome = "cancelled"; // e.g. a hedged stream that lost the race
+            throw e;
+        } finally {
+            RunMetrics.current().llmCall(provider, delegate.model(), System.nanoTime() - t0, usage, outcome);
+        }
+    }
+}
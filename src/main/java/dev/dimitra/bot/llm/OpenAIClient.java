@@ -1,30 +1,109 @@
 package dev.dimitra.bot.llm;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.dimitra.bot.http.Transport;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.http.*;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+/**
+ * Chat Completions client (OpenAI or a compatible API), streaming over SSE for {@link #chatStream}.
+ *
+ * OpenAI caches prompt prefixes of 1024+ tokens automatically, so requests are laid out with
+ * what never changes first: the system prompt, then the messages, with per-request options
+ * outside the prompt. A system prompt marked {@link LlmClient#CACHE_PREFIX} also gets a
+ * {@code prompt_cache_key} derived from its text, which routes requests sharing it to the same
+ * cache. Cache hits come back as cached input tokens in the usage.
+ */
 public class OpenAIClient implements LlmClient {
-    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
-    private final ObjectMapper mapper = new ObjectMapper();
+    public static final String DEFAULT_BASE_URL = "https://api.openai.com/v1";
+
+    private final Transport transport;
+    private final ObjectMapper mapper;
     private final String apiKey;
     private final String model;
     private final String baseUrl; // allow overriding for OpenAI-compatible APIs
+    private final boolean stream;
 
     public OpenAIClient(String apiKey, String model, String baseUrl) {
+        this(Transport.shared(), apiKey, model, baseUrl, true);
+    }
+
+    public OpenAIClient(Transport transport, String apiKey, String model, String baseUrl, boolean stream) {
+        this.transport = transport;
+        this.mapper = transport.mapper();
         this.apiKey = Objects.requireNonNull(apiKey, "OPENAI_API_KEY missing");
         this.model = Objects.requireNonNull(model, "LLM_MODEL missing");
-        this.baseUrl = (baseUrl == null || baseUrl.isBlank()) ? "https://api.openai.com/v1" : baseUrl;
+        this.baseUrl = (baseUrl == null || baseUrl.isBlank()) ? DEFAULT_BASE_URL : baseUrl;
+        this.stream = stream;
+    }
+
+    @Override
+    public String model() {
+        return model;
     }
 
     @Override
     public Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options) throws IOException, InterruptedException {
+        HttpResponse<String> resp = transport.send(request(systemPrompt, messages, options, false), Transport.ofString());
+        if (resp.statusCode() / 100 != 2) {
+            throw LlmHttpException.of("OpenAI", resp.statusCode(), resp.headers(), resp.body());
+        }
+
+        var root = mapper.readTree(resp.body());
+        String text = root.path("choices").path(0).path("message").path("content").asText("");
+        return new Result(text, usage(root.path("usage")), root.path("choices").path(0).path("finish_reason").asText(null));
+    }
+
+    @Override
+    public Result chatStream(String systemPrompt, List<Message> messages, Map<String, Object> options,
+                             Consumer<String> onText) throws IOException, InterruptedException {
+        if (!stream) return LlmClient.super.chatStream(systemPrompt, messages, options, onText);
+
+        HttpResponse<Stream<String>> resp =
+                transport.send(request(systemPrompt, messages, options, true), Transport.ofLines());
+        if (resp.statusCode() / 100 != 2) {
+            String err;
+            try (var lines = resp.body()) {
+                err = String.join("\n", lines.toList());
+            }
+            throw LlmHttpException.of("OpenAI", resp.statusCode(), resp.headers(), err);
+        }
+
+        // chat.completion.chunk events carry choices[0].delta.content; usage comes in the last one
+        StringBuilder text = new StringBuilder();
+        Usage[] usage = {new Usage(0, 0)};
+        String[] finish = {null};
+        Sse.read(resp.body(), data -> {
+            JsonNode chunk;
+            try {
+                chunk = mapper.readTree(data);
+            } catch (IOException e) {
+                return;
+            }
+            String piece = chunk.path("choices").path(0).path("delta").path("content").asText("");
+            if (!piece.isEmpty()) {
+                text.append(piece);
+                onText.accept(piece);
+            }
+            JsonNode reason = chunk.path("choices").path(0).path("finish_reason");
+            if (reason.isTextual()) finish[0] = reason.asText();
+            JsonNode u = chunk.path("usage");
+            if (u.isObject()) usage[0] = usage(u);
+        });
+        return new Result(text.toString(), usage[0], finish[0]);
+    }
+
+    private HttpRequest request(String systemPrompt, List<Message> messages, Map<String, Object> options,
+                                boolean streaming) throws IOException {
         ObjectNode body = mapper.createObjectNode();
+        JsonBody json = new JsonBody(); // message texts are streamed, not serialized up front
         body.put("model", model);
 
         var msgs = mapper.createArrayNode();
@@ -37,32 +116,34 @@ public class OpenAIClient implements LlmClient {
         for (Message m : messages) {
             var n = mapper.createObjectNode();
             n.put("role", m.role());
-            n.put("content", m.content());
+            n.put("content", json.text(m.content()));
             msgs.add(n);
         }
         body.set("messages", msgs);
         if (options != null) {
+            // only OpenAI itself is known to accept it; compatible servers may reject unknown fields
+            if (Boolean.TRUE.equals(options.get(CACHE_PREFIX)) && baseUrl.startsWith(DEFAULT_BASE_URL)
+                    && systemPrompt != null && !systemPrompt.isBlank()) {
+                body.put("prompt_cache_key", "code-smell-bot-" + Integer.toHexString(systemPrompt.hashCode()));
+            }
             if (options.get("temperature") != null) body.put("temperature", ((Number) options.get("temperature")).doubleValue());
             if (options.get("max_tokens") != null) body.put("max_tokens", ((Number) options.get("max_tokens")).intValue());
         }
 
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + "/chat/completions"))
+        if (streaming) {
+            body.put("stream", true);
+            body.putObject("stream_options").put("include_usage", true);
+        }
+
+        return transport.request(baseUrl + "/chat/completions", Duration.ofSeconds(120))
                 .header("Authorization", "Bearer " + apiKey)
                 .header("Content-Type", "application/json")
-                .timeout(Duration.ofSeconds(120))
-                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)))
+                .POST(json.publisher(transport.writer(), body))
                 .build();
+    }
 
-        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
-        if (resp.statusCode() / 100 != 2) {
-            throw new IOException("OpenAI error " + resp.statusCode() + ": " + resp.body());
-        }
-
-        var root = mapper.readTree(resp.body());
-        String text = root.path("choices").path(0).path("message").path("content").asText("");
-        int promptT = root.path("usage").path("prompt_tokens").asInt(0);
-        int completionT = root.path("usage").path("completion_tokens").asInt(0);
-        return new Result(text, new Usage(promptT, completionT));
+    private static Usage usage(JsonNode u) {
+        return new Usage(u.path("prompt_tokens").asInt(0), u.path("completion_tokens").asInt(0),
+                u.path("prompt_tokens_details").path("cached_tokens").asInt(0));
     }
 }
@@ -0,0 +1,110 @@
+package dev.dimitra.bot.llm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prompt text assembled from pieces without copying them: fixed strings for the framing and
+ * zero-copy patch views (possibly backed by a {@link dev.dimitra.bot.diff.PatchStore} file)
+ * for the bulk. {@link JsonBody} streams the pieces straight into the request body, so a
+ * prompt never exists as one String.
+ *
+ * Immutable once built; {@link #toString} does make the full copy, for logging and tests.
+ */
+public final class PromptText implements CharSequence {
+
+    private final CharSequence[] parts;
+    private final int[] starts; // parts.length + 1 entries, the last one is length()
+
+    private PromptText(List<CharSequence> parts) {
+        this.parts = parts.toArray(CharSequence[]::new);
+        this.starts = new int[this.parts.length + 1];
+        for (int i = 0; i < this.parts.length; i++) starts[i + 1] = starts[i] + this.parts[i].length();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The pieces in order, for consumers that can stream them. */
+    public List<CharSequence> parts() {
+        return Arrays.asList(parts);
+    }
+
+    @Override
+    public int length() {
+        return starts[parts.length];
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) throw new IndexOutOfBoundsException(index);
+        int i = Arrays.binarySearch(starts, index);
+        if (i < 0) i = -i - 2; // parts are never empty, so starts are strictly increasing
+        return parts[i].charAt(index - starts[i]);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length());
+        for (CharSequence p : parts) sb.append(p);
+        return sb.toString();
+    }
+
+    public static final class Builder {
+        private final List<CharSequence> parts = new ArrayList<>();
+        private StringBuilder pending; // short fixed text is merged instead of becoming a part of its own
+
+        private Builder() {}
+
+        /** Short text (headers, labels); copied. */
+        public Builder append(String s) {
+            if (pending == null) pending = new StringBuilder();
+            pending.append(s);
+            return this;
+        }
+
+        public Builder append(char c) {
+            if (pending == null) pending = new StringBuilder();
+            pending.append(c);
+            return this;
+        }
+
+        public Builder append(int i) {
+            return append(Integer.toString(i));
+        }
+
+        /** Bulk text such as a patch view; kept by reference. */
+        public Builder appendView(CharSequence s) {
+            if (s == null || s.isEmpty()) return this;
+            flush();
+            parts.add(s);
+            return this;
+        }
+
+        /** Last character appended so far, or 0 if nothing was. */
+        public char lastChar() {
+            if (pending != null && !pending.isEmpty()) return pending.charAt(pending.length() - 1);
+            if (parts.isEmpty()) return 0;
+            CharSequence last = parts.get(parts.size() - 1);
+            return last.charAt(last.length() - 1);
+        }
+
+        public PromptText build() {
+            flush();
+            return new PromptText(List.copyOf(parts));
+        }
+
+        private void flush() {
+            if (pending == null || pending.isEmpty()) return;
+            parts.add(pending.toString());
+            pending = null;
+        }
+    }
+}
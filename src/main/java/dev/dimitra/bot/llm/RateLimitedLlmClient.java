@@ -0,0 +1,284 @@
+package dev.dimitra.bot.llm;
+
+import dev.dimitra.bot.config.Env;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Decorator that keeps one provider within its quota and rides out transient failures.
+ *
+ * <ul>
+ *   <li>Requests-per-minute and tokens-per-minute token buckets. Callers reserve capacity up
+ *       front and wait their turn, so concurrent chunks queue smoothly at the ceiling
+ *       instead of bursting into 429s. Token reservations use an estimate and are settled
+ *       against the reported {@link Usage} afterwards.</li>
+ *   <li>Retries of 408/429/5xx and connection errors with jittered exponential backoff.
+ *       A Retry-After hint pauses every caller, not only the one that got it. Retries
+ *       are limited by a budget shared across calls.</li>
+ *   <li>A circuit breaker that fails fast for a while after repeated failures, then lets
+ *       one probe call through.</li>
+ * </ul>
+ *
+ * One instance is meant to be shared by every thread talking to the provider.
+ */
+public class RateLimitedLlmClient implements LlmClient {
+
+    private static final double CHARS_PER_TOKEN = 3.5; // same rough ratio the chunk packer uses
+    private static final long BASE_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    private static final int MIN_RETRY_BUDGET = 5;
+    private static final double RETRY_RATIO = 0.2; // retries allowed per call made, on top of the minimum
+
+    private final LlmClient delegate;
+    private final TokenBucket requests; // null = unlimited
+    private final TokenBucket tokens;   // null = unlimited
+    private final int maxRetries;
+    private final CircuitBreaker breaker;
+
+    private final AtomicLong pausedUntil = new AtomicLong(System.nanoTime()); // deadline set by Retry-After
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+
+    /**
+     * @param requestsPerMinute 0 or less for no request limit
+     * @param tokensPerMinute   0 or less for no token limit
+     * @param maxRetries        attempts after the first one, per call
+     */
+    public RateLimitedLlmClient(LlmClient delegate, int requestsPerMinute, int tokensPerMinute, int maxRetries,
+                                int breakerThreshold, Duration breakerCooldown) {
+        this.delegate = delegate;
+        this.requests = requestsPerMinute > 0 ? new TokenBucket(requestsPerMinute) : null;
+        this.tokens = tokensPerMinute > 0 ? new TokenBucket(tokensPerMinute) : null;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.breaker = new CircuitBreaker(Math.max(1, breakerThreshold), breakerCooldown);
+    }
+
+    /**
+     * Wraps a client using LLM_RPM, LLM_TPM, LLM_MAX_RETRIES, LLM_BREAKER_THRESHOLD and
+     * LLM_BREAKER_COOLDOWN_SECONDS. A provider-specific variable (e.g. GEMINI_RPM) wins over
+     * the LLM_ one, since every provider has its own quota.
+     */
+    public static LlmClient fromEnv(LlmClient delegate, String provider) {
+        return new RateLimitedLlmClient(
+                delegate,
+                intEnv(provider, "RPM", 0),
+                intEnv(provider, "TPM", 0),
+                intEnv(provider, "MAX_RETRIES", 4),
+                intEnv(provider, "BREAKER_THRESHOLD", 5),
+                Duration.ofSeconds(intEnv(provider, "BREAKER_COOLDOWN_SECONDS", 60))
+        );
+    }
+
+    @Override
+    public String model() {
+        return delegate.model();
+    }
+
+    @Override
+    public Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options) throws IOException, InterruptedException {
+        return call(systemPrompt, messages, options, () -> delegate.chat(systemPrompt, messages, options), () -> true);
+    }
+
+    @Override
+    public Result chatStream(String systemPrompt, List<Message> messages, Map<String, Object> options,
+                             Consumer<String> onText) throws IOException, InterruptedException {
+        // text already handed downstream can't be taken back, so only retry streams that produced nothing
+        boolean[] started = {false};
+        Consumer<String> tracking = t -> {
+            started[0] = true;
+            onText.accept(t);
+        };
+        return call(systemPrompt, messages, options,
+                () -> delegate.chatStream(systemPrompt, messages, options, tracking), () -> !started[0]);
+    }
+
+    private interface Attempt {
+        Result run() throws IOException, InterruptedException;
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private Result call(String systemPrompt, List<Message> messages, Map<String, Object> options,
+                        Attempt attempt, Condition mayRetry) throws IOException, InterruptedException {
+        calls.incrementAndGet();
+        int estimate = estimateTokens(systemPrompt, messages, options);
+        for (int n = 0; ; n++) {
+            boolean probe = breaker.check(); // true until this attempt gave the breaker a verdict
+            try {
+                waitForCapacity(estimate);
+                Result r = attempt.run();
+                probe = false;
+                breaker.success();
+                settle(estimate, r.usage());
+                return r;
+            } catch (IOException e) {
+                boolean retryable = !(e instanceof LlmHttpException h) || h.retryable();
+                if (retryable) {
+                    probe = false;
+                    breaker.failure();
+                }
+                Duration hint = e instanceof LlmHttpException h ? h.retryAfter() : null;
+                if (hint != null) pauseAll(hint);
+
+                if (!retryable || n >= maxRetries || !mayRetry.holds() || !takeRetry()) throw e;
+                long wait = hint != null ? hint.toMillis() + jitter(250) : backoff(n);
+                System.err.println("[WARN] " + e.getMessage().lines().findFirst().orElse("LLM call failed")
+                        + "; retry " + (n + 1) + "/" + maxRetries + " in " + wait + " ms");
+                Thread.sleep(wait);
+            } finally {
+                // interrupted, cancelled or a non-retryable answer says nothing about the provider
+                if (probe) breaker.release();
+            }
+        }
+    }
+
+    private void waitForCapacity(int estimate) throws InterruptedException {
+        long nanos = 0;
+        if (requests != null) nanos = Math.max(nanos, requests.reserve(1));
+        if (tokens != null) nanos = Math.max(nanos, tokens.reserve(estimate));
+        nanos = Math.max(nanos, pausedUntil.get() - System.nanoTime());
+        if (nanos > 0) TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+    /** Replaces the up-front estimate with what the provider actually counted. */
+    private void settle(int estimate, Usage usage) {
+        if (tokens == null || usage == null) return;
+        int actual = usage.inputTokens() + usage.outputTokens();
+        if (actual <= 0) return; // provider didn't report usage; keep the estimate
+        if (actual > estimate) tokens.reserve(actual - estimate);
+        else tokens.refund(estimate - actual);
+    }
+
+    private void pauseAll(Duration d) {
+        long until = System.nanoTime() + d.toNanos();
+        pausedUntil.accumulateAndGet(until, Math::max);
+    }
+
+    private boolean takeRetry() {
+        int allowed = MIN_RETRY_BUDGET + (int) (calls.get() * RETRY_RATIO);
+        if (retries.incrementAndGet() <= allowed) return true;
+        retries.decrementAndGet();
+        System.err.println("[WARN] LLM retry budget exhausted (" + allowed + " retries), not retrying");
+        return false;
+    }
+
+    /** Full jitter: uniform in [0, min(cap, base * 2^n)], but never less than half the base. */
+    private static long backoff(int n) {
+        long ceiling = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(n, 16));
+        return Math.max(BASE_BACKOFF_MS / 2, ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    private static long jitter(long maxMs) {
+        return ThreadLocalRandom.current().nextLong(maxMs + 1);
+    }
+
+    private static int estimateTokens(String systemPrompt, List<Message> messages, Map<String, Object> options) {
+        long chars = systemPrompt == null ? 0 : systemPrompt.length();
+        for (Message m : messages) chars += m.content() == null ? 0 : m.content().length();
+        int output = options != null && options.get("max_tokens") instanceof Number max ? max.intValue() : 0;
+        return (int) Math.ceil(chars / CHARS_PER_TOKEN) + output;
+    }
+
+    /**
+     * Reservation-style token bucket: a caller takes its share immediately (the balance may go
+     * negative) and is told how long to wait until that share has been refilled, so waiting
+     * callers are served in arrival order at exactly the configured rate.
+     */
+    static final class TokenBucket {
+        private final double capacity;
+        private final double perNano;
+        private double available;
+        private long last = System.nanoTime();
+
+        TokenBucket(double perMinute) {
+            this.capacity = perMinute;
+            this.perNano = perMinute / TimeUnit.MINUTES.toNanos(1);
+            this.available = perMinute;
+        }
+
+        /** @return nanoseconds to wait before the reserved amount may be used */
+        synchronized long reserve(double amount) {
+            refill();
+            available -= Math.min(amount, capacity); // a single oversized request must still get through
+            return available >= 0 ? 0 : (long) (-available / perNano);
+        }
+
+        synchronized void refund(double amount) {
+            refill();
+            available = Math.min(capacity, available + amount);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            available = Math.min(capacity, available + (now - last) * perNano);
+            last = now;
+        }
+    }
+
+    /** Closed until {@code threshold} consecutive failures, then open for {@code cooldown}, then one probe. */
+    static final class CircuitBreaker {
+        private final int threshold;
+        private final long cooldownNanos;
+        private int failures;
+        private boolean open;
+        private long openUntil;
+        private boolean probing;
+
+        CircuitBreaker(int threshold, Duration cooldown) {
+            this.threshold = threshold;
+            this.cooldownNanos = (cooldown == null ? Duration.ofSeconds(60) : cooldown).toNanos();
+        }
+
+        /** @return whether the caller is the half-open probe and must end in success, failure or release */
+        synchronized boolean check() throws IOException {
+            if (!open) return false;
+            if (probing || System.nanoTime() - openUntil < 0) {
+                throw new IOException("LLM provider circuit open after " + failures + " consecutive failures");
+            }
+            probing = true; // half-open: this caller is the probe
+            return true;
+        }
+
+        /** The probe ended without a verdict; stay open and let the next caller probe. */
+        synchronized void release() {
+            probing = false;
+        }
+
+        synchronized void success() {
+            failures = 0;
+            open = false;
+            probing = false;
+        }
+
+        synchronized void failure() {
+            failures++;
+            if (probing || failures >= threshold) {
+                if (!open || probing) {
+                    System.err.println("[WARN] LLM provider failing (" + failures + " in a row), pausing calls for "
+                            + TimeUnit.NANOSECONDS.toSeconds(cooldownNanos) + "s");
+                }
+                open = true;
+                openUntil = System.nanoTime() + cooldownNanos;
+                probing = false;
+            }
+        }
+    }
+
+    private static int intEnv(String provider, String key, int def) {
+        if (provider != null && !provider.isBlank()) {
+            int v = Env.intEnv(provider.toUpperCase() + "_" + key, Integer.MIN_VALUE);
+            if (v != Integer.MIN_VALUE) return v;
+        }
+        return Env.intEnv("LLM_" + key, def);
+    }
+}
@@ -0,0 +1,42 @@
+package dev.dimitra.bot.llm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/** Minimal server-sent-events reader: joins the {@code data:} lines of each event. */
+final class Sse {
+
+    private Sse() {}
+
+    /** Calls {@code onData} once per event; stops at the OpenAI-style {@code [DONE]} sentinel. */
+    static void read(Stream<String> lines, Consumer<String> onData) throws IOException {
+        StringBuilder data = new StringBuilder();
+        try (lines) {
+            var it = lines.iterator();
+            while (it.hasNext()) {
+                String line = it.next();
+                if (line.isEmpty()) {
+                    if (dispatch(data, onData)) return;
+                } else if (line.startsWith("data:")) {
+                    if (!data.isEmpty()) data.append('\n');
+                    data.append(line, line.startsWith("data: ") ? 6 : 5, line.length());
+                }
+                // event:, id:, retry: and ":" comments carry nothing we need
+            }
+            dispatch(data, onData);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean dispatch(StringBuilder data, Consumer<String> onData) {
+        if (data.isEmpty()) return false;
+        String event = data.toString();
+        data.setLength(0);
+        if (event.equals("[DONE]")) return true;
+        onData.accept(event);
+        return false;
+    }
+}
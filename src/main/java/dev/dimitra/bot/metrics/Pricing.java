@@ -0,0 +1,74 @@
+package dev.dimitra.bot.metrics;
+
+import dev.dimitra.bot.llm.LlmClient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Estimated USD cost of LLM usage, from list prices per million tokens.
+ *
+ * Models are matched by the longest known prefix. LLM_PRICES adds to or overrides the
+ * table, e.g. {@code "gemini-2.5-flash-lite=0.10/0.40/0.025;my-proxy-model=1/3"}, giving input,
+ * output and (optionally) cached-input prices per million tokens. Input tokens served from the
+ * provider's prompt cache are charged at the cached price. Unknown models cost 0, and cache
+ * storage is not included, so the numbers are a floor and not a bill.
+ */
+public final class Pricing {
+
+    record Price(double inputPerMTok, double outputPerMTok, double cachedPerMTok) {}
+
+    private static final Map<String, Price> PRICES = table(System.getenv("LLM_PRICES"));
+
+    private Pricing() {}
+
+    public static double usd(String model, LlmClient.Usage usage) {
+        return usd(PRICES, model, usage);
+    }
+
+    static double usd(Map<String, Price> prices, String model, LlmClient.Usage usage) {
+        if (model == null || usage == null) return 0;
+        Price best = null;
+        int bestLen = -1;
+        for (var e : prices.entrySet()) {
+            if (model.startsWith(e.getKey()) && e.getKey().length() > bestLen) {
+                best = e.getValue();
+                bestLen = e.getKey().length();
+            }
+        }
+        if (best == null) return 0;
+        int cached = Math.min(usage.cachedInputTokens(), usage.inputTokens());
+        return ((usage.inputTokens() - cached) * best.inputPerMTok() + cached * best.cachedPerMTok()
+                + usage.outputTokens() * best.outputPerMTok()) / 1_000_000.0;
+    }
+
+    /** The built-in list prices, with the entries of an LLM_PRICES value (may be null) on top. */
+    static Map<String, Price> table(String overrides) {
+        Map<String, Price> p = new LinkedHashMap<>();
+        p.put("gemini-2.5-flash-lite", new Price(0.10, 0.40, 0.025));
+        p.put("gemini-2.5-flash", new Price(0.30, 2.50, 0.075));
+        p.put("gemini-2.5-pro", new Price(1.25, 10.00, 0.31));
+        p.put("gemini-2.0-flash", new Price(0.10, 0.40, 0.025));
+        p.put("gpt-4o-mini", new Price(0.15, 0.60, 0.075));
+        p.put("gpt-4o", new Price(2.50, 10.00, 1.25));
+        p.put("gpt-4.1-mini", new Price(0.40, 1.60, 0.10));
+        p.put("gpt-4.1", new Price(2.00, 8.00, 0.50));
+
+        if (overrides != null && !overrides.isBlank()) {
+            for (String entry : overrides.split(";")) {
+                String[] kv = entry.split("=", 2);
+                if (kv.length != 2) continue;
+                String[] io = kv[1].split("/", 3);
+                try {
+                    double input = Double.parseDouble(io[0].trim());
+                    p.put(kv[0].trim(), new Price(input,
+                            io.length > 1 ? Double.parseDouble(io[1].trim()) : 0,
+                            io.length > 2 ? Double.parseDouble(io[2].trim()) : input));
+                } catch (NumberFormatException e) {
+                    System.err.println("[WARN] Ignoring LLM_PRICES entry '" + entry + "'");
+                }
+            }
+        }
+        return p;
+    }
+}
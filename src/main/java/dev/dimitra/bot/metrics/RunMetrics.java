@@ -0,0 +1,326 @@
+package dev.dimitra.bot.metrics;
+
+import dev.dimitra.bot.llm.LlmClient;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where a review spends its time, tokens and money.
+ *
+ * Metrics form a small tree. Each chunk is a child of its run, and each run is a child of
+ * the process-wide totals. A value recorded on a node is added to every ancestor too, so
+ * one call yields per-chunk, per-run and since-start numbers. A run is written to
+ * {@code out/metrics.json}, and the process totals are served as Prometheus text.
+ *
+ * The node being recorded into travels with the thread as an inheritable thread-local.
+ * Every executor here starts a new virtual thread per task, so chunk workers, LLM calls and
+ * hedged duplicates all see the node of the run or chunk that started them.
+ */
+public final class RunMetrics {
+
+    private static final RunMetrics PROCESS = new RunMetrics("process", null);
+    private static final InheritableThreadLocal<RunMetrics> CURRENT = new InheritableThreadLocal<>();
+
+    private final String name;
+    private final RunMetrics parent;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Timer> phases = new ConcurrentHashMap<>();
+    private final Map<String, LlmStats> llm = new ConcurrentHashMap<>(); // "provider/model"
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> bytes = new ConcurrentHashMap<>(); // "host in|out"
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final List<RunMetrics> children = new CopyOnWriteArrayList<>();
+    private final AtomicLong heapPeak = new AtomicLong();
+    private volatile long endNanos;
+
+    private static final class Timer {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+
+        void add(long n) {
+            count.increment();
+            nanos.add(n);
+            max.accumulateAndGet(n, Math::max);
+        }
+    }
+
+    private static final class LlmStats {
+        final String provider, model;
+        final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        final Timer latency = new Timer();
+        final LongAdder inputTokens = new LongAdder();
+        final LongAdder cachedInputTokens = new LongAdder(); // part of inputTokens
+        final LongAdder outputTokens = new LongAdder();
+        final DoubleAdder costUsd = new DoubleAdder();
+
+        LlmStats(String provider, String model) {
+            this.provider = provider;
+            this.model = model;
+        }
+    }
+
+    private RunMetrics(String name, RunMetrics parent) {
+        this.name = name;
+        this.parent = parent;
+    }
+
+    /** Totals since the process started (what the webhook server exports). */
+    public static RunMetrics process() {
+        return PROCESS;
+    }
+
+    /** The run or chunk this thread is working for; the process totals outside of a run. */
+    public static RunMetrics current() {
+        RunMetrics m = CURRENT.get();
+        return m != null ? m : PROCESS;
+    }
+
+    /**
+     * Starts recording a review on this thread. Heap peaks are reset for it, which is exact
+     * for the CLI and an approximation when the server runs reviews side by side.
+     */
+    public static RunMetrics startRun(String name) {
+        RunMetrics run = new RunMetrics(name, PROCESS);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) pool.resetPeakUsage();
+        }
+        CURRENT.set(run);
+        run.count("runs");
+        return run;
+    }
+
+    /** A child node (e.g. one LLM chunk); bind it on the thread that does the work. */
+    public RunMetrics child(String childName) {
+        RunMetrics c = new RunMetrics(childName, this);
+        children.add(c);
+        return c;
+    }
+
+    /** Makes this node current on the calling thread; the returned scope restores the previous one. */
+    public Scope bind() {
+        RunMetrics previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        };
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /** Work run by {@link #callBound}. */
+    public interface Work<T, X extends Exception> {
+        T run() throws X;
+    }
+
+    /** Runs work with this node current on the calling thread, then restores the previous one. */
+    public <T, X extends Exception> T callBound(Work<T, X> work) throws X {
+        Scope scope = bind();
+        try {
+            return work.run();
+        } finally {
+            scope.close();
+        }
+    }
+
+    /** Ends the run: stops its clock, samples the heap peak and unbinds it from this thread. */
+    public void finish() {
+        endNanos = System.nanoTime();
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        for (RunMetrics m = this; m != null; m = m.parent) m.heapPeak.accumulateAndGet(peak, Math::max);
+        if (CURRENT.get() == this) CURRENT.remove();
+    }
+
+    // ---- recording ----
+
+    public void time(String phase, long nanos) {
+        for (RunMetrics m = this; m != null; m = m.parent) {
+            m.phases.computeIfAbsent(phase, k -> new Timer()).add(nanos);
+        }
+    }
+
+    public void count(String counter) {
+        count(counter, 1);
+    }
+
+    public void count(String counter, long n) {
+        if (n == 0) return;
+        for (RunMetrics m = this; m != null; m = m.parent) {
+            m.counters.computeIfAbsent(counter, k -> new LongAdder()).add(n);
+        }
+    }
+
+    /** @param direction "in" (received) or "out" (sent) */
+    public void bytes(String host, String direction, long n) {
+        if (n <= 0) return;
+        for (RunMetrics m = this; m != null; m = m.parent) {
+            m.bytes.computeIfAbsent(host + " " + direction, k -> new LongAdder()).add(n);
+        }
+    }
+
+    /**
+     * One LLM request as seen by the caller (queueing and retries included).
+     *
+     * @param outcome "ok", "error" or "cancelled"
+     * @param usage   reported usage, or null when the call failed
+     */
+    public void llmCall(String provider, String model, long nanos, LlmClient.Usage usage, String outcome) {
+        double cost = usage == null ? 0 : Pricing.usd(model, usage);
+        for (RunMetrics m = this; m != null; m = m.parent) {
+            LlmStats s = m.llm.computeIfAbsent(provider + "/" + model, k -> new LlmStats(provider, model));
+            s.outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+            s.latency.add(nanos);
+            if (usage != null) {
+                s.inputTokens.add(usage.inputTokens());
+                s.cachedInputTokens.add(usage.cachedInputTokens());
+                s.outputTokens.add(usage.outputTokens());
+                s.costUsd.add(cost);
+            }
+        }
+    }
+
+    /** Free-form detail reported with this node only (e.g. a chunk's file count). */
+    public void set(String key, Object value) {
+        attributes.put(key, value);
+    }
+
+    // ---- export ----
+
+    /** JSON-ready view: phases, LLM usage and cost, counters, bytes, heap peak and children. */
+    public Map<String, Object> toMap() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("name", name);
+        out.putAll(new TreeMap<>(attributes));
+        if (parent != null) out.put("durationMs", millis((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos));
+        if (heapPeak.get() > 0) out.put("heapPeakBytes", heapPeak.get());
+
+        Map<String, Object> ph = new TreeMap<>();
+        phases.forEach((k, t) -> ph.put(k, Map.of(
+                "count", t.count.sum(), "totalMs", millis(t.nanos.sum()), "maxMs", millis(t.max.get()))));
+        if (!ph.isEmpty()) out.put("phases", ph);
+
+        Map<String, Object> calls = new TreeMap<>();
+        long in = 0, cached = 0, outTokens = 0;
+        double cost = 0;
+        for (var e : llm.entrySet()) {
+            LlmStats s = e.getValue();
+            Map<String, Object> v = new LinkedHashMap<>();
+            Map<String, Long> outcomes = new TreeMap<>();
+            s.outcomes.forEach((k, n) -> outcomes.put(k, n.sum()));
+            v.put("calls", outcomes);
+            v.put("totalMs", millis(s.latency.nanos.sum()));
+            v.put("maxMs", millis(s.latency.max.get()));
+            v.put("inputTokens", s.inputTokens.sum());
+            v.put("cachedInputTokens", s.cachedInputTokens.sum());
+            v.put("outputTokens", s.outputTokens.sum());
+            v.put("costUsd", round6(s.costUsd.sum()));
+            calls.put(e.getKey(), v);
+            in += s.inputTokens.sum();
+            cached += s.cachedInputTokens.sum();
+            outTokens += s.outputTokens.sum();
+            cost += s.costUsd.sum();
+        }
+        if (!calls.isEmpty()) {
+            out.put("llm", calls);
+            out.put("tokens", Map.of("input", in, "cachedInput", cached, "output", outTokens, "costUsd", round6(cost)));
+        }
+
+        Map<String, Long> cnt = new TreeMap<>();
+        counters.forEach((k, n) -> cnt.put(k, n.sum()));
+        if (!cnt.isEmpty()) out.put("counters", cnt);
+
+        Map<String, Map<String, Long>> b = new TreeMap<>();
+        bytes.forEach((k, n) -> {
+            String[] hd = k.split(" ", 2);
+            b.computeIfAbsent(hd[0], h -> new TreeMap<>()).put(hd[1], n.sum());
+        });
+        if (!b.isEmpty()) out.put("bytes", b);
+
+        if (!children.isEmpty()) {
+            List<Map<String, Object>> list = new ArrayList<>();
+            for (RunMetrics c : children) list.add(c.toMap());
+            out.put("chunks", list);
+        }
+        return out;
+    }
+
+    /** Prometheus text exposition of these totals (normally {@link #process()}). */
+    public String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE code_smell_bot_phase_seconds summary\n");
+        new TreeMap<>(phases).forEach((k, t) -> {
+            sb.append("code_smell_bot_phase_seconds_count{phase=\"").append(k).append("\"} ").append(t.count.sum()).append('\n');
+            sb.append("code_smell_bot_phase_seconds_sum{phase=\"").append(k).append("\"} ").append(seconds(t.nanos.sum())).append('\n');
+        });
+        sb.append("# TYPE code_smell_bot_llm_calls_total counter\n");
+        new TreeMap<>(llm).forEach((k, s) -> s.outcomes.forEach((o, n) ->
+                sb.append("code_smell_bot_llm_calls_total{").append(labels(s)).append(",outcome=\"").append(o).append("\"} ")
+                  .append(n.sum()).append('\n')));
+        sb.append("# TYPE code_smell_bot_llm_call_seconds summary\n");
+        new TreeMap<>(llm).forEach((k, s) -> {
+            sb.append("code_smell_bot_llm_call_seconds_count{").append(labels(s)).append("} ").append(s.latency.count.sum()).append('\n');
+            sb.append("code_smell_bot_llm_call_seconds_sum{").append(labels(s)).append("} ").append(seconds(s.latency.nanos.sum())).append('\n');
+        });
+        sb.append("# TYPE code_smell_bot_llm_tokens_total counter\n");
+        new TreeMap<>(llm).forEach((k, s) -> {
+            sb.append("code_smell_bot_llm_tokens_total{").append(labels(s)).append(",kind=\"input\"} ").append(s.inputTokens.sum()).append('\n');
+            sb.append("code_smell_bot_llm_tokens_total{").append(labels(s)).append(",kind=\"cached_input\"} ").append(s.cachedInputTokens.sum()).append('\n');
+            sb.append("code_smell_bot_llm_tokens_total{").append(labels(s)).append(",kind=\"output\"} ").append(s.outputTokens.sum()).append('\n');
+        });
+        sb.append("# TYPE code_smell_bot_llm_cost_usd_total counter\n");
+        new TreeMap<>(llm).forEach((k, s) ->
+                sb.append("code_smell_bot_llm_cost_usd_total{").append(labels(s)).append("} ")
+                  .append(String.format(Locale.ROOT, "%.6f", s.costUsd.sum())).append('\n'));
+        sb.append("# TYPE code_smell_bot_http_bytes_total counter\n");
+        new TreeMap<>(bytes).forEach((k, n) -> {
+            String[] hd = k.split(" ", 2);
+            sb.append("code_smell_bot_http_bytes_total{host=\"").append(hd[0]).append("\",direction=\"").append(hd[1])
+              .append("\"} ").append(n.sum()).append('\n');
+        });
+        new TreeMap<>(counters).forEach((k, n) -> {
+            sb.append("# TYPE code_smell_bot_").append(k).append("_total counter\n");
+            sb.append("code_smell_bot_").append(k).append("_total ").append(n.sum()).append('\n');
+        });
+        sb.append("# TYPE code_smell_bot_heap_peak_bytes gauge\n");
+        sb.append("code_smell_bot_heap_peak_bytes ").append(heapPeak.get()).append('\n');
+        return sb.toString();
+    }
+
+    private static String labels(LlmStats s) {
+        return "provider=\"" + s.provider + "\",model=\"" + s.model.replace("\"", "") + "\"";
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    private static double round6(double v) {
+        return Math.round(v * 1e6) / 1e6;
+    }
+}
@@ -0,0 +1,121 @@
+package dev.dimitra.bot.server;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Bounded, de-duplicating priority queue of PR reviews, at most one per PR.
+ *
+ * <ul>
+ *   <li>A newer head for a PR that is already waiting replaces the waiting job.</li>
+ *   <li>A newer head for a PR under review interrupts that review, the way
+ *       {@code cancel-in-progress} does in the workflow.</li>
+ *   <li>Redeliveries of a head that is already queued or running are dropped.</li>
+ *   <li>A PR is never handed to two workers at once. Its next job waits until the
+ *       cancelled run has wound down.</li>
+ * </ul>
+ */
+public final class JobQueue {
+
+    /** Lower priority value runs first; ties go in arrival order. */
+    public record Job(String repository, int prNumber, String headSha, int priority, long seq) {
+        public String key() {
+            return repository + "#" + prNumber;
+        }
+    }
+
+    public enum Offer { QUEUED, REPLACED, DUPLICATE, FULL }
+
+    private static final class Running {
+        final Job job;
+        final Thread worker;
+        boolean cancelled;
+
+        Running(Job job, Thread worker) {
+            this.job = job;
+            this.worker = worker;
+        }
+    }
+
+    private final int capacity;
+    private final TreeSet<Job> pending = new TreeSet<>(
+            Comparator.comparingInt(Job::priority).thenComparingLong(Job::seq));
+    private final Map<String, Job> pendingByKey = new HashMap<>();
+    private final Map<String, Running> running = new HashMap<>();
+    private long seq;
+    private long superseded;
+
+    public JobQueue(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /** @param headSha the PR's head commit; it tells a redelivery from a new push, so it is required */
+    public synchronized Offer offer(String repository, int prNumber, String headSha, int priority) {
+        Objects.requireNonNull(headSha, "headSha");
+        String key = repository + "#" + prNumber;
+        Running r = running.get(key);
+        Job waiting = pendingByKey.get(key);
+        if (isSameHead(waiting, headSha) || (waiting == null && r != null && isSameHead(r.job, headSha))) {
+            return Offer.DUPLICATE;
+        }
+        if (waiting == null && pending.size() >= capacity) return Offer.FULL;
+
+        Offer result = Offer.QUEUED;
+        if (waiting != null) {
+            pending.remove(waiting);
+            priority = Math.min(priority, waiting.priority());
+            result = Offer.REPLACED;
+        }
+        Job job = new Job(repository, prNumber, headSha, priority, seq++);
+        pending.add(job);
+        pendingByKey.put(key, job);
+
+        if (r != null && !r.cancelled && !isSameHead(r.job, headSha)) {
+            r.cancelled = true;
+            superseded++;
+            r.worker.interrupt();
+        }
+        notifyAll();
+        return result;
+    }
+
+    /** Blocks until a job for a PR that is not already being reviewed is available. */
+    public synchronized Job take() throws InterruptedException {
+        while (true) {
+            for (Job j : pending) {
+                if (running.containsKey(j.key())) continue;
+                pending.remove(j);
+                pendingByKey.remove(j.key());
+                running.put(j.key(), new Running(j, Thread.currentThread()));
+                return j;
+            }
+            wait();
+        }
+    }
+
+    /** Must be called by the worker once it has finished with a job, successfully or not. */
+    public synchronized void done(Job job) {
+        running.remove(job.key());
+        notifyAll();
+    }
+
+    public synchronized int queued() {
+        return pending.size();
+    }
+
+    public synchronized int active() {
+        return running.size();
+    }
+
+    /** Reviews interrupted because a newer push arrived. */
+    public synchronized long superseded() {
+        return superseded;
+    }
+
+    private static boolean isSameHead(Job job, String headSha) {
+        return job != null && job.headSha().equals(headSha);
+    }
+}
@@ -0,0 +1,297 @@
+package dev.dimitra.bot.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.dimitra.bot.ReviewPipeline;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.metrics.RunMetrics;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static dev.dimitra.bot.config.Env.boolEnv;
+import static dev.dimitra.bot.config.Env.intEnv;
+
+/**
+ * Long-running server mode: GitHub {@code pull_request} webhooks in, reviews out, all in one
+ * warm JVM.
+ *
+ * <ul>
+ *   <li>{@code POST /webhook} verifies X-Hub-Signature-256 against WEBHOOK_SECRET and only
+ *       takes events for repositories on the allow-list (403 otherwise). It queues a review
+ *       and answers 202. A full queue answers 503 with Retry-After.</li>
+ *   <li>{@code GET /healthz} returns a small JSON status.</li>
+ *   <li>{@code GET /metrics} returns Prometheus text: queue state plus the process-wide
+ *       {@link RunMetrics} (phase timings, LLM calls, tokens, cost, HTTP bytes).</li>
+ * </ul>
+ *
+ * A fixed number of workers drain the {@link JobQueue}. Handlers and workers run on virtual
+ * threads. Every accepted event spends the server's GitHub token and LLM quota, so the server
+ * refuses to start without a secret unless WEBHOOK_ALLOW_UNSIGNED is set. With that, a recorded
+ * payload can be replayed with curl for local testing, e.g.
+ * {@code curl -H 'X-GitHub-Event: pull_request' --data @payload.json localhost:8080/webhook}.
+ */
+public class WebhookServer {
+
+    private static final int MAX_PAYLOAD = 25 * 1024 * 1024; // GitHub caps webhook payloads at 25 MB
+    private static final Set<String> REVIEW_ACTIONS = Set.of("opened", "reopened", "synchronize", "ready_for_review");
+
+    /** Runs one queued review; interrupted when a newer push to the same PR arrives. */
+    public interface Reviewer {
+        void review(JobQueue.Job job) throws Exception;
+    }
+
+    private final int port;
+    private final String secret; // null = signatures not checked (only with allowUnsigned)
+    private final boolean allowUnsigned;
+    private final Set<String> repositories; // "owner/repo" or "owner/*", lower case
+    private final int workers;
+    private final JobQueue queue;
+    private final Reviewer reviewer;
+    private final ObjectMapper mapper = Transport.shared().mapper();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private HttpServer server;
+
+    /**
+     * @param allowUnsigned start even without a secret, accepting unsigned events (local testing)
+     * @param repositories  "owner/repo" or "owner/*" entries; events for anything else are refused
+     */
+    public WebhookServer(int port, String secret, boolean allowUnsigned, Set<String> repositories, int workers,
+                         JobQueue queue, Reviewer reviewer) {
+        this.port = port;
+        this.secret = (secret == null || secret.isBlank()) ? null : secret;
+        this.allowUnsigned = allowUnsigned;
+        this.repositories = repositories.stream().map(r -> r.trim().toLowerCase()).filter(r -> !r.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.workers = Math.max(1, workers);
+        this.queue = queue;
+        this.reviewer = reviewer;
+    }
+
+    /**
+     * SERVER_PORT, SERVER_WORKERS, SERVER_QUEUE_CAPACITY, WEBHOOK_SECRET, WEBHOOK_ALLOW_UNSIGNED and
+     * SERVER_REPOSITORIES (comma-separated allow-list); every job runs {@code pipeline} with {@code defaults}.
+     */
+    public static WebhookServer fromEnv(ReviewPipeline pipeline, ReviewPipeline.Config defaults) {
+        // concurrent jobs must not share out/, so the server writes no artifacts
+        ReviewPipeline.Config base = new ReviewPipeline.Config(defaults.token(), defaults.apiUrl(), defaults.owner(),
+                defaults.repo(), 0, null, defaults.maxFiles(), defaults.postComment(), defaults.inlineReview(), defaults.chunked(),
+                defaults.incremental(), defaults.debugSmells(), null, null, null, false, defaults.botLogin());
+        return new WebhookServer(
+                intEnv("SERVER_PORT", 8080),
+                System.getenv("WEBHOOK_SECRET"),
+                boolEnv("WEBHOOK_ALLOW_UNSIGNED", false),
+                Set.of(System.getenv().getOrDefault("SERVER_REPOSITORIES", "").split(",")),
+                intEnv("SERVER_WORKERS", 2),
+                new JobQueue(intEnv("SERVER_QUEUE_CAPACITY", 100)),
+                job -> {
+                    String[] parts = job.repository().split("/", 2);
+                    pipeline.run(base.forPullRequest(parts[0], parts[1], job.prNumber(), job.headSha()));
+                }
+        );
+    }
+
+    /** @throws IOException also when the server is not safe to expose: no secret, or no allow-list */
+    public void start() throws IOException {
+        if (secret == null && !allowUnsigned) {
+            throw new IOException("WEBHOOK_SECRET is not set; anyone reaching the port could spend the token and LLM quota."
+                    + " Set WEBHOOK_ALLOW_UNSIGNED=true to run without signature checks (local testing only)");
+        }
+        if (repositories.isEmpty()) {
+            throw new IOException("SERVER_REPOSITORIES is not set; list the repositories to review, e.g. 'octo/app,octo/*'");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/webhook", this::webhook);
+        server.createContext("/healthz", this::health);
+        server.createContext("/metrics", this::metrics);
+        for (int i = 0; i < workers; i++) {
+            Thread.ofVirtual().name("review-worker-" + i).start(this::work);
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+        System.out.println("[INFO] Webhook server listening on :" + server.getAddress().getPort()
+                + " with " + workers + " worker(s) for " + String.join(", ", new TreeSet<>(repositories)));
+        if (secret == null) System.err.println("[WARN] WEBHOOK_ALLOW_UNSIGNED is set: webhook signatures are NOT verified");
+    }
+
+    public void stop() {
+        if (server != null) server.stop(0);
+    }
+
+    /** Bound port, useful when started with port 0. */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void work() {
+        while (true) {
+            JobQueue.Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            String name = job.repository() + "#" + job.prNumber() + " @ " + job.headSha();
+            long start = System.nanoTime();
+            try {
+                reviewer.review(job);
+                count("jobs_completed");
+                System.out.println("[INFO] Reviewed " + name + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (InterruptedException e) {
+                count("jobs_cancelled");
+                System.out.println("[INFO] Review of " + name + " cancelled by a newer push");
+            } catch (Exception e) {
+                // an interrupt can also surface wrapped, e.g. as an IOException from the HTTP client
+                if (Thread.currentThread().isInterrupted()) {
+                    count("jobs_cancelled");
+                    System.out.println("[INFO] Review of " + name + " cancelled by a newer push");
+                } else {
+                    count("jobs_failed");
+                    System.err.println("[WARN] Review of " + name + " failed: " + e);
+                }
+            } finally {
+                queue.done(job);
+                Thread.interrupted(); // a cancellation that raced with completion must not hit the next job
+            }
+        }
+    }
+
+    private void webhook(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!ex.getRequestMethod().equals("POST")) {
+                reply(ex, 405, "POST only");
+                return;
+            }
+            byte[] body;
+            try (InputStream in = ex.getRequestBody()) {
+                body = in.readNBytes(MAX_PAYLOAD + 1);
+            }
+            if (body.length > MAX_PAYLOAD) {
+                reply(ex, 413, "payload too large");
+                return;
+            }
+            if (secret != null && !validSignature(body, ex.getRequestHeaders().getFirst("X-Hub-Signature-256"))) {
+                count("webhooks_unauthorized");
+                reply(ex, 401, "bad signature");
+                return;
+            }
+            String event = ex.getRequestHeaders().getFirst("X-GitHub-Event");
+            if ("ping".equals(event)) {
+                reply(ex, 200, "pong");
+                return;
+            }
+            JsonNode root;
+            try {
+                root = mapper.readTree(body);
+            } catch (IOException e) {
+                reply(ex, 400, "invalid JSON");
+                return;
+            }
+            String action = root.path("action").asText("");
+            JsonNode pr = root.path("pull_request");
+            if (!"pull_request".equals(event) || !REVIEW_ACTIONS.contains(action) || pr.isMissingNode()
+                    || pr.path("state").asText("open").equals("closed")) {
+                count("webhooks_ignored");
+                reply(ex, 200, "ignored");
+                return;
+            }
+            String repository = root.path("repository").path("full_name").asText("");
+            int number = pr.path("number").asInt(root.path("number").asInt(0));
+            String head = pr.path("head").path("sha").asText("");
+            if (!repository.contains("/") || number <= 0 || head.isBlank()) {
+                reply(ex, 400, "missing repository, PR number or head sha");
+                return;
+            }
+            if (!allowed(repository)) {
+                count("webhooks_forbidden");
+                reply(ex, 403, "repository not allowed");
+                return;
+            }
+            // new and newly ready PRs first, pushes to open PRs next, drafts last
+            int priority = pr.path("draft").asBoolean(false) ? 2 : action.equals("synchronize") ? 1 : 0;
+
+            JobQueue.Offer offer = queue.offer(repository, number, head, priority);
+            count("webhooks_" + offer.name().toLowerCase());
+            if (offer == JobQueue.Offer.FULL) {
+                ex.getResponseHeaders().set("Retry-After", "30");
+                reply(ex, 503, "queue full");
+            } else {
+                reply(ex, 202, offer.name().toLowerCase());
+            }
+        }
+    }
+
+    private void health(HttpExchange ex) throws IOException {
+        try (ex) {
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            reply(ex, 200, mapper.writeValueAsString(Map.of("status", "ok", "queued", queue.queued(), "running", queue.active())));
+        }
+    }
+
+    private void metrics(HttpExchange ex) throws IOException {
+        try (ex) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("# TYPE code_smell_bot_queue_depth gauge\n");
+            sb.append("code_smell_bot_queue_depth ").append(queue.queued()).append('\n');
+            sb.append("# TYPE code_smell_bot_jobs_running gauge\n");
+            sb.append("code_smell_bot_jobs_running ").append(queue.active()).append('\n');
+            sb.append("# TYPE code_smell_bot_jobs_superseded_total counter\n");
+            sb.append("code_smell_bot_jobs_superseded_total ").append(queue.superseded()).append('\n');
+            counters.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+                sb.append("# TYPE code_smell_bot_").append(e.getKey()).append("_total counter\n");
+                sb.append("code_smell_bot_").append(e.getKey()).append("_total ").append(e.getValue().get()).append('\n');
+            });
+            sb.append(RunMetrics.process().prometheus());
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            reply(ex, 200, sb.toString());
+        }
+    }
+
+    private boolean allowed(String repository) {
+        String name = repository.toLowerCase();
+        return repositories.contains(name) || repositories.contains(name.substring(0, name.indexOf('/') + 1) + "*");
+    }
+
+    private boolean validSignature(byte[] body, String header) {
+        if (header == null || !header.startsWith("sha256=")) return false;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] expected = mac.doFinal(body);
+            byte[] given = HexFormat.of().parseHex(header.substring("sha256=".length()));
+            return MessageDigest.isEqual(expected, given);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void count(String name) {
+        counters.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static void reply(HttpExchange ex, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package dev.dimitra.bot.startup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the CLI takes from process launch to its first HTTP request, and to exit,
+ * against a {@link StubApi}. Each variant is launched {@code --runs} times after one warm-up
+ * launch (which primes the OS file cache):
+ *
+ * <ul>
+ *   <li>{@code jvm}: {@code java -jar}</li>
+ *   <li>{@code jvm+cds}: the same with {@code -XX:SharedArchiveFile}, when {@code --archive} exists</li>
+ *   <li>{@code native}: the native-image binary, when {@code --native} exists</li>
+ * </ul>
+ *
+ * Medians and p90s are printed and written to {@code --out} as JSON. With
+ * {@code --max-ttfr-ms}, the process exits with 1 when the fastest variant's median
+ * time-to-first-request is over the limit, so a build can catch startup regressions.
+ */
+public class StartupBenchmark {
+
+    private record Sample(long firstRequestNanos, long exitNanos) {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parse(args);
+        // launches run in a scratch directory (they write out/), so paths must be absolute
+        Path jar = Paths.get(opts.getOrDefault("jar", "target/code-smell-bot-0.1.0-SNAPSHOT.jar")).toAbsolutePath();
+        int runs = Integer.parseInt(opts.getOrDefault("runs", "10"));
+        long maxTtfrMs = Long.parseLong(opts.getOrDefault("max-ttfr-ms", "0"));
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("jvm", List.of(java, "-jar", jar.toString()));
+        if (opts.containsKey("archive") && Files.isRegularFile(Paths.get(opts.get("archive")))) {
+            variants.put("jvm+cds", List.of(java, "-XX:SharedArchiveFile=" + Paths.get(opts.get("archive")).toAbsolutePath(), "-jar", jar.toString()));
+        }
+        if (opts.containsKey("native") && Files.isExecutable(Paths.get(opts.get("native")))) {
+            variants.put("native", List.of(Paths.get(opts.get("native")).toAbsolutePath().toString()));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        double best = Double.MAX_VALUE;
+        Path work = Files.createTempDirectory("code-smell-bot-startup");
+        try (StubApi stub = StubApi.start()) {
+            System.out.printf("%-8s %10s %10s %10s %10s%n", "variant", "ttfr p50", "ttfr p90", "exit p50", "exit p90");
+            for (Map.Entry<String, List<String>> v : variants.entrySet()) {
+                launch(v.getValue(), stub, work); // warm-up
+                long[] ttfr = new long[runs], exit = new long[runs];
+                for (int i = 0; i < runs; i++) {
+                    Sample s = launch(v.getValue(), stub, work);
+                    ttfr[i] = s.firstRequestNanos();
+                    exit[i] = s.exitNanos();
+                }
+                Arrays.sort(ttfr);
+                Arrays.sort(exit);
+                double ttfr50 = ms(percentile(ttfr, 50)), ttfr90 = ms(percentile(ttfr, 90));
+                double exit50 = ms(percentile(exit, 50)), exit90 = ms(percentile(exit, 90));
+                System.out.printf("%-8s %8.1fms %8.1fms %8.1fms %8.1fms%n", v.getKey(), ttfr50, ttfr90, exit50, exit90);
+                report.put(v.getKey(), Map.of(
+                        "runs", runs,
+                        "timeToFirstRequestMs", Map.of("p50", ttfr50, "p90", ttfr90, "min", ms(ttfr[0])),
+                        "timeToExitMs", Map.of("p50", exit50, "p90", exit90, "min", ms(exit[0]))));
+                best = Math.min(best, ttfr50);
+            }
+        }
+
+        Path out = Paths.get(opts.getOrDefault("out", "target/startup-benchmark.json"));
+        if (out.toAbsolutePath().getParent() != null) Files.createDirectories(out.toAbsolutePath().getParent());
+        Files.writeString(out, new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(report));
+        System.out.println("[INFO] Wrote " + out);
+
+        if (maxTtfrMs > 0 && best > maxTtfrMs) {
+            System.err.println("[ERROR] Fastest median time-to-first-request " + best + " ms exceeds " + maxTtfrMs + " ms");
+            System.exit(1);
+        }
+    }
+
+    private static Sample launch(List<String> command, StubApi stub, Path work) throws Exception {
+        stub.reset();
+        ProcessBuilder pb = new ProcessBuilder(command)
+                .directory(work.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(work.resolve("stderr.log").toFile());
+        Map<String, String> env = pb.environment();
+        env.keySet().removeIf(k -> k.startsWith("LLM_") || k.startsWith("FINDINGS_CACHE") || k.startsWith("OPENAI_"));
+        env.put("GITHUB_TOKEN", "stub");
+        env.put("GITHUB_API_URL", stub.url());
+        env.put("REPOSITORY", StubApi.OWNER + "/" + StubApi.REPO);
+        env.put("PR_NUMBER", String.valueOf(StubApi.PR_NUMBER));
+        env.put("POST_COMMENT", "true");
+        env.put("INCREMENTAL", "false");
+        env.put("LLM_PROVIDER", "gemini");
+        env.put("GEMINI_API_KEY", "stub");
+        env.put("GEMINI_BASE_URL", stub.url() + "/gemini");
+
+        long start = System.nanoTime();
+        Process p = pb.start();
+        long first = stub.awaitFirstRequest(60, TimeUnit.SECONDS);
+        if (!p.waitFor(120, TimeUnit.SECONDS)) {
+            p.destroyForcibly();
+            throw new IllegalStateException(String.join(" ", command) + " did not finish in 120s");
+        }
+        long end = System.nanoTime();
+        if (p.exitValue() != 0 || first == 0) {
+            throw new IllegalStateException(String.join(" ", command) + " failed (exit " + p.exitValue() + "): "
+                    + Files.readString(work.resolve("stderr.log")));
+        }
+        return new Sample(first - start, end - start);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    private static double ms(long nanos) {
+        return Math.round(nanos / 100_000.0) / 10.0;
+    }
+
+    /** {@code --key value} pairs. */
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> opts = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("expected --option, got " + args[i]);
+            opts.put(args[i].substring(2), args[i + 1]);
+        }
+        return opts;
+    }
+}
@@ -0,0 +1,294 @@
+package dev.dimitra.bot.startup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback stand-in for the GitHub REST API, Gemini and OpenAI, just enough for a full
+ * review to run offline.
+ *
+ * Serves one small PR of Java files (or several identical ones, listed 100 per page for a
+ * backfill), remembers posted and edited comments and reviews (so an incremental run finds its
+ * marker), and answers
+ * every LLM call with the same finding, streamed or not. GitHub reads carry an ETag and are
+ * answered 304 when it still matches, as GitHub does. Used by the CDS training run and
+ * the startup benchmark. Point a bot at it with
+ * {@code GITHUB_API_URL=url()}, {@code GEMINI_BASE_URL=url()+"/gemini"} and
+ * {@code OPENAI_BASE_URL=url()+"/openai"}.
+ */
+public final class StubApi implements AutoCloseable {
+
+    public static final String OWNER = "octo";
+    public static final String REPO = "demo";
+    public static final int PR_NUMBER = 1;
+
+    private static final String PATCH = """
+            @@ -1,5 +1,14 @@
+             package demo;
+            \s
+            +import java.util.List;
+             public class Orders {
+            -    int total;
+            +    int total;
+            +    double tax = total * 0.19;
+            +
+            +    void settle(List<String> lines) {
+            +        try {
+            +            lines.forEach(System.out::println);
+            +        } catch (RuntimeException e) {
+            +        }
+            +    }
+             }
+            """;
+
+    private static final String FINDINGS = """
+            [{"file":"src/main/java/demo/Orders.java","line":6,"rule":"Magic Number","severity":"Minor",\
+            "why":"Tax rate is inlined.","suggestionPatch":""}]""";
+
+    private static final Pattern FILES = Pattern.compile(".*/pulls/(\\d+)/files");
+    // everything posted through the stub is attributed to the account GITHUB_TOKEN posts as
+    private static final Map<String, Object> BOT = Map.of("login", "github-actions[bot]", "type", "Bot");
+
+    private final HttpServer server;
+    private final int pullRequests;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<Long, String> comments = new ConcurrentSkipListMap<>(); // id -> body, PR_NUMBER only
+    private final List<Map<String, Object>> reviews = new CopyOnWriteArrayList<>();
+    private final AtomicLong ids = new AtomicLong(1000);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final Object firstRequest = new Object();
+    private long firstRequestAt; // guarded by firstRequest; 0 = none yet
+
+    private StubApi(HttpServer server, int pullRequests) {
+        this.server = server;
+        this.pullRequests = pullRequests;
+    }
+
+    /** Starts on a free loopback port. */
+    public static StubApi start() throws IOException {
+        return start(1);
+    }
+
+    /** @param pullRequests open PRs 1..n, all with the same files */
+    public static StubApi start(int pullRequests) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "stub-api");
+            t.setDaemon(true);
+            return t;
+        }));
+        StubApi stub = new StubApi(server, Math.max(1, pullRequests));
+        server.createContext("/", stub::handle);
+        server.start();
+        return stub;
+    }
+
+    public String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public int requests() {
+        return requests.get();
+    }
+
+    /** GETs answered 304 Not Modified so far. */
+    public int notModified() {
+        return notModified.get();
+    }
+
+    /** Forgets the first-request time, comments and reviews, e.g. between benchmark runs. */
+    public void reset() {
+        synchronized (firstRequest) {
+            firstRequestAt = 0;
+        }
+        comments.clear();
+        reviews.clear();
+    }
+
+    /**
+     * Waits for the first request since the last {@link #reset()}.
+     *
+     * @return its arrival as a {@link System#nanoTime()} value, or 0 if none came in time
+     */
+    public long awaitFirstRequest(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (firstRequest) {
+            while (firstRequestAt == 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) return 0;
+                TimeUnit.NANOSECONDS.timedWait(firstRequest, left);
+            }
+            return firstRequestAt;
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        long now = System.nanoTime();
+        requests.incrementAndGet();
+        synchronized (firstRequest) {
+            if (firstRequestAt == 0) {
+                firstRequestAt = now;
+                firstRequest.notifyAll();
+            }
+        }
+        try (ex) {
+            byte[] body;
+            try (InputStream in = ex.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            String path = ex.getRequestURI().getPath();
+            String method = ex.getRequestMethod();
+
+            Matcher files = FILES.matcher(path);
+            if (files.matches() && Integer.parseInt(files.group(1)) <= pullRequests) {
+                json(ex, 200, mapper.writeValueAsString(List.of(Map.of(
+                        "filename", "src/main/java/demo/Orders.java", "status", "modified",
+                        "additions", 9, "deletions", 1, "changes", 10, "patch", PATCH))));
+            } else if (path.endsWith("/repos/" + OWNER + "/" + REPO + "/pulls")) {
+                pulls(ex);
+            } else if (path.contains("/issues/comments/") && method.equals("PATCH")) {
+                long id = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+                if (comments.replace(id, mapper.readTree(body).path("body").asText("")) == null) {
+                    json(ex, 404, "{\"message\":\"Not Found\"}");
+                } else {
+                    json(ex, 200, mapper.writeValueAsString(Map.of("id", id)));
+                }
+            } else if (path.contains("/issues/") && path.endsWith("/comments")) {
+                if (method.equals("POST")) {
+                    long id = ids.incrementAndGet();
+                    comments.put(id, mapper.readTree(body).path("body").asText(""));
+                    json(ex, 201, mapper.writeValueAsString(Map.of("id", id)));
+                } else {
+                    List<Map<String, Object>> out = comments.entrySet().stream()
+                            .map(e -> Map.<String, Object>of("id", e.getKey(), "body", e.getValue(), "user", BOT)).toList();
+                    json(ex, 200, mapper.writeValueAsString(out));
+                }
+            } else if (path.endsWith("/pulls/" + PR_NUMBER + "/reviews")) {
+                if (method.equals("POST")) {
+                    JsonNode review = mapper.readTree(body);
+                    long id = ids.incrementAndGet();
+                    reviews.add(Map.of("id", id, "body", review.path("body").asText(""),
+                            "comments", review.path("comments").size(), "user", BOT));
+                    json(ex, 200, mapper.writeValueAsString(Map.of("id", id)));
+                } else {
+                    json(ex, 200, mapper.writeValueAsString(reviews));
+                }
+            } else if (path.contains("/compare/")) {
+                json(ex, 200, mapper.writeValueAsString(Map.of("status", "ahead",
+                        "files", List.of(Map.of("filename", "src/main/java/demo/Orders.java", "patch", PATCH)))));
+            } else if (path.endsWith(":streamGenerateContent")) {
+                sse(ex, List.of(
+                        gemini(FINDINGS.substring(0, FINDINGS.length() / 2), false),
+                        gemini(FINDINGS.substring(FINDINGS.length() / 2), true)));
+            } else if (path.endsWith(":generateContent")) {
+                json(ex, 200, gemini(FINDINGS, true));
+            } else if (path.endsWith("/chat/completions")) {
+                JsonNode req = mapper.readTree(body);
+                if (req.path("stream").asBoolean(false)) {
+                    sse(ex, List.of(
+                            openAiDelta(FINDINGS.substring(0, FINDINGS.length() / 2)),
+                            openAiDelta(FINDINGS.substring(FINDINGS.length() / 2)),
+                            "{\"choices\":[],\"usage\":{\"prompt_tokens\":400,\"completion_tokens\":60}}",
+                            "[DONE]"));
+                } else {
+                    json(ex, 200, mapper.writeValueAsString(Map.of(
+                            "choices", List.of(Map.of("message", Map.of("role", "assistant", "content", FINDINGS))),
+                            "usage", Map.of("prompt_tokens", 400, "completion_tokens", 60))));
+                }
+            } else {
+                json(ex, 404, "{\"message\":\"Not Found\"}");
+            }
+        }
+    }
+
+    /** Open PRs newest first, 100 per page with a Link header; nothing was ever merged. */
+    private void pulls(HttpExchange ex) throws IOException {
+        String query = ex.getRequestURI().getQuery() == null ? "" : ex.getRequestURI().getQuery();
+        if (query.contains("state=closed")) {
+            json(ex, 200, "[]");
+            return;
+        }
+        Matcher m = Pattern.compile("(?:^|&)page=(\\d+)").matcher(query);
+        int page = m.find() ? Integer.parseInt(m.group(1)) : 1;
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (int n = pullRequests - (page - 1) * 100; n >= 1 && out.size() < 100; n--) {
+            out.add(Map.of("number", n, "state", "open", "title", "Change " + n,
+                    "head", Map.of("sha", String.format("%040x", n)),
+                    "updated_at", "2024-01-01T00:00:00Z"));
+        }
+        if (page * 100 < pullRequests) {
+            String base = url() + ex.getRequestURI().getPath() + "?" + query.replaceAll("&page=\\d+", "");
+            ex.getResponseHeaders().set("Link", "<" + base + "&page=" + (page + 1) + ">; rel=\"next\"");
+        }
+        json(ex, 200, mapper.writeValueAsString(out));
+    }
+
+    private String gemini(String text, boolean last) throws IOException {
+        Map<String, Object> response = Map.of(
+                "candidates", List.of(Map.of("content", Map.of("parts", List.of(Map.of("text", text))))));
+        if (!last) return mapper.writeValueAsString(response);
+        return mapper.writeValueAsString(Map.of(
+                "candidates", response.get("candidates"),
+                "usageMetadata", Map.of("promptTokenCount", 400, "candidatesTokenCount", 60)));
+    }
+
+    private String openAiDelta(String text) throws IOException {
+        return mapper.writeValueAsString(Map.of("choices", List.of(Map.of("delta", Map.of("content", text)))));
+    }
+
+    private static void sse(HttpExchange ex, List<String> events) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream out = ex.getResponseBody()) {
+            for (String e : events) {
+                out.write(("data: " + e + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+    }
+
+    private void json(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        if (status == 200 && ex.getRequestMethod().equals("GET")) {
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(bytes)) + "\"";
+            ex.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                ex.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dev.dimitra.bot.startup;
+
+import dev.dimitra.bot.ReviewPipeline;
+import dev.dimitra.bot.analysis.SmellAnalyzer;
+import dev.dimitra.bot.cache.FindingsCache;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.llm.GeminiClient;
+import dev.dimitra.bot.llm.LlmClient;
+import dev.dimitra.bot.llm.OpenAIClient;
+import dev.dimitra.bot.llm.RateLimitedLlmClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Representative offline workload for the AppCDS archive (the {@code cds} Maven profile):
+ *
+ * <pre>
+ * java -XX:ArchiveClassesAtExit=target/code-smell-bot.jsa -cp target/code-smell-bot.jar \
+ *      dev.dimitra.bot.startup.TrainingRun
+ * </pre>
+ *
+ * Reviews the {@link StubApi} PR the way the CLI does: chunked with the local pre-pass and
+ * findings cache, then incrementally from the posted marker, then in single-prompt mode, with
+ * both streaming providers. Every class those paths load ends up in the archive.
+ */
+public class TrainingRun {
+
+    public static void main(String[] args) throws Exception {
+        long t0 = System.nanoTime();
+        Path tmp = Files.createTempDirectory("code-smell-bot-training");
+        try (StubApi stub = StubApi.start();
+             FindingsCache cache = FindingsCache.open(tmp.resolve("findings.bin"), 0)) {
+            Transport transport = Transport.shared();
+            LlmClient gemini = limited(new GeminiClient(transport, "stub", "stub-gemini", stub.url() + "/gemini", true));
+            LlmClient openai = limited(new OpenAIClient(transport, "stub", "stub-openai", stub.url() + "/openai", true));
+
+            ReviewPipeline.Config cfg = new ReviewPipeline.Config("stub", stub.url(), StubApi.OWNER, StubApi.REPO,
+                    StubApi.PR_NUMBER, "0000000000000000000000000000000000000001", 50, true, false, true, true, false,
+                    tmp.resolve("out"));
+
+            new ReviewPipeline(transport, gemini, SmellAnalyzer.fromEnv(gemini, cache)).run(cfg);
+            // finds the marker posted above and goes through compare
+            new ReviewPipeline(transport, openai, SmellAnalyzer.fromEnv(openai, cache))
+                    .run(cfg.forPullRequest(StubApi.OWNER, StubApi.REPO, StubApi.PR_NUMBER,
+                            "0000000000000000000000000000000000000002"));
+            ReviewPipeline.Config single = new ReviewPipeline.Config(cfg.token(), cfg.apiUrl(), cfg.owner(),
+                    cfg.repo(), cfg.prNumber(), cfg.headSha(), cfg.maxFiles(), true, true, false, false, false, null);
+            new ReviewPipeline(transport, gemini, null).run(single);
+
+            System.out.println("[INFO] Training run finished in " + (System.nanoTime() - t0) / 1_000_000
+                    + " ms (" + stub.requests() + " stub requests)");
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private static LlmClient limited(LlmClient client) {
+        return new RateLimitedLlmClient(client, 0, 0, 0, 5, Duration.ofSeconds(1));
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+}
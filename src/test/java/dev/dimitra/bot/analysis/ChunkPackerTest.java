@@ -0,0 +1,101 @@
+package dev.dimitra.bot.analysis;
+
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.diff.PatchSlice;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkPackerTest {
+
+    private static final TokenEstimator CHARS = CharSequence::length; // one token per character keeps the sums readable
+
+    private static PatchSlice file(String name, String patch) {
+        return PatchSlice.whole(name, "modified", ParsedPatch.parse(patch));
+    }
+
+    private static List<String> names(List<List<PatchSlice>> chunks) {
+        return chunks.stream().map(c -> String.join(",", c.stream().map(PatchSlice::filename).toList())).toList();
+    }
+
+    @Test
+    void handsBackAChunkOnceItHoldsMaxFiles() {
+        ChunkPacker packer = new ChunkPacker(2, 10_000, CHARS);
+
+        assertEquals(List.of(), packer.add(file("A.java", "@@ -1 +1 @@\n-a\n+b")));
+        assertEquals(List.of("A.java,B.java"), names(packer.add(file("B.java", "@@ -1 +1 @@\n-a\n+b"))));
+        assertEquals(List.of(), packer.add(file("C.java", "@@ -1 +1 @@\n-a\n+b")));
+        assertEquals(List.of("C.java"), names(packer.flush()));
+        assertEquals(List.of(), packer.flush());
+    }
+
+    @Test
+    void placesAPieceInTheFirstBinWithRoom() {
+        ChunkPacker packer = new ChunkPacker(5, 100, CHARS);
+        String big = "@@ -1 +1 @@\n+" + "x".repeat(50);
+
+        packer.add(file("A.java", big));        // 8 + 6 + 64 = 78
+        packer.add(file("B.java", big));        // no room next to A: a second bin
+        List<List<PatchSlice>> full = packer.add(file("C.java", "@@ -1 +1 @@\n+y")); // 8 + 6 + 14 = 28, fits nowhere but a new bin
+
+        assertEquals(List.of(), full);
+        assertEquals(List.of("A.java", "B.java", "C.java"), names(packer.flush()));
+    }
+
+    @Test
+    void splitsAtHunkBoundariesFirst() {
+        String patch = "@@ -1,2 +1,2 @@\n-a\n+b\n c\n@@ -20,2 +20,2 @@\n-d\n+e\n f";
+        ChunkPacker packer = new ChunkPacker(5, 40, CHARS); // one hunk fits (14 + 25), two don't
+
+        List<PatchSlice> pieces = packer.split(file("A.java", patch));
+
+        assertEquals(2, pieces.size());
+        assertNull(pieces.get(0).header());
+        assertEquals("@@ -1,2 +1,2 @@\n-a\n+b\n c\n", pieces.get(0).text());
+        assertEquals("@@ -20,2 +20,2 @@\n-d\n+e\n f", pieces.get(1).text());
+        PatchSlice whole = file("A.java", patch);
+        assertEquals(List.of(whole), new ChunkPacker(5, 1_000, CHARS).split(whole));
+    }
+
+    @Test
+    void cutsAHugeHunkIntoPiecesWithTheirOwnHeaders() {
+        StringBuilder patch = new StringBuilder("@@ -0,0 +1,10 @@\n");
+        for (int i = 1; i <= 10; i++) patch.append("+line").append(i < 10 ? "0" : "").append(i).append('\n');
+        ChunkPacker packer = new ChunkPacker(5, 60, CHARS); // header cost 31, so three 8-char lines per piece
+
+        List<PatchSlice> pieces = packer.split(file("A.java", patch.toString()));
+
+        assertEquals(4, pieces.size());
+        StringBuilder bodies = new StringBuilder();
+        int next = 1;
+        for (PatchSlice piece : pieces) {
+            ParsedPatch standalone = ParsedPatch.parse(piece.text());
+            assertEquals(next, standalone.newLine(1), piece.header()); // the header keeps real line numbers
+            assertTrue(standalone.isAddedLine(next));
+            next += standalone.lineCount() - 1;
+            bodies.append(piece.body());
+        }
+        assertEquals(patch.substring(patch.indexOf("\n") + 1), bodies.toString());
+    }
+
+    @Test
+    void aResizeHandsBackBinsOverTheNewLimit() {
+        ChunkPacker packer = new ChunkPacker(3, 10_000, CHARS);
+        packer.add(file("A.java", "@@ -1 +1 @@\n+a"));
+        packer.add(file("B.java", "@@ -1 +1 @@\n+b"));
+
+        packer.resize(2, 10_000);
+
+        assertEquals(List.of("A.java,B.java", "C.java"),
+                names(concat(packer.add(file("C.java", "@@ -1 +1 @@\n+c")), packer.flush())));
+    }
+
+    private static List<List<PatchSlice>> concat(List<List<PatchSlice>> a, List<List<PatchSlice>> b) {
+        return Stream.concat(a.stream(), b.stream()).toList();
+    }
+}
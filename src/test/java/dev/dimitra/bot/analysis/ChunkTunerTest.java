@@ -0,0 +1,114 @@
+package dev.dimitra.bot.analysis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChunkTunerTest {
+
+    private static final String MODEL = "m";
+    private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+    private final ChunkTuner tuner = new ChunkTuner(null, 1500, 24000);
+
+    /** n chunks of 4000 input tokens taking 1 s each, the first `truncated` cut off and the next `timedOut` timed out. */
+    private void observe(int n, int truncated, int timedOut, int outputTokens) {
+        for (int i = 0; i < n; i++) {
+            tuner.observe(MODEL, new ChunkTuner.Observation(4000, 1_000_000_000L, 2, outputTokens,
+                    i < truncated, i >= truncated && i < truncated + timedOut));
+        }
+    }
+
+    private ChunkTuner.Plan plan() {
+        return tuner.plan(MODEL, 4000, 4, 1200, TIMEOUT);
+    }
+
+    @Test
+    void startsFromTheConfiguredSize() {
+        assertEquals(new ChunkTuner.Plan(4000, 4), plan());
+        observe(4, 0, 0, 100); // not enough chunks yet
+        assertEquals(new ChunkTuner.Plan(4000, 4), plan());
+    }
+
+    @Test
+    void growsWhileFewAnswersAreCutOff() {
+        observe(20, 0, 0, 100);
+        assertEquals(new ChunkTuner.Plan(4600, 5), plan());
+        assertEquals(new ChunkTuner.Plan(4600, 5), plan()); // no new chunks at this budget yet
+    }
+
+    @Test
+    void shrinksWhenManyAnswersAreCutOff() {
+        observe(5, 1, 0, 100); // 20%
+        assertEquals(new ChunkTuner.Plan(3000, 3), plan());
+    }
+
+    @Test
+    void shrinksWhenChunksTimeOut() {
+        observe(10, 0, 1, 100); // 10%
+        assertEquals(3000, plan().inputTokenBudget());
+    }
+
+    @Test
+    void holdsBetweenTheThresholds() {
+        observe(10, 1, 0, 100); // 10% cut off: neither grow nor shrink
+        assertEquals(new ChunkTuner.Plan(4000, 4), plan());
+    }
+
+    @Test
+    void staysWhereTheUsualAnswerFitsMaxTokens() {
+        observe(10, 0, 0, 1000); // 1000 output per 4000 input: 80% of 1200 is reached at 3840
+        assertEquals(3840, plan().inputTokenBudget());
+    }
+
+    @Test
+    void staysWhereTheFittedLatencyFitsHalfTheTimeout() {
+        fit(1000, 2); // 1 s + 2 ms per token: 10 s at 4500 tokens
+        assertEquals(4500, plan().inputTokenBudget(), 1);
+    }
+
+    @Test
+    void aNegativeInterceptStillCapsTheBudget() {
+        fit(-2000, 3); // 10 s at 4000 tokens
+        assertEquals(4000, plan().inputTokenBudget(), 1);
+    }
+
+    @Test
+    void clampsToTheMinimumWhenEvenAnEmptyChunkIsTooSlow() {
+        fit(15_000, 1); // the base latency alone is over half the timeout: the cap is negative
+        assertEquals(new ChunkTuner.Plan(1500, 2), plan());
+    }
+
+    @Test
+    void narrowingShrinksTheRestOfTheSessionAndTheNextStart() {
+        observe(5, 5, 0, 100);
+        assertEquals(new ChunkTuner.Plan(2800, 3), tuner.narrow(MODEL, new ChunkTuner.Plan(4000, 4)));
+        // the overruns that caused the narrowing don't shrink the next session again
+        assertEquals(new ChunkTuner.Plan(2800, 3), plan());
+        assertEquals(new ChunkTuner.Plan(1500, 1), tuner.narrow(MODEL, new ChunkTuner.Plan(1600, 1)));
+    }
+
+    @Test
+    void keepsItsHistoryAcrossRuns(@TempDir Path dir) {
+        Path file = dir.resolve("tuning.json");
+        ChunkTuner first = new ChunkTuner(file, 1500, 24000);
+        for (int i = 0; i < 5; i++) first.observe(MODEL, new ChunkTuner.Observation(4000, 1_000_000_000L, 2, 100, false, false));
+        first.plan(MODEL, 4000, 4, 1200, TIMEOUT);
+        first.save();
+
+        assertEquals(new ChunkTuner.Plan(4600, 5), new ChunkTuner(file, 1500, 24000).plan(MODEL, 4000, 4, 1200, TIMEOUT));
+    }
+
+    /** Ten chunks from 2000 to 6500 input tokens whose latency is exactly baseMs + msPerToken per token. */
+    private void fit(double baseMs, double msPerToken) {
+        for (int i = 0; i < 10; i++) {
+            int tokens = 2000 + 500 * i;
+            long nanos = (long) ((baseMs + msPerToken * tokens) * 1e6);
+            tuner.observe(MODEL, new ChunkTuner.Observation(tokens, nanos, 2, 100, false, false));
+        }
+    }
+}
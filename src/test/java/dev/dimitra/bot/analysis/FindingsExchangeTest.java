@@ -0,0 +1,73 @@
+package dev.dimitra.bot.analysis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.llm.LlmClient;
+import dev.dimitra.bot.llm.LlmFinding;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FindingsExchangeTest {
+
+    private static final String A = "{\"file\":\"A.java\",\"line\":1,\"rule\":\"R\",\"severity\":\"Minor\",\"why\":\"\"}";
+    private static final String B = "{\"file\":\"B.java\",\"line\":2,\"rule\":\"R\",\"severity\":\"Minor\",\"why\":\"\"}";
+
+    private final FindingsExchange exchange = new FindingsExchange(new ObjectMapper().readerFor(LlmFinding.class), null);
+
+    private static LlmClient.Result cutOff(String text) {
+        return new LlmClient.Result(text, new LlmClient.Usage(10, 5), "length");
+    }
+
+    @Test
+    void asksForTheRestOfACutOffAnswer() throws Exception {
+        List<Integer> sent = new ArrayList<>();
+        List<String> answers = List.of("[" + A + ", {\"file\":\"B.j", "[" + B + "]");
+
+        exchange.run("diff", (messages, parser) -> {
+            sent.add(messages.size());
+            String text = answers.get(sent.size() - 1);
+            parser.feed(text);
+            return sent.size() == 1 ? cutOff(text) : new LlmClient.Result(text, null);
+        });
+
+        assertEquals(List.of(1, 3), sent); // the follow-up carries the cut-off answer and the request for the rest
+        assertEquals(List.of("A.java", "B.java"), exchange.findings().stream().map(LlmFinding::file).toList());
+        assertTrue(exchange.isComplete());
+        assertEquals(1, exchange.continuations());
+        assertTrue(exchange.truncated());
+        assertEquals(5 + TokenEstimator.DEFAULT.estimate("[" + B + "]"), exchange.outputTokens(TokenEstimator.DEFAULT));
+    }
+
+    @Test
+    void givesUpAfterMaxContinuations() throws Exception {
+        int[] rounds = {0};
+
+        exchange.run("diff", (messages, parser) -> {
+            rounds[0]++;
+            parser.feed("[" + A + ",");
+            return cutOff("[" + A + ",");
+        });
+
+        assertEquals(FindingsExchange.MAX_CONTINUATIONS + 1, rounds[0]);
+        assertFalse(exchange.isComplete());
+        assertEquals(FindingsExchange.MAX_CONTINUATIONS + 1, exchange.findings().size());
+    }
+
+    @Test
+    void keepsWhatAFailedRoundParsed() {
+        assertThrows(IOException.class, () -> exchange.run("diff", (messages, parser) -> {
+            parser.feed("[" + A + ", {\"fi");
+            throw new IOException("stream reset");
+        }));
+
+        assertEquals(1, exchange.findings().size());
+        assertEquals(0, exchange.continuations());
+    }
+}
@@ -0,0 +1,142 @@
+package dev.dimitra.bot.analysis;
+
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.diff.PatchSlice;
+import dev.dimitra.bot.llm.LlmFinding;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalSmellDetectorTest {
+
+    private final LocalSmellDetector detector = new LocalSmellDetector();
+
+    private LocalSmellDetector.Outcome scan(String status, String patch) {
+        return detector.scan(PatchSlice.whole("src/A.java", status, ParsedPatch.parse(patch)));
+    }
+
+    private static List<String> rules(LocalSmellDetector.Outcome o) {
+        return o.findings().stream().map(f -> f.rule() + "@" + f.line()).toList();
+    }
+
+    @Test
+    void skipsFilesWithAGeneratorHeader() {
+        LocalSmellDetector.Outcome o = scan("added", """
+                @@ -0,0 +1,5 @@
+                +/*
+                + * Generated by protoc. DO NOT EDIT.
+                + */
+                +package demo;
+                +class A { int x = 42; }""");
+
+        assertTrue(o.findings().isEmpty());
+        assertFalse(o.needsLlm());
+    }
+
+    @Test
+    void readsLineCommentHeadersToo() {
+        LocalSmellDetector.Outcome o = scan("modified", """
+                @@ -1,3 +1,4 @@
+                 // Code generated by mockgen. DO NOT EDIT.
+                 package demo;
+                +class B {}
+                 class A {}""");
+
+        assertFalse(o.needsLlm());
+    }
+
+    @Test
+    void markersOutsideTheHeaderAreOrdinaryText() {
+        LocalSmellDetector.Outcome o = scan("modified", """
+                @@ -1,3 +1,4 @@
+                 package demo;
+                 class A {
+                +    String banner = "Generated by the report task; DO NOT EDIT by hand";
+                 }""");
+
+        assertTrue(o.needsLlm());
+    }
+
+    @Test
+    void markersInAHunkFurtherDownAreOrdinaryText() {
+        LocalSmellDetector.Outcome o = scan("modified", """
+                @@ -40,3 +40,4 @@ class A {
+                 /* Generated by hand, kept for reference */
+                 void a() {
+                +    run();
+                 }""");
+
+        assertTrue(o.needsLlm());
+    }
+
+    @Test
+    void reportsEmptyCatchBlocks() {
+        LocalSmellDetector.Outcome o = scan("modified", """
+                @@ -1,2 +1,6 @@
+                 void a() {
+                +    try { run(); } catch (IOException e) {}
+                +    try { run(); }
+                +    catch(RuntimeException e) {
+                +    }
+                 }""");
+
+        assertEquals(List.of("Empty Catch Block@2", "Empty Catch Block@4"), rules(o));
+    }
+
+    @Test
+    void aMethodNamedLikeCatchIsNotACatchBlock() {
+        LocalSmellDetector.Outcome o = scan("modified", """
+                @@ -1,2 +1,4 @@
+                 void a() {
+                +    if (late) { catchUp(); }
+                +    dogcatch(x) {}
+                 }""");
+
+        assertTrue(o.findings().isEmpty(), "found " + rules(o));
+    }
+
+    @Test
+    void reportsMagicNumbersAndLongLines() {
+        LocalSmellDetector.Outcome o = scan("modified", """
+                @@ -1,2 +1,5 @@
+                 class A {
+                +    double tax = total * 0.19;
+                +    static final int LIMIT = 42;
+                +    int i = 1; // 365
+                +    String s = "%s";
+                 }""".replace("%s", "x".repeat(LocalSmellDetector.LONG_LINE)));
+
+        assertEquals(List.of("Magic Number@2", "Long Line@5"), rules(o));
+    }
+
+    @Test
+    void dropsHunksThatOnlyTouchImports() {
+        LocalSmellDetector.Outcome o = scan("modified", """
+                @@ -1,3 +1,4 @@
+                 package demo;
+                 import java.util.List;
+                +import java.util.List;
+                 import java.util.Map;""");
+
+        assertEquals(List.of("Duplicate Import@3"), rules(o));
+        assertFalse(o.needsLlm());
+    }
+
+    @Test
+    void findsUnusedImportsInNewFiles() {
+        LocalSmellDetector.Outcome o = scan("added", """
+                @@ -0,0 +1,4 @@
+                +package demo;
+                +import java.util.List;
+                +import java.util.Map;
+                +class A { List<String> xs; }""");
+
+        assertEquals(List.of("Unused Import@3"), rules(o));
+        List<LlmFinding> findings = o.findings();
+        assertEquals("src/A.java", findings.get(0).file());
+    }
+}
@@ -0,0 +1,126 @@
+package dev.dimitra.bot.analysis;
+
+import dev.dimitra.bot.diff.PatchCompactor;
+import dev.dimitra.bot.diff.PatchStore;
+import dev.dimitra.bot.llm.LlmClient;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.model.ChangedFile;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SmellAnalyzerTest {
+
+    private static ChangedFile file(String name) {
+        return new ChangedFile(name, "modified", 1, 0, 1, "@@ -1,1 +1,2 @@\n class A {\n+    int x = 42;");
+    }
+
+    /** Answers every chunk with one finding on line 2 of its first file, after a delay. */
+    private static final class SlowLlm implements LlmClient {
+        final Duration delay;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger interrupted = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+
+        SlowLlm(Duration delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options)
+                throws InterruptedException {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+                throw e;
+            }
+            String file = messages.get(0).content().toString().split("=== FILE: ")[1].split(" ")[0];
+            return new Result("[{\"file\":\"" + file + "\",\"line\":2,\"rule\":\"Magic Number\",\"severity\":\"Minor\","
+                    + "\"why\":\"\",\"suggestionPatch\":\"\"}]", new Usage(10, 10), "STOP");
+        }
+    }
+
+    private static SmellAnalyzer analyzer(LlmClient llm, int concurrency) {
+        return new SmellAnalyzer(llm, 1, 6000, TokenEstimator.DEFAULT, concurrency, Duration.ofSeconds(30),
+                null, null, null, null);
+    }
+
+    @Test
+    void collectsEveryChunkInFileOrder() throws Exception {
+        SlowLlm llm = new SlowLlm(Duration.ZERO);
+        List<LlmFinding> findings = analyzer(llm, 4).analyze("o/r", 1, List.of(file("B.java"), file("A.java")));
+
+        assertEquals(2, llm.calls.get());
+        assertEquals(List.of("B.java", "A.java"), findings.stream().map(LlmFinding::file).toList());
+        assertEquals(2, findings.get(0).line());
+    }
+
+    @Test
+    void anInterruptedRunStopsItsChunks() throws Exception {
+        SlowLlm llm = new SlowLlm(Duration.ofSeconds(3));
+        SmellAnalyzer.Session session = analyzer(llm, 1).open("o/r", 1);
+        for (String name : List.of("A.java", "B.java", "C.java")) session.accept(file(name));
+
+        AtomicReference<Throwable> outcome = new AtomicReference<>();
+        Thread run = new Thread(() -> {
+            try {
+                session.finish();
+            } catch (Throwable t) {
+                outcome.set(t);
+            }
+        });
+        run.start();
+        assertTrue(llm.started.await(5, TimeUnit.SECONDS));
+        long t0 = System.nanoTime();
+        run.interrupt(); // a newer push superseded the run
+        run.join(5_000);
+
+        assertTrue(outcome.get() instanceof InterruptedException, "finish() should give up: " + outcome.get());
+        assertTrue(System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(2), "close() waited for the running LLM call");
+        assertEquals(1, llm.interrupted.get());
+        Thread.sleep(200);
+        assertEquals(1, llm.calls.get()); // the queued chunks never reached the LLM
+    }
+
+    @Test
+    void closingAnUnfinishedSessionCancelsItsChunks() throws Exception {
+        SlowLlm llm = new SlowLlm(Duration.ofSeconds(3));
+        SmellAnalyzer.Session session = analyzer(llm, 2).open("o/r", 1);
+        session.accept(file("A.java"));
+        session.accept(file("B.java"));
+        assertTrue(llm.started.await(5, TimeUnit.SECONDS));
+
+        long t0 = System.nanoTime();
+        session.close(); // e.g. the file listing failed before finish()
+
+        assertTrue(System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(2), "close() waited for the running LLM calls");
+    }
+
+    @Test
+    void compactedPatchesWaitInTheStore() throws Exception {
+        SlowLlm llm = new SlowLlm(Duration.ZERO);
+        SmellAnalyzer analyzer = new SmellAnalyzer(llm, 1, 6000, TokenEstimator.DEFAULT, 1, Duration.ofSeconds(30),
+                null, null, new PatchCompactor(2, false, true), null);
+
+        try (PatchStore store = new PatchStore(0, null)) { // spill everything
+            SmellAnalyzer.Session session = analyzer.open("o/r", 1, null, null, store);
+            ChangedFile f = file("A.java");
+            session.accept(f, store.parse(f.patch()));
+
+            assertTrue(store.spilledChars() > f.patch().length(), "compacted text went to the heap");
+            assertEquals(1, session.finish().size());
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package dev.dimitra.bot.analysis;
+
+import dev.dimitra.bot.llm.LlmClient;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SmellPromptTest {
+
+    @Test
+    void theSystemPromptIsLongEnoughForProvidersToCacheIt() {
+        // below this, CACHE_PREFIX does nothing and every chunk pays for the whole prompt again
+        assertTrue(SmellPrompt.system(false).length() >= LlmClient.MIN_CACHED_PREFIX_CHARS);
+        assertTrue(SmellPrompt.system(true).length() >= LlmClient.MIN_CACHED_PREFIX_CHARS);
+    }
+}
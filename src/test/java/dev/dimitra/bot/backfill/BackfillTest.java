@@ -0,0 +1,74 @@
+package dev.dimitra.bot.backfill;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.ReviewPipeline;
+import dev.dimitra.bot.analysis.SmellAnalyzer;
+import dev.dimitra.bot.diff.PatchStore;
+import dev.dimitra.bot.github.GitHubQuota;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.testing.LocalServer;
+import dev.dimitra.bot.testing.LocalServer.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BackfillTest {
+
+    @TempDir
+    Path out;
+
+    private final Transport transport = new Transport(4);
+    private final ObjectMapper mapper = transport.mapper();
+    private LocalServer github;
+
+    @BeforeEach
+    void start() throws Exception {
+        github = LocalServer.start()
+                .on("GET", "/repos/o/r/pulls", req -> Response.json(200, """
+                        [{"number":1,"head":{"sha":"aaa"},"state":"open","title":"one"}]"""))
+                .on("GET", "/repos/o/r/pulls/1/files", req -> Response.json(200, """
+                        [{"filename":"A.java","status":"modified","additions":1,"deletions":1,"changes":2,
+                          "patch":"@@ -1 +1 @@\\n-a\\n+b"}]"""));
+    }
+
+    @AfterEach
+    void stop() {
+        github.close();
+    }
+
+    @Test
+    void recordsAPrWhoseChunkingFailed() throws Exception {
+        SmellAnalyzer broken = new SmellAnalyzer(null, 5, 6000, null, 1, null, null, null, null, null) {
+            @Override
+            public Session open(String repository, int prNumber, Consumer<LlmFinding> onFinding, Executor llmStage,
+                                PatchStore store) {
+                throw new UncheckedIOException(new IOException("spill file gone"));
+            }
+        };
+        ReviewPipeline.Config target = new ReviewPipeline.Config("t", github.url(), "o", "r", 0, null, 100,
+                false, false, true, false, false, null);
+        Backfill.Options options = new Backfill.Options("open", 0, 30, out, 1, 1, 1, 1);
+
+        new Backfill(transport, broken, new GitHubQuota(0, 0), target, options).run();
+
+        List<String> lines = Files.readAllLines(out.resolve("findings.jsonl"));
+        assertEquals(1, lines.size());
+        JsonNode line = mapper.readTree(lines.get(0));
+        assertEquals(1, line.path("pr").asInt());
+        assertEquals("chunking failed: java.io.UncheckedIOException: java.io.IOException: spill file gone",
+                line.path("error").asText());
+    }
+}
@@ -0,0 +1,69 @@
+package dev.dimitra.bot.backfill;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageTest {
+
+    @Test
+    void finishesEverythingQueuedBeforeClosing() throws Exception {
+        List<Integer> done = new CopyOnWriteArrayList<>();
+        Stage<Integer> stage = new Stage<>("test", 3, 2, done::add);
+        for (int i = 0; i < 20; i++) stage.put(i);
+
+        stage.close();
+
+        assertEquals(20, done.size());
+    }
+
+    @Test
+    void aWorkerOutlivesAnInterruptedItem() throws Exception {
+        List<Integer> done = new CopyOnWriteArrayList<>();
+        // one worker and a full queue: if the interrupt cost the stage its worker, close() would hang
+        Stage<Integer> stage = new Stage<>("test", 1, 1, i -> {
+            if (i == 0) {
+                Thread.currentThread().interrupt(); // e.g. the LLM task it ran was cancelled
+                throw new InterruptedException();
+            }
+            if (i == 1) Thread.currentThread().interrupt(); // left set by a task that swallowed it
+            done.add(i);
+        });
+        for (int i = 0; i < 5; i++) stage.put(i);
+
+        Thread closer = Thread.ofVirtual().start(stage::close);
+
+        assertTrue(closer.join(Duration.ofSeconds(5)), "close() hung");
+        assertEquals(List.of(1, 2, 3, 4), done);
+    }
+
+    @Test
+    void anInterruptedCloseStopsTheWorkers() throws Exception {
+        CountDownLatch busy = new CountDownLatch(1);
+        Stage<Integer> stage = new Stage<>("test", 1, 4, i -> {
+            busy.countDown();
+            Thread.sleep(60_000);
+        });
+        stage.put(1);
+        stage.put(2);
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+
+        boolean[] flag = new boolean[1];
+        Thread closer = Thread.ofVirtual().start(() -> {
+            stage.close();
+            flag[0] = Thread.currentThread().isInterrupted();
+        });
+        Thread.sleep(100);
+        closer.interrupt();
+
+        assertTrue(closer.join(Duration.ofSeconds(5)), "close() ignored the interrupt");
+        assertTrue(flag[0]);
+    }
+}
@@ -0,0 +1,98 @@
+package dev.dimitra.bot.cache;
+
+import dev.dimitra.bot.llm.LlmFinding;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FindingsCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private static String key(String name) {
+        return FindingsCache.key(name, "@@ -1 +1 @@\n+x", "prompt", "model", Map.of("temperature", 0.2));
+    }
+
+    private static List<LlmFinding> findings(String file, int n) {
+        return List.of(new LlmFinding(file, n, "Magic Number", "Minor", "why " + "x".repeat(n), ""));
+    }
+
+    @Test
+    void keysIgnoreLineEndingsAndTrailingWhitespace() {
+        String a = FindingsCache.key("A.java", "@@ -1 +1 @@\n+x  \n", "p", "m", Map.of());
+        String b = FindingsCache.key("A.java", "@@ -1 +1 @@\r\n+x", "p", "m", Map.of());
+
+        assertEquals(a, b);
+        assertNotEquals(a, FindingsCache.key("A.java", "@@ -1 +1 @@\n+x", "p", "other-model", Map.of()));
+        assertNotEquals(a, FindingsCache.key("B.java", "@@ -1 +1 @@\n+x", "p", "m", Map.of()));
+    }
+
+    @Test
+    void keepsFindingsAcrossRuns() throws Exception {
+        Path file = dir.resolve("findings.bin");
+        try (FindingsCache cache = FindingsCache.open(file, 1 << 20)) {
+            assertNull(cache.get(key("A.java")));
+            cache.put(key("A.java"), findings("A.java", 3));
+            cache.put(key("A.java"), findings("A.java", 4)); // the latest record wins
+        }
+        try (FindingsCache cache = FindingsCache.open(file, 1 << 20)) {
+            assertEquals(findings("A.java", 4), cache.get(key("A.java")));
+            assertEquals(1, cache.hits());
+        }
+    }
+
+    @Test
+    void dropsTheLeastRecentlyUsedKeysBeyondMaxBytes() throws Exception {
+        try (FindingsCache cache = FindingsCache.open(dir.resolve("findings.bin"), 600)) {
+            cache.put(key("A.java"), findings("A.java", 100));
+            cache.put(key("B.java"), findings("B.java", 100));
+            assertNotNull(cache.get(key("A.java"))); // A is now the most recently used
+            cache.put(key("C.java"), findings("C.java", 100));
+
+            assertNull(cache.get(key("B.java")));
+            assertNotNull(cache.get(key("A.java")));
+            assertNotNull(cache.get(key("C.java")));
+        }
+    }
+
+    @Test
+    void compactsTheLogWhileRunning() throws Exception {
+        Path file = dir.resolve("findings.bin");
+        try (FindingsCache cache = FindingsCache.open(file, 2_000)) {
+            for (int i = 0; i < 200; i++) cache.put(key("F" + i + ".java"), findings("F" + i + ".java", 50));
+
+            assertTrue(Files.size(file) <= 4_000 + 200, "log grew to " + Files.size(file));
+            assertEquals(findings("F199.java", 50), cache.get(key("F199.java")));
+        }
+        try (FindingsCache cache = FindingsCache.open(file, 2_000)) {
+            assertEquals(findings("F199.java", 50), cache.get(key("F199.java")));
+        }
+    }
+
+    @Test
+    void cutsOffATornRecordAtTheTail() throws Exception {
+        Path file = dir.resolve("findings.bin");
+        try (FindingsCache cache = FindingsCache.open(file, 1 << 20)) {
+            cache.put(key("A.java"), findings("A.java", 3));
+        }
+        long intact = Files.size(file);
+        Files.write(file, new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND); // crash mid-append
+
+        try (FindingsCache cache = FindingsCache.open(file, 1 << 20)) {
+            assertEquals(intact, Files.size(file));
+            assertEquals(findings("A.java", 3), cache.get(key("A.java")));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package dev.dimitra.bot.diff;
+
+import dev.dimitra.bot.model.ChangedFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GitDiffSourceTest {
+
+    private static String git(Path dir, String... args) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>(List.of("git", "-C", dir.toString(),
+                "-c", "user.name=t", "-c", "user.email=t@example.com", "-c", "commit.gpgsign=false"));
+        cmd.addAll(List.of(args));
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (p.waitFor() != 0) throw new IOException(String.join(" ", args) + ": " + out);
+        return out.trim();
+    }
+
+    private static String text(ByteBuffer buf) {
+        return StandardCharsets.UTF_8.decode(buf).toString();
+    }
+
+    /** A checkout at the head of a PR that adds a line to A.java and commits two symlinks out of the tree. */
+    private static GitDiffSource checkout(Path tmp) throws Exception {
+        Path repo = Files.createDirectories(tmp.resolve("repo"));
+        Path outside = Files.createDirectories(tmp.resolve("outside"));
+        Files.writeString(outside.resolve("secret.txt"), "token=hunter2\n");
+
+        git(repo, "init", "-q");
+        Files.writeString(repo.resolve("A.java"), "class A {\n}\n");
+        git(repo, "add", "-A");
+        git(repo, "commit", "-q", "-m", "base");
+        String base = git(repo, "rev-parse", "HEAD");
+
+        Files.writeString(repo.resolve("A.java"), "class A {\n    int x = 42;\n}\n");
+        Files.createSymbolicLink(repo.resolve("leak.txt"), outside.resolve("secret.txt"));
+        Files.createSymbolicLink(repo.resolve("linked"), outside);
+        git(repo, "add", "-A");
+        git(repo, "commit", "-q", "-m", "head");
+        String head = git(repo, "rev-parse", "HEAD");
+
+        GitDiffSource source = GitDiffSource.open(repo, base, head);
+        assertNotNull(source);
+        return source;
+    }
+
+    @Test
+    void producesGitHubStylePatches(@TempDir Path tmp) throws Exception {
+        List<ChangedFile> files = new ArrayList<>();
+        checkout(tmp).fetch("o", "r", 1, 50, files::add);
+
+        ChangedFile a = files.stream().filter(f -> f.filename().equals("A.java")).findFirst().orElseThrow();
+        assertEquals("modified", a.status());
+        assertEquals(1, (int) a.additions());
+        assertEquals("@@ -1,2 +1,3 @@\n class A {\n+    int x = 42;\n }", a.patch());
+    }
+
+    @Test
+    void readsRegularFilesFromTheWorktree(@TempDir Path tmp) throws Exception {
+        assertEquals("class A {\n    int x = 42;\n}\n", text(checkout(tmp).contents("A.java")));
+    }
+
+    @Test
+    void returnsTheLinkTextOfASymlinkInsteadOfItsTarget(@TempDir Path tmp) throws Exception {
+        GitDiffSource source = checkout(tmp);
+
+        assertEquals(tmp.resolve("outside").resolve("secret.txt").toString(), text(source.contents("leak.txt")));
+    }
+
+    @Test
+    void neverReadsThroughASymlinkedDirectory(@TempDir Path tmp) throws Exception {
+        assertNull(checkout(tmp).contents("linked/secret.txt"));
+    }
+
+    @Test
+    void refusesPathsOutsideTheCheckout(@TempDir Path tmp) throws Exception {
+        assertNull(checkout(tmp).contents("../outside/secret.txt"));
+    }
+}
@@ -0,0 +1,107 @@
+package dev.dimitra.bot.diff;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParsedPatchTest {
+
+    private static final String PATCH = """
+            @@ -10,4 +10,5 @@ void run() {
+             a
+            -b
+            +B
+            +C
+             d
+             e""";
+
+    private static String header(ParsedPatch p, int from, int oldStart, int oldCount, int newStart, int newCount) {
+        StringBuilder sb = new StringBuilder();
+        p.appendHeader(sb, p.hunks().get(0), from, oldStart, oldCount, newStart, newCount, "");
+        return sb.toString();
+    }
+
+    @Test
+    void writesAHeaderForARunOfLines() {
+        ParsedPatch p = ParsedPatch.parse(PATCH);
+
+        assertEquals("@@ -11,1 +11,2 @@\n", header(p, 2, 11, 1, 11, 2));
+        StringBuilder sb = new StringBuilder();
+        p.appendHeader(sb, p.hunks().get(0), 1, 10, 4, 10, 5, " void run() {");
+        assertEquals("@@ -10,4 +10,5 @@ void run() {\n", sb.toString());
+    }
+
+    @Test
+    void anEmptySideNamesTheLineBefore() {
+        ParsedPatch p = ParsedPatch.parse(PATCH);
+
+        assertEquals("@@ -11,0 +11,2 @@\n", header(p, 3, 0, 0, 11, 2)); // only "+B", "+C", after "-b"
+        assertEquals("@@ -11,1 +10,0 @@\n", header(p, 2, 11, 1, 0, 0)); // only "-b"
+    }
+
+    @Test
+    void lineBeforeTheFirstLineOfAHunkIsTheOneBeforeItsStart() {
+        ParsedPatch p = ParsedPatch.parse(PATCH);
+        ParsedPatch.Hunk h = p.hunks().get(0);
+
+        assertEquals(9, p.lineBefore(h, 1, true));
+        assertEquals(9, p.lineBefore(h, 1, false));
+        assertEquals(11, p.lineBefore(h, 5, true));  // "d": the last old line shown is "-b"
+        assertEquals(12, p.lineBefore(h, 5, false)); // and the last new one "+C"
+    }
+
+    @Test
+    void lineBeforeAPureInsertionIsItsStart() {
+        ParsedPatch p = ParsedPatch.parse("@@ -3,0 +4,1 @@\n+x");
+
+        assertEquals(3, p.lineBefore(p.hunks().get(0), 1, true));
+    }
+
+    @Test
+    void numbersLinesOnBothSides() {
+        ParsedPatch p = ParsedPatch.parse(PATCH);
+
+        assertEquals(7, p.lineCount()); // the header counts as a line
+        assertEquals(10, p.newLine(1));
+        assertEquals(11, p.oldLine(2));
+        assertEquals(11, p.newLine(3));
+        assertEquals(12, p.newLine(4));
+        assertEquals(13, p.newLine(5));
+        assertEquals(12, p.oldLine(5));
+    }
+
+    @Test
+    void positionsCountFromTheFirstHunkHeader() {
+        ParsedPatch p = ParsedPatch.parse(PATCH + "\n@@ -40,2 +41,3 @@\n x\n+y\n z");
+
+        assertEquals(1, p.position(10));
+        assertEquals(3, p.position(11)); // "-b" takes position 2
+        assertEquals(8, p.position(41)); // the second header is position 7
+        assertEquals(9, p.position(42));
+        assertEquals(-1, p.position(20)); // between the hunks: not in the diff
+        assertTrue(p.isAddedLine(42));
+        assertFalse(p.isAddedLine(41));
+        assertFalse(p.showsNewLine(44));
+    }
+
+    @Test
+    void keepsTheTextOfASliceWithoutCopyingThePatch() {
+        ParsedPatch p = ParsedPatch.parse(PATCH);
+        PatchSlice piece = new PatchSlice("A.java", "modified", p, 3, 5, "@@ -12,0 +11,2 @@\n");
+
+        assertEquals("+B\n+C\n", piece.body().toString());
+        assertEquals("@@ -12,0 +11,2 @@\n+B\n+C\n", piece.text());
+        assertEquals(PATCH, PatchSlice.whole("A.java", "modified", p).text()); // the patch as GitHub sent it
+    }
+
+    @Test
+    void ignoresNoNewlineMarkersAndTrailingBlankLines() {
+        ParsedPatch p = ParsedPatch.parse("@@ -1 +1 @@\n-a\n\\ No newline at end of file\n+b\n");
+
+        assertEquals(1, p.hunks().size());
+        assertEquals(3, p.position(1));
+        assertEquals(2, p.mapOldToNew(2));
+    }
+}
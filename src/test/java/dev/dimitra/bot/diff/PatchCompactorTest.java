@@ -0,0 +1,111 @@
+package dev.dimitra.bot.diff;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PatchCompactorTest {
+
+    private static final String PATCH = """
+            @@ -1,8 +1,9 @@ class A {
+             a
+             b
+             c
+             d
+            -e
+            +E
+            +F
+             g
+             h
+             i""";
+
+    @Test
+    void trimsContextAndKeepsNewLineNumbers() {
+        String out = new PatchCompactor(2, false, true).compact(PATCH);
+
+        assertEquals("@@ -3,5 +3,6 @@ class A {\n c\n d\n-e\n+E\n+F\n g\n h\n", out);
+        assertEquals(5, ParsedPatch.parse(out).newLine(4)); // "+E" is still new-file line 5
+    }
+
+    @Test
+    void dropsRemovedLinesWhenAsked() {
+        assertEquals("@@ -3,4 +3,6 @@ class A {\n c\n d\n+E\n+F\n g\n h\n", new PatchCompactor(2, true, true).compact(PATCH));
+    }
+
+    @Test
+    void splitsHunksWhoseChangesAreFarApart() {
+        String patch = """
+                @@ -1,9 +1,9 @@
+                -a
+                +A
+                 b
+                 c
+                 d
+                 e
+                 f
+                 g
+                 h
+                -i
+                +I""";
+
+        assertEquals("@@ -1,2 +1,2 @@\n-a\n+A\n b\n@@ -8,2 +8,2 @@\n h\n-i\n+I\n", new PatchCompactor(1, false, true).compact(patch));
+    }
+
+    @Test
+    void showsWhitespaceOnlyChangesAsContext() {
+        String patch = """
+                @@ -1,3 +1,3 @@
+                 a
+                -  b
+                +    b
+                 c""";
+
+        assertEquals("", new PatchCompactor(2, false, true).compact(patch));
+        assertEquals(patch + "\n", new PatchCompactor(2, false, false).compact(patch));
+    }
+
+    @Test
+    void dropsNoNewlineMarkers() {
+        String patch = "@@ -1 +1 @@\n-a\n\\ No newline at end of file\n+b\n\\ No newline at end of file";
+
+        assertEquals("@@ -1,1 +1,1 @@\n-a\n+b\n", new PatchCompactor(2, false, true).compact(patch));
+    }
+
+    @Test
+    void namesTheLineBeforeAnEmptyRange() {
+        String patch = """
+                @@ -4,3 +4,2 @@
+                 a
+                -b
+                 c""";
+
+        assertEquals("@@ -5,1 +4,0 @@\n-b\n", new PatchCompactor(0, false, true).compact(patch));
+    }
+
+    @Test
+    void compactsACutOutPieceOfAHunkOnItsOwn() {
+        ParsedPatch p = ParsedPatch.parse(PATCH);
+        PatchSlice piece = new PatchSlice("A.java", "modified", p, 5, 8, "@@ -5,1 +5,2 @@\n");
+
+        PatchSlice out = new PatchCompactor(2, false, true).compact(piece);
+
+        assertEquals("@@ -5,1 +5,2 @@\n-e\n+E\n+F\n", out.text());
+        assertEquals(0, out.fromLine());
+        assertEquals("A.java", out.filename());
+    }
+
+    @Test
+    void keepsTheCompactedTextInTheStore() {
+        PatchSlice whole = PatchSlice.whole("A.java", "modified", ParsedPatch.parse(PATCH));
+
+        try (PatchStore store = new PatchStore(0, null)) { // spill everything
+            PatchSlice out = new PatchCompactor(2, false, true).compact(whole, store);
+
+            assertFalse(out.patch().text() instanceof String);
+            assertTrue(store.spilledChars() > 0);
+            assertEquals("@@ -3,5 +3,6 @@ class A {\n c\n d\n-e\n+E\n+F\n g\n h\n", out.text());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package dev.dimitra.bot.diff;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PatchStoreTest {
+
+    private static final String PATCH = "@@ -1,2 +1,2 @@\n-old\n+new\n ctx\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void aNegativeThresholdNeverSpills() {
+        try (PatchStore store = new PatchStore(-1, dir)) {
+            String big = "x".repeat(1 << 20);
+            assertSame(big, store.put(big));
+            assertSame(PATCH, store.put(PATCH));
+            assertEquals(0, store.spilledChars());
+        }
+    }
+
+    @Test
+    void aZeroThresholdSpillsEveryPatch() {
+        try (PatchStore store = new PatchStore(0, dir)) {
+            CharSequence a = store.put(PATCH);
+            CharSequence b = store.put("@@ -5 +5 @@\n-a\n+b\n");
+
+            assertTrue(a instanceof CharBuffer);
+            assertEquals(PATCH, a.toString());
+            assertEquals("@@ -5 +5 @@\n-a\n+b\n", b.toString());
+            assertEquals(PATCH.length() + b.length(), store.spilledChars());
+        }
+    }
+
+    @Test
+    void spillsFromThePatchThatCrossesTheThresholdOn() {
+        try (PatchStore store = new PatchStore(10, dir)) {
+            assertSame("12345", store.put("12345"));
+            assertSame("67890", store.put("67890")); // exactly at the threshold
+            CharSequence crossing = store.put("abc");
+            CharSequence small = store.put("d"); // would fit, but the store is spilling by now
+
+            assertTrue(crossing instanceof CharBuffer);
+            assertTrue(small instanceof CharBuffer);
+            assertEquals("abc", crossing.toString());
+            assertEquals("d", small.toString());
+            assertEquals(4, store.spilledChars());
+        }
+    }
+
+    @Test
+    void passesNullAndEmptyPatchesThrough() {
+        try (PatchStore store = new PatchStore(0, dir)) {
+            assertNull(store.put(null));
+            assertSame("", store.put(""));
+            assertEquals(0, store.spilledChars());
+        }
+    }
+
+    @Test
+    void takesPatchesLargerThanASegment() {
+        try (PatchStore store = new PatchStore(0, dir)) {
+            CharSequence first = store.put(PATCH);
+            String huge = "+" + "y".repeat(PatchStore.SEGMENT_CHARS) + "\n";
+            CharSequence big = store.put(huge);
+            CharSequence after = store.put(PATCH);
+
+            assertEquals(huge.length(), big.length());
+            assertEquals('+', big.charAt(0));
+            assertEquals('y', big.charAt(PatchStore.SEGMENT_CHARS));
+            assertEquals('\n', big.charAt(huge.length() - 1));
+            assertEquals(PATCH, first.toString());
+            assertEquals(PATCH, after.toString());
+        }
+    }
+
+    @Test
+    void viewsOutliveTheStore() {
+        CharSequence view;
+        ParsedPatch parsed;
+        try (PatchStore store = new PatchStore(0, dir)) {
+            view = store.put(PATCH);
+            parsed = store.parse(PATCH);
+        }
+        assertEquals(PATCH, view.toString());
+        assertEquals(1, parsed.hunks().size());
+        assertEquals("+new", parsed.slice(2, 3).toString().strip());
+    }
+
+    @Test
+    void leavesNoFileBehind() throws IOException {
+        try (PatchStore store = new PatchStore(0, dir.resolve("spill"))) {
+            store.put(PATCH);
+            assertFalse(hasFiles(dir.resolve("spill"))); // unlinked as soon as it is mapped
+        }
+        assertFalse(hasFiles(dir.resolve("spill")));
+    }
+
+    private static boolean hasFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.findAny().isPresent();
+        }
+    }
+}
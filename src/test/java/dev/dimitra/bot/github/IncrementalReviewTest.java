@@ -0,0 +1,55 @@
+package dev.dimitra.bot.github;
+
+import dev.dimitra.bot.diff.ParsedPatch;
+import dev.dimitra.bot.llm.LlmFinding;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IncrementalReviewTest {
+
+    private static LlmFinding finding(String file, int line, String rule) {
+        return new LlmFinding(file, line, rule, "Minor", "", "");
+    }
+
+    @Test
+    void keepsUntouchedFilesAndShiftsTouchedOnes() {
+        List<LlmFinding> old = List.of(finding("A.java", 5, "Magic Number"), finding("B.java", 30, "Long Line"),
+                finding("Gone.java", 1, "Long Line"));
+        Map<String, String> pushed = Map.of("B.java", "@@ -10,0 +11,2 @@\n+x\n+y");
+
+        List<LlmFinding> carried = IncrementalReview.carryOver(old, pushed, Set.of("A.java", "B.java"), Map.of());
+
+        assertEquals(List.of(finding("A.java", 5, "Magic Number"), finding("B.java", 32, "Long Line")), carried);
+    }
+
+    @Test
+    void shiftsPastAPureDeletion() {
+        Map<String, String> pushed = Map.of("B.java", "@@ -10,2 +9,0 @@\n-x\n-y");
+
+        List<LlmFinding> carried = IncrementalReview.carryOver(
+                List.of(finding("B.java", 9, "A"), finding("B.java", 10, "B"), finding("B.java", 12, "C")),
+                pushed, Set.of("B.java"), Map.of());
+
+        assertEquals(List.of(finding("B.java", 9, "A"), finding("B.java", 10, "C")), carried);
+    }
+
+    @Test
+    void dropsFindingsInsideReanalyzedHunks() {
+        List<LlmFinding> old = List.of(finding("B.java", 12, "Magic Number"), finding("B.java", 80, "Long Line"));
+        Map<String, String> pushed = Map.of("B.java", "@@ -14,1 +14,1 @@\n-a\n+b");
+        // the PR hunk around the push is analyzed again and may name the old smell differently
+        Map<String, ParsedPatch> reanalyzed = Map.of("B.java", ParsedPatch.parse("@@ -10,6 +10,6 @@\n c\n c\n c\n c\n-a\n+b\n c"));
+
+        List<LlmFinding> carried = IncrementalReview.carryOver(old, pushed, Set.of("B.java"), reanalyzed);
+        List<LlmFinding> merged = IncrementalReview.merge(carried, List.of(finding("B.java", 12, "Unexplained Constant")),
+                List.of("B.java"));
+
+        assertEquals(List.of(finding("B.java", 80, "Long Line")), carried);
+        assertEquals(List.of(finding("B.java", 12, "Unexplained Constant"), finding("B.java", 80, "Long Line")), merged);
+    }
+}
@@ -0,0 +1,95 @@
+package dev.dimitra.bot.github;
+
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.model.ChangedFile;
+import dev.dimitra.bot.testing.LocalServer;
+import dev.dimitra.bot.testing.LocalServer.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PullRequestFilesFetcherTest {
+
+    private static final String FILES = "/repos/o/r/pulls/7/files";
+    private static final Pattern PAGE = Pattern.compile("(?:^|&)page=(\\d+)");
+
+    private LocalServer github;
+    private PullRequestFilesFetcher fetcher;
+
+    /** Three pages of three files each, whatever per_page asks for, chained by Link rel="next". */
+    @BeforeEach
+    void start() throws Exception {
+        github = LocalServer.start().on("GET", FILES, req -> {
+            Matcher m = PAGE.matcher(req.query() == null ? "" : req.query());
+            int page = m.find() ? Integer.parseInt(m.group(1)) : 1;
+            StringBuilder body = new StringBuilder("[");
+            for (int i = 0; i < 3; i++) {
+                if (i > 0) body.append(',');
+                body.append("{\"filename\":\"f").append(page).append(i).append(".java\",\"status\":\"modified\",")
+                    .append("\"additions\":1,\"deletions\":0,\"changes\":1,\"patch\":\"@@ -1 +1 @@\\n+x\",\"sha\":\"ignored\"}");
+            }
+            Map<String, String> headers = new HashMap<>(Map.of("Content-Type", "application/json"));
+            if (page < 3) headers.put("Link", "<" + github.url() + FILES + "?per_page=3&page=" + (page + 1) + ">; rel=\"next\", "
+                    + "<" + github.url() + FILES + "?per_page=3&page=3>; rel=\"last\"");
+            return new Response(200, headers, body.append(']').toString());
+        });
+        fetcher = new PullRequestFilesFetcher(new Transport(2), github.url() + "/", "t0ken");
+    }
+
+    @AfterEach
+    void stop() {
+        github.close();
+    }
+
+    @Test
+    void followsNextLinksAndStopsPartwayThroughAPage() throws Exception {
+        List<String> names = new ArrayList<>();
+        List<Integer> requestsSoFar = new ArrayList<>();
+        int n = fetcher.fetch("o", "r", 7, 5, f -> {
+            names.add(f.filename());
+            requestsSoFar.add(github.received().size());
+        });
+
+        assertEquals(5, n);
+        assertEquals(List.of("f10.java", "f11.java", "f12.java", "f20.java", "f21.java"), names);
+        // files are handed over as each page is parsed, before the next page is asked for
+        assertEquals(List.of(1, 1, 1, 2, 2), requestsSoFar);
+        // page three is never requested
+        assertEquals(2, github.received("GET", FILES).size());
+        assertEquals("per_page=5", github.received().get(0).query());
+        assertEquals("per_page=3&page=2", github.received().get(1).query());
+        assertEquals("token t0ken", github.received().get(0).header("Authorization"));
+        assertEquals("application/vnd.github+json", github.received().get(0).header("Accept"));
+    }
+
+    @Test
+    void readsEveryPageWhenUnderTheLimit() throws Exception {
+        List<ChangedFile> files = new ArrayList<>();
+        assertEquals(9, fetcher.fetch("o", "r", 7, 300, files::add));
+        assertEquals("f32.java", files.get(8).filename());
+        assertEquals("@@ -1 +1 @@\n+x", files.get(8).patch());
+        assertEquals(3, github.received("GET", FILES).size());
+    }
+
+    @Test
+    void reportsApiErrors() {
+        github.on("GET", FILES, req -> Response.json(404, "{\"message\":\"Not Found\"}"));
+        IOException e = assertThrows(IOException.class, () -> fetcher.fetch("o", "r", 7, 5, f -> {}));
+        assertTrue(e.getMessage().contains("HTTP 404"));
+
+        github.on("GET", FILES, req -> Response.json(200, "{\"message\":\"not a list\"}"));
+        assertThrows(IOException.class, () -> fetcher.fetch("o", "r", 7, 5, f -> {}));
+    }
+}
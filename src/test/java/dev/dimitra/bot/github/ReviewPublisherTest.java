@@ -0,0 +1,113 @@
+package dev.dimitra.bot.github;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.llm.LlmFinding;
+import dev.dimitra.bot.testing.LocalServer;
+import dev.dimitra.bot.testing.LocalServer.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReviewPublisherTest {
+
+    private final Transport transport = new Transport(4);
+    private final ObjectMapper mapper = transport.mapper();
+    private final List<Map<String, Object>> comments = new CopyOnWriteArrayList<>();
+    private LocalServer github;
+
+    @BeforeEach
+    void start() throws Exception {
+        github = LocalServer.start()
+                .on("GET", "/repos/o/r/issues/7/comments", req -> Response.json(200, mapper.writeValueAsString(comments)))
+                .on("POST", "/repos/o/r/issues/7/comments", req -> Response.json(201, "{\"id\":99}"))
+                .on("PATCH", "/repos/o/r/issues/comments/\\d+", req -> Response.json(200, "{}"));
+    }
+
+    @AfterEach
+    void stop() {
+        github.close();
+    }
+
+    private void comment(long id, String login, String headSha) throws Exception {
+        String marker = new ReviewState(headSha, List.of(new LlmFinding("A.java", 3, "Magic Number", "Minor", "", "")))
+                .toMarker(mapper);
+        comments.add(Map.of("id", id, "body", "report\n" + marker, "user", Map.of("login", login)));
+    }
+
+    private ReviewPublisher publisher() {
+        return new ReviewPublisher(transport, github.url(), "t", "o", "r", 7, false, ReviewPublisher.ACTIONS_LOGIN);
+    }
+
+    @Test
+    void readsTheStateOfTheBotsOwnComment() throws Exception {
+        comment(1, ReviewPublisher.ACTIONS_LOGIN, "aaa");
+
+        ReviewPublisher.Previous previous = publisher().findPrevious();
+
+        assertNotNull(previous);
+        assertEquals(1L, previous.id());
+        assertEquals("aaa", previous.state().headSha());
+    }
+
+    @Test
+    void editsThePreviousCommentInsteadOfPostingAnother() throws Exception {
+        comment(1, ReviewPublisher.ACTIONS_LOGIN, "aaa");
+
+        publisher().upsertComment("hello");
+
+        assertEquals(1, github.received("PATCH", "/repos/o/r/issues/comments/1").size());
+        assertEquals(0, github.received("POST", ".*").size());
+    }
+
+    @Test
+    void ignoresMarkersPostedByOtherAccounts() throws Exception {
+        comment(1, ReviewPublisher.ACTIONS_LOGIN, "aaa");
+        comment(2, "mallory", "fff"); // newer, and claims the current head was already reviewed
+
+        ReviewPublisher.Previous previous = publisher().findPrevious();
+
+        assertEquals(1L, previous.id());
+        assertEquals("aaa", previous.state().headSha());
+    }
+
+    @Test
+    void neverEditsAForgedComment() throws Exception {
+        comment(5, "mallory", "fff");
+        ReviewPublisher publisher = publisher();
+
+        assertNull(publisher.findPrevious());
+        publisher.upsertComment("hello");
+
+        assertEquals(0, github.received("PATCH", ".*").size());
+        assertEquals(1, github.received("POST", "/repos/o/r/issues/7/comments").size());
+    }
+
+    @Test
+    void aFailedPostFailsTheRun() {
+        github.on("POST", "/repos/o/r/issues/7/comments", req -> Response.json(403, "{\"message\":\"Forbidden\"}"));
+
+        assertThrows(IOException.class, () -> publisher().upsertComment("hello"));
+    }
+
+    @Test
+    void onlyRejectedInlineCommentsAreLeftToTheCaller() throws Exception {
+        github.on("POST", "/repos/o/r/pulls/7/reviews", req -> Response.json(422, "{\"message\":\"Unprocessable\"}"));
+        ReviewPublisher publisher = publisher();
+        List<ReviewPublisher.InlineComment> inline = List.of(new ReviewPublisher.InlineComment("A.java", 2, "x"));
+
+        assertFalse(publisher.submitReview("body", "aaa", inline));
+        assertThrows(IOException.class, () -> publisher.submitReview("body", "aaa", List.of()));
+    }
+}
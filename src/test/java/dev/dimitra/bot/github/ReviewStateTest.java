@@ -0,0 +1,54 @@
+package dev.dimitra.bot.github;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.llm.LlmFinding;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviewStateTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static List<LlmFinding> findings(int n) {
+        List<LlmFinding> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) out.add(new LlmFinding("src/F" + i + ".java", i + 1, "Rule " + i, "Minor", "why " + i * 7919, ""));
+        return out;
+    }
+
+    @Test
+    void roundTripsThroughTheCommentBody() throws Exception {
+        ReviewState state = new ReviewState("abc", findings(3));
+
+        String body = ReviewState.attach("| table |", state, mapper);
+
+        assertTrue(body.startsWith("| table |\n" + ReviewState.MARKER_PREFIX));
+        assertEquals(state, ReviewState.fromComment(body, mapper));
+        assertTrue(ReviewState.isBotBody(body));
+    }
+
+    @Test
+    void leavesOutAStateThatWouldNotFit() throws Exception {
+        String body = ReviewState.attach("| table |", new ReviewState("abc", findings(20_000)), mapper);
+
+        assertTrue(body.length() <= ReviewState.MAX_BODY_CHARS);
+        assertTrue(body.endsWith(ReviewState.COMMENT_MARKER));
+        assertNull(ReviewState.fromComment(body, mapper)); // the next run analyzes in full
+    }
+
+    @Test
+    void cutsAnOversizedReportAtALineBreak() throws Exception {
+        String md = "| row |\n".repeat(10_000);
+
+        String body = ReviewState.attach(md, null, mapper);
+
+        assertTrue(body.length() <= ReviewState.MAX_BODY_CHARS);
+        assertTrue(body.contains("| row |\n\n_Report truncated"));
+        assertTrue(ReviewState.isBotBody(body));
+    }
+}
@@ -0,0 +1,122 @@
+package dev.dimitra.bot.http;
+
+import dev.dimitra.bot.testing.LocalServer;
+import dev.dimitra.bot.testing.LocalServer.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private final AtomicInteger version = new AtomicInteger(1);
+    private LocalServer github;
+
+    @BeforeEach
+    void start() throws Exception {
+        github = LocalServer.start().on("GET", "/files", req -> {
+            String etag = "\"v" + version.get() + "\"";
+            if (etag.equals(req.header("If-None-Match"))) return new Response(304, Map.of("ETag", etag), "");
+            return new Response(200, Map.of("ETag", etag, "Link", "<next>; rel=\"next\"",
+                    "Content-Type", "application/json"), "[\"v" + version.get() + "\"]");
+        });
+    }
+
+    @AfterEach
+    void stop() {
+        github.close();
+    }
+
+    private HttpResponse<InputStream> get(Transport transport) throws Exception {
+        return transport.sendCached(transport.request(github.url() + "/files", Duration.ofSeconds(10)).GET().build());
+    }
+
+    private static String body(HttpResponse<InputStream> res) throws Exception {
+        try (InputStream in = res.body()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void servesAnUnchangedResponseFromDiskAfterA304() throws Exception {
+        Transport transport = new Transport(2, HttpCache.open(dir, 1 << 20));
+
+        assertEquals("[\"v1\"]", body(get(transport)));
+        HttpResponse<InputStream> again = get(transport);
+
+        assertEquals(200, again.statusCode());
+        assertEquals("[\"v1\"]", body(again));
+        assertEquals("<next>; rel=\"next\"", again.headers().firstValue("Link").orElse(null)); // pagination still works
+        assertEquals("\"v1\"", github.received().get(1).header("If-None-Match"));
+    }
+
+    @Test
+    void neverServesAStaleBody() throws Exception {
+        Transport transport = new Transport(2, HttpCache.open(dir, 1 << 20));
+        body(get(transport));
+
+        version.set(2);
+
+        assertEquals("[\"v2\"]", body(get(transport)));
+        assertEquals("[\"v2\"]", body(get(transport))); // and the new version replaced the old entry
+        assertEquals(1, entries());
+    }
+
+    @Test
+    void recordsAPageTheCallerStoppedReadingEarly() throws Exception {
+        Transport transport = new Transport(2, HttpCache.open(dir, 1 << 20));
+        try (InputStream in = get(transport).body()) {
+            in.read(); // e.g. MAX_FILES reached on the first entry
+        }
+
+        assertEquals(1, entries());
+        assertEquals("[\"v1\"]", body(get(transport)));
+    }
+
+    @Test
+    void skipsResponsesWithoutValidators() throws Exception {
+        github.on("GET", "/plain", req -> Response.json(200, "[]"));
+        Transport transport = new Transport(2, HttpCache.open(dir, 1 << 20));
+
+        body(transport.sendCached(transport.request(github.url() + "/plain", Duration.ofSeconds(10)).GET().build()));
+
+        assertEquals(0, entries());
+        assertNull(github.received().get(0).header("If-None-Match"));
+    }
+
+    @Test
+    void evictsDownToThreeQuartersOfTheBudget() throws Exception {
+        HttpCache cache = HttpCache.open(dir, 400);
+        Transport transport = new Transport(2, cache);
+        for (int i = 0; i < 6; i++) {
+            github.on("GET", "/page" + i, req -> new Response(200, Map.of("ETag", "\"x\""), "x".repeat(90)));
+            body(transport.sendCached(transport.request(github.url() + "/page" + i, Duration.ofSeconds(10)).GET().build()));
+        }
+
+        assertTrue(cache.size() <= 400, "size " + cache.size());
+        assertTrue(entries() < 6);
+    }
+
+    private long entries() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> !p.toString().endsWith(".tmp")).count();
+        }
+    }
+}
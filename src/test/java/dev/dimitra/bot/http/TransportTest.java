@@ -0,0 +1,118 @@
+package dev.dimitra.bot.http;
+
+import dev.dimitra.bot.metrics.RunMetrics;
+import dev.dimitra.bot.testing.LocalServer;
+import dev.dimitra.bot.testing.LocalServer.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransportTest {
+
+    private static final String LINES = IntStream.range(0, 2000).mapToObj(i -> "line " + i).collect(Collectors.joining("\n"));
+
+    private final Transport transport = new Transport(2);
+    private LocalServer server;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = LocalServer.start()
+                .on("GET", "/plain", req -> new Response(200, Map.of(), LINES))
+                .on("GET", "/gzip", req -> new Response(200, Map.of("Content-Encoding", "gzip"), LINES))
+                .on("POST", "/echo", req -> new Response(200, Map.of(), req.body()));
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    private HttpRequest get(String path) {
+        return transport.request(server.url() + path, Duration.ofSeconds(10)).GET().build();
+    }
+
+    @Test
+    void asksForGzipAndDecodesItWithEveryHandler() throws Exception {
+        for (String path : List.of("/plain", "/gzip")) {
+            assertEquals(LINES, transport.send(get(path), Transport.ofString()).body(), path);
+
+            try (InputStream in = transport.send(get(path), Transport.ofInputStream()).body()) {
+                assertEquals(LINES, new String(in.readAllBytes(), StandardCharsets.UTF_8), path);
+            }
+
+            try (Stream<String> lines = transport.send(get(path), Transport.ofLines()).body()) {
+                assertEquals(LINES, lines.collect(Collectors.joining("\n")), path);
+            }
+        }
+        assertEquals("gzip", server.received().get(0).header("Accept-Encoding"));
+        assertEquals("code-smell-bot", server.received().get(0).header("User-Agent"));
+    }
+
+    @Test
+    void anUnreadGzipBodyCanBeClosed() throws Exception {
+        // the gzip header is only read on the first read, so closing straight away must not fail
+        transport.send(get("/gzip"), Transport.ofInputStream()).body().close();
+        transport.send(get("/gzip"), Transport.ofLines()).body().close();
+    }
+
+    @Test
+    void countsBytesOnTheWirePerHost() throws Exception {
+        RunMetrics run = RunMetrics.startRun("transport");
+        long gzipped;
+        try {
+            HttpResponse<String> res = transport.send(get("/gzip"), Transport.ofString());
+            gzipped = res.headers().firstValueAsLong("Content-Length").orElseThrow();
+            assertTrue(gzipped < LINES.length());
+
+            transport.send(get("/plain"), Transport.ofString());
+            transport.send(transport.request(server.url() + "/echo", Duration.ofSeconds(10))
+                    .POST(HttpRequest.BodyPublishers.ofString("12345")).build(), Transport.ofString());
+        } finally {
+            run.finish();
+        }
+
+        String host = URI.create(server.url()).getHost();
+        Map<?, ?> bytes = (Map<?, ?>) run.toMap().get("bytes");
+        assertEquals(Map.of("in", gzipped + LINES.length() + 5, "out", 5L), bytes.get(host));
+    }
+
+    @Test
+    void capsConcurrentExchangesPerHost() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        server.on("GET", "/slow", req -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(100);
+            inFlight.decrementAndGet();
+            return new Response(200, Map.of(), "ok");
+        });
+
+        List<Future<String>> calls = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 8; i++) calls.add(pool.submit(() -> transport.send(get("/slow"), Transport.ofString()).body()));
+        }
+        for (Future<String> f : calls) assertEquals("ok", f.get());
+        assertEquals(2, peak.get());
+        assertEquals(8, server.received("GET", "/slow").size());
+    }
+}
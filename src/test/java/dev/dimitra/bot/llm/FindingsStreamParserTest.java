@@ -0,0 +1,81 @@
+package dev.dimitra.bot.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FindingsStreamParserTest {
+
+    private final List<LlmFinding> seen = new ArrayList<>();
+    private final FindingsStreamParser parser =
+            new FindingsStreamParser(new ObjectMapper().readerFor(LlmFinding.class), seen::add);
+
+    private static String finding(String file, String why) {
+        return "{\"file\":\"" + file + "\",\"line\":3,\"rule\":\"Magic Number\",\"severity\":\"Minor\",\"why\":\"" + why + "\"}";
+    }
+
+    @Test
+    void reportsEachFindingAsItsObjectCloses() {
+        String text = "[" + finding("A.java", "a {brace} and a \\\"quote\\\"") + ", " + finding("B.java", "]") + "]";
+
+        for (int i = 0; i < text.length(); i += 7) {
+            parser.feed(text.substring(i, Math.min(text.length(), i + 7)));
+            if (i < 40) assertTrue(seen.isEmpty());
+        }
+
+        assertEquals(List.of("A.java", "B.java"), seen.stream().map(LlmFinding::file).toList());
+        assertEquals("a {brace} and a \"quote\"", seen.get(0).why());
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    void skipsFencesAndProseWithBracketsBeforeTheArray() {
+        parser.feed("Sure, see [1] for details:\n```json\n[\n  " + finding("A.java", "") + "\n]\n```");
+
+        assertEquals(1, parser.findings().size());
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    void keepsWhatClosedBeforeACutOff() {
+        parser.feed("[" + finding("A.java", "") + ", {\"file\":\"B.java\",\"line\":4,\"why\":\"unfin");
+
+        assertEquals(1, parser.findings().size());
+        assertTrue(parser.sawArray());
+        assertFalse(parser.isComplete());
+    }
+
+    @Test
+    void bindsLenientlyAndCountsWhatItCannotBind() {
+        parser.feed("[{\"file\":\"A.java\",\"line\":1,\"extra\":true,},{\"file\":\"B.java\",\"line\":\"x\"}]");
+
+        assertEquals(List.of("A.java"), parser.findings().stream().map(LlmFinding::file).toList());
+        assertEquals(1, parser.unreadable());
+    }
+
+    @Test
+    void anEmptyArrayIsComplete() {
+        parser.feed("[ ]");
+
+        assertTrue(parser.isComplete());
+        assertTrue(parser.findings().isEmpty());
+    }
+
+    @Test
+    void aContinuationReplaysTheCutOffAnswer() {
+        List<LlmClient.Message> first = List.of(new LlmClient.Message("user", "diff"));
+
+        List<LlmClient.Message> next = FindingsStreamParser.continuation(first, "[{\"file\":");
+
+        assertEquals(3, next.size());
+        assertEquals("assistant", next.get(1).role());
+        assertEquals("[{\"file\":", next.get(1).content().toString());
+        assertEquals("user", next.get(2).role());
+    }
+}
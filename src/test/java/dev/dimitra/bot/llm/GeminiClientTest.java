@@ -0,0 +1,197 @@
+package dev.dimitra.bot.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.dimitra.bot.http.Transport;
+import dev.dimitra.bot.testing.LocalServer;
+import dev.dimitra.bot.testing.LocalServer.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeminiClientTest {
+
+    private static final String ANSWER = """
+            {"candidates":[{"content":{"parts":[{"text":"[]"}]},"finishReason":"MAX_TOKENS"}],
+             "usageMetadata":{"promptTokenCount":40,"candidatesTokenCount":7}}""";
+
+    private final Transport transport = new Transport(2);
+    private final ObjectMapper mapper = transport.mapper();
+    private LocalServer gemini;
+
+    @BeforeEach
+    void start() throws Exception {
+        gemini = LocalServer.start()
+                .on("POST", "/m:generateContent", req -> Response.json(200, ANSWER))
+                .on("POST", "/m:streamGenerateContent", req -> new Response(200,
+                        Map.of("Content-Type", "text/event-stream"), "data: " + ANSWER.replace("\n", "") + "\n\n"));
+    }
+
+    @AfterEach
+    void stop() {
+        gemini.close();
+    }
+
+    private GeminiClient client(boolean stream) {
+        return new GeminiClient(transport, "k", "m", gemini.url(), stream);
+    }
+
+    private JsonNode sent() throws Exception {
+        return mapper.readTree(gemini.received().get(0).body());
+    }
+
+    @Test
+    void sendsTheOutputLimitAndTemperature() throws Exception {
+        LlmClient.Result r = client(false).chat("sys", List.of(new LlmClient.Message("user", "diff")),
+                Map.of("temperature", 0.2, "max_tokens", 1200));
+
+        JsonNode config = sent().path("generationConfig");
+        assertEquals(1200, config.path("maxOutputTokens").asInt());
+        assertEquals(0.2, config.path("temperature").asDouble(), 1e-9);
+        assertTrue(r.truncated());
+        assertEquals(7, r.usage().outputTokens());
+    }
+
+    @Test
+    void streamedRequestsCarryTheOutputLimitToo() throws Exception {
+        StringBuilder text = new StringBuilder();
+        client(true).chatStream("sys", List.of(new LlmClient.Message("user", "diff")),
+                Map.of("max_tokens", 300, LlmClient.CACHE_PREFIX, true), text::append);
+
+        JsonNode config = sent().path("generationConfig");
+        assertEquals(300, config.path("maxOutputTokens").asInt());
+        assertFalse(config.has("temperature"));
+        assertFalse(config.has(LlmClient.CACHE_PREFIX));
+        assertEquals("[]", text.toString());
+    }
+
+    @Test
+    void leavesGenerationConfigOutWithoutOptions() throws Exception {
+        client(false).chat("sys", List.of(new LlmClient.Message("user", "diff")), null);
+
+        JsonNode body = sent();
+        assertFalse(body.has("generationConfig"));
+        assertEquals("sys", body.path("system_instruction").path("parts").path(0).path("text").asText());
+        assertEquals("diff", body.path("contents").path(0).path("parts").path(0).path("text").asText());
+    }
+
+    private static final String LONG_PROMPT = "Review the diff.\n".repeat(300); // over MIN_CACHED_PREFIX_CHARS
+    private static final Map<String, Object> CACHED = Map.of(LlmClient.CACHE_PREFIX, true);
+
+    private GeminiClient cachingClient() {
+        return new GeminiClient(transport, "k", "m", gemini.url(), false, Duration.ofMinutes(10));
+    }
+
+    private static String entry(String name) {
+        return "{\"name\":\"" + name + "\",\"expireTime\":\"" + Instant.now().plus(Duration.ofMinutes(10)) + "\"}";
+    }
+
+    private List<JsonNode> generateBodies() throws Exception {
+        List<JsonNode> bodies = new ArrayList<>();
+        for (LocalServer.Request r : gemini.received("POST", "/m:generateContent")) bodies.add(mapper.readTree(r.body()));
+        return bodies;
+    }
+
+    @Test
+    void concurrentChunksShareOneCacheEntry() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        gemini.on("POST", "/cachedContents", req -> {
+            Thread.sleep(200); // the other chunks arrive while this one is creating the entry
+            return Response.json(200, entry("cachedContents/c" + created.incrementAndGet()));
+        });
+        GeminiClient client = cachingClient();
+
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<LlmClient.Result>> chunks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                chunks.add(exec.submit(() -> client.chat(LONG_PROMPT, List.of(new LlmClient.Message("user", "diff")), CACHED)));
+            }
+            for (Future<LlmClient.Result> c : chunks) c.get();
+        }
+
+        assertEquals(1, created.get());
+        JsonNode create = mapper.readTree(gemini.received("POST", "/cachedContents").get(0).body());
+        assertEquals("models/m", create.path("model").asText());
+        assertEquals("600s", create.path("ttl").asText());
+        assertEquals(LONG_PROMPT, create.path("systemInstruction").path("parts").path(0).path("text").asText());
+        for (JsonNode body : generateBodies()) {
+            assertEquals("cachedContents/c1", body.path("cachedContent").asText());
+            assertFalse(body.has("system_instruction"));
+        }
+    }
+
+    @Test
+    void sendsThePromptInlineOnceTheEntryIsGone() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        gemini.on("POST", "/cachedContents", req -> Response.json(200, entry("cachedContents/c" + created.incrementAndGet())))
+                .on("POST", "/m:generateContent", req -> req.body().contains("\"cachedContents/c1\"")
+                        ? Response.json(404, "{\"error\":{\"message\":\"CachedContent not found\"}}")
+                        : Response.json(200, ANSWER));
+        GeminiClient client = cachingClient();
+
+        LlmClient.Result r = client.chat(LONG_PROMPT, List.of(new LlmClient.Message("user", "diff")), CACHED);
+        assertEquals("[]", r.text());
+        List<JsonNode> sent = generateBodies();
+        assertEquals(2, sent.size());
+        assertEquals("cachedContents/c1", sent.get(0).path("cachedContent").asText());
+        assertFalse(sent.get(1).has("cachedContent"));
+        assertEquals(LONG_PROMPT, sent.get(1).path("system_instruction").path("parts").path(0).path("text").asText());
+
+        // the stale entry was forgotten: the next chunk gets a fresh one
+        client.chat(LONG_PROMPT, List.of(new LlmClient.Message("user", "diff")), CACHED);
+        assertEquals(2, created.get());
+        assertEquals("cachedContents/c2", generateBodies().get(2).path("cachedContent").asText());
+    }
+
+    @Test
+    void stopsAskingOnceTheApiRefusesToCache() throws Exception {
+        gemini.on("POST", "/cachedContents", req -> Response.json(400,
+                "{\"error\":{\"message\":\"Cached content is too small\"}}"));
+        GeminiClient client = cachingClient();
+
+        for (int i = 0; i < 3; i++) client.chat(LONG_PROMPT, List.of(new LlmClient.Message("user", "diff")), CACHED);
+
+        assertEquals(1, gemini.received("POST", "/cachedContents").size());
+        for (JsonNode body : generateBodies()) assertTrue(body.has("system_instruction"));
+    }
+
+    @Test
+    void triesAgainAfterAnOutage() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        gemini.on("POST", "/cachedContents", req -> calls.incrementAndGet() == 1
+                ? Response.json(503, "{}")
+                : Response.json(200, entry("cachedContents/c1")));
+        GeminiClient client = cachingClient();
+
+        client.chat(LONG_PROMPT, List.of(new LlmClient.Message("user", "diff")), CACHED);
+        client.chat(LONG_PROMPT, List.of(new LlmClient.Message("user", "diff")), CACHED);
+
+        List<JsonNode> sent = generateBodies();
+        assertTrue(sent.get(0).has("system_instruction"));
+        assertEquals("cachedContents/c1", sent.get(1).path("cachedContent").asText());
+    }
+
+    @Test
+    void neverCachesShortPromptsOrUnmarkedCalls() throws Exception {
+        GeminiClient client = cachingClient();
+
+        client.chat("sys", List.of(new LlmClient.Message("user", "diff")), CACHED);
+        client.chat(LONG_PROMPT, List.of(new LlmClient.Message("user", "diff")), Map.of());
+
+        assertEquals(0, gemini.received("POST", "/cachedContents").size());
+    }
+}
@@ -0,0 +1,138 @@
+package dev.dimitra.bot.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgingLlmClientTest {
+
+    private static final List<LlmClient.Message> PROMPT = List.of(new LlmClient.Message("user", "hi"));
+
+    /** Answers with its own name after {@code delay}, or fails with 500 when {@code failing}. */
+    private static final class Backend implements LlmClient {
+        final String name;
+        volatile Duration delay;
+        volatile boolean failing;
+        final AtomicInteger calls = new AtomicInteger();
+
+        Backend(String name, Duration delay) {
+            this.name = name;
+            this.delay = delay;
+        }
+
+        @Override
+        public Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options)
+                throws IOException, InterruptedException {
+            calls.incrementAndGet();
+            Thread.sleep(delay);
+            if (failing) throw new LlmHttpException(name, 500, null, "down");
+            return new Result(name, new Usage(1, 1), "STOP");
+        }
+
+        @Override
+        public Result chatStream(String systemPrompt, List<Message> messages, Map<String, Object> options,
+                                 Consumer<String> onText) throws IOException, InterruptedException {
+            Result r = chat(systemPrompt, messages, options);
+            onText.accept(r.text());
+            return r;
+        }
+
+        @Override
+        public String model() {
+            return name;
+        }
+    }
+
+    private static HedgingLlmClient hedging(Backend... backends) {
+        Map<String, LlmClient> byName = new LinkedHashMap<>();
+        for (Backend b : backends) byName.put(b.name, b);
+        return new HedgingLlmClient(byName, 95, Duration.ofMillis(20), Duration.ofMillis(50));
+    }
+
+    private static String ask(LlmClient client) throws Exception {
+        return client.chat("s", PROMPT, Map.of()).text();
+    }
+
+    @Test
+    void usesTheConfiguredOrderWhileNothingIsKnown() throws Exception {
+        Backend a = new Backend("a", Duration.ZERO);
+        Backend b = new Backend("b", Duration.ZERO);
+        HedgingLlmClient client = hedging(a, b);
+
+        assertEquals("a", ask(client));
+        assertEquals(0, b.calls.get());
+        assertEquals("a|b", client.model());
+    }
+
+    @Test
+    void hedgesASlowPrimaryAndTakesTheFirstAnswer() throws Exception {
+        Backend a = new Backend("a", Duration.ofSeconds(5));
+        Backend b = new Backend("b", Duration.ZERO);
+        HedgingLlmClient client = hedging(a, b);
+
+        long t0 = System.nanoTime();
+        assertEquals("b", ask(client));
+        assertTrue(System.nanoTime() - t0 < Duration.ofSeconds(2).toNanos());
+        assertEquals(1, client.hedges());
+    }
+
+    @Test
+    void failsOverAtOnce() throws Exception {
+        Backend a = new Backend("a", Duration.ZERO);
+        a.failing = true;
+        Backend b = new Backend("b", Duration.ZERO);
+        HedgingLlmClient client = hedging(a, b);
+
+        assertEquals("b", ask(client));
+        assertEquals(0, client.hedges());
+    }
+
+    @Test
+    void reportsTheFirstFailureWhenEveryBackendFails() {
+        Backend a = new Backend("a", Duration.ZERO);
+        Backend b = new Backend("b", Duration.ZERO);
+        a.failing = true;
+        b.failing = true;
+
+        LlmHttpException e = assertThrows(LlmHttpException.class, () -> ask(hedging(a, b)));
+        assertTrue(e.getMessage().startsWith("a error 500"));
+        assertEquals(1, e.getSuppressed().length);
+    }
+
+    @Test
+    void streamsFromOneBackendOnly() throws Exception {
+        Backend a = new Backend("a", Duration.ofSeconds(5));
+        Backend b = new Backend("b", Duration.ZERO);
+        List<String> text = new CopyOnWriteArrayList<>();
+
+        assertEquals("b", hedging(a, b).chatStream("s", PROMPT, Map.of(), text::add).text());
+        assertEquals(List.of("b"), text);
+    }
+
+    @Test
+    void aPrimaryThatTurnsSlowLosesItsPlace() throws Exception {
+        Backend a = new Backend("a", Duration.ZERO);
+        Backend b = new Backend("b", Duration.ofMillis(5));
+        HedgingLlmClient client = hedging(a, b);
+        for (int i = 0; i < 10; i++) assertEquals("a", ask(client)); // a is known to be fast
+
+        a.delay = Duration.ofSeconds(5);
+        for (int i = 0; i < 25; i++) assertEquals("b", ask(client)); // hedged; a is cancelled after 20+ ms each time
+        Thread.sleep(50);
+
+        int before = a.calls.get();
+        for (int i = 0; i < 5; i++) assertEquals("b", ask(client));
+        assertEquals(before, a.calls.get()); // b is the primary now and answers before any hedge
+    }
+}
@@ -0,0 +1,140 @@
+package dev.dimitra.bot.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.dimitra.bot.http.Transport;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class JsonBodyTest {
+
+    private static final int BIG = 16 * 1024; // from here on texts are streamed
+
+    private final Transport transport = new Transport(1);
+    private final ObjectMapper mapper = transport.mapper();
+    private final ObjectWriter writer = transport.writer();
+
+    /** {"model":"m","contents":[{"text":a},{"text":b}]}, the texts as given (JsonBody's placeholders or the real ones). */
+    private ObjectNode request(Object a, Object b) {
+        ObjectNode root = mapper.createObjectNode().put("model", "m");
+        ArrayNode contents = root.putArray("contents");
+        contents.addObject().put("text", a.toString());
+        contents.addObject().put("text", b.toString());
+        return root;
+    }
+
+    /** The request streamed through JsonBody, and as Jackson writes it. */
+    private byte[][] both(CharSequence a, CharSequence b) throws Exception {
+        JsonBody json = new JsonBody();
+        ObjectNode streamed = request(json.text(a), json.text(b));
+        ObjectNode plain = request(a, b);
+
+        HttpRequest.BodyPublisher publisher = json.publisher(writer, streamed);
+        byte[] sent = drain(publisher);
+        assertEquals(sent.length, publisher.contentLength());
+        assertArrayEquals(sent, drain(publisher)); // a retry sends the same body
+        return new byte[][] {sent, writer.writeValueAsBytes(plain)};
+    }
+
+    private void assertSameAsJackson(CharSequence a, CharSequence b) throws Exception {
+        byte[][] r = both(a, b);
+        assertEquals(new String(r[1], StandardCharsets.UTF_8), new String(r[0], StandardCharsets.UTF_8));
+        assertArrayEquals(r[1], r[0]);
+    }
+
+    @Test
+    void smallTextsStayInTheTree() {
+        JsonBody json = new JsonBody();
+        assertSame("short", json.text("short"));
+        assertEquals(null, json.text(null));
+    }
+
+    @Test
+    void escapesLikeJackson() throws Exception {
+        StringBuilder controls = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) controls.append(c);
+        String tricky = "quote \" backslash \\ slash / tab\tcr\rlf\n del \u007f " + controls;
+        assertSameAsJackson(tricky.repeat(BIG / tricky.length() + 1), "x".repeat(BIG));
+    }
+
+    @Test
+    void encodesNonAsciiLikeJackson() throws Exception {
+        String text = "é ü ß € 中文 ✓ emoji 😀 math 𝔸 ";
+        assertSameAsJackson(text.repeat(BIG / text.length() + 1), "plain");
+    }
+
+    @Test
+    void keepsASurrogatePairSplitAtTheBufferBoundary() throws Exception {
+        for (int shift = -3; shift <= 3; shift++) {
+            String text = "a".repeat(BIG - 1 + shift) + "😀" + "b".repeat(BIG);
+            assertSameAsJackson(text, "😀".repeat(BIG));
+        }
+    }
+
+    @Test
+    void streamsPromptTextParts() throws Exception {
+        PromptText prompt = PromptText.builder()
+                .append("Repository: o/r\n")
+                .appendView("line \"one\"\n".repeat(BIG / 8))
+                .append("=== FILE: é.java ===\n")
+                .appendView("😀\t".repeat(BIG))
+                .build();
+        assertSameAsJackson(prompt, prompt);
+    }
+
+    @Test
+    void escapesLoneSurrogatesLikeJackson() throws Exception {
+        String text = "x".repeat(BIG) + " high \uD83D alone, low \uDE00 alone, reversed \uDE00\uD83D, last \uD83D";
+        assertSameAsJackson(text, "\uDE00" + "y".repeat(BIG));
+    }
+
+    @Test
+    void escapedLengthMatchesJackson() throws Exception {
+        for (String s : new String[] {"", "plain", "\"\\\n\u0001", "é€😀", "\u0000\u001f\u007f\u0080\u07ff\u0800\uffff", "\uD83D", "\uDE00\uD83D"}) {
+            assertEquals(writer.writeValueAsBytes(s).length, JsonBody.escapedLength(s), s);
+        }
+    }
+
+    private static byte[] drain(HttpRequest.BodyPublisher publisher) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] b = new byte[item.remaining()];
+                item.get(b);
+                out.writeBytes(b);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.get(10, TimeUnit.SECONDS);
+        return out.toByteArray();
+    }
+}
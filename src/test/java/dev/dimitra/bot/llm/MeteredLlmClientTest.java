@@ -0,0 +1,66 @@
+package dev.dimitra.bot.llm;
+
+import dev.dimitra.bot.metrics.RunMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MeteredLlmClientTest {
+
+    private static final List<LlmClient.Message> PROMPT = List.of(new LlmClient.Message("user", "hi"));
+
+    /** Answers, fails or is cancelled depending on the prompt's system text. */
+    private static final class Scripted implements LlmClient {
+        @Override
+        public Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options) throws IOException, InterruptedException {
+            return switch (systemPrompt) {
+                case "ok" -> new Result("done", new Usage(1_000_000, 1_000_000, 500_000));
+                case "error" -> throw new IOException("HTTP 500");
+                case "interrupted" -> throw new InterruptedException();
+                default -> throw new CancellationException();
+            };
+        }
+
+        @Override
+        public String model() {
+            return "gpt-4o-mini";
+        }
+    }
+
+    @Test
+    void recordsOutcomesUsageAndCostUnderProviderAndModel() throws Exception {
+        MeteredLlmClient client = new MeteredLlmClient(new Scripted(), "openai");
+        RunMetrics run = RunMetrics.startRun("metered");
+        try {
+            assertEquals("done", client.chat("ok", PROMPT, Map.of()).text());
+            List<String> pieces = new ArrayList<>();
+            Consumer<String> onText = pieces::add;
+            assertEquals("done", client.chatStream("ok", PROMPT, Map.of(), onText).text());
+            assertEquals(List.of("done"), pieces);
+
+            assertThrows(IOException.class, () -> client.chat("error", PROMPT, Map.of()));
+            assertThrows(IOException.class, () -> client.chatStream("error", PROMPT, Map.of(), onText));
+            assertThrows(InterruptedException.class, () -> client.chat("interrupted", PROMPT, Map.of()));
+            assertThrows(CancellationException.class, () -> client.chatStream("cancelled", PROMPT, Map.of(), onText));
+        } finally {
+            run.finish();
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> call = (Map<String, Object>) ((Map<String, Object>) run.toMap().get("llm")).get("openai/gpt-4o-mini");
+        assertEquals(Map.of("ok", 2L, "error", 2L, "cancelled", 2L), call.get("calls"));
+        assertEquals(2_000_000L, call.get("inputTokens"));
+        assertEquals(1_000_000L, call.get("cachedInputTokens"));
+        assertEquals(2_000_000L, call.get("outputTokens"));
+        // per call: 0.5M uncached at 0.15, 0.5M cached at 0.075 and 1M out at 0.60
+        assertEquals(2 * (0.075 + 0.0375 + 0.60), (Double) call.get("costUsd"), 1e-9);
+    }
+}
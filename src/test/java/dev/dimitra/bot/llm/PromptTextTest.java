@@ -0,0 +1,59 @@
+package dev.dimitra.bot.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PromptTextTest {
+
+    @Test
+    void keepsViewsByReferenceAndMergesShortText() {
+        CharBuffer patch = CharBuffer.wrap("+added\n").asReadOnlyBuffer();
+        PromptText text = PromptText.builder()
+                .append("PR: ").append(7).append('\n')
+                .appendView(patch)
+                .appendView("")
+                .append("end")
+                .build();
+
+        assertEquals(3, text.parts().size());
+        assertEquals("PR: 7\n", text.parts().get(0));
+        assertSame(patch, text.parts().get(1));
+        assertEquals("PR: 7\n+added\nend", text.toString());
+    }
+
+    @Test
+    void readsAcrossParts() {
+        PromptText text = PromptText.builder().append("ab").appendView("cde").append("f").build();
+
+        assertEquals(6, text.length());
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) chars.append(text.charAt(i));
+        assertEquals("abcdef", chars.toString());
+        assertEquals("bcde", text.subSequence(1, 5).toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> text.charAt(6));
+        assertThrows(IndexOutOfBoundsException.class, () -> text.charAt(-1));
+    }
+
+    @Test
+    void tracksTheLastCharacter() {
+        PromptText.Builder b = PromptText.builder();
+        assertEquals(0, b.lastChar());
+        b.appendView("patch\n");
+        assertEquals('\n', b.lastChar());
+        b.append("x");
+        assertEquals('x', b.lastChar());
+    }
+
+    @Test
+    void anEmptyPromptHasNoParts() {
+        PromptText text = PromptText.builder().appendView("").build();
+        assertEquals(0, text.length());
+        assertEquals(0, text.parts().size());
+        assertEquals("", text.toString());
+    }
+}
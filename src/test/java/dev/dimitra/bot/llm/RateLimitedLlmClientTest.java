@@ -0,0 +1,129 @@
+package dev.dimitra.bot.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitedLlmClientTest {
+
+    private static final List<LlmClient.Message> PROMPT = List.of(new LlmClient.Message("user", "hi"));
+
+    /** Plays back one scripted outcome per call: a Result, or an exception to throw. */
+    private static final class Scripted implements LlmClient {
+        final Deque<Object> outcomes = new ArrayDeque<>();
+        int calls;
+
+        Scripted then(Object outcome) {
+            outcomes.add(outcome);
+            return this;
+        }
+
+        @Override
+        public Result chat(String systemPrompt, List<Message> messages, Map<String, Object> options)
+                throws IOException, InterruptedException {
+            calls++;
+            Object next = outcomes.remove();
+            if (next instanceof IOException e) throw e;
+            if (next instanceof InterruptedException e) throw e;
+            return (Result) next;
+        }
+    }
+
+    private static LlmClient.Result ok() {
+        return new LlmClient.Result("[]", new LlmClient.Usage(1, 1), "STOP");
+    }
+
+    private static LlmHttpException status(int code) {
+        return new LlmHttpException("test", code, null, "");
+    }
+
+    @Test
+    void bucketMakesCallersWaitForTheirShare() {
+        RateLimitedLlmClient.TokenBucket bucket = new RateLimitedLlmClient.TokenBucket(60);
+
+        assertEquals(0, bucket.reserve(60));
+        long wait = bucket.reserve(1);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(900) && wait <= TimeUnit.SECONDS.toNanos(1), "waited " + wait);
+    }
+
+    @Test
+    void bucketRefundsAnOverestimate() {
+        RateLimitedLlmClient.TokenBucket bucket = new RateLimitedLlmClient.TokenBucket(100);
+
+        bucket.reserve(100);
+        bucket.refund(40);
+        assertEquals(0, bucket.reserve(40));
+        assertTrue(bucket.reserve(1) > 0);
+    }
+
+    @Test
+    void bucketLetsAnOversizedRequestThrough() {
+        RateLimitedLlmClient.TokenBucket bucket = new RateLimitedLlmClient.TokenBucket(10);
+
+        assertEquals(0, bucket.reserve(1_000));
+    }
+
+    @Test
+    void breakerOpensAfterConsecutiveFailures() throws IOException {
+        RateLimitedLlmClient.CircuitBreaker breaker = new RateLimitedLlmClient.CircuitBreaker(2, Duration.ofHours(1));
+
+        breaker.failure();
+        assertFalse(breaker.check());
+        breaker.failure();
+        assertThrows(IOException.class, breaker::check);
+    }
+
+    @Test
+    void breakerLetsOneProbeThroughAfterTheCooldown() throws IOException {
+        RateLimitedLlmClient.CircuitBreaker breaker = new RateLimitedLlmClient.CircuitBreaker(1, Duration.ZERO);
+        breaker.failure();
+
+        assertTrue(breaker.check());
+        assertThrows(IOException.class, breaker::check); // a probe is already out
+        breaker.success();
+        assertFalse(breaker.check());
+    }
+
+    @Test
+    void aProbeRejectedAsABadRequestFreesTheBreaker() throws Exception {
+        Scripted provider = new Scripted().then(status(503)).then(status(400)).then(ok());
+        LlmClient client = new RateLimitedLlmClient(provider, 0, 0, 0, 1, Duration.ZERO);
+
+        assertThrows(LlmHttpException.class, () -> client.chat("s", PROMPT, Map.of())); // opens
+        assertThrows(LlmHttpException.class, () -> client.chat("s", PROMPT, Map.of())); // probe, no verdict
+
+        assertEquals("[]", client.chat("s", PROMPT, Map.of()).text());
+        assertEquals(3, provider.calls);
+    }
+
+    @Test
+    void anInterruptedProbeFreesTheBreaker() throws Exception {
+        Scripted provider = new Scripted().then(status(503)).then(new InterruptedException()).then(ok());
+        LlmClient client = new RateLimitedLlmClient(provider, 0, 0, 0, 1, Duration.ZERO);
+
+        assertThrows(LlmHttpException.class, () -> client.chat("s", PROMPT, Map.of()));
+        assertThrows(InterruptedException.class, () -> client.chat("s", PROMPT, Map.of()));
+
+        assertEquals("[]", client.chat("s", PROMPT, Map.of()).text());
+    }
+
+    @Test
+    void retriesTransientFailures() throws Exception {
+        Scripted provider = new Scripted().then(status(500)).then(ok());
+        LlmClient client = new RateLimitedLlmClient(provider, 0, 0, 2, 5, Duration.ofMinutes(1));
+
+        assertEquals("[]", client.chat("s", PROMPT, Map.of()).text());
+        assertEquals(2, provider.calls);
+    }
+}
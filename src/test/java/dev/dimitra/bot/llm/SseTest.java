@@ -0,0 +1,46 @@
+package dev.dimitra.bot.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SseTest {
+
+    @Test
+    void joinsTheDataLinesOfEachEvent() throws Exception {
+        List<String> events = new ArrayList<>();
+
+        Sse.read(Stream.of(": keep-alive", "event: delta", "data: {\"a\":", "data:1}", "", "id: 7", "data: two", ""),
+                events::add);
+
+        assertEquals(List.of("{\"a\":\n1}", "two"), events);
+    }
+
+    @Test
+    void stopsAtDoneAndFlushesAnUnterminatedLastEvent() throws Exception {
+        List<String> events = new ArrayList<>();
+        Sse.read(Stream.of("data: one", "", "data: [DONE]", "", "data: ignored", ""), events::add);
+        assertEquals(List.of("one"), events);
+
+        events.clear();
+        Sse.read(Stream.of("data: last"), events::add);
+        assertEquals(List.of("last"), events);
+    }
+
+    @Test
+    void rethrowsTheReadErrorOfTheStream() {
+        Stream<String> broken = Stream.of("data: x").map(l -> {
+            throw new UncheckedIOException(new IOException("connection reset"));
+        });
+
+        IOException e = assertThrows(IOException.class, () -> Sse.read(broken, d -> {}));
+        assertEquals("connection reset", e.getMessage());
+    }
+}
@@ -0,0 +1,59 @@
+package dev.dimitra.bot.metrics;
+
+import dev.dimitra.bot.llm.LlmClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PricingTest {
+
+    private static final LlmClient.Usage MILLION_EACH = new LlmClient.Usage(1_000_000, 1_000_000);
+
+    @Test
+    void matchesTheLongestKnownPrefix() {
+        Map<String, Pricing.Price> prices = Pricing.table(null);
+
+        assertEquals(0.10 + 0.40, Pricing.usd(prices, "gemini-2.5-flash-lite-preview-06", MILLION_EACH), 1e-9);
+        assertEquals(0.30 + 2.50, Pricing.usd(prices, "gemini-2.5-flash-001", MILLION_EACH), 1e-9);
+        assertEquals(0.15 + 0.60, Pricing.usd(prices, "gpt-4o-mini-2024-07-18", MILLION_EACH), 1e-9);
+        assertEquals(2.50 + 10.00, Pricing.usd(prices, "gpt-4o-2024-08-06", MILLION_EACH), 1e-9);
+    }
+
+    @Test
+    void unknownModelsAndMissingUsageCostNothing() {
+        Map<String, Pricing.Price> prices = Pricing.table(null);
+
+        assertEquals(0, Pricing.usd(prices, "llama-3", MILLION_EACH), 0);
+        assertEquals(0, Pricing.usd(prices, "gpt-4o", null), 0);
+        assertEquals(0, Pricing.usd(prices, null, MILLION_EACH), 0);
+    }
+
+    @Test
+    void chargesCachedInputAtTheCachedPrice() {
+        Map<String, Pricing.Price> prices = Pricing.table(null);
+        LlmClient.Usage usage = new LlmClient.Usage(1_000_000, 0, 400_000);
+
+        assertEquals(0.6 * 0.10 + 0.4 * 0.025, Pricing.usd(prices, "gemini-2.5-flash-lite", usage), 1e-9);
+        // a provider reporting more cached than input tokens is not charged below zero input
+        assertEquals(0.025, Pricing.usd(prices, "gemini-2.5-flash-lite", new LlmClient.Usage(1_000_000, 0, 2_000_000)), 1e-9);
+    }
+
+    @Test
+    void readsLlmPrices() {
+        Map<String, Pricing.Price> prices = Pricing.table(" my-proxy = 1 / 3 ;gpt-4o=5/20/2;cheap=0.5;broken=x/1;no-price;");
+
+        assertEquals(new Pricing.Price(1, 3, 1), prices.get("my-proxy")); // no cached price: same as input
+        assertEquals(new Pricing.Price(5, 20, 2), prices.get("gpt-4o"));
+        assertEquals(new Pricing.Price(0.5, 0, 0.5), prices.get("cheap"));
+        assertEquals(null, prices.get("broken"));
+        assertEquals(null, prices.get("no-price"));
+        assertEquals(new Pricing.Price(0.15, 0.60, 0.075), prices.get("gpt-4o-mini")); // untouched
+
+        // an override of a shorter prefix doesn't steal the longer one's models
+        assertEquals(0.15 + 0.60, Pricing.usd(prices, "gpt-4o-mini", MILLION_EACH), 1e-9);
+        assertEquals(5 + 20, Pricing.usd(prices, "gpt-4o-2024-08-06", MILLION_EACH), 1e-9);
+        assertEquals(0.5 * 5 + 0.5 * 2 + 20, Pricing.usd(prices, "gpt-4o", new LlmClient.Usage(1_000_000, 1_000_000, 500_000)), 1e-9);
+    }
+}
@@ -0,0 +1,150 @@
+package dev.dimitra.bot.metrics;
+
+import dev.dimitra.bot.llm.LlmClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunMetricsTest {
+
+    @Test
+    void aChildsValuesRollUpToItsRunAndTheProcess() {
+        RunMetrics run = RunMetrics.startRun("rollup");
+        try {
+            RunMetrics chunk = run.child("chunk-0");
+            long processBefore = counter(RunMetrics.process(), "rollup_files");
+
+            chunk.count("rollup_files", 3);
+            run.count("rollup_files");
+            chunk.time("llm", 2_000_000);
+            chunk.bytes("rollup.example", "in", 100);
+            chunk.llmCall("gemini", "gemini-2.5-flash-lite", 5_000_000, new LlmClient.Usage(1_000_000, 0), "ok");
+            chunk.set("files", 3);
+
+            assertEquals(3L, counter(chunk, "rollup_files"));
+            assertEquals(4L, counter(run, "rollup_files"));
+            assertEquals(processBefore + 4, counter(RunMetrics.process(), "rollup_files"));
+
+            Map<String, Object> m = run.toMap();
+            assertEquals("rollup", m.get("name"));
+            assertEquals(Map.of("count", 1L, "totalMs", 2.0, "maxMs", 2.0), section(m, "phases").get("llm"));
+            assertEquals(Map.of("in", 100L), section(m, "bytes").get("rollup.example"));
+            assertEquals(Map.of("input", 1_000_000L, "cachedInput", 0L, "output", 0L, "costUsd", 0.1), m.get("tokens"));
+            Map<String, Object> call = section(section(m, "llm"), "gemini/gemini-2.5-flash-lite");
+            assertEquals(Map.of("ok", 1L), call.get("calls"));
+            assertEquals(5.0, call.get("totalMs"));
+
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> chunks = (List<Map<String, Object>>) m.get("chunks");
+            assertEquals(1, chunks.size());
+            assertEquals("chunk-0", chunks.get(0).get("name"));
+            assertEquals(3, chunks.get(0).get("files")); // attributes stay on their node
+            assertEquals(null, m.get("files"));
+        } finally {
+            run.finish();
+        }
+    }
+
+    @Test
+    void virtualThreadsStartedInsideCallBoundRecordIntoTheChild() throws Exception {
+        RunMetrics run = RunMetrics.startRun("binding");
+        try {
+            RunMetrics chunk = run.child("chunk-0");
+            assertSame(run, RunMetrics.current());
+
+            RunMetrics seen = chunk.callBound(() -> {
+                try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+                    Future<RunMetrics> f = pool.submit(() -> {
+                        RunMetrics.current().count("binding_calls");
+                        return RunMetrics.current();
+                    });
+                    return f.get();
+                }
+            });
+
+            assertSame(chunk, seen);
+            assertSame(run, RunMetrics.current()); // restored afterwards
+            assertEquals(1L, counter(chunk, "binding_calls"));
+            assertEquals(1L, counter(run, "binding_calls"));
+        } finally {
+            run.finish();
+        }
+        assertSame(RunMetrics.process(), RunMetrics.current());
+    }
+
+    @Test
+    void callBoundRestoresThePreviousNodeWhenTheWorkThrows() {
+        RunMetrics run = RunMetrics.startRun("throwing");
+        try {
+            RunMetrics chunk = run.child("chunk-0");
+            try {
+                chunk.callBound(() -> {
+                    throw new IllegalStateException("boom");
+                });
+            } catch (IllegalStateException expected) {
+                // fall through
+            }
+            assertSame(run, RunMetrics.current());
+        } finally {
+            run.finish();
+        }
+    }
+
+    @Test
+    void exportsPrometheusText() {
+        RunMetrics run = RunMetrics.startRun("prometheus");
+        try {
+            run.child("chunk-0").callBound(() -> {
+                RunMetrics m = RunMetrics.current();
+                m.llmCall("openai", "prom-test-model", 1_500_000_000L, new LlmClient.Usage(10, 5, 4), "ok");
+                m.llmCall("openai", "prom-test-model", 500_000_000L, null, "error");
+                m.bytes("prom.example", "out", 42);
+                m.time("prom_phase", 250_000_000L);
+                m.count("prom_things", 2);
+                return null;
+            });
+        } finally {
+            run.finish();
+        }
+
+        String text = RunMetrics.process().prometheus();
+        String labels = "provider=\"openai\",model=\"prom-test-model\"";
+        assertContains(text, "code_smell_bot_llm_calls_total{" + labels + ",outcome=\"ok\"} 1\n");
+        assertContains(text, "code_smell_bot_llm_calls_total{" + labels + ",outcome=\"error\"} 1\n");
+        assertContains(text, "code_smell_bot_llm_call_seconds_count{" + labels + "} 2\n");
+        assertContains(text, "code_smell_bot_llm_call_seconds_sum{" + labels + "} 2.000000\n");
+        assertContains(text, "code_smell_bot_llm_tokens_total{" + labels + ",kind=\"input\"} 10\n");
+        assertContains(text, "code_smell_bot_llm_tokens_total{" + labels + ",kind=\"cached_input\"} 4\n");
+        assertContains(text, "code_smell_bot_llm_tokens_total{" + labels + ",kind=\"output\"} 5\n");
+        assertContains(text, "code_smell_bot_llm_cost_usd_total{" + labels + "} 0.000000\n"); // unknown model
+        assertContains(text, "code_smell_bot_http_bytes_total{host=\"prom.example\",direction=\"out\"} 42\n");
+        assertContains(text, "code_smell_bot_phase_seconds_count{phase=\"prom_phase\"} 1\n");
+        assertContains(text, "code_smell_bot_phase_seconds_sum{phase=\"prom_phase\"} 0.250000\n");
+        assertContains(text, "# TYPE code_smell_bot_prom_things_total counter\ncode_smell_bot_prom_things_total 2\n");
+        assertContains(text, "# TYPE code_smell_bot_heap_peak_bytes gauge\n");
+    }
+
+    private static long counter(RunMetrics m, String name) {
+        Object counters = m.toMap().get("counters");
+        if (counters == null) return 0;
+        Object n = ((Map<?, ?>) counters).get(name);
+        return n == null ? 0 : (Long) n;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Map<String, Object> m, String key) {
+        return (Map<String, Object>) m.get(key);
+    }
+
+    private static void assertContains(String text, String expected) {
+        assertTrue(text.contains(expected), () -> "missing: " + expected);
+    }
+}
@@ -0,0 +1,110 @@
+package dev.dimitra.bot.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobQueueTest {
+
+    @Test
+    void runsTheLowestPriorityValueFirstThenInArrivalOrder() throws Exception {
+        JobQueue q = new JobQueue(10);
+        q.offer("o/r", 1, "a", 5);
+        q.offer("o/r", 2, "b", 1);
+        q.offer("o/r", 3, "c", 5);
+
+        assertEquals(2, q.take().prNumber());
+        assertEquals(1, q.take().prNumber());
+        assertEquals(3, q.take().prNumber());
+    }
+
+    @Test
+    void aNewerHeadReplacesTheWaitingJobAndKeepsItsPriority() throws Exception {
+        JobQueue q = new JobQueue(10);
+        q.offer("o/r", 1, "a", 1);
+        q.offer("o/r", 2, "x", 3);
+
+        assertEquals(JobQueue.Offer.DUPLICATE, q.offer("o/r", 1, "a", 1));
+        assertEquals(JobQueue.Offer.REPLACED, q.offer("o/r", 1, "b", 9));
+        assertEquals(2, q.queued());
+
+        JobQueue.Job first = q.take();
+        assertEquals("b", first.headSha());
+        assertEquals(1, first.priority());
+    }
+
+    @Test
+    void refusesNewPrsWhenFull() {
+        JobQueue q = new JobQueue(1);
+
+        assertEquals(JobQueue.Offer.QUEUED, q.offer("o/r", 1, "a", 1));
+        assertEquals(JobQueue.Offer.FULL, q.offer("o/r", 2, "a", 1));
+        assertEquals(JobQueue.Offer.REPLACED, q.offer("o/r", 1, "b", 1)); // no extra room needed
+    }
+
+    @Test
+    void aNewerHeadInterruptsTheRunningReviewAndWaitsForIt() throws Exception {
+        JobQueue q = new JobQueue(10);
+        q.offer("o/r", 1, "a", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Throwable> stopped = new AtomicReference<>();
+        Thread worker = Thread.ofVirtual().start(() -> {
+            JobQueue.Job job = null;
+            try {
+                job = q.take();
+                started.countDown();
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                stopped.set(e);
+            } finally {
+                if (job != null) q.done(job);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertEquals(JobQueue.Offer.DUPLICATE, q.offer("o/r", 1, "a", 1)); // a redelivery of the running head
+        assertEquals(JobQueue.Offer.QUEUED, q.offer("o/r", 1, "b", 1));
+        assertTrue(worker.join(Duration.ofSeconds(5)));
+
+        assertTrue(stopped.get() instanceof InterruptedException);
+        assertEquals(1, q.superseded());
+        assertEquals("b", q.take().headSha());
+    }
+
+    @Test
+    void neverHandsOnePrToTwoWorkers() throws Exception {
+        JobQueue q = new JobQueue(10);
+        q.offer("o/r", 1, "a", 1);
+        JobQueue.Job running = q.take();
+        q.offer("o/r", 1, "b", 1);
+        Thread.interrupted(); // the offer interrupted this thread, the one "running" the review
+
+        AtomicReference<JobQueue.Job> second = new AtomicReference<>();
+        Thread other = Thread.ofVirtual().start(() -> {
+            try {
+                second.set(q.take());
+            } catch (InterruptedException ignored) {
+                // the test is over
+            }
+        });
+        Thread.sleep(200);
+        assertNull(second.get());
+
+        q.done(running);
+        assertTrue(other.join(Duration.ofSeconds(5)));
+        assertEquals("b", second.get().headSha());
+    }
+
+    @Test
+    void requiresAHeadToTellRedeliveriesFromPushes() {
+        assertThrows(NullPointerException.class, () -> new JobQueue(10).offer("o/r", 1, null, 1));
+    }
+}
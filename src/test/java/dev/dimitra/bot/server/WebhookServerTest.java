@@ -0,0 +1,126 @@
+package dev.dimitra.bot.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebhookServerTest {
+
+    private static final String SECRET = "s3cret";
+
+    private final LinkedBlockingQueue<JobQueue.Job> reviewed = new LinkedBlockingQueue<>();
+    private final HttpClient http = HttpClient.newHttpClient();
+    private WebhookServer server;
+
+    @AfterEach
+    void stop() {
+        if (server != null) server.stop();
+    }
+
+    private WebhookServer start(String secret, boolean allowUnsigned, Set<String> repositories) throws IOException {
+        server = new WebhookServer(0, secret, allowUnsigned, repositories, 1, new JobQueue(10), reviewed::add);
+        server.start();
+        return server;
+    }
+
+    private static String payload(String repository) {
+        return """
+                {"action":"synchronize","number":3,"repository":{"full_name":"%s"},
+                 "pull_request":{"number":3,"state":"open","head":{"sha":"abc"}}}""".formatted(repository);
+    }
+
+    private HttpResponse<String> post(String body, String secret) throws Exception {
+        HttpRequest.Builder req = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + "/webhook"))
+                .header("X-GitHub-Event", "pull_request")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (secret != null) req.header("X-Hub-Signature-256", "sha256=" + hmac(secret, body));
+        return http.send(req.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String hmac(String secret, String body) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        return HexFormat.of().formatHex(mac.doFinal(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void refusesToStartWithoutASecret() {
+        server = new WebhookServer(0, null, false, Set.of("octo/app"), 1, new JobQueue(10), reviewed::add);
+        assertThrows(IOException.class, server::start);
+        server = null;
+    }
+
+    @Test
+    void refusesToStartWithoutAnAllowList() {
+        server = new WebhookServer(0, SECRET, false, Set.of(""), 1, new JobQueue(10), reviewed::add);
+        assertThrows(IOException.class, server::start);
+        server = null;
+    }
+
+    @Test
+    void queuesSignedEventsForAllowedRepositories() throws Exception {
+        start(SECRET, false, Set.of("octo/app"));
+
+        assertEquals(202, post(payload("Octo/App"), SECRET).statusCode());
+        JobQueue.Job job = reviewed.poll(5, TimeUnit.SECONDS);
+        assertEquals("Octo/App", job.repository());
+        assertEquals(3, job.prNumber());
+    }
+
+    @Test
+    void rejectsBadSignatures() throws Exception {
+        start(SECRET, false, Set.of("octo/app"));
+
+        assertEquals(401, post(payload("octo/app"), null).statusCode());
+        assertEquals(401, post(payload("octo/app"), "guess").statusCode());
+        assertNull(reviewed.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void rejectsRepositoriesOffTheAllowList() throws Exception {
+        start(SECRET, false, Set.of("octo/app", "acme/*"));
+
+        assertEquals(403, post(payload("mallory/app"), SECRET).statusCode());
+        assertEquals(403, post(payload("octo/other"), SECRET).statusCode());
+        assertEquals(202, post(payload("acme/anything"), SECRET).statusCode());
+        assertEquals("acme/anything", reviewed.poll(5, TimeUnit.SECONDS).repository());
+        assertNull(reviewed.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void unsignedOnlyWhenExplicitlyAllowed() throws Exception {
+        start(null, true, Set.of("octo/app"));
+
+        assertEquals(202, post(payload("octo/app"), null).statusCode());
+        assertTrue(reviewed.poll(5, TimeUnit.SECONDS) != null);
+    }
+
+    @Test
+    void rejectsEventsWithoutAHeadSha() throws Exception {
+        start(SECRET, false, Set.of("octo/app"));
+        String noHead = """
+                {"action":"synchronize","number":3,"repository":{"full_name":"octo/app"},
+                 "pull_request":{"number":3,"state":"open"}}""";
+
+        assertEquals(400, post(noHead, SECRET).statusCode());
+        assertEquals(400, post(payload("octo/app").replace("\"abc\"", "\"\""), SECRET).statusCode());
+        assertNull(reviewed.poll(200, TimeUnit.MILLISECONDS));
+    }
+}
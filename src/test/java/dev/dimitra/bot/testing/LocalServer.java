@@ -0,0 +1,130 @@
+package dev.dimitra.bot.testing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Loopback HTTP server for tests: each test registers just the routes it needs and can check
+ * what the code under test sent. Unmatched requests get a 404.
+ */
+public final class LocalServer implements AutoCloseable {
+
+    /** A request as received; {@code headers} has lower-case names. */
+    public record Request(String method, String path, String query, Map<String, List<String>> headers, String body) {
+        public String header(String name) {
+            List<String> v = headers.get(name.toLowerCase());
+            return v == null || v.isEmpty() ? null : v.get(0);
+        }
+    }
+
+    /** A {@code Content-Encoding: gzip} header makes the server compress the body on the way out. */
+    public record Response(int status, Map<String, String> headers, String body) {
+        public static Response json(int status, String body) {
+            return new Response(status, Map.of("Content-Type", "application/json"), body);
+        }
+    }
+
+    public interface Handler {
+        Response handle(Request req) throws Exception;
+    }
+
+    private record Route(String method, Pattern path, Handler handler) {}
+
+    private final HttpServer server;
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+    private final List<Request> received = new CopyOnWriteArrayList<>();
+
+    private LocalServer(HttpServer server) {
+        this.server = server;
+    }
+
+    public static LocalServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        LocalServer local = new LocalServer(server);
+        server.createContext("/", local::dispatch);
+        server.start();
+        return local;
+    }
+
+    /** Routes {@code method} requests whose whole path matches {@code pathRegex}; later routes win. */
+    public LocalServer on(String method, String pathRegex, Handler handler) {
+        routes.add(0, new Route(method, Pattern.compile(pathRegex), handler));
+        return this;
+    }
+
+    public String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public List<Request> received() {
+        return List.copyOf(received);
+    }
+
+    public List<Request> received(String method, String pathRegex) {
+        Pattern p = Pattern.compile(pathRegex);
+        return received.stream().filter(r -> r.method().equals(method) && p.matcher(r.path()).matches()).toList();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void dispatch(HttpExchange ex) throws IOException {
+        try (ex) {
+            String body;
+            try (InputStream in = ex.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            Map<String, List<String>> headers = new HashMap<>();
+            ex.getRequestHeaders().forEach((k, v) -> headers.put(k.toLowerCase(), List.copyOf(v)));
+            Request req = new Request(ex.getRequestMethod(), ex.getRequestURI().getPath(),
+                    ex.getRequestURI().getRawQuery(), headers, body);
+            received.add(req);
+            Response res = Response.json(404, "{\"message\":\"Not Found\"}");
+            for (Route r : routes) {
+                if (r.method().equals(req.method()) && r.path().matcher(req.path()).matches()) {
+                    try {
+                        res = r.handler().handle(req);
+                    } catch (Exception e) {
+                        res = Response.json(500, "{\"message\":\"" + e + "\"}");
+                    }
+                    break;
+                }
+            }
+            res.headers().forEach((k, v) -> ex.getResponseHeaders().set(k, v));
+            byte[] bytes = res.body() == null ? new byte[0] : res.body().getBytes(StandardCharsets.UTF_8);
+            if ("gzip".equalsIgnoreCase(res.headers().get("Content-Encoding"))) bytes = gzip(bytes);
+            ex.sendResponseHeaders(res.status(), bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                try (OutputStream out = ex.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] plain) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(plain);
+        }
+        return out.toByteArray();
+    }
+}